@@ -0,0 +1,146 @@
+/*
+ * WikiQueueCodecTest.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.services;
+
+import android.content.Intent;
+import android.location.Location;
+import android.net.Uri;
+
+import net.exclaimindustries.geohashdroid.util.Graticule;
+import net.exclaimindustries.geohashdroid.util.Info;
+import net.exclaimindustries.geohashdroid.wiki.WikiImageUtils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This tests {@link WikiQueueCodec}.  Everything that goes in should come back
+ * out of the binary format, and the old JSON format should still be readable.
+ */
+public class WikiQueueCodecTest {
+    private static final String IMAGE_REF = "3a7bd3e2360a3d29eea436fcfb7e44c735d117c42d1c1835420b6b9942dd4f1b";
+
+    private static Intent makeIntent() {
+        Calendar cal = new GregorianCalendar(2026, Calendar.MAY, 26, 14, 30);
+        Uri uri = Uri.parse("content://media/external/images/media/12345");
+
+        Location loc = new Location("");
+        loc.setLatitude(-33.856784);
+        loc.setLongitude(151.215297);
+
+        return new Intent()
+                .putExtra(WikiService.EXTRA_INFO, new Info(-33.8572, 151.2153, new Graticule(33, true, 151, false), cal))
+                .putExtra(WikiService.EXTRA_LOCATION, loc)
+                .putExtra(WikiService.EXTRA_TIMESTAMP, cal)
+                .putExtra(WikiService.EXTRA_IMAGE, uri)
+                .putExtra(WikiService.EXTRA_IMAGE_INFO, WikiImageUtils.ImageInfo.restore(uri, loc, 1234567890L))
+                .putExtra(WikiService.EXTRA_INCLUDE_LOCATION, false)
+                .putExtra(WikiService.EXTRA_MESSAGE, "Ünïcödé, and a very confused possum.");
+    }
+
+    @Test
+    public void roundTripsEverything() throws IOException {
+        Intent in = makeIntent();
+        Intent out = WikiQueueCodec.decode(WikiQueueCodec.encode(in, IMAGE_REF));
+
+        Info info = out.getParcelableExtra(WikiService.EXTRA_INFO);
+        assertNotNull(info);
+        assertEquals(-33.8572, info.getLatitude(), 0d);
+        assertEquals(151.2153, info.getLongitude(), 0d);
+        assertEquals(((Info)in.getParcelableExtra(WikiService.EXTRA_INFO)).getDate(), info.getDate());
+        assertEquals(new Graticule(33, true, 151, false), info.getGraticule());
+
+        Location loc = out.getParcelableExtra(WikiService.EXTRA_LOCATION);
+        assertNotNull(loc);
+        assertEquals(-33.856784, loc.getLatitude(), 0d);
+        assertEquals(151.215297, loc.getLongitude(), 0d);
+
+        assertEquals(((Calendar)in.getSerializableExtra(WikiService.EXTRA_TIMESTAMP)).getTimeInMillis(),
+                ((Calendar)out.getSerializableExtra(WikiService.EXTRA_TIMESTAMP)).getTimeInMillis());
+
+        WikiImageUtils.ImageInfo imageInfo = out.getParcelableExtra(WikiService.EXTRA_IMAGE_INFO);
+        assertNotNull(imageInfo);
+        assertEquals(in.getParcelableExtra(WikiService.EXTRA_IMAGE), out.getParcelableExtra(WikiService.EXTRA_IMAGE));
+        assertEquals(in.getParcelableExtra(WikiService.EXTRA_IMAGE), imageInfo.uri);
+        assertEquals(1234567890L, imageInfo.timestamp);
+        assertNotNull(imageInfo.location);
+
+        assertEquals(IMAGE_REF, out.getStringExtra(WikiService.EXTRA_IMAGE_REF));
+        assertNull(out.getByteArrayExtra(WikiService.EXTRA_IMAGE_DATA));
+        assertFalse(out.getBooleanExtra(WikiService.EXTRA_INCLUDE_LOCATION, true));
+        assertEquals(in.getStringExtra(WikiService.EXTRA_MESSAGE), out.getStringExtra(WikiService.EXTRA_MESSAGE));
+    }
+
+    @Test
+    public void roundTripsInlineImageData() throws IOException {
+        byte[] data = new byte[] {(byte)0xff, (byte)0xd8, 1, 2, 3, (byte)0xff, (byte)0xd9};
+        Intent in = makeIntent().putExtra(WikiService.EXTRA_IMAGE_DATA, data);
+        Intent out = WikiQueueCodec.decode(WikiQueueCodec.encode(in, null));
+
+        assertNull(out.getStringExtra(WikiService.EXTRA_IMAGE_REF));
+        assertArrayEquals(data, out.getByteArrayExtra(WikiService.EXTRA_IMAGE_DATA));
+    }
+
+    @Test
+    public void roundTripsGlobalhashes() throws IOException {
+        Calendar cal = new GregorianCalendar(2026, Calendar.MAY, 26);
+        Intent in = new Intent()
+                .putExtra(WikiService.EXTRA_INFO, new Info(12.3, 45.6, null, cal))
+                .putExtra(WikiService.EXTRA_MESSAGE, "Globalhash!");
+        Intent out = WikiQueueCodec.decode(WikiQueueCodec.encode(in, null));
+
+        Info info = out.getParcelableExtra(WikiService.EXTRA_INFO);
+        assertNotNull(info);
+        assertNull(info.getGraticule());
+        assertNull(out.getParcelableExtra(WikiService.EXTRA_LOCATION));
+        assertTrue(out.getBooleanExtra(WikiService.EXTRA_INCLUDE_LOCATION, true));
+    }
+
+    @Test
+    public void readsOldJson() {
+        Intent in = makeIntent();
+        Intent out = WikiQueueCodec.decodeJson(WikiQueueCodec.encodeJson(in, IMAGE_REF));
+
+        assertNotNull(out);
+        Info info = out.getParcelableExtra(WikiService.EXTRA_INFO);
+        assertNotNull(info);
+        assertEquals(new Graticule(33, true, 151, false), info.getGraticule());
+
+        // The wiki name comes from the timestamp, so it has to survive, too.
+        WikiImageUtils.ImageInfo imageInfo = out.getParcelableExtra(WikiService.EXTRA_IMAGE_INFO);
+        assertNotNull(imageInfo);
+        assertEquals(1234567890L, imageInfo.timestamp);
+
+        assertEquals(IMAGE_REF, out.getStringExtra(WikiService.EXTRA_IMAGE_REF));
+        assertEquals(in.getStringExtra(WikiService.EXTRA_MESSAGE), out.getStringExtra(WikiService.EXTRA_MESSAGE));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownVersions() throws IOException {
+        WikiQueueCodec.decode(new byte[] {'W', 99, 0, 0});
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedItems() throws IOException {
+        byte[] full = WikiQueueCodec.encode(makeIntent(), IMAGE_REF);
+        byte[] truncated = new byte[full.length / 2];
+        System.arraycopy(full, 0, truncated, 0, truncated.length);
+        WikiQueueCodec.decode(truncated);
+    }
+}
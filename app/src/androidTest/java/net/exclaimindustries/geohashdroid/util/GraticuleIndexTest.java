@@ -0,0 +1,155 @@
+/*
+ * GraticuleIndexTest.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import android.location.Location;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This tests {@link GraticuleIndex}.  Everything gets compared against just
+ * checking every point one by one, which is slow but obviously right.  It
+ * needs the real {@link Location#distanceBetween(double, double, double, double, float[])},
+ * so it has to run on a device.
+ */
+public class GraticuleIndexTest {
+    private static class Point {
+        final double latitude;
+        final double longitude;
+
+        Point(double latitude, double longitude) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+
+    private static Set<Point> findSlowly(@NonNull List<Point> points,
+                                         double latitude,
+                                         double longitude,
+                                         double radius) {
+        Set<Point> toReturn = new HashSet<>();
+        float[] dist = new float[1];
+
+        for(Point p : points) {
+            Location.distanceBetween(p.latitude, p.longitude, latitude, longitude, dist);
+            if(dist[0] <= radius) toReturn.add(p);
+        }
+
+        return toReturn;
+    }
+
+    private static Set<Point> findQuickly(@NonNull GraticuleIndex<Point> index,
+                                          double latitude,
+                                          double longitude,
+                                          double radius) {
+        final Set<Point> toReturn = new HashSet<>();
+
+        index.findWithin(latitude, longitude, radius, new GraticuleIndex.Visitor<Point>() {
+            @Override
+            public void visit(@NonNull Point item, float distance) {
+                // Nothing should ever come up twice.
+                assertTrue(toReturn.add(item));
+            }
+        });
+
+        return toReturn;
+    }
+
+    private static void checkAround(@NonNull List<Point> points,
+                                    @NonNull GraticuleIndex<Point> index,
+                                    @NonNull Random random,
+                                    double centerLat,
+                                    double centerLon,
+                                    double spread,
+                                    double maxRadius) {
+        for(int i = 0; i < 200; i++) {
+            double lat = Math.max(-90, Math.min(90, centerLat + (random.nextDouble() * 2 - 1) * spread));
+            double lon = centerLon + (random.nextDouble() * 2 - 1) * spread;
+            if(lon >= 180) lon -= 360;
+            if(lon < -180) lon += 360;
+            double radius = random.nextDouble() * maxRadius;
+
+            assertEquals(findSlowly(points, lat, lon, radius), findQuickly(index, lat, lon, radius));
+        }
+    }
+
+    @Test
+    public void matchesCheckingEverything() {
+        // A fixed seed, so if this fails, it fails the same way every time.
+        Random random = new Random(426);
+        List<Point> points = new ArrayList<>();
+        GraticuleIndex<Point> index = new GraticuleIndex<>();
+
+        // A cluster around a city, plus a smattering everywhere else.
+        for(int i = 0; i < 2000; i++) {
+            Point p = i % 4 == 0
+                    ? new Point(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180)
+                    : new Point(37.4 + random.nextGaussian() * 0.5, -122.1 + random.nextGaussian() * 0.5);
+            points.add(p);
+            index.add(p, p.latitude, p.longitude);
+        }
+
+        assertEquals(points.size(), index.size());
+
+        checkAround(points, index, random, 37.4, -122.1, 1.5, 50000);
+        checkAround(points, index, random, 0, 0, 90, 2000000);
+        checkAround(points, index, random, 0, 0, 90, 20000000);
+    }
+
+    @Test
+    public void handlesTheEdgesOfTheWorld() {
+        // Points along the 180th meridian, the poles, and right on the edges
+        // of Graticules on both sides of the Prime Meridian and equator.
+        Random random = new Random(426);
+        List<Point> points = new ArrayList<>();
+        GraticuleIndex<Point> index = new GraticuleIndex<>();
+
+        for(int lat = -90; lat <= 90; lat += 1) {
+            for(int lon = -180; lon <= 180; lon += 15) {
+                Point p = new Point(lat, lon);
+                points.add(p);
+                index.add(p, p.latitude, p.longitude);
+            }
+        }
+
+        for(int i = 0; i < 500; i++) {
+            Point p = new Point(random.nextDouble() * 4 - 2, random.nextDouble() * 4 - 2);
+            points.add(p);
+            index.add(p, p.latitude, p.longitude);
+        }
+
+        checkAround(points, index, random, 0, 180, 3, 300000);
+        checkAround(points, index, random, 89, 0, 2, 500000);
+        checkAround(points, index, random, -89, 0, 2, 500000);
+        checkAround(points, index, random, 0, 0, 2, 200000);
+
+        // And exactly on some edges, with no slack at all.
+        for(Point p : points.subList(0, 200)) {
+            assertEquals(findSlowly(points, p.latitude, p.longitude, 0),
+                    findQuickly(index, p.latitude, p.longitude, 0));
+        }
+    }
+
+    @Test
+    public void emptyIndexFindsNothing() {
+        GraticuleIndex<Point> index = new GraticuleIndex<>();
+        assertEquals(0, findQuickly(index, 37.4, -122.1, 100000).size());
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * HashBatchTest.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import android.content.Context;
+
+import net.exclaimindustries.tools.DateTools;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This tests {@link HashBatch}.  Every Info it builds gets compared against
+ * building that same Info one at a time, the way StockRunner does.  The
+ * stocks are made up and put in the cache first, so nothing here goes to the
+ * network.  It needs the real database, so it has to run on a device.
+ */
+public class HashBatchTest {
+    // Across a weekend, Memorial Day, and the day the 30W Rule started, so
+    // the 30W and non-30W stock dates come apart partway through.
+    private static final Calendar START = new GregorianCalendar(2008, Calendar.MAY, 22);
+    private static final Calendar END = new GregorianCalendar(2008, Calendar.MAY, 29);
+
+    private static final List<Graticule> GRATICULES = Arrays.asList(
+            new Graticule(37, false, 122, true),
+            new Graticule(51, false, 0, true),
+            new Graticule(33, true, 151, false),
+            new Graticule(0, true, 0, false),
+            null);
+
+    private Context mContext;
+
+    @NonNull
+    private static String makeStock(int date) {
+        // Anything that's different for every date will do.
+        return String.format(Locale.US, "%d.%02d", 10000 + date % 997, date % 100);
+    }
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        HashBuilder.deleteCache(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        HashBuilder.deleteCache(mContext);
+    }
+
+    private void storeEveryStockNeeded(@NonNull Calendar start, @NonNull Calendar end) {
+        Map<Integer, String> stocks = new TreeMap<>();
+
+        Calendar cal = (Calendar)start.clone();
+        while(!cal.after(end)) {
+            for(Graticule g : GRATICULES) {
+                int date = DateTools.getDateInt(Info.makeAdjustedCalendar(cal, g));
+                stocks.put(date, makeStock(date));
+            }
+
+            cal.add(Calendar.DAY_OF_MONTH, 1);
+        }
+
+        HashBuilder.storeStocks(mContext, stocks);
+    }
+
+    @Test
+    public void matchesOneAtATime() throws InterruptedException {
+        storeEveryStockNeeded(START, END);
+
+        List<Info> infos = HashBatch.build(mContext, START, END, GRATICULES);
+
+        // Eight days, five Graticules each, in date order, then Graticule
+        // order.
+        assertEquals(8 * GRATICULES.size(), infos.size());
+
+        List<Info> expected = new ArrayList<>();
+        Calendar cal = (Calendar)START.clone();
+        while(!cal.after(END)) {
+            for(Graticule g : GRATICULES) {
+                int date = DateTools.getDateInt(Info.makeAdjustedCalendar(cal, g));
+                expected.add(HashBuilder.createInfo(cal, makeStock(date), g));
+            }
+
+            cal.add(Calendar.DAY_OF_MONTH, 1);
+        }
+
+        for(int i = 0; i < expected.size(); i++) {
+            Info e = expected.get(i);
+            Info a = infos.get(i);
+
+            assertTrue(a.isValid());
+            assertEquals(e.getDate(), a.getDate());
+            assertEquals(e.getGraticule(), a.getGraticule());
+            assertEquals(e.getLatitude(), a.getLatitude(), 0.0);
+            assertEquals(e.getLongitude(), a.getLongitude(), 0.0);
+        }
+    }
+
+    @Test
+    public void handsOutTheSameHashOnEitherSideOf30W() throws InterruptedException {
+        // Before the 30W Rule, everyone on a date shares one hash.  After,
+        // the two sides get different ones.
+        storeEveryStockNeeded(START, END);
+
+        List<Info> infos = HashBatch.build(mContext, START, END, GRATICULES);
+        int perDay = GRATICULES.size();
+
+        // May 22nd, 2008: no 30W Rule yet.
+        Info west = infos.get(0);
+        Info east = infos.get(2);
+        assertEquals(west.getLatitudeHash(), east.getLatitudeHash(), 1e-9);
+
+        // May 29th, 2008: 30W Rule in effect.
+        west = infos.get(7 * perDay);
+        east = infos.get(7 * perDay + 2);
+        assertTrue(Math.abs(west.getLatitudeHash() - east.getLatitudeHash()) > 1e-9);
+    }
+
+    @Test
+    public void nothingInNothingOut() throws InterruptedException {
+        assertTrue(HashBatch.build(mContext, START, END, new ArrayList<Graticule>()).isEmpty());
+    }
+
+    @Test
+    public void resolveStockCanStayOffTheNetwork() throws IOException {
+        // Nothing's stored for this, and it's not allowed to go looking.
+        Calendar cal = new GregorianCalendar(2008, Calendar.MAY, 22);
+
+        try {
+            HashBuilder.resolveStock(mContext, cal, false);
+            throw new AssertionError("That should've thrown FileNotFoundException!");
+        } catch(FileNotFoundException fnfe) {
+            // Good.
+        }
+
+        // But once it IS stored, that's what comes back.
+        Map<Integer, String> stocks = new TreeMap<>();
+        stocks.put(DateTools.getDateInt(cal), "12345.67");
+        HashBuilder.storeStocks(mContext, stocks);
+
+        assertEquals("12345.67", HashBuilder.resolveStock(mContext, cal, false));
+        assertNull(HashBuilder.getStoredStock(mContext, new GregorianCalendar(2008, Calendar.MAY, 23)));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * HashCacheTest.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This tests {@link HashCache}.  It's all plain Java, so it doesn't need a
+ * device.
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public class HashCacheTest {
+    private static Calendar day(int dayOfMonth) {
+        return new GregorianCalendar(2026, Calendar.MAY, dayOfMonth);
+    }
+
+    @Test
+    public void findsWhatWentIn() {
+        HashCache cache = new HashCache(4);
+        cache.put(day(26), false, 0.25, 0.75);
+
+        double[] out = new double[2];
+        assertTrue(cache.get(day(26), false, out));
+        assertEquals(0.25, out[0], 0.0);
+        assertEquals(0.75, out[1], 0.0);
+
+        // A different Calendar object for the same day, time and all, is
+        // still the same day.
+        Calendar later = day(26);
+        later.set(Calendar.HOUR_OF_DAY, 23);
+        assertTrue(cache.get(later, false, out));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void missesLeaveTheOutputAlone() {
+        HashCache cache = new HashCache(4);
+        cache.put(day(26), false, 0.25, 0.75);
+
+        double[] out = {-1.0, -1.0};
+
+        // Wrong day, and right day but the other side of 30W.
+        assertFalse(cache.get(day(27), false, out));
+        assertFalse(cache.get(day(26), true, out));
+        assertEquals(-1.0, out[0], 0.0);
+        assertEquals(-1.0, out[1], 0.0);
+
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void keepsBothSidesOf30W() {
+        HashCache cache = new HashCache(4);
+        cache.put(day(26), false, 0.1, 0.2);
+        cache.put(day(26), true, 0.3, 0.4);
+
+        double[] out = new double[2];
+        assertTrue(cache.get(day(26), false, out));
+        assertEquals(0.1, out[0], 0.0);
+        assertTrue(cache.get(day(26), true, out));
+        assertEquals(0.3, out[0], 0.0);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void replacesTheSameKey() {
+        HashCache cache = new HashCache(4);
+        cache.put(day(26), false, 0.1, 0.2);
+        cache.put(day(26), false, 0.5, 0.6);
+
+        double[] out = new double[2];
+        assertTrue(cache.get(day(26), false, out));
+        assertEquals(0.5, out[0], 0.0);
+        assertEquals(0.6, out[1], 0.0);
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsed() {
+        HashCache cache = new HashCache(3);
+        cache.put(day(1), false, 0.1, 0.1);
+        cache.put(day(2), false, 0.2, 0.2);
+        cache.put(day(3), false, 0.3, 0.3);
+
+        // Looking at day 1 makes it the most recently used, so day 2 is the
+        // one that goes when day 4 comes in.
+        double[] out = new double[2];
+        assertTrue(cache.get(day(1), false, out));
+        cache.put(day(4), false, 0.4, 0.4);
+
+        assertEquals(3, cache.size());
+        assertEquals(3, cache.getMaxSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(cache.get(day(1), false, out));
+        assertFalse(cache.get(day(2), false, out));
+        assertTrue(cache.get(day(3), false, out));
+        assertTrue(cache.get(day(4), false, out));
+    }
+
+    @Test
+    public void clearEmptiesItButKeepsCounting() {
+        HashCache cache = new HashCache(4);
+        cache.put(day(26), false, 0.25, 0.75);
+
+        double[] out = new double[2];
+        assertTrue(cache.get(day(26), false, out));
+
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertFalse(cache.get(day(26), false, out));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyCache() {
+        new HashCache(0);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * HashEngineTest.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import net.exclaimindustries.tools.HexFraction;
+import net.exclaimindustries.tools.MD5Tools;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * This tests {@link HashEngine}.  Mostly, this makes sure it comes up with the
+ * exact same bits as the old MD5-string-to-HexFraction path did, since if it
+ * doesn't, everyone's going to wind up at the wrong hashpoint.
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public class HashEngineTest {
+    @Test
+    public void calculatesTheComic() {
+        // The original example from xkcd #426.
+        double[] out = new double[2];
+        HashEngine.calculate(new GregorianCalendar(2005, Calendar.MAY, 26), "10458.68", out);
+
+        assertEquals(0.857713, out[0], 0.000001d);
+        assertEquals(0.544544, out[1], 0.000001d);
+    }
+
+    @Test
+    public void matchesOldMethodExactly() {
+        // A fixed seed, so if this fails, it fails the same way every time.
+        Random random = new Random(426);
+        double[] out = new double[2];
+
+        for(int i = 0; i < 10000; i++) {
+            int year = 1928 + random.nextInt(120);
+            int month = 1 + random.nextInt(12);
+            int day = 1 + random.nextInt(28);
+            String stock = String.format(Locale.US, "%.2f", random.nextDouble() * 40000);
+
+            String hash = MD5Tools.MD5hash(String.format(Locale.US,
+                    "%4d-%02d-%02d-%s", year, month, day, stock));
+
+            HashEngine.calculate(year, month, day, stock, out);
+
+            assertEquals(Double.doubleToLongBits(HexFraction.calculate(hash.substring(0, 16))),
+                    Double.doubleToLongBits(out[0]));
+            assertEquals(Double.doubleToLongBits(HexFraction.calculate(hash.substring(16, 32))),
+                    Double.doubleToLongBits(out[1]));
+        }
+    }
+
+    @Test
+    public void calculatesExtremes() {
+        byte[] zeroes = new byte[8];
+        byte[] effs = new byte[] {(byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF,
+                (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF};
+
+        assertEquals(HexFraction.calculate("0000000000000000"), HashEngine.fractionFromBytes(zeroes, 0), 0d);
+        assertEquals(HexFraction.calculate("FFFFFFFFFFFFFFFF"), HashEngine.fractionFromBytes(effs, 0), 0d);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * KnownLocationMatcherTest.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This tests {@link KnownLocationMatcher}.  The answers get compared against
+ * what AlarmWorker used to do: find the closest Info to every KnownLocation
+ * one at a time, then see if it's close enough.  The hashes are made up,
+ * since the point is the matching, not the hashing.  KnownLocations need
+ * LatLngs, so this has to run on a device.
+ */
+public class KnownLocationMatcherTest {
+    private static final Calendar TODAY = new GregorianCalendar(2026, Calendar.MAY, 26);
+    private static final Calendar TOMORROW = new GregorianCalendar(2026, Calendar.MAY, 27);
+
+    private static class Match {
+        final KnownLocation knownLocation;
+        final Info info;
+        final double distance;
+
+        Match(@NonNull KnownLocation knownLocation, @NonNull Info info, double distance) {
+            this.knownLocation = knownLocation;
+            this.info = info;
+            this.distance = distance;
+        }
+    }
+
+    private static class Collector implements KnownLocationMatcher.Listener {
+        final List<Match> matches = new ArrayList<>();
+
+        @Override
+        public void matched(@NonNull KnownLocation knownLocation, @NonNull Info info, double distance) {
+            matches.add(new Match(knownLocation, info, distance));
+        }
+    }
+
+    private static class FakeLookup implements KnownLocationMatcher.HashLookup {
+        final boolean haveTomorrow;
+        int lookups;
+
+        FakeLookup(boolean haveTomorrow) {
+            this.haveTomorrow = haveTomorrow;
+        }
+
+        @Nullable
+        @Override
+        public double[] lookup(@NonNull Calendar cal, @NonNull Graticule g) {
+            lookups++;
+            boolean tomorrow = cal.equals(TOMORROW);
+            if(tomorrow && !haveTomorrow) return null;
+
+            // Something different for each date and side of 30W.
+            double shift = (tomorrow ? 0.3 : 0.0) + (Info.uses30WRule(cal, g) ? 0.15 : 0.0);
+            return new double[] {0.1 + shift, 0.8 - shift};
+        }
+    }
+
+    @NonNull
+    private static List<KnownLocation> makeLocations(@NonNull Random random, int count) {
+        List<KnownLocation> toReturn = new ArrayList<>();
+
+        for(int i = 0; i < count; i++) {
+            // Mostly around the 30W line (so both dates and both hashes come
+            // up), some near the Prime Meridian and equator (so the negative
+            // zero Graticules come up), and some anywhere.
+            double lat;
+            double lon;
+            switch(i % 3) {
+                case 0:
+                    lat = 64 + random.nextGaussian();
+                    lon = -30 + random.nextGaussian();
+                    break;
+                case 1:
+                    lat = random.nextGaussian();
+                    lon = random.nextGaussian();
+                    break;
+                default:
+                    lat = random.nextDouble() * 170 - 85;
+                    lon = random.nextDouble() * 360 - 180;
+                    break;
+            }
+
+            // Some of them don't want notifications at all.
+            double range = random.nextInt(10) == 0 ? 0 : random.nextDouble() * 80000;
+            boolean restricted = random.nextInt(4) == 0;
+
+            if(random.nextBoolean())
+                toReturn.add(new KnownLocation("Spot " + i, new LatLng(lat, lon), range, restricted));
+            else
+                toReturn.add(new KnownLocation("Spot " + i, new LatLng(lat, lon), range,
+                        random.nextDouble() * 5000000, restricted));
+        }
+
+        return toReturn;
+    }
+
+    @NonNull
+    private static List<Match> matchSlowly(@NonNull List<KnownLocation> locations,
+                                           @NonNull FakeLookup lookup) {
+        List<Match> toReturn = new ArrayList<>();
+
+        for(KnownLocation kl : locations) {
+            Calendar cal = kl.is30w() ? TOMORROW : TODAY;
+            Graticule base = new Graticule(kl.getLatLng());
+            List<Graticule> graticules = new ArrayList<>();
+
+            if(kl.isRestrictedGraticule()) {
+                graticules.add(base);
+            } else {
+                for(int i = -1; i <= 1; i++)
+                    for(int j = -1; j <= 1; j++)
+                        graticules.add(Graticule.createOffsetFrom(base, i, j));
+            }
+
+            Info best = null;
+            double bestDistance = Double.MAX_VALUE;
+            boolean missing = false;
+
+            for(Graticule g : graticules) {
+                double[] hash = lookup.lookup(cal, g);
+                if(hash == null) {
+                    missing = true;
+                    break;
+                }
+
+                Info info = HashBuilder.createInfo(cal, hash[0], hash[1], g);
+                double dist = kl.getDistanceFrom(info);
+                if(dist < bestDistance) {
+                    bestDistance = dist;
+                    best = info;
+                }
+            }
+
+            if(!missing && best != null && kl.isCloseEnough(best.getFinalDestinationLatLng()))
+                toReturn.add(new Match(kl, best, bestDistance));
+        }
+
+        return toReturn;
+    }
+
+    private static void assertSameMatches(@NonNull List<Match> expected, @NonNull List<Match> actual) {
+        assertEquals(expected.size(), actual.size());
+
+        for(int i = 0; i < expected.size(); i++) {
+            Match e = expected.get(i);
+            Match a = actual.get(i);
+            assertSame(e.knownLocation, a.knownLocation);
+            assertEquals(e.info.getGraticule(), a.info.getGraticule());
+            assertEquals(e.info.getLatitude(), a.info.getLatitude(), 0.0);
+            assertEquals(e.info.getLongitude(), a.info.getLongitude(), 0.0);
+            assertEquals(e.distance, a.distance, 0.0);
+        }
+    }
+
+    @Test
+    public void matchesCheckingEveryKnownLocation() {
+        // A fixed seed, so if this fails, it fails the same way every time.
+        List<KnownLocation> locations = makeLocations(new Random(426), 600);
+        List<Match> expected = matchSlowly(locations, new FakeLookup(true));
+
+        FakeLookup lookup = new FakeLookup(true);
+        Collector collector = new Collector();
+        new KnownLocationMatcher(locations).matchHashpoints(TODAY, TOMORROW, lookup, collector);
+
+        // Make sure we tested SOMETHING.
+        assertFalse(expected.isEmpty());
+        assertSameMatches(expected, collector.matches);
+
+        // Two dates, two sides of 30W.  That's all it should ever need.
+        assertTrue(lookup.lookups <= 4);
+    }
+
+    @Test
+    public void missingHashesDontMatch() {
+        // If tomorrow's stock isn't in yet, the 30W KnownLocations are out,
+        // but everyone else still gets checked.
+        List<KnownLocation> locations = makeLocations(new Random(1024), 600);
+        List<Match> expected = matchSlowly(locations, new FakeLookup(false));
+
+        Collector collector = new Collector();
+        new KnownLocationMatcher(locations).matchHashpoints(TODAY, TOMORROW, new FakeLookup(false), collector);
+
+        assertFalse(expected.isEmpty());
+        assertSameMatches(expected, collector.matches);
+
+        for(Match m : collector.matches)
+            assertFalse(m.knownLocation.is30w());
+    }
+
+    @Test
+    public void matchesTheGlobalhash() {
+        List<KnownLocation> locations = makeLocations(new Random(426), 600);
+
+        for(double[] hash : new double[][] {{0.5, 0.5}, {0.82, 0.41}, {0.01, 0.99}}) {
+            Info global = HashBuilder.createInfo(TODAY, hash[0], hash[1], null);
+
+            List<Match> expected = new ArrayList<>();
+            for(KnownLocation kl : locations) {
+                if(kl.isCloseEnoughForGlobalhash(global.getFinalDestinationLatLng()))
+                    expected.add(new Match(kl, global, kl.getDistanceFrom(global)));
+            }
+
+            Collector collector = new Collector();
+            new KnownLocationMatcher(locations).matchGlobalhash(global, collector);
+
+            assertSameMatches(expected, collector.matches);
+        }
+    }
+}
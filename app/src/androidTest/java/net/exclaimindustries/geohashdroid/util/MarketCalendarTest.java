@@ -0,0 +1,74 @@
+/*
+ * MarketCalendarTest.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import net.exclaimindustries.tools.DateTools;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * This tests {@link MarketCalendar} against the NYSE's published holiday
+ * schedules.
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public class MarketCalendarTest {
+    private static List<Integer> getHolidays(int year) {
+        List<Integer> toReturn = new ArrayList<>();
+        Calendar cal = new GregorianCalendar(year, Calendar.JANUARY, 1);
+
+        while(cal.get(Calendar.YEAR) == year) {
+            if(MarketCalendar.isHoliday(cal))
+                toReturn.add(DateTools.getDateInt(cal));
+            cal.add(Calendar.DAY_OF_MONTH, 1);
+        }
+
+        return toReturn;
+    }
+
+    @Test
+    public void knows2025() {
+        assertEquals(Arrays.asList(20250101, 20250120, 20250217, 20250418, 20250526,
+                20250619, 20250704, 20250901, 20251127, 20251225), getHolidays(2025));
+    }
+
+    @Test
+    public void knows2026() {
+        // Independence Day's on a Saturday this year, so it's observed Friday.
+        assertEquals(Arrays.asList(20260101, 20260119, 20260216, 20260403, 20260525,
+                20260619, 20260703, 20260907, 20261126, 20261225), getHolidays(2026));
+    }
+
+    @Test
+    public void knows2027() {
+        // Juneteenth and Christmas on Saturdays, Independence Day on a Sunday.
+        assertEquals(Arrays.asList(20270101, 20270118, 20270215, 20270326, 20270531,
+                20270618, 20270705, 20270906, 20271125, 20271224), getHolidays(2027));
+    }
+
+    @Test
+    public void skipsBackOverLongWeekends() {
+        // Good Friday 2026 is April 3, so the Saturday after uses Thursday.
+        Calendar saturday = new GregorianCalendar(2026, Calendar.APRIL, 4);
+        assertEquals(20260402, DateTools.getDateInt(MarketCalendar.getEffectiveStockDate(saturday)));
+
+        // And a regular trading day is just itself.
+        Calendar monday = new GregorianCalendar(2026, Calendar.APRIL, 6);
+        assertEquals(20260406, DateTools.getDateInt(MarketCalendar.getEffectiveStockDate(monday)));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * StockFetcherTest.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This tests {@link StockFetcher} against stub mirrors running on localhost,
+ * so we can make them slow, broken, or wrong on purpose.
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public class StockFetcherTest {
+    private static final Calendar DATE = new GregorianCalendar(2005, Calendar.MAY, 26);
+
+    private final List<StubStockServer> mServers = new ArrayList<>();
+
+    @After
+    public void tearDown() throws IOException {
+        for(StubStockServer server : mServers)
+            server.close();
+        mServers.clear();
+    }
+
+    private StockFetcher makeFetcher(long hedgeDelayMs, StubStockServer... servers) {
+        String[] templates = new String[servers.length];
+        for(int i = 0; i < servers.length; i++) {
+            mServers.add(servers[i]);
+            templates[i] = servers[i].getTemplate();
+        }
+
+        StockFetcher fetcher = new StockFetcher(templates);
+        fetcher.setHedgeDelay(hedgeDelayMs);
+        fetcher.setTimeout(5000);
+        return fetcher;
+    }
+
+    @Test
+    public void fastFirstMirrorIsNotHedged() throws IOException {
+        StubStockServer first = new StubStockServer(200, "10458.68", 0);
+        StubStockServer second = new StubStockServer(200, "99999.99", 0);
+        StockFetcher fetcher = makeFetcher(2000, first, second);
+
+        assertEquals("10458.68", fetcher.fetch(DATE));
+        assertEquals(1, first.getRequestCount());
+        assertEquals(0, second.getRequestCount());
+        assertEquals(1, fetcher.getStats().get(0).getSuccesses());
+    }
+
+    @Test
+    public void slowFirstMirrorGetsHedged() throws IOException {
+        // The first mirror would eventually answer, but not before the second
+        // one, which only goes out after the hedge delay.
+        StubStockServer first = new StubStockServer(200, "99999.99", 4000);
+        StubStockServer second = new StubStockServer(200, "10458.68", 0);
+        StockFetcher fetcher = makeFetcher(200, first, second);
+
+        long start = System.currentTimeMillis();
+        assertEquals("10458.68", fetcher.fetch(DATE));
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue("Hedging took " + elapsed + "ms, that's too long!", elapsed < 3000);
+        assertEquals(1, fetcher.getStats().get(1).getSuccesses());
+        assertEquals(1, fetcher.getStats().get(0).getAborted());
+    }
+
+    @Test
+    public void failedFirstMirrorDoesNotWaitForHedge() throws IOException {
+        StubStockServer first = new StubStockServer(500, "Oops", 0);
+        StubStockServer second = new StubStockServer(200, "10458.68", 0);
+        StockFetcher fetcher = makeFetcher(10000, first, second);
+
+        long start = System.currentTimeMillis();
+        assertEquals("10458.68", fetcher.fetch(DATE));
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue("Failing over took " + elapsed + "ms, that's too long!", elapsed < 3000);
+        assertEquals(1, fetcher.getStats().get(0).getErrors());
+    }
+
+    @Test
+    public void racingStartsEveryMirror() throws IOException {
+        StubStockServer first = new StubStockServer(200, "99999.99", 4000);
+        StubStockServer second = new StubStockServer(200, "10458.68", 0);
+        StockFetcher fetcher = makeFetcher(0, first, second);
+
+        assertEquals("10458.68", fetcher.fetch(DATE));
+        assertEquals(1, fetcher.getStats().get(0).getAttempts());
+        assertEquals(1, fetcher.getStats().get(1).getAttempts());
+    }
+
+    @Test
+    public void bogusDataIsSkipped() throws IOException {
+        StubStockServer first = new StubStockServer(200, "<html>Not a stock</html>", 0);
+        StubStockServer second = new StubStockServer(200, "10458.68", 0);
+        StockFetcher fetcher = makeFetcher(2000, first, second);
+
+        assertEquals("10458.68", fetcher.fetch(DATE));
+        assertEquals(1, fetcher.getStats().get(0).getErrors());
+    }
+
+    @Test
+    public void notPostedOutranksServerError() throws IOException {
+        StubStockServer first = new StubStockServer(500, "Oops", 0);
+        StubStockServer second = new StubStockServer(404, "Not found", 0);
+        StockFetcher fetcher = makeFetcher(2000, first, second);
+
+        try {
+            fetcher.fetch(DATE);
+            fail("That should've thrown FileNotFoundException!");
+        } catch(FileNotFoundException fnfe) {
+            // Good!
+        }
+    }
+
+    @Test
+    public void allErrorsIsServerError() throws IOException {
+        StubStockServer first = new StubStockServer(500, "Oops", 0);
+        StubStockServer second = new StubStockServer(503, "Busy", 0);
+        StockFetcher fetcher = makeFetcher(2000, first, second);
+
+        try {
+            fetcher.fetch(DATE);
+            fail("That should've thrown IOException!");
+        } catch(FileNotFoundException fnfe) {
+            fail("That shouldn't have been FileNotFoundException!");
+        } catch(IOException ioe) {
+            // Good!
+        }
+
+        assertFalse(fetcher.getStats().get(1).getMeanLatencyMs() < 0);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * StubStockServer.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A tiny, dumb HTTP server that pretends to be a stock mirror, for testing
+ * {@link StockFetcher}.  It answers every request the same way: wait a bit,
+ * then send back a fixed status and body.  It listens on localhost only, on
+ * whatever port the system gives it.
+ */
+class StubStockServer implements Closeable {
+    private final ServerSocket mSocket;
+    private final int mStatus;
+    private final String mBody;
+    private final long mDelayMs;
+    private final AtomicInteger mRequests = new AtomicInteger();
+
+    /**
+     * Starts up a new stub mirror.
+     *
+     * @param status HTTP status code to answer with
+     * @param body body to answer with
+     * @param delayMs how long to sit on each request before answering
+     * @throws IOException couldn't open a socket
+     */
+    StubStockServer(int status, String body, long delayMs) throws IOException {
+        mStatus = status;
+        mBody = body;
+        mDelayMs = delayMs;
+        mSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "StubStockServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Gets a URL template pointing at this server, in the same form as
+     * {@link StockFetcher#DEFAULT_MIRRORS}.
+     *
+     * @return a URL template
+     */
+    String getTemplate() {
+        return "http://127.0.0.1:" + mSocket.getLocalPort() + "/djia/%Y/%m/%d";
+    }
+
+    /**
+     * Gets how many requests this server has seen.
+     *
+     * @return the request count
+     */
+    int getRequestCount() {
+        return mRequests.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+    }
+
+    private void acceptLoop() {
+        while(!mSocket.isClosed()) {
+            final Socket client;
+            try {
+                client = mSocket.accept();
+            } catch(IOException ioe) {
+                // Closed out from under us, most likely.
+                return;
+            }
+
+            Thread handler = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    handle(client);
+                }
+            }, "StubStockServer handler");
+            handler.setDaemon(true);
+            handler.start();
+        }
+    }
+
+    private void handle(Socket client) {
+        try {
+            // Read the request through to the blank line.  We don't actually
+            // care what's in it.  Keep-alive is for real servers.
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), Charset.forName("US-ASCII")));
+            String line = in.readLine();
+            while(line != null && line.length() != 0)
+                line = in.readLine();
+
+            mRequests.incrementAndGet();
+
+            if(mDelayMs > 0) Thread.sleep(mDelayMs);
+
+            byte[] body = mBody.getBytes(Charset.forName("US-ASCII"));
+            String header = "HTTP/1.1 " + mStatus + " Stub\r\n"
+                    + "Content-Type: text/plain\r\n"
+                    + "Content-Length: " + body.length + "\r\n"
+                    + "Connection: close\r\n\r\n";
+
+            OutputStream out = client.getOutputStream();
+            out.write(header.getBytes(Charset.forName("US-ASCII")));
+            out.write(body);
+            out.flush();
+        } catch(IOException | InterruptedException e) {
+            // The client probably hung up on us.  That's fine.
+        } finally {
+            try {
+                client.close();
+            } catch(IOException ioe) {
+                // Whatever.
+            }
+        }
+    }
+}
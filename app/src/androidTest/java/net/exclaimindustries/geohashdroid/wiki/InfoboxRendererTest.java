@@ -0,0 +1,139 @@
+/*
+ * InfoboxRendererTest.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.wiki;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import net.exclaimindustries.geohashdroid.R;
+import net.exclaimindustries.tools.BitmapTools;
+import net.exclaimindustries.tools.ImageSource;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This tests {@link InfoboxRenderer} with the real Android backend.  The
+ * benchmark draws with Java2D, which doesn't have densities at all, so the
+ * one thing that can go wrong on a device (the overlay getting scaled when
+ * it's drawn onto a picture that came out of BitmapTools) needs a device to
+ * catch it.
+ */
+public class InfoboxRendererTest {
+    private static final String[] STRINGS = {
+            "37.42199\u00B0N, 122.08405\u00B0W",
+            "37.41500\u00B0N, 122.07700\u00B0W",
+            "1.23km"
+    };
+    private static final int[] ICONS = {
+            R.drawable.final_destination_wiki_image,
+            R.drawable.current_location_wiki_image,
+            R.drawable.distance_wiki_image
+    };
+
+    /**
+     * Finds the box around every pixel that's different between two bitmaps.
+     */
+    @NonNull
+    private static Rect changedBounds(@NonNull int[] before, @NonNull Bitmap after) {
+        int width = after.getWidth();
+        int height = after.getHeight();
+        int[] pixels = new int[width * height];
+        after.getPixels(pixels, 0, width, 0, 0, width, height);
+
+        Rect toReturn = new Rect(width, height, 0, 0);
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                if(pixels[y * width + x] != before[y * width + x]) {
+                    toReturn.left = Math.min(toReturn.left, x);
+                    toReturn.top = Math.min(toReturn.top, y);
+                    toReturn.right = Math.max(toReturn.right, x + 1);
+                    toReturn.bottom = Math.max(toReturn.bottom, y + 1);
+                }
+            }
+        }
+
+        return toReturn;
+    }
+
+    @NonNull
+    private static Rect renderAndMeasure(@NonNull InfoboxRenderer<Bitmap> renderer,
+                                         @NonNull Bitmap target) {
+        int[] before = new int[target.getWidth() * target.getHeight()];
+        target.getPixels(before, 0, target.getWidth(), 0, 0, target.getWidth(), target.getHeight());
+        renderer.render(STRINGS, ICONS, target);
+        return changedBounds(before, target);
+    }
+
+    @Test
+    public void overlayIsTheSameSizeOnDownscaledImages() throws IOException {
+        Context context = ApplicationProvider.getApplicationContext();
+
+        // Something big enough that BitmapTools has to both sample it down
+        // and scale it the rest of the way, which is the case that leaves a
+        // strange density on the Bitmap.
+        File file = new File(context.getCacheDir(), "infobox_test.jpg");
+        Bitmap big = Bitmap.createBitmap(2000, 1500, Bitmap.Config.ARGB_8888);
+        big.eraseColor(Color.GREEN);
+        try(OutputStream out = new FileOutputStream(file)) {
+            big.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        }
+        big.recycle();
+
+        Bitmap decoded;
+        try(ImageSource source = new ImageSource(context, Uri.fromFile(file))) {
+            decoded = BitmapTools.decodeRatioPreservedDownscaledBitmap(source, 800, 600, true, null);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+
+        assertNotNull(decoded);
+        assertEquals(800, decoded.getWidth());
+        assertEquals(600, decoded.getHeight());
+        assertTrue(decoded.isMutable());
+
+        // And a plain Bitmap with no density games, for comparison.
+        Bitmap plain = Bitmap.createBitmap(800, 600, Bitmap.Config.ARGB_8888);
+        plain.setDensity(Bitmap.DENSITY_NONE);
+        plain.eraseColor(Color.GREEN);
+
+        InfoboxRenderer<Bitmap> renderer = new InfoboxRenderer<>(new AndroidInfoboxBackend(context));
+        Rect onDecoded = renderAndMeasure(renderer, decoded);
+        Rect onPlain = renderAndMeasure(renderer, plain);
+
+        // Top-right corner, and not the whole image.
+        assertEquals(800, onPlain.right);
+        assertEquals(0, onPlain.top);
+        assertTrue(onPlain.left > 0);
+        assertTrue(onPlain.bottom < 600);
+
+        // Same place, same size, no matter what the Bitmap's density was.
+        assertEquals(onPlain, onDecoded);
+
+        // The renderer reuses its overlay the second time around, so make
+        // sure that comes out the same, too.
+        decoded.eraseColor(Color.GREEN);
+        assertEquals(onPlain, renderAndMeasure(renderer, decoded));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * WikiResponseParserTest.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.wiki;
+
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This tests {@link WikiResponseParser}.  It should find what it's asked for
+ * in the sorts of responses MediaWiki actually sends, notice errors, and stop
+ * reading once it has what it needs.
+ */
+public class WikiResponseParserTest {
+    private static final WikiResponseParser PAGE_CONTENT = new WikiResponseParser("page").withText("rev");
+
+    private static final String PAGE_RESPONSE = "<?xml version=\"1.0\"?>"
+            + "<api batchcomplete=\"\"><query><pages>"
+            + "<page _idx=\"4242\" pageid=\"4242\" ns=\"0\" title=\"2026-05-26 37 -122\""
+            + " touched=\"2026-05-26T18:12:40Z\" lastrevid=\"91234\" length=\"120\" edittoken=\"d41d8cd98f00b204+\\\">"
+            + "<revisions><rev contentformat=\"text/x-wiki\" contentmodel=\"wikitext\" xml:space=\"preserve\">"
+            + "== Expedition ==\n*Made it!  -- ~~~ &amp; a goose\n"
+            + "</rev></revisions></page></pages></query></api>";
+
+    private static WikiResponseParser.Result parse(WikiResponseParser parser, String xml)
+            throws XmlPullParserException, IOException {
+        return parser.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void readsAPage() throws XmlPullParserException, IOException {
+        WikiResponseParser.Result result = parse(PAGE_CONTENT, PAGE_RESPONSE);
+
+        assertFalse(result.hasError());
+        assertTrue(result.hasElement("page"));
+        assertEquals("d41d8cd98f00b204+\\", result.getAttribute("page", "edittoken"));
+        assertEquals("2026-05-26T18:12:40Z", result.getAttribute("page", "touched"));
+        assertFalse(result.hasAttribute("page", "missing"));
+        assertEquals("== Expedition ==\n*Made it!  -- ~~~ & a goose\n", result.getText());
+    }
+
+    @Test
+    public void readsAMissingPage() throws XmlPullParserException, IOException {
+        WikiResponseParser.Result result = parse(PAGE_CONTENT, "<?xml version=\"1.0\"?>"
+                + "<api><query><pages><page _idx=\"-1\" ns=\"0\" title=\"2026-05-27 37 -122\""
+                + " missing=\"\" edittoken=\"+\\\"/></pages></query></api>");
+
+        assertTrue(result.hasAttribute("page", "missing"));
+        assertEquals("+\\", result.getAttribute("page", "edittoken"));
+        assertNull(result.getText());
+    }
+
+    @Test
+    public void readsErrors() throws XmlPullParserException, IOException {
+        WikiResponseParser.Result result = parse(new WikiResponseParser(), "<?xml version=\"1.0\"?>"
+                + "<api><warnings><main xml:space=\"preserve\">Something, something.</main></warnings>"
+                + "<error code=\"editconflict\" info=\"Edit conflict.\"/></api>");
+
+        assertTrue(result.hasError());
+        assertEquals("editconflict", result.getErrorCode());
+    }
+
+    @Test
+    public void readsSuccesses() throws XmlPullParserException, IOException {
+        WikiResponseParser.Result result = parse(new WikiResponseParser(), "<?xml version=\"1.0\"?>"
+                + "<api><edit result=\"Success\" pageid=\"4242\" title=\"2026-05-26 37 -122\"/></api>");
+
+        assertFalse(result.hasError());
+        assertNull(result.getErrorCode());
+    }
+
+    @Test
+    public void ignoresNestedText() throws XmlPullParserException, IOException {
+        WikiResponseParser.Result result = parse(PAGE_CONTENT,
+                "<api><page title=\"x\"><rev>one <b>two</b> three</rev></page></api>");
+
+        assertEquals("one  three", result.getText());
+    }
+
+    @Test
+    public void stopsEarly() throws XmlPullParserException, IOException {
+        // Anything after the rev element shouldn't even get looked at, so it
+        // can be complete garbage.
+        WikiResponseParser.Result result = parse(PAGE_CONTENT,
+                "<api><query><pages><page title=\"x\" touched=\"now\"><revisions><rev>Text!</rev>"
+                        + "</revisions><<<this isn't XML at all");
+
+        assertEquals("now", result.getAttribute("page", "touched"));
+        assertEquals("Text!", result.getText());
+    }
+
+    @Test(expected = XmlPullParserException.class)
+    public void rejectsGarbage() throws XmlPullParserException, IOException {
+        parse(new WikiResponseParser(), "<html><body>502 Bad Gateway<br></body>");
+    }
+}
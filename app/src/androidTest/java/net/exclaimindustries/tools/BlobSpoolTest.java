@@ -0,0 +1,161 @@
+/*
+ * BlobSpoolTest.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.tools;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This tests {@link BlobSpool}.  It makes sure bytes come back the way they
+ * went in, that identical bytes DON'T share a file, and that deleting things
+ * deletes the right things.
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public class BlobSpoolTest {
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDirectory;
+    private BlobSpool mSpool;
+
+    @Before
+    public void setUp() {
+        // The spool should make this itself.
+        mDirectory = new File(mFolder.getRoot(), "spool");
+        mSpool = new BlobSpool(mDirectory);
+    }
+
+    private static byte[] makeData(int size, int seed) {
+        byte[] toReturn = new byte[size];
+        for(int i = 0; i < size; i++)
+            toReturn[i] = (byte)(i * 31 + seed);
+        return toReturn;
+    }
+
+    @Test
+    public void roundTrips() throws IOException {
+        byte[] data = makeData(300000, 7);
+        String ref = mSpool.put(data);
+
+        assertTrue(BlobSpool.isReference(ref));
+        assertTrue(mSpool.contains(ref));
+        assertArrayEquals(data, mSpool.get(ref));
+    }
+
+    @Test
+    public void roundTripsNothing() throws IOException {
+        String ref = mSpool.put(new byte[0]);
+        assertEquals(0, mSpool.get(ref).length);
+    }
+
+    @Test
+    public void doesntShareIdenticalData() throws IOException {
+        // Two queued posts with the same picture each get their own file, so
+        // one finishing up doesn't take the other's picture with it.
+        byte[] data = makeData(1000, 1);
+        String first = mSpool.put(data);
+        String second = mSpool.put(data);
+
+        assertNotEquals(first, second);
+        assertEquals(2, mDirectory.listFiles().length);
+
+        assertTrue(mSpool.delete(first));
+        assertArrayEquals(data, mSpool.get(second));
+    }
+
+    @Test
+    public void adoptsFiles() throws IOException {
+        byte[] data = makeData(300000, 8);
+        File file = writeFile("adopted", data);
+
+        String ref = mSpool.adopt(file);
+
+        assertTrue(BlobSpool.isReference(ref));
+        assertArrayEquals(data, mSpool.get(ref));
+        assertFalse(file.exists());
+        assertEquals(1, mDirectory.listFiles().length);
+    }
+
+    @Test
+    public void adoptsDuplicatesSeparately() throws IOException {
+        byte[] data = makeData(1000, 9);
+        String ref = mSpool.put(data);
+        File file = writeFile("duplicate", data);
+
+        String adopted = mSpool.adopt(file);
+        assertNotEquals(ref, adopted);
+        assertFalse(file.exists());
+
+        assertTrue(mSpool.delete(ref));
+        assertArrayEquals(data, mSpool.get(adopted));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void complainsAboutMissingFilesToAdopt() throws IOException {
+        mSpool.adopt(new File(mFolder.getRoot(), "nope"));
+    }
+
+    private File writeFile(String name, byte[] data) throws IOException {
+        File toReturn = mFolder.newFile(name);
+        try(FileOutputStream out = new FileOutputStream(toReturn)) {
+            out.write(data);
+        }
+        return toReturn;
+    }
+
+    @Test
+    public void deletes() throws IOException {
+        String ref = mSpool.put(makeData(1000, 3));
+
+        assertTrue(mSpool.delete(ref));
+        assertFalse(mSpool.contains(ref));
+        assertFalse(mSpool.delete(ref));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void complainsAboutMissingData() throws IOException {
+        String ref = mSpool.put(makeData(1000, 4));
+        mSpool.delete(ref);
+        mSpool.get(ref);
+    }
+
+    @Test
+    public void retainsOnlyWhatItsTold() throws IOException {
+        String keep = mSpool.put(makeData(1000, 5));
+        String lose = mSpool.put(makeData(1000, 6));
+
+        assertEquals(1, mSpool.retainOnly(Collections.singleton(keep)));
+        assertTrue(mSpool.contains(keep));
+        assertFalse(mSpool.contains(lose));
+
+        assertEquals(1, mSpool.clear());
+        assertFalse(mSpool.contains(keep));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsThingsThatArentReferences() throws IOException {
+        mSpool.get("../../../etc/passwd");
+    }
+}
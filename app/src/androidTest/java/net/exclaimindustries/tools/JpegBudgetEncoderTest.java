@@ -0,0 +1,133 @@
+/*
+ * JpegBudgetEncoderTest.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.tools;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This tests {@link JpegBudgetEncoder}.  It needs real Bitmaps, so it has to
+ * run on a device.  Noise is about the worst thing there is for JPEG, which
+ * makes it handy for blowing the budget on purpose.
+ */
+public class JpegBudgetEncoderTest {
+    private static Bitmap makeNoise(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for(int i = 0; i < pixels.length; i++)
+            pixels[i] = Color.rgb(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private static Bitmap makeFlat(int width, int height) {
+        Bitmap toReturn = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        toReturn.eraseColor(Color.rgb(40, 120, 200));
+        return toReturn;
+    }
+
+    @Test
+    public void easyImagesGetTheBestQuality() throws IOException {
+        JpegBudgetEncoder encoder = new JpegBudgetEncoder(150 * 1024, 60, 90);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        JpegBudgetEncoder.Settings settings = encoder.encode(makeFlat(800, 600), null, out);
+
+        assertNotNull(settings);
+        assertEquals(90, settings.quality);
+        assertEquals(1.0f, settings.scale, 0.0f);
+        assertEquals(settings.size, out.size());
+    }
+
+    @Test
+    public void hardImagesFitTheBudget() throws IOException {
+        // Noise at 400x300 is well over 40k at q90, but should squeeze under
+        // it somewhere between there and q10.
+        JpegBudgetEncoder encoder = new JpegBudgetEncoder(40 * 1024, 10, 90);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        JpegBudgetEncoder.Settings settings = encoder.encode(makeNoise(400, 300, 42), null, out);
+
+        assertNotNull(settings);
+        assertTrue(settings.quality < 90);
+        assertTrue(out.size() <= 40 * 1024);
+        assertEquals(settings.size, out.size());
+    }
+
+    @Test
+    public void reallyHardImagesGetShrunk() throws IOException {
+        JpegBudgetEncoder encoder = new JpegBudgetEncoder(30 * 1024, 80, 90);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        JpegBudgetEncoder.Settings settings = encoder.encode(makeNoise(400, 300, 42), null, out);
+
+        assertNotNull(settings);
+        assertTrue(settings.scale < 1.0f);
+
+        // And it's still a JPEG, just a smaller one.
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(out.toByteArray(), 0, out.size(), opts);
+        assertTrue(opts.outWidth < 400);
+        assertTrue(opts.outHeight < 300);
+    }
+
+    @Test
+    public void remembersSettings() throws IOException {
+        JpegBudgetEncoder encoder = new JpegBudgetEncoder(40 * 1024, 10, 90);
+        Bitmap noise = makeNoise(400, 300, 42);
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        JpegBudgetEncoder.Settings firstSettings = encoder.encode(noise, "noise", first);
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        JpegBudgetEncoder.Settings secondSettings = encoder.encode(noise, "noise", second);
+
+        assertNotNull(firstSettings);
+        assertNotNull(secondSettings);
+        assertEquals(firstSettings.quality, secondSettings.quality);
+        assertEquals(firstSettings.scale, secondSettings.scale, 0.0f);
+        assertEquals(first.size(), second.size());
+    }
+
+    @Test
+    public void searchesAgainIfRememberedSettingsDontFit() throws IOException {
+        // Something easy teaches it q90 at full size, which is way too much
+        // for noise under the same key.  That has to go back to searching,
+        // not just go out over budget.
+        JpegBudgetEncoder encoder = new JpegBudgetEncoder(40 * 1024, 10, 90);
+
+        JpegBudgetEncoder.Settings flatSettings = encoder.encode(makeFlat(400, 300), "same", new ByteArrayOutputStream());
+        assertNotNull(flatSettings);
+        assertEquals(90, flatSettings.quality);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JpegBudgetEncoder.Settings noiseSettings = encoder.encode(makeNoise(400, 300, 42), "same", out);
+
+        assertNotNull(noiseSettings);
+        assertTrue(noiseSettings.quality < 90);
+        assertTrue(out.size() <= 40 * 1024);
+        assertEquals(noiseSettings.size, out.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBackwardQualities() {
+        new JpegBudgetEncoder(1024, 90, 60);
+    }
+}
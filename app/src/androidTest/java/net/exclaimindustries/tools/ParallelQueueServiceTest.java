@@ -0,0 +1,678 @@
+/*
+ * ParallelQueueServiceTest.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.tools;
+
+import android.content.Context;
+import android.content.Intent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This tests {@link QueueService} in parallel mode.  That is, Intents with
+ * the same ordering key going in order, different keys going at the same
+ * time, PAUSEs and STOPs only holding up their own key, and whatever got held
+ * up going back in the queue where it came from.  The queue here is just a
+ * list in memory, and the service is driven directly instead of through the
+ * system, so nothing needs to be in the manifest.
+ */
+public class ParallelQueueServiceTest {
+    /** How long to wait for a run to finish before calling it hung. */
+    private static final long TIMEOUT_SECONDS = 10;
+
+    /**
+     * An in-memory {@link QueueService} that runs in parallel.  What each
+     * Intent does is baked into its extras.
+     */
+    private static class TestParallelQueueService extends QueueService {
+        /** The ordering key, as a String extra. */
+        static final String TEST_KEY = "TestKey";
+        /** The Intent's ID (and its "row ID" in the queue), as an int extra. */
+        static final String TEST_ID = "TestId";
+        /** What handleIntent returns, as a String extra.  CONTINUE if absent. */
+        static final String TEST_RETURN_CODE = "TestReturnCode";
+        /** If true, a PAUSE is because there's no network connection. */
+        static final String TEST_OFFLINE = "TestOffline";
+        /** If true, a batch stops right before this one. */
+        static final String TEST_NO_BATCH = "TestNoBatch";
+
+        final int maxWorkers;
+        int maxBatch = 1;
+        /** If true, every batch returns 0. */
+        boolean failBatches;
+
+        /** The queue itself.  Guarded by itself. */
+        final LinkedList<QueuedIntent> queue = new LinkedList<>();
+
+        /** IDs of everything handleIntent was called on, in order. */
+        final List<Integer> attempted = Collections.synchronizedList(new ArrayList<Integer>());
+        /** IDs of everything that returned CONTINUE, in order. */
+        final List<Integer> handled = Collections.synchronizedList(new ArrayList<Integer>());
+        /** IDs of every batch handleIntents got, in order. */
+        final List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<List<Integer>>());
+        /** IDs of everything onQueuedIntentsDone got, in order. */
+        final List<Integer> finished = Collections.synchronizedList(new ArrayList<Integer>());
+
+        /**
+         * If not null, nothing gets handled until everything's out of the
+         * queue and in the lanes, so there's something to batch.
+         */
+        volatile CountDownLatch loaded;
+
+        /** If not null, handleIntent waits here until this many are going at once. */
+        volatile CountDownLatch together;
+        volatile boolean wasTogether = true;
+
+        /** How many Intents are out of the queue at once, and the most ever. */
+        private int mOut;
+        int maxOut;
+
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean paused;
+        volatile Intent pausedWith;
+        volatile Boolean allProcessed;
+
+        TestParallelQueueService(@NonNull Context context, int maxWorkers) {
+            this.maxWorkers = maxWorkers;
+            attachBaseContext(context);
+        }
+
+        void add(int id, @NonNull String key) {
+            add(id, key, ReturnCode.CONTINUE, false);
+        }
+
+        void addUnbatchable(int id, @NonNull String key) {
+            add(id, key, ReturnCode.CONTINUE, false);
+            synchronized(queue) {
+                queue.getLast().intent.putExtra(TEST_NO_BATCH, true);
+            }
+        }
+
+        void add(int id, @NonNull String key, @NonNull ReturnCode code, boolean offline) {
+            Intent i = new Intent();
+            i.putExtra(TEST_ID, id);
+            i.putExtra(TEST_KEY, key);
+            i.putExtra(TEST_RETURN_CODE, code.name());
+            i.putExtra(TEST_OFFLINE, offline);
+
+            synchronized(queue) {
+                // The ID doubles as the row ID, and the time is made up, so
+                // it's easy to tell if either got lost along the way.
+                queue.add(new QueuedIntent(id, i, 1000L + id, 0));
+            }
+        }
+
+        /** The IDs still in the queue, in order. */
+        @NonNull
+        List<Integer> queuedIds() {
+            List<Integer> toReturn = new ArrayList<>();
+            synchronized(queue) {
+                for(QueuedIntent qi : queue) {
+                    // Make sure nothing came back as something else.
+                    assertEquals(qi.rowId, getId(qi.intent));
+                    assertEquals(1000L + qi.rowId, qi.time);
+                    toReturn.add(getId(qi.intent));
+                }
+            }
+            return toReturn;
+        }
+
+        static int getId(@NonNull Intent i) {
+            return i.getIntExtra(TEST_ID, -1);
+        }
+
+        void runQueue() throws InterruptedException {
+            onCreate();
+
+            Intent resume = new Intent();
+            resume.putExtra(COMMAND_EXTRA, COMMAND_RESUME);
+            onStartCommand(resume, 0, 1);
+
+            assertTrue("The queue never finished!", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+
+        @Override
+        protected int getMaxWorkers() {
+            return maxWorkers;
+        }
+
+        @Nullable
+        @Override
+        protected String getOrderingKey(@NonNull Intent i) {
+            return i.getStringExtra(TEST_KEY);
+        }
+
+        @NonNull
+        @Override
+        protected RetryMode getRetryMode(@NonNull Intent i) {
+            // Once the queue's paused, this only gets asked so it can
+            // schedule a retry, and nothing in here should be talking to
+            // WorkManager.
+            if(paused || !i.getBooleanExtra(TEST_OFFLINE, false)) return RetryMode.MANUAL;
+            return RetryMode.WHEN_CONNECTED;
+        }
+
+        @Override
+        protected int getMaxBatchSize() {
+            return maxBatch;
+        }
+
+        @Override
+        protected boolean queueCountBroadcastsAllowed() {
+            return false;
+        }
+
+        @Override
+        protected void addIntentToQueue(@NonNull Intent i) {
+            synchronized(queue) {
+                queue.add(new QueuedIntent(getId(i), i, 1000L + getId(i), 0));
+            }
+        }
+
+        @Override
+        protected void removeNextIntentFromQueue() {
+            synchronized(queue) {
+                queue.poll();
+            }
+        }
+
+        @Nullable
+        @Override
+        protected Intent peekNextIntentFromQueue() {
+            synchronized(queue) {
+                QueuedIntent qi = queue.peek();
+                return qi == null ? null : qi.intent;
+            }
+        }
+
+        @Nullable
+        @Override
+        protected QueuedIntent takeNextIntentFromQueue() {
+            synchronized(queue) {
+                QueuedIntent qi = queue.poll();
+                if(qi != null) {
+                    mOut++;
+                    maxOut = Math.max(maxOut, mOut);
+                }
+
+                CountDownLatch latch = loaded;
+                if(latch != null && queue.isEmpty()) latch.countDown();
+
+                return qi;
+            }
+        }
+
+        @Override
+        protected void requeueIntents(@NonNull List<QueuedIntent> intents) {
+            synchronized(queue) {
+                queue.addAll(0, intents);
+                mOut -= intents.size();
+            }
+        }
+
+        @Override
+        protected void onQueuedIntentsDone(@NonNull List<QueuedIntent> intents) {
+            for(QueuedIntent qi : intents) {
+                assertEquals(qi.rowId, getId(qi.intent));
+                finished.add(getId(qi.intent));
+            }
+        }
+
+        @Override
+        protected int getQueueCount() {
+            synchronized(queue) {
+                return queue.size();
+            }
+        }
+
+        @Override
+        protected void clearQueue() {
+            synchronized(queue) {
+                queue.clear();
+            }
+        }
+
+        @Override
+        protected boolean resumeOnNewIntent() {
+            return false;
+        }
+
+        private void waitUntilLoaded() {
+            CountDownLatch latch = loaded;
+            if(latch == null) return;
+
+            try {
+                assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            } catch(InterruptedException ie) {
+                throw new AssertionError(ie);
+            }
+        }
+
+        private void markHandled(int id) {
+            handled.add(id);
+            synchronized(queue) {
+                mOut--;
+            }
+        }
+
+        @Override
+        protected int handleIntents(@NonNull List<Intent> batch) {
+            waitUntilLoaded();
+
+            List<Integer> ids = new ArrayList<>();
+            for(Intent i : batch) ids.add(getId(i));
+            batches.add(ids);
+
+            if(failBatches) return 0;
+
+            // Same idea as WikiService: anything the least bit unusual stops
+            // the batch right there.
+            int count = 0;
+            for(Intent i : batch) {
+                if(!ReturnCode.CONTINUE.name().equals(i.getStringExtra(TEST_RETURN_CODE))
+                        || i.getBooleanExtra(TEST_NO_BATCH, false))
+                    break;
+
+                markHandled(getId(i));
+                count++;
+            }
+
+            return count;
+        }
+
+        @Override
+        protected ReturnCode handleIntent(Intent i) {
+            waitUntilLoaded();
+
+            int id = getId(i);
+            attempted.add(id);
+
+            CountDownLatch latch = together;
+            if(latch != null) {
+                latch.countDown();
+                try {
+                    if(!latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) wasTogether = false;
+                } catch(InterruptedException ie) {
+                    wasTogether = false;
+                }
+            }
+
+            ReturnCode code = ReturnCode.valueOf(i.getStringExtra(TEST_RETURN_CODE));
+            if(code == ReturnCode.CONTINUE) markHandled(id);
+
+            return code;
+        }
+
+        @Override
+        protected void onQueueLoad() {
+        }
+
+        @Override
+        protected void onQueueStart() {
+        }
+
+        @Override
+        protected void onQueuePause(Intent i) {
+            pausedWith = i;
+            paused = true;
+            done.countDown();
+        }
+
+        @Override
+        protected void onQueueEmpty(boolean allProcessed) {
+            this.allProcessed = allProcessed;
+            done.countDown();
+        }
+
+        @Override
+        protected void onQueueUnload() {
+        }
+
+        @Nullable
+        @Override
+        protected String serializeIntent(@NonNull Intent i) {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        protected Intent deserializeIntent(@NonNull String s) {
+            return null;
+        }
+    }
+
+    private TestParallelQueueService mService;
+
+    @NonNull
+    private TestParallelQueueService makeService(int maxWorkers) {
+        mService = new TestParallelQueueService(ApplicationProvider.<Context>getApplicationContext(), maxWorkers);
+        return mService;
+    }
+
+    @After
+    public void tearDown() {
+        if(mService != null) mService.onDestroy();
+    }
+
+    /** Picks out the IDs for one key, keeping their order. */
+    @NonNull
+    private static List<Integer> forKey(@NonNull List<Integer> ids, int key, int keys) {
+        List<Integer> toReturn = new ArrayList<>();
+        synchronized(ids) {
+            for(int id : ids)
+                if(id % keys == key) toReturn.add(id);
+        }
+        return toReturn;
+    }
+
+    @Test
+    public void keepsEachKeyInOrder() throws InterruptedException {
+        TestParallelQueueService service = makeService(3);
+
+        // Three keys, interleaved, more than fit in the lanes at once.  The
+        // first one for each key has to be going at the same time as the
+        // other two, or they'll all give up waiting.
+        for(int id = 0; id < 60; id++)
+            service.add(id, "key" + (id % 3));
+        service.together = new CountDownLatch(3);
+
+        service.runQueue();
+
+        assertTrue(service.wasTogether);
+        assertEquals(Boolean.TRUE, service.allProcessed);
+        assertEquals(60, service.handled.size());
+        assertTrue(service.queuedIds().isEmpty());
+
+        for(int key = 0; key < 3; key++) {
+            List<Integer> ids = forKey(service.handled, key, 3);
+            assertEquals(20, ids.size());
+            for(int n = 1; n < ids.size(); n++)
+                assertTrue(ids.get(n - 1) < ids.get(n));
+        }
+    }
+
+    @Test
+    public void pauseOnlyHoldsUpItsOwnKey() throws InterruptedException {
+        TestParallelQueueService service = makeService(3);
+
+        // Key 0 pauses on its second Intent.  Keys 1 and 2 don't care.
+        for(int id = 0; id < 30; id++) {
+            if(id == 3)
+                service.add(id, "key0", QueueService.ReturnCode.PAUSE, false);
+            else
+                service.add(id, "key" + (id % 3));
+        }
+
+        service.runQueue();
+
+        assertTrue(service.paused);
+        assertNotNull(service.pausedWith);
+        assertEquals(3, TestParallelQueueService.getId(service.pausedWith));
+
+        // Everything for the other keys went through, and nothing for key 0
+        // got tried after the pause.
+        assertEquals(10, forKey(service.handled, 1, 3).size());
+        assertEquals(10, forKey(service.handled, 2, 3).size());
+        assertEquals(Collections.singletonList(0), forKey(service.handled, 0, 3));
+        assertEquals(3, (int)forKey(service.attempted, 0, 3).get(1));
+        assertEquals(2, forKey(service.attempted, 0, 3).size());
+
+        // And what's left is the rest of key 0, in order, right where it was.
+        assertEquals(forKey(idsFrom(3, 30), 0, 3), service.queuedIds());
+    }
+
+    @Test
+    public void stopOnlyThrowsOutItsOwnKey() throws InterruptedException {
+        TestParallelQueueService service = makeService(3);
+
+        for(int id = 0; id < 30; id++) {
+            if(id == 4)
+                service.add(id, "key1", QueueService.ReturnCode.STOP, false);
+            else
+                service.add(id, "key" + (id % 3));
+        }
+
+        service.runQueue();
+
+        // A STOP means not everything got processed, but everything else
+        // did.
+        assertEquals(Boolean.FALSE, service.allProcessed);
+        assertFalse(service.paused);
+        assertEquals(10, forKey(service.handled, 0, 3).size());
+        assertEquals(10, forKey(service.handled, 2, 3).size());
+        assertEquals(Collections.singletonList(1), forKey(service.handled, 1, 3));
+        assertEquals(2, forKey(service.attempted, 1, 3).size());
+        assertTrue(service.queuedIds().isEmpty());
+    }
+
+    @Test
+    public void pausedKeysDontPullInTheWholeQueue() throws InterruptedException {
+        TestParallelQueueService service = makeService(3);
+
+        // One key pauses right away, and it's got a LOT more behind it.  The
+        // other key's Intents are all the way at the back.
+        service.add(0, "stuck", QueueService.ReturnCode.PAUSE, false);
+        for(int id = 1; id < 200; id++)
+            service.add(id, "stuck");
+        for(int id = 200; id < 210; id++)
+            service.add(id, "fine");
+
+        service.runQueue();
+
+        assertTrue(service.paused);
+
+        // The lanes fill up with the stuck key and stop there.  It never
+        // gets to the other key, but it doesn't pull in everything trying.
+        assertTrue("Had " + service.maxOut + " out at once", service.maxOut <= 32);
+        assertEquals(Collections.singletonList(0), service.attempted);
+        assertEquals(idsFrom(0, 210), service.queuedIds());
+    }
+
+    @Test
+    public void noConnectionStopsEveryKey() throws InterruptedException {
+        TestParallelQueueService service = makeService(3);
+
+        // Nothing's going to work, no matter what key it is.
+        for(int id = 0; id < 40; id++)
+            service.add(id, "key" + (id % 20), QueueService.ReturnCode.PAUSE, true);
+
+        service.runQueue();
+
+        assertTrue(service.paused);
+
+        // Whatever was already going when the connection went away got to
+        // find out for itself, but nothing new got tried after that.
+        assertTrue("Tried " + service.attempted.size() + " times", service.attempted.size() <= 3);
+        assertTrue(service.handled.isEmpty());
+        assertEquals(idsFrom(0, 40), service.queuedIds());
+    }
+
+    @Test
+    public void doesntSpinOnAQueueThatWontGiveUpAnything() throws InterruptedException {
+        // This queue claims to have something in it, but won't hand it over.
+        TestParallelQueueService service = new TestParallelQueueService(
+                ApplicationProvider.<Context>getApplicationContext(), 3) {
+            @Nullable
+            @Override
+            protected QueuedIntent takeNextIntentFromQueue() {
+                return null;
+            }
+        };
+        mService = service;
+        service.add(0, "key0");
+
+        service.runQueue();
+
+        assertTrue(service.paused);
+        assertTrue(service.attempted.isEmpty());
+        assertEquals(Collections.singletonList(0), service.queuedIds());
+    }
+
+    /** Makes sure every ID got handled exactly once, in order for each key. */
+    private static void assertHandledInOrder(@NonNull List<Integer> handled, int count, int keys) {
+        assertEquals(count, handled.size());
+        assertEquals(count, new HashSet<>(handled).size());
+
+        for(int key = 0; key < keys; key++) {
+            List<Integer> ids = forKey(handled, key, keys);
+            for(int n = 1; n < ids.size(); n++)
+                assertTrue(ids.get(n - 1) < ids.get(n));
+        }
+    }
+
+    @Test
+    public void partialBatchesFinishOneAtATime() throws InterruptedException {
+        TestParallelQueueService service = makeService(2);
+        service.maxBatch = 5;
+        service.loaded = new CountDownLatch(1);
+
+        // Two keys.  Each has something in the middle that a batch can't
+        // handle, so the batch stops short and that one goes on its own.
+        for(int id = 0; id < 24; id++) {
+            if(id == 6 || id == 7)
+                service.addUnbatchable(id, "key" + (id % 2));
+            else
+                service.add(id, "key" + (id % 2));
+        }
+
+        service.runQueue();
+
+        assertEquals(Boolean.TRUE, service.allProcessed);
+        assertHandledInOrder(service.handled, 24, 2);
+        assertTrue(service.queuedIds().isEmpty());
+
+        // Batches happened, none of them too big, and the unbatchable ones
+        // went through handleIntent.
+        assertFalse(service.batches.isEmpty());
+        for(List<Integer> batch : service.batches) {
+            assertTrue(batch.size() > 1);
+            assertTrue(batch.size() <= 5);
+            for(int n = 1; n < batch.size(); n++)
+                assertEquals(batch.get(n - 1) + 2, (int)batch.get(n));
+        }
+        assertTrue(service.attempted.contains(6));
+        assertTrue(service.attempted.contains(7));
+    }
+
+    @Test
+    public void failedBatchesFallBackToSingles() throws InterruptedException {
+        TestParallelQueueService service = makeService(1);
+        service.maxBatch = 4;
+        service.failBatches = true;
+        service.loaded = new CountDownLatch(1);
+
+        for(int id = 0; id < 12; id++)
+            service.add(id, "key0");
+
+        service.runQueue();
+
+        // Every batch gave up, so everything went one at a time, in order.
+        assertEquals(Boolean.TRUE, service.allProcessed);
+        assertEquals(idsFrom(0, 12), service.handled);
+        assertEquals(idsFrom(0, 12), service.attempted);
+
+        // And it didn't try batching again until it got through the singles
+        // from the last one, so no more than one batch per four.
+        assertFalse(service.batches.isEmpty());
+        assertTrue("Tried " + service.batches.size() + " batches", service.batches.size() <= 4);
+        for(int n = 1; n < service.batches.size(); n++) {
+            List<Integer> previous = service.batches.get(n - 1);
+            assertTrue(service.batches.get(n).get(0) >= previous.get(0) + previous.size());
+        }
+    }
+
+    @Test
+    public void batchesStopAtAPause() throws InterruptedException {
+        TestParallelQueueService service = makeService(2);
+        service.maxBatch = 8;
+        service.loaded = new CountDownLatch(1);
+
+        // Key 0 pauses partway through what'd otherwise be one batch.  Key 1
+        // goes through just fine.
+        for(int id = 0; id < 20; id++) {
+            if(id == 8)
+                service.add(id, "key0", QueueService.ReturnCode.PAUSE, false);
+            else
+                service.add(id, "key" + (id % 2));
+        }
+
+        service.runQueue();
+
+        assertTrue(service.paused);
+        assertEquals(8, TestParallelQueueService.getId(service.pausedWith));
+
+        // Key 1 all went through.  Key 0 got up to the pause, which went on
+        // its own (and failed), and nothing after it got tried.
+        assertEquals(forKey(idsFrom(0, 20), 1, 2), forKey(service.handled, 1, 2));
+        assertEquals(Arrays.asList(0, 2, 4, 6), forKey(service.handled, 0, 2));
+
+        List<Integer> tried = forKey(service.attempted, 0, 2);
+        assertEquals(8, (int)tried.get(tried.size() - 1));
+
+        // The rest of key 0 is back in the queue, in order, paused one first.
+        assertEquals(forKey(idsFrom(8, 20), 0, 2), service.queuedIds());
+    }
+
+    @Test
+    public void everythingTakenIsEitherDoneOrPutBack() throws InterruptedException {
+        TestParallelQueueService service = makeService(3);
+        service.maxBatch = 4;
+        service.loaded = new CountDownLatch(1);
+
+        // Key 0 pauses, key 1 stops, key 2 is fine.  Some go in batches, some
+        // don't.
+        for(int id = 0; id < 30; id++) {
+            if(id == 3)
+                service.add(id, "key0", QueueService.ReturnCode.PAUSE, false);
+            else if(id == 4)
+                service.add(id, "key1", QueueService.ReturnCode.STOP, false);
+            else
+                service.add(id, "key" + (id % 3));
+        }
+
+        service.runQueue();
+
+        assertTrue(service.paused);
+
+        // Everything handled is done, and so is everything the STOP threw
+        // out, including the one that said STOP.  Only what went back in the
+        // queue isn't.
+        List<Integer> expected = new ArrayList<>(idsFrom(0, 30));
+        expected.removeAll(forKey(idsFrom(3, 30), 0, 3));
+        assertEquals(expected.size(), service.finished.size());
+        assertEquals(new HashSet<>(expected), new HashSet<>(service.finished));
+        assertEquals(forKey(idsFrom(3, 30), 0, 3), service.queuedIds());
+        assertTrue(service.finished.containsAll(forKey(idsFrom(0, 30), 1, 3)));
+    }
+
+    @NonNull
+    private static List<Integer> idsFrom(int start, int end) {
+        List<Integer> toReturn = new ArrayList<>();
+        for(int id = start; id < end; id++) toReturn.add(id);
+        return toReturn;
+    }
+}
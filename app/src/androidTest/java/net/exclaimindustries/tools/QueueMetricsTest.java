@@ -0,0 +1,149 @@
+/*
+ * QueueMetricsTest.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.tools;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This tests {@link QueueMetrics}.  It makes sure things get counted where
+ * they should, retries get counted when the queue comes back, and the dump
+ * has everything in it.
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public class QueueMetricsTest {
+    private static final long START = 1000000L;
+
+    private QueueMetrics mMetrics;
+
+    @Before
+    public void setUp() {
+        mMetrics = QueueMetrics.makeDetached("test", START);
+    }
+
+    @Test
+    public void sharesMetricsByName() {
+        assertSame(QueueMetrics.forQueue("shared"), QueueMetrics.forQueue("shared"));
+    }
+
+    @Test
+    public void bucketsLatencies() {
+        mMetrics.recordProcessed(0);
+        mMetrics.recordProcessed(10);
+        mMetrics.recordProcessed(11);
+        mMetrics.recordPaused(700, "offline");
+        mMetrics.recordStopped(90000, 1);
+
+        long[] expected = new long[QueueMetrics.LATENCY_BUCKETS.length + 1];
+        expected[0] = 2;
+        expected[1] = 1;
+        expected[5] = 1;
+        expected[expected.length - 1] = 1;
+
+        assertArrayEquals(expected, mMetrics.getLatencyHistogram());
+        assertEquals(90000, mMetrics.getMaxLatency());
+        assertEquals((10 + 11 + 700 + 90000) / 5, mMetrics.getMeanLatency());
+    }
+
+    @Test
+    public void countsPausesByReason() {
+        mMetrics.recordPaused(5, "offline");
+        mMetrics.recordPaused(5, "offline");
+        mMetrics.recordPaused(5, "throttled");
+        mMetrics.recordPaused(5, null);
+
+        Map<String, Long> pauses = mMetrics.getPausesByReason();
+        assertEquals(4, mMetrics.getPauses());
+        assertEquals(2L, (long)pauses.get("offline"));
+        assertEquals(1L, (long)pauses.get("throttled"));
+        assertEquals(1L, (long)pauses.get(QueueMetrics.REASON_UNSPECIFIED));
+    }
+
+    @Test
+    public void countsRetriesOnResume() {
+        // Nothing's waiting yet, so starting isn't a retry.
+        mMetrics.recordRunStarted();
+        assertEquals(0, mMetrics.getRetries());
+
+        // Two keys paused in one run...
+        mMetrics.recordPaused(5, "offline");
+        mMetrics.recordPaused(5, "offline");
+        mMetrics.recordRunStarted();
+        assertEquals(2, mMetrics.getRetries());
+
+        // ...and one that got skipped isn't retried.
+        mMetrics.recordPaused(5, "wiki_error");
+        mMetrics.recordSkipped();
+        mMetrics.recordRunStarted();
+        assertEquals(2, mMetrics.getRetries());
+        assertEquals(1, mMetrics.getAbandoned());
+
+        // Nor is anything that got aborted.
+        mMetrics.recordPaused(5, "wiki_error");
+        mMetrics.recordAborted(3);
+        mMetrics.recordRunStarted();
+        assertEquals(2, mMetrics.getRetries());
+        assertEquals(4, mMetrics.getAbandoned());
+        assertEquals(4, mMetrics.getRuns());
+    }
+
+    @Test
+    public void computesRates() {
+        for(int i = 0; i < 10; i++) mMetrics.recordEnqueued();
+        for(int i = 0; i < 5; i++) mMetrics.recordProcessed(1);
+
+        // Two minutes in.
+        long now = START + 120000;
+        assertEquals(5.0, mMetrics.getEnqueueRate(now), 0.0001);
+        assertEquals(2.5, mMetrics.getProcessRate(now), 0.0001);
+    }
+
+    @Test
+    public void keepsBacklogSnapshots() {
+        assertEquals(-1, mMetrics.getBacklogSampleTime());
+        assertEquals(-1, mMetrics.getBacklogAge(START));
+
+        mMetrics.recordBacklog(7, 2048, START - 60000, START);
+        assertEquals(7, mMetrics.getBacklogCount());
+        assertEquals(2048, mMetrics.getBacklogBytes());
+        assertEquals(90000, mMetrics.getBacklogAge(START + 30000));
+    }
+
+    @Test
+    public void dumpsEverything() {
+        mMetrics.recordEnqueued();
+        mMetrics.recordProcessed(20);
+        mMetrics.recordPaused(3000, "throttled");
+        mMetrics.recordBacklog(1, 512, START, START);
+
+        StringWriter out = new StringWriter();
+        mMetrics.dump(new PrintWriter(out), START + 60000);
+        String dump = out.toString();
+
+        assertTrue(dump.contains("Queue metrics for test"));
+        assertTrue(dump.contains("enqueued: 1 (1.00/min)"));
+        assertTrue(dump.contains("processed: 1"));
+        assertTrue(dump.contains("throttled: 1"));
+        assertTrue(dump.contains("<= 50 ms: 1"));
+        assertTrue(dump.contains("<= 5000 ms: 1"));
+        assertTrue(dump.contains("backlog: 1 Intent(s)"));
+        assertTrue(dump.contains("60000 ms old"));
+    }
+}
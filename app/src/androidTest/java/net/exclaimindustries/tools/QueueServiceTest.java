@@ -75,6 +75,15 @@ public class QueueServiceTest {
             return mQueue.peek();
         }
 
+        @Override
+        protected void requeueIntents(@NonNull List<QueuedIntent> intents) {
+            Log.d(DEBUG_TAG, "requeueIntents (" + intents.size() + ")...");
+            List<Intent> rest = new ArrayList<>(mQueue);
+            mQueue.clear();
+            for(QueuedIntent qi : intents) mQueue.add(qi.intent);
+            mQueue.addAll(rest);
+        }
+
         @Override
         protected int getQueueCount() {
             Log.d(DEBUG_TAG, "getQueueCount (returning " + mQueue.size() + ")...");
@@ -0,0 +1,82 @@
+/*
+ * RetryBackoffTest.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.tools;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This tests {@link RetryBackoff}.  Delays should double up to the max, stay
+ * within their jitter range, and respect whatever hints they get.
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public class RetryBackoffTest {
+    private final RetryBackoff mBackoff = new RetryBackoff(1000, 60000);
+
+    @Test
+    public void doublesUpToTheMax() {
+        assertEquals(1000, mBackoff.getCeiling(0));
+        assertEquals(2000, mBackoff.getCeiling(1));
+        assertEquals(32000, mBackoff.getCeiling(5));
+        assertEquals(60000, mBackoff.getCeiling(6));
+
+        // This shouldn't overflow, either.
+        assertEquals(60000, mBackoff.getCeiling(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void staysInTheJitterRange() {
+        Random random = new Random(42);
+
+        for(int attempt = 0; attempt < 10; attempt++) {
+            long ceiling = mBackoff.getCeiling(attempt);
+
+            for(int i = 0; i < 100; i++) {
+                long delay = mBackoff.getDelay(attempt, -1, random);
+                assertTrue(delay >= ceiling / 2);
+                assertTrue(delay <= ceiling);
+            }
+        }
+    }
+
+    @Test
+    public void actuallyJitters() {
+        Random random = new Random(42);
+        long first = mBackoff.getDelay(4, -1, random);
+
+        boolean different = false;
+        for(int i = 0; i < 10 && !different; i++)
+            different = mBackoff.getDelay(4, -1, random) != first;
+
+        assertTrue(different);
+    }
+
+    @Test
+    public void respectsHints() {
+        Random random = new Random(42);
+
+        // A hint longer than the max still wins.
+        assertEquals(120000, mBackoff.getDelay(0, 120000, random));
+
+        // A hint shorter than the backoff doesn't.
+        long delay = mBackoff.getDelay(3, 10, random);
+        assertTrue(delay >= 4000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonsense() {
+        new RetryBackoff(1000, 10);
+    }
+}
@@ -8,9 +8,9 @@
 
 package net.exclaimindustries.geohashdroid.fragments;
 
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.graphics.Bitmap;
 import android.location.Location;
 import android.net.Uri;
 import android.os.Bundle;
@@ -36,9 +36,9 @@ import net.exclaimindustries.geohashdroid.util.GHDConstants;
 import net.exclaimindustries.geohashdroid.util.Graticule;
 import net.exclaimindustries.geohashdroid.util.Info;
 import net.exclaimindustries.geohashdroid.util.UnitConverter;
+import net.exclaimindustries.geohashdroid.wiki.WikiImagePreparer;
 import net.exclaimindustries.geohashdroid.wiki.WikiImageUtils;
 import net.exclaimindustries.geohashdroid.wiki.WikiUtils;
-import net.exclaimindustries.tools.BitmapTools;
 import net.exclaimindustries.tools.LocationUtil;
 
 import java.text.DateFormat;
@@ -81,6 +81,14 @@ public class WikiFragment extends CentralMapExtraFragment {
 
     private Uri mPictureUri;
 
+    // The image we're waiting on a preview for, if any.  If another one gets
+    // picked in the meantime, the older preview gets ignored when it shows up.
+    private Uri mPendingPictureUri;
+
+    // Whether the upload image is being made.  The post button stays off
+    // until it's done and sent.
+    private boolean mPreparingUpload = false;
+
     private final SharedPreferences.OnSharedPreferenceChangeListener mPrefListener = (sharedPreferences, key) -> {
         // Huh, we register for ALL changes, not just for a few prefs.  May
         // as well narrow it down...
@@ -207,8 +215,9 @@ public class WikiFragment extends CentralMapExtraFragment {
     public void onSaveInstanceState(@NonNull Bundle outState) {
         super.onSaveInstanceState(outState);
 
-        // We've also got a picture URI to deal with.
-        outState.putParcelable(PICTURE_URI, mPictureUri);
+        // We've also got a picture URI to deal with.  If there's one still
+        // loading, that's the newest one.
+        outState.putParcelable(PICTURE_URI, mPendingPictureUri != null ? mPendingPictureUri : mPictureUri);
     }
 
     @Override
@@ -235,43 +244,38 @@ public class WikiFragment extends CentralMapExtraFragment {
         assert act != null;
 
         int dimen = getResources().getDimensionPixelSize(R.dimen.wiki_nominal_icon_size);
-        final Bitmap thumbnail = BitmapTools
-                .createRatioPreservedDownscaledBitmapFromUri(
-                        act,
-                        uri,
-                        dimen,
-                        dimen,
-                        true
-                );
-
-        // Good!  Was it null?
-        if(thumbnail == null) {
-            // NO!  WRONG!  BAD!
-            Toast.makeText(act, R.string.wiki_generic_image_error, Toast.LENGTH_LONG).show();
-            return;
-        }
 
-        // With bitmap in hand...
-        act.runOnUiThread(() -> mGalleryButton.setImageBitmap(thumbnail));
+        // The thumbnail and the vital info we want for later both come in the
+        // background.  If there's no location, we get an ImageInfo with a
+        // null in it, and we'll know what to do with it when the time comes.
+        mPendingPictureUri = uri;
+        WikiImagePreparer.loadPreview(act, uri, dimen, (loadedUri, thumbnail, imageInfo) -> {
+            // If the user picked something else since, or we're gone, never
+            // mind.
+            if(!loadedUri.equals(mPendingPictureUri) || !isAdded()) return;
+            mPendingPictureUri = null;
+
+            // Good!  Was it null?
+            if(thumbnail == null || imageInfo == null) {
+                // NO!  WRONG!  BAD!
+                Toast.makeText(getActivity(), R.string.wiki_generic_image_error, Toast.LENGTH_LONG).show();
+                return;
+            }
 
-        // Plus, we want vital info for later.  If there's no location, just
-        // give back an ImageInfo with a null in it.  We'll know what to do with
-        // it when the time comes.
-        mLastImageInfo = WikiImageUtils.readImageInfo(act,
-                uri,
-                null,
-                Calendar.getInstance()
-        );
+            // With bitmap in hand...
+            mGalleryButton.setImageBitmap(thumbnail);
+            mLastImageInfo = imageInfo;
 
-        // And remember it for posting later.  Done!
-        mPictureUri = uri;
+            // And remember it for posting later.  Done!
+            mPictureUri = loadedUri;
 
-        resolvePostButtonEnabledness();
+            resolvePostButtonEnabledness();
 
-        // It's a new image, so reset the location selection.
-        mLocationTypeGroup.clearCheck();
-        resolveLocationTypeSelection();
-        resolvePictureLocationText();
+            // It's a new image, so reset the location selection.
+            mLocationTypeGroup.clearCheck();
+            resolveLocationTypeSelection();
+            resolvePictureLocationText();
+        });
     }
 
     @Override
@@ -415,7 +419,7 @@ public class WikiFragment extends CentralMapExtraFragment {
             // So, to review, the button is enabled ONLY if there's a
             // message and, if we're in picture mode, there's a picture to
             // go with it.
-            mPostButton.setEnabled(hasMessage && (hasPicture || !isInPictureMode));
+            mPostButton.setEnabled(!mPreparingUpload && hasMessage && (hasPicture || !isInPictureMode));
         });
     }
 
@@ -558,34 +562,57 @@ public class WikiFragment extends CentralMapExtraFragment {
             loc = mLastImageInfo.location;
         }
 
-        Intent i = new Intent(act, WikiService.class)
+        final Intent i = new Intent(act, WikiService.class)
                 .putExtra(WikiService.EXTRA_INFO, mInfo)
                 .putExtra(WikiService.EXTRA_TIMESTAMP, Calendar.getInstance())
                 .putExtra(WikiService.EXTRA_MESSAGE, message)
                 .putExtra(WikiService.EXTRA_LOCATION, loc)
                 .putExtra(WikiService.EXTRA_INCLUDE_LOCATION, includeLocation);
-        if(includePicture) {
-            // Now hold on!  Let's ALSO make the uploadable version here, as
-            // we're the ones with permission to open the file, NOT WikiService!
-            // This is actually a thing.  WikiService won't be on the same
-            // Context by the time it uploads, so that'd be a SecurityException.
-            byte[] pictureData = WikiImageUtils.createWikiImage(
-                    act,
-                    mInfo,
-                    mLastImageInfo.uri,
-                    loc,
-                    includeLocation);
-
-            i.putExtra(WikiService.EXTRA_IMAGE, mPictureUri)
-                    .putExtra(WikiService.EXTRA_IMAGE_INFO, mLastImageInfo)
-                    .putExtra(WikiService.EXTRA_IMAGE_DATA, pictureData);
+
+        if(!includePicture) {
+            // And away it goes!
+            sendPost(act, i);
+            return;
         }
 
+        // Now hold on!  Let's ALSO make the uploadable version here, as we're
+        // the ones with permission to open the file, NOT WikiService!  This
+        // is actually a thing.  WikiService won't be on the same Context by
+        // the time it uploads, so that'd be a SecurityException.  It happens
+        // in the background, though, and we stick around until it's done.
+        final Context appContext = act.getApplicationContext();
+        final Uri pictureUri = mPictureUri;
+        final WikiImageUtils.ImageInfo imageInfo = mLastImageInfo;
+
+        mPreparingUpload = true;
+        mPostButton.setEnabled(false);
+
+        WikiImagePreparer.prepareUpload(act, mInfo, imageInfo, loc, includeLocation, prepared -> {
+            mPreparingUpload = false;
+
+            if(prepared == null) {
+                // Whoops.  If we're still here, the user can try again.
+                Toast.makeText(appContext, R.string.wiki_generic_image_error, Toast.LENGTH_LONG).show();
+                if(isAdded()) resolvePostButtonEnabledness();
+                return;
+            }
+
+            i.putExtra(WikiService.EXTRA_IMAGE, pictureUri)
+                    .putExtra(WikiService.EXTRA_IMAGE_INFO, imageInfo)
+                    .putExtra(WikiService.EXTRA_IMAGE_FILE, prepared.getAbsolutePath());
+
+            // If we went away in the meantime, the post still goes out.  The
+            // hard part's already done.
+            sendPost(appContext, i);
+        });
+    }
+
+    private void sendPost(@NonNull Context context, @NonNull Intent i) {
         // And away it goes!
-        act.startService(i);
+        context.startService(i);
 
         // Post complete!  We're done here!
-        if(mCloseListener != null)
+        if(isAdded() && mCloseListener != null)
             mCloseListener.extraFragmentClosing(this);
     }
 
@@ -29,7 +29,10 @@ import net.exclaimindustries.geohashdroid.util.Graticule;
 import net.exclaimindustries.geohashdroid.util.HashBuilder;
 import net.exclaimindustries.geohashdroid.util.Info;
 import net.exclaimindustries.geohashdroid.util.KnownLocation;
+import net.exclaimindustries.geohashdroid.util.KnownLocationMatcher;
+import net.exclaimindustries.geohashdroid.util.StockPrefetcher;
 import net.exclaimindustries.geohashdroid.util.UnitConverter;
+import net.exclaimindustries.tools.AndroidUtil;
 import net.exclaimindustries.tools.DateTools;
 
 import java.text.DateFormat;
@@ -635,12 +638,24 @@ public class AlarmWorker
                             // And since it's done, we can go off to the part
                             // where we deal with KnownLocations!
                             doKnownLocations(context);
+
+                            // That's it for stocks until tomorrow, so this
+                            // is as good a time as any to tidy up the cache.
+                            HashBuilder.pruneCache(context);
                         }
                     }
                 } else {
                     // If it's NOT a result, that means we're starting a new
                     // check at a 30W hash for some reason.  Doesn't matter what
                     // reason.  We just need to do it.
+                    // But first, get everything we can in one go.  With any
+                    // luck, that means both requests find their stocks in
+                    // the cache and nobody needs to touch the network again.
+                    if(AndroidUtil.isConnected(context)) {
+                        Log.d(DEBUG_TAG, "Prefetching stocks first...");
+                        StockPrefetcher.prefetch(context);
+                    }
+
                     Log.d(DEBUG_TAG, "That wasn't a result, so asking for a 30W...");
                     sendRequest(context, GHDConstants.DUMMY_YESTERDAY);
                 }
@@ -703,8 +718,8 @@ public class AlarmWorker
         // If there are no KnownLocations, give up now.
         if(locations.isEmpty()) return;
 
-        List<KnownLocationMatchData> matched = new LinkedList<>();
-        List<KnownLocationMatchData> matchedGlobal = new LinkedList<>();
+        final List<KnownLocationMatchData> matched = new LinkedList<>();
+        final List<KnownLocationMatchData> matchedGlobal = new LinkedList<>();
 
         // There are some odd time zone implications here if "today" just comes
         // from Calendar.getInstance(), in that it sometimes might wind up
@@ -720,35 +735,31 @@ public class AlarmWorker
 
         Info global = HashBuilder.getStoredInfo(context, today, null);
 
-        for(KnownLocation kl : locations) {
-            // Every KnownLocation has a method to do this.  Maybe it's a wee
-            // bit inefficient and inelegant, but it does the job.
-            Info best;
-
-            try {
-                best = kl.getClosestInfo(context, (kl.is30w() ? tomorrow : today));
-            } catch(IllegalArgumentException iae) {
-                // This shouldn't happen under normal operation, but if this is
-                // the debug build and the party alarm's been triggered,
-                // makeNineThirty might refer to tomorrow (i.e. if the time zone
-                // is anywhere west of EST/EDT), which may not have a valid
-                // stock yet.  In that case, silently drop it and continue
-                // onward.  Chances are we'll skip all the known locations past
-                // this one anyway.
-                continue;
-            }
-
-            if(kl.isCloseEnough(best.getFinalDestinationLatLng())) {
-                KnownLocationMatchData data = new KnownLocationMatchData(kl, best, kl.getDistanceFrom(best));
-                matched.add(data);
-            }
-
-            // The Globalhash will be handled as a separate notification,
-            // because frankly, that's sort of special.
-            if(global != null && kl.isCloseEnoughForGlobalhash(global.getFinalDestinationLatLng())) {
-                KnownLocationMatchData data = new KnownLocationMatchData(kl, global, kl.getDistanceFrom(global));
-                matchedGlobal.add(data);
+        // Rather than have every KnownLocation go looking for its closest
+        // hashpoint, the matcher works out every hashpoint near any of them
+        // once and asks which KnownLocations are in range of it.  If this is
+        // the debug build and the party alarm's been triggered, makeNineThirty
+        // might refer to tomorrow (i.e. if the time zone is anywhere west of
+        // EST/EDT), which may not have a valid stock yet.  In that case, the
+        // KnownLocations that need it just silently don't match.
+        KnownLocationMatcher matcher = new KnownLocationMatcher(locations);
+
+        matcher.matchHashpoints(context, today, tomorrow, new KnownLocationMatcher.Listener() {
+            @Override
+            public void matched(@NonNull KnownLocation knownLocation, @NonNull Info info, double distance) {
+                matched.add(new KnownLocationMatchData(knownLocation, info, distance));
             }
+        });
+
+        // The Globalhash will be handled as a separate notification, because
+        // frankly, that's sort of special.
+        if(global != null) {
+            matcher.matchGlobalhash(global, new KnownLocationMatcher.Listener() {
+                @Override
+                public void matched(@NonNull KnownLocation knownLocation, @NonNull Info info, double distance) {
+                    matchedGlobal.add(new KnownLocationMatchData(knownLocation, info, distance));
+                }
+            });
         }
 
         // Did we get anything?  Anything AT ALL?
@@ -25,12 +25,11 @@ import net.exclaimindustries.geohashdroid.util.Graticule;
 import net.exclaimindustries.geohashdroid.util.HashBuilder;
 import net.exclaimindustries.geohashdroid.util.HashBuilder.StockRunner;
 import net.exclaimindustries.geohashdroid.util.Info;
+import net.exclaimindustries.geohashdroid.util.Neighborhood;
 import net.exclaimindustries.tools.AndroidUtil;
 
 import java.io.Serializable;
 import java.util.Calendar;
-import java.util.LinkedList;
-import java.util.List;
 
 /**
  * <p>
@@ -450,54 +449,14 @@ public class StockWorker extends Worker {
     private static Info[] getNearbyPoints(Context context, Calendar cal, Graticule g) {
         if(g == null) return new Info[0];
 
-        List<Info> infos = new LinkedList<>();
-
-        // Hopefully, each nearby point is available.  In addition to cases
-        // involving the poles, I *think* there's cases where a 30W point IS
-        // available, but a neighboring non-30W point ISN'T.  We'll just ignore
-        // those cases.
-        for(int i = -1; i <= 1; i++) {
-            for(int j = -1; j <= 1; j++) {
-                // Zero and zero isn't a nearby point, that's the very point
-                // we're at right now!
-                if(i == 0 && j == 0) continue;
-
-                // If the user's truly adventurous enough to go to the 90N/S
-                // graticules, there aren't any nearby points north/south of
-                // where they are.  Also, the nearby points aren't going to
-                // be drawn anyway due to the projection, but hey, that's
-                // nitpicking.
-                if(Math.abs((g.isSouth() ? -1 : 1) * g.getLatitude() + i) > 90)
-                    continue;
-
-                // Make a new Graticule, properly offset...
-                Graticule offset = Graticule.createOffsetFrom(g, i, j);
-
-                // ...then do the request.  Check the cache first!
-                Info info = HashBuilder.getStoredInfo(context, cal, offset);
-                if(info == null) {
-                    // It's not in the cache.  Try to make it be in the cache.
-                    StockRunner runner = HashBuilder.requestStockRunner(context, cal, offset);
-                    runner.runStock();
-
-                    if(runner.getStatus() == HashBuilder.StockRunner.ALL_OKAY) {
-                        // We've got a winner!
-                        info = runner.getLastResultObject();
-                    }
-                    // We'll just ignore it if not.  The user doesn't need to be
-                    // bugged about cache failures or whatnot, they already got
-                    // what they were looking for.
-                }
-
-                // Now, add that to the array, if it's not null...
-                if(info != null)
-                    infos.add(info);
-
-                // And continue on!
-            }
-        }
-
-        Info[] toReturn = new Info[8];
-        return infos.toArray(toReturn);
+        // Neighborhood works out the (at most two) hashes in the area once and
+        // builds everything from those, rather than going through the caches
+        // (or the network!) eight separate times.  Hopefully, each nearby
+        // point is available.  In addition to cases involving the poles, I
+        // *think* there's cases where a 30W point IS available, but a
+        // neighboring non-30W point ISN'T.  Those just get left out.  The user
+        // doesn't need to be bugged about cache failures or whatnot, they
+        // already got what they were looking for.
+        return Neighborhood.resolve(context, cal, g, true).getNearbyInfos();
     }
 }
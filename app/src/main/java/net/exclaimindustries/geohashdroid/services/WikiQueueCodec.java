@@ -0,0 +1,580 @@
+/*
+ * WikiQueueCodec.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.services;
+
+import android.content.Intent;
+import android.location.Location;
+import android.net.Uri;
+import android.util.Base64;
+import android.util.Log;
+
+import net.exclaimindustries.geohashdroid.util.Graticule;
+import net.exclaimindustries.geohashdroid.util.Info;
+import net.exclaimindustries.geohashdroid.wiki.WikiImageUtils;
+import net.exclaimindustries.tools.BlobSpool;
+import net.exclaimindustries.tools.CharToByte;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * <p>
+ * <code>WikiQueueCodec</code> turns {@link WikiService} Intents into bytes for
+ * the queue database and back.  There's two formats here: the compact binary
+ * one that gets written now, and the old JSON one, which is still around to
+ * read anything queued up before the binary one came along (and as a fallback
+ * if the binary one ever can't write something).
+ * </p>
+ *
+ * <p>
+ * The binary format is a magic byte, a version byte, a short's worth of flags
+ * saying which fields are present, and then each present field in a fixed
+ * order.  Coordinates are raw doubles, timestamps are raw longs, the graticule
+ * is two shorts (with its hemispheres in the flags), and strings are an int
+ * length and UTF-8 bytes.  A spooled image's reference is stored as the 32
+ * raw bytes its 64 hex characters spell out.  Anything after version 1 should
+ * get its own case in {@link #decode(byte[])}.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+final class WikiQueueCodec {
+    private static final String DEBUG_TAG = "WikiQueueCodec";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte MAGIC = 'W';
+    private static final byte VERSION_1 = 1;
+
+    private static final int FLAG_TIMESTAMP = 1;
+    private static final int FLAG_LOCATION = 1 << 1;
+    private static final int FLAG_INFO = 1 << 2;
+    private static final int FLAG_GRATICULE = 1 << 3;
+    private static final int FLAG_GRATICULE_SOUTH = 1 << 4;
+    private static final int FLAG_GRATICULE_WEST = 1 << 5;
+    private static final int FLAG_IMAGE = 1 << 6;
+    private static final int FLAG_IMAGE_INFO = 1 << 7;
+    private static final int FLAG_IMAGE_INFO_LOCATION = 1 << 8;
+    private static final int FLAG_IMAGE_REF = 1 << 9;
+    private static final int FLAG_IMAGE_DATA = 1 << 10;
+    private static final int FLAG_MESSAGE = 1 << 11;
+    private static final int FLAG_EXCLUDE_LOCATION = 1 << 12;
+
+    private static final int REF_BYTES = 32;
+
+    // No constructing this one.
+    private WikiQueueCodec() { }
+
+    /**
+     * Encodes a WikiService Intent to the current binary format.
+     *
+     * @param i the Intent
+     * @param imageRef the spool reference for the image data, if it was
+     *                 spooled; if null, any image data goes in inline
+     * @return the encoded bytes
+     * @throws IOException something in there couldn't be encoded
+     */
+    @NonNull
+    static byte[] encode(@NonNull Intent i, @Nullable String imageRef) throws IOException {
+        Calendar timestamp;
+        Location loc;
+        Uri image;
+        Info info;
+        WikiImageUtils.ImageInfo imageInfo;
+
+        try {
+            timestamp = (Calendar) i.getSerializableExtra(WikiService.EXTRA_TIMESTAMP);
+            loc = i.getParcelableExtra(WikiService.EXTRA_LOCATION);
+            image = i.getParcelableExtra(WikiService.EXTRA_IMAGE);
+            info = i.getParcelableExtra(WikiService.EXTRA_INFO);
+            imageInfo = i.getParcelableExtra(WikiService.EXTRA_IMAGE_INFO);
+        } catch(ClassCastException cce) {
+            throw new IOException("Something in the Intent wasn't what it should've been", cce);
+        }
+
+        byte[] imageData = (imageRef == null ? i.getByteArrayExtra(WikiService.EXTRA_IMAGE_DATA) : null);
+        String message = i.getStringExtra(WikiService.EXTRA_MESSAGE);
+        Graticule g = (info == null ? null : info.getGraticule());
+
+        if(imageRef != null && !BlobSpool.isReference(imageRef))
+            throw new IOException("Not a spool reference: " + imageRef);
+
+        // First, figure out what's there and how big it'll all be.  That way,
+        // this only needs the one buffer.
+        int flags = 0;
+        int size = 4;
+
+        if(timestamp != null) { flags |= FLAG_TIMESTAMP; size += 8; }
+        if(loc != null) { flags |= FLAG_LOCATION; size += 16; }
+        if(info != null) {
+            flags |= FLAG_INFO;
+            size += 24;
+
+            if(g != null) {
+                flags |= FLAG_GRATICULE;
+                if(g.isSouth()) flags |= FLAG_GRATICULE_SOUTH;
+                if(g.isWest()) flags |= FLAG_GRATICULE_WEST;
+                size += 4;
+            }
+        }
+
+        byte[] imageBytes = null;
+        if(image != null) {
+            flags |= FLAG_IMAGE;
+            imageBytes = image.toString().getBytes(UTF_8);
+            size += 4 + imageBytes.length;
+        }
+
+        byte[] imageInfoBytes = null;
+        if(imageInfo != null) {
+            flags |= FLAG_IMAGE_INFO;
+            imageInfoBytes = imageInfo.uri.toString().getBytes(UTF_8);
+            size += 4 + imageInfoBytes.length + 8;
+
+            if(imageInfo.location != null) {
+                flags |= FLAG_IMAGE_INFO_LOCATION;
+                size += 16;
+            }
+        }
+
+        if(imageRef != null) { flags |= FLAG_IMAGE_REF; size += REF_BYTES; }
+        if(imageData != null) { flags |= FLAG_IMAGE_DATA; size += 4 + imageData.length; }
+
+        byte[] messageBytes = null;
+        if(message != null) {
+            flags |= FLAG_MESSAGE;
+            messageBytes = message.getBytes(UTF_8);
+            size += 4 + messageBytes.length;
+        }
+
+        if(!i.getBooleanExtra(WikiService.EXTRA_INCLUDE_LOCATION, true))
+            flags |= FLAG_EXCLUDE_LOCATION;
+
+        // Now, write it all out, in order.
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.put(MAGIC);
+        out.put(VERSION_1);
+        out.putShort((short) flags);
+
+        if(timestamp != null) out.putLong(timestamp.getTimeInMillis());
+
+        if(loc != null) {
+            out.putDouble(loc.getLatitude());
+            out.putDouble(loc.getLongitude());
+        }
+
+        if(info != null) {
+            out.putDouble(info.getLatitude());
+            out.putDouble(info.getLongitude());
+            out.putLong(info.getDate().getTime());
+
+            if(g != null) {
+                out.putShort((short) g.getLatitude());
+                out.putShort((short) g.getLongitude());
+            }
+        }
+
+        if(imageBytes != null) putBytes(out, imageBytes);
+
+        if(imageInfo != null) {
+            putBytes(out, imageInfoBytes);
+            out.putLong(imageInfo.timestamp);
+
+            if(imageInfo.location != null) {
+                out.putDouble(imageInfo.location.getLatitude());
+                out.putDouble(imageInfo.location.getLongitude());
+            }
+        }
+
+        if(imageRef != null) {
+            // The reference is hex, so it packs right back down to 32 bytes.
+            for(int b = 0; b < REF_BYTES; b++)
+                out.put((byte) Integer.parseInt(imageRef.substring(b * 2, b * 2 + 2), 16));
+        }
+
+        if(imageData != null) putBytes(out, imageData);
+        if(messageBytes != null) putBytes(out, messageBytes);
+
+        return out.array();
+    }
+
+    /**
+     * Decodes bytes from {@link #encode(Intent, String)} back into an Intent.
+     *
+     * @param data the bytes
+     * @return a new Intent
+     * @throws IOException the bytes weren't something this can decode
+     */
+    @NonNull
+    static Intent decode(@NonNull byte[] data) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(data);
+
+        try {
+            if(in.get() != MAGIC)
+                throw new IOException("That's not a WikiService queue item");
+
+            byte version = in.get();
+            switch(version) {
+                case VERSION_1:
+                    return decodeVersion1(in);
+                default:
+                    throw new IOException("Unknown WikiService queue item version " + version);
+            }
+        } catch(BufferUnderflowException bue) {
+            throw new IOException("WikiService queue item ended early", bue);
+        }
+    }
+
+    @NonNull
+    private static Intent decodeVersion1(@NonNull ByteBuffer in) throws IOException {
+        Intent toReturn = new Intent();
+        int flags = in.getShort() & 0xffff;
+
+        if((flags & FLAG_TIMESTAMP) != 0) {
+            Calendar cal = Calendar.getInstance();
+            cal.setTimeInMillis(in.getLong());
+            toReturn.putExtra(WikiService.EXTRA_TIMESTAMP, cal);
+        }
+
+        if((flags & FLAG_LOCATION) != 0) {
+            Location loc = new Location("");
+            loc.setLatitude(in.getDouble());
+            loc.setLongitude(in.getDouble());
+            toReturn.putExtra(WikiService.EXTRA_LOCATION, loc);
+        }
+
+        if((flags & FLAG_INFO) != 0) {
+            double lat = in.getDouble();
+            double lon = in.getDouble();
+            Calendar cal = Calendar.getInstance();
+            cal.setTimeInMillis(in.getLong());
+
+            // Notably, this doesn't have to have a graticule.  It could be a
+            // globalhash.
+            Graticule grat = null;
+            if((flags & FLAG_GRATICULE) != 0) {
+                int gratLat = in.getShort();
+                int gratLon = in.getShort();
+                grat = new Graticule(gratLat, (flags & FLAG_GRATICULE_SOUTH) != 0,
+                        gratLon, (flags & FLAG_GRATICULE_WEST) != 0);
+            }
+
+            toReturn.putExtra(WikiService.EXTRA_INFO, new Info(lat, lon, grat, cal));
+        }
+
+        if((flags & FLAG_IMAGE) != 0)
+            toReturn.putExtra(WikiService.EXTRA_IMAGE, Uri.parse(getString(in)));
+
+        if((flags & FLAG_IMAGE_INFO) != 0) {
+            Uri uri = Uri.parse(getString(in));
+            long imageTimestamp = in.getLong();
+
+            Location imageLocation = null;
+            if((flags & FLAG_IMAGE_INFO_LOCATION) != 0) {
+                imageLocation = new Location("");
+                imageLocation.setLatitude(in.getDouble());
+                imageLocation.setLongitude(in.getDouble());
+            }
+
+            toReturn.putExtra(WikiService.EXTRA_IMAGE_INFO,
+                    WikiImageUtils.ImageInfo.restore(uri, imageLocation, imageTimestamp));
+        }
+
+        if((flags & FLAG_IMAGE_REF) != 0) {
+            byte[] ref = new byte[REF_BYTES];
+            in.get(ref);
+            toReturn.putExtra(WikiService.EXTRA_IMAGE_REF, CharToByte.bytesToString(ref));
+        }
+
+        if((flags & FLAG_IMAGE_DATA) != 0)
+            toReturn.putExtra(WikiService.EXTRA_IMAGE_DATA, getBytes(in));
+
+        if((flags & FLAG_MESSAGE) != 0)
+            toReturn.putExtra(WikiService.EXTRA_MESSAGE, getString(in));
+
+        if((flags & FLAG_EXCLUDE_LOCATION) != 0)
+            toReturn.putExtra(WikiService.EXTRA_INCLUDE_LOCATION, false);
+
+        return toReturn;
+    }
+
+    private static void putBytes(@NonNull ByteBuffer out, @NonNull byte[] bytes) {
+        out.putInt(bytes.length);
+        out.put(bytes);
+    }
+
+    @NonNull
+    private static byte[] getBytes(@NonNull ByteBuffer in) throws IOException {
+        int length = in.getInt();
+        if(length < 0 || length > in.remaining())
+            throw new IOException("Bad length " + length + " in WikiService queue item");
+
+        byte[] toReturn = new byte[length];
+        in.get(toReturn);
+        return toReturn;
+    }
+
+    @NonNull
+    private static String getString(@NonNull ByteBuffer in) throws IOException {
+        int length = in.getInt();
+        if(length < 0 || length > in.remaining())
+            throw new IOException("Bad length " + length + " in WikiService queue item");
+
+        String toReturn = new String(in.array(), in.arrayOffset() + in.position(), length, UTF_8);
+        in.position(in.position() + length);
+        return toReturn;
+    }
+
+    /**
+     * Encodes a WikiService Intent to the old JSON format.  This is what
+     * everything used to be stored as.
+     *
+     * @param i the Intent
+     * @param imageRef the spool reference for the image data, if it was
+     *                 spooled; if null, any image data goes in inline
+     * @return a JSON string
+     */
+    @NonNull
+    static String encodeJson(@NonNull Intent i, @Nullable String imageRef) {
+        try {
+            // Let's mash this all down into JSON.  It's a reasonably right
+            // thing to do, more or less.
+            JSONObject toReturn = new JSONObject();
+
+            // For the date, just use the timestamp.
+            Calendar cal = (Calendar) i.getSerializableExtra(WikiService.EXTRA_TIMESTAMP);
+            if(cal != null) {
+                toReturn.put("timestamp",
+                        Long.valueOf(cal.getTimeInMillis()).toString());
+            }
+
+            // The location, if known, is two doubles.  Also easy.
+            Location loc = i.getParcelableExtra(WikiService.EXTRA_LOCATION);
+            if(loc != null) {
+                JSONObject location = new JSONObject();
+                location.put("latitude", loc.getLatitude());
+                location.put("longitude", loc.getLongitude());
+                toReturn.put("location", location);
+            }
+
+            // The image is a URI...
+            Uri uri = i.getParcelableExtra(WikiService.EXTRA_IMAGE);
+            if(uri != null) {
+                toReturn.put("image", uri.toString());
+            }
+
+            // ...and a byte array, which is hopefully already spooled.  If
+            // not, it goes in as-is.
+            if(imageRef != null) {
+                toReturn.put("imageRef", imageRef);
+            } else {
+                byte[] imageData = i.getByteArrayExtra(WikiService.EXTRA_IMAGE_DATA);
+                if(imageData != null) {
+                    toReturn.put("imageData",
+                            Base64.encodeToString(imageData, Base64.DEFAULT));
+                }
+            }
+
+            // Info time!
+            Info info = i.getParcelableExtra(WikiService.EXTRA_INFO);
+            if(info != null) {
+                JSONObject infoObj = new JSONObject();
+                infoObj.put("latitude", info.getLatitude());
+                infoObj.put("longitude", info.getLongitude());
+                infoObj.put("timestamp",
+                        Long.valueOf(info.getDate().getTime()).toString());
+
+                Graticule g = info.getGraticule();
+                if(g != null) {
+                    JSONObject graticule = new JSONObject();
+                    graticule.put("latitude", g.getLatitude());
+                    graticule.put("longitude", g.getLongitude());
+                    graticule.put("isSouth", g.isSouth());
+                    graticule.put("isWest", g.isWest());
+
+                    infoObj.put("graticule", graticule);
+                }
+
+                toReturn.put("info", infoObj);
+            }
+
+            // IMAGE info time!
+            WikiImageUtils.ImageInfo imageInfo = i.getParcelableExtra(WikiService.EXTRA_IMAGE_INFO);
+            if(imageInfo != null) {
+                JSONObject imageInfoObj = new JSONObject();
+                imageInfoObj.put("uri", imageInfo.uri.toString());
+                imageInfoObj.put("timestamp", imageInfo.timestamp);
+
+                Location imageLocation = imageInfo.location;
+                if(imageLocation != null) {
+                    JSONObject locationObj = new JSONObject();
+                    locationObj.put("latitude", imageLocation.getLatitude());
+                    locationObj.put("longitude", imageLocation.getLongitude());
+
+                    imageInfoObj.put("location", locationObj);
+                }
+
+                toReturn.put("imageInfo", imageInfoObj);
+            }
+
+            // Finally, the message.
+            String message = i.getStringExtra(WikiService.EXTRA_MESSAGE);
+            if(message != null) {
+                toReturn.put("message", message);
+            }
+
+            // And out it goes!
+            return toReturn.toString();
+        } catch(Exception e) {
+            // If we got an exception, we're in deep trouble.
+            Log.e(DEBUG_TAG, "Exception when serializing an Intent!", e);
+            return "{}";
+        }
+    }
+
+    /**
+     * Decodes the old JSON format back into an Intent.
+     *
+     * @param input a JSON string
+     * @return a new Intent, or null if the JSON was garbage
+     */
+    @Nullable
+    static Intent decodeJson(@NonNull String input) {
+        // Now we go the other way around.
+        Intent toReturn = new Intent();
+
+        try {
+            // Since this should be all JSON, all the time, this simplifies
+            // quite a bit, it turns out.
+            JSONObject incoming = new JSONObject(input);
+
+            // Date, as a long (as a String).
+            String timestamp = incoming.optString("timestamp");
+            if(!timestamp.isEmpty()) {
+                try {
+                    Calendar cal = Calendar.getInstance();
+                    cal.setTimeInMillis(Long.parseLong(timestamp));
+                    toReturn.putExtra(WikiService.EXTRA_TIMESTAMP, cal);
+                } catch(NumberFormatException nfe) {
+                    Log.w(DEBUG_TAG, "Couldn't parse post date " +
+                            timestamp + " as a long, ignoring...", nfe);
+                }
+            }
+
+            // Location, as two doubles.
+            JSONObject location = incoming.optJSONObject("location");
+            if(location != null) {
+                try {
+                    Location loc = new Location("");
+                    loc.setLatitude(location.getDouble("latitude"));
+                    loc.setLongitude(location.getDouble("longitude"));
+                    toReturn.putExtra(WikiService.EXTRA_LOCATION, loc);
+                } catch(JSONException je) {
+                    Log.w(DEBUG_TAG, "Couldn't parse location from " +
+                            location + ", ignoring...", je);
+                }
+            }
+
+            // Image URI, as a string.
+            String image = incoming.optString("image");
+            if(!image.isEmpty()) {
+                toReturn.putExtra(WikiService.EXTRA_IMAGE, Uri.parse(image));
+            }
+
+            // Image data, as a reference to the spool.  This doesn't get read
+            // back until it's needed.
+            String imageRef = incoming.optString("imageRef");
+            if(!imageRef.isEmpty() && BlobSpool.isReference(imageRef)) {
+                toReturn.putExtra(WikiService.EXTRA_IMAGE_REF, imageRef);
+            }
+
+            // Or, if it's from before the spool (or the spool was broken at
+            // the time), as a byte array.
+            String imageDataBase64 = incoming.optString("imageData");
+            if(!imageDataBase64.isEmpty()) {
+                toReturn.putExtra(WikiService.EXTRA_IMAGE_DATA,
+                        Base64.decode(imageDataBase64, Base64.DEFAULT));
+            }
+
+            // The Info object, as a mess of things.
+            JSONObject infoObj = incoming.optJSONObject("info");
+            if(infoObj != null) {
+                try {
+                    double lat = infoObj.getDouble("latitude");
+                    double lon = infoObj.getDouble("longitude");
+                    Calendar cal = Calendar.getInstance();
+                    cal.setTimeInMillis(
+                            Long.parseLong(infoObj.getString("timestamp")));
+
+                    Graticule grat = null;
+                    JSONObject gratObj = infoObj.optJSONObject("graticule");
+                    if(gratObj != null) {
+                        // Notably, this doesn't have to have a graticule.  It
+                        // could be a globalhash.
+                        grat = new Graticule(gratObj.getInt("latitude"),
+                                gratObj.getBoolean("isSouth"),
+                                gratObj.getInt("longitude"),
+                                gratObj.getBoolean("isWest"));
+                    }
+
+                    toReturn.putExtra(WikiService.EXTRA_INFO, new Info(lat, lon, grat, cal));
+                } catch(JSONException je) {
+                    Log.w(DEBUG_TAG, "Couldn't parse something from the Info object, giving up and ignoring...", je);
+                } catch(NumberFormatException nfe) {
+                    Log.w(DEBUG_TAG, "Couldn't parse info date " +
+                            infoObj.getString("timestamp") +
+                            " as a long, giving up and ignoring...", nfe);
+                }
+            }
+
+            // Image info, as a mess of not quite so many things.
+            JSONObject imageInfoObj = incoming.optJSONObject("imageInfo");
+            if(imageInfoObj != null) {
+                try {
+                    Uri uri = Uri.parse(imageInfoObj.getString("uri"));
+                    long imageTimestamp = imageInfoObj.getLong("timestamp");
+
+                    Location imageLocation = null;
+                    JSONObject locationObj = incoming.optJSONObject("location");
+                    if(locationObj != null) {
+                        imageLocation = new Location("");
+                        imageLocation.setLatitude(locationObj.getDouble("latitude"));
+                        imageLocation.setLongitude(locationObj.getDouble("longitude"));
+                    }
+
+                    toReturn.putExtra(WikiService.EXTRA_IMAGE_INFO,
+                            WikiImageUtils.ImageInfo.restore(uri, imageLocation, imageTimestamp));
+                } catch(JSONException je) {
+                    Log.w(DEBUG_TAG, "Couldn't parse something from the ImageInfo object, giving up and ignoring...", je);
+                }
+            }
+
+            // Finally, the message.
+            String message = incoming.optString("message");
+            if(!message.isEmpty()) {
+                toReturn.putExtra(WikiService.EXTRA_MESSAGE, message);
+            }
+
+            // There!  Rebuilt!
+            return toReturn;
+        } catch(JSONException je) {
+            Log.e(DEBUG_TAG, "Something went really wrong deserializing a JSON blob, returning null...", je);
+            return null;
+        }
+    }
+}
@@ -10,7 +10,6 @@ package net.exclaimindustries.geohashdroid.services;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
-import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
@@ -21,46 +20,43 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
-import android.util.Base64;
 import android.util.Log;
 
 import net.exclaimindustries.geohashdroid.R;
 import net.exclaimindustries.geohashdroid.activities.LoginPromptDialog;
 import net.exclaimindustries.geohashdroid.util.GHDConstants;
-import net.exclaimindustries.geohashdroid.util.Graticule;
 import net.exclaimindustries.geohashdroid.util.Info;
 import net.exclaimindustries.geohashdroid.wiki.WikiException;
 import net.exclaimindustries.geohashdroid.wiki.WikiImageUtils;
+import net.exclaimindustries.geohashdroid.wiki.WikiImagePreparer;
+import net.exclaimindustries.geohashdroid.wiki.WikiSession;
 import net.exclaimindustries.geohashdroid.wiki.WikiUtils;
 import net.exclaimindustries.tools.AndroidUtil;
+import net.exclaimindustries.tools.BlobSpool;
 import net.exclaimindustries.tools.DateTools;
 import net.exclaimindustries.tools.PlainSQLiteQueueService;
+import net.exclaimindustries.tools.QueueCodec;
 import net.exclaimindustries.tools.QueueService;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
-import java.util.UUID;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.app.ActivityCompat;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
 import androidx.preference.PreferenceManager;
-import androidx.work.Constraints;
 import androidx.work.ListenableWorker;
-import androidx.work.NetworkType;
-import androidx.work.OneTimeWorkRequest;
-import androidx.work.WorkManager;
-import androidx.work.WorkRequest;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 import cz.msebera.android.httpclient.impl.client.CloseableHttpClient;
-import cz.msebera.android.httpclient.impl.client.HttpClients;
 
 /**
  * <code>WikiService</code> is a background service that handles all wiki
@@ -74,7 +70,9 @@ public class WikiService
         extends PlainSQLiteQueueService {
     /**
      * This Worker does little more than try to fire off a RESUME command once
-     * the network returns.
+     * the network returns.  Nothing schedules this anymore (QueueService
+     * schedules its own resumes now), but it sticks around so any requests an
+     * older version left with WorkManager still have something to run.
      */
     public static class ConnectivityWorker
             extends Worker {
@@ -101,10 +99,43 @@ public class WikiService
     private static final String DEBUG_TAG = "WikiService";
 
     private NotificationManagerCompat mNotificationManager;
-    private AlarmManager mAlarmManager;
     private WakeLock mWakeLock;
 
-    private UUID mLastWikiConnectivityRequestId;
+    // Image data gets spooled out to files instead of going into the queue
+    // database, since it's big and the database just needs to know where it
+    // is.
+    private BlobSpool mImageSpool;
+
+    // One session for the whole service, so a backlog of posts shares one
+    // login and one set of connections.
+    private WikiSession mSession;
+
+    /** The directory (under the app's files) where image data gets spooled. */
+    private static final String IMAGE_SPOOL_DIR = "wikispool";
+
+    /**
+     * Internal extra for a spooled image's reference.  An Intent that came
+     * back out of the queue database will have this instead of
+     * {@link #EXTRA_IMAGE_DATA}, and the data gets read back in only when
+     * it's actually time to upload it.
+     */
+    static final String EXTRA_IMAGE_REF = "net.exclaimindustries.geohashdroid.EXTRA_IMAGE_REF";
+
+    // Queue items get written as compact binary now.  The image data gets
+    // spooled first, same as for the JSON.
+    private final QueueCodec mQueueCodec = new QueueCodec() {
+        @NonNull
+        @Override
+        public byte[] encode(@NonNull Intent i) throws IOException {
+            return WikiQueueCodec.encode(i, spoolImage(i));
+        }
+
+        @Nullable
+        @Override
+        public Intent decode(@NonNull byte[] data) throws IOException {
+            return WikiQueueCodec.decode(data);
+        }
+    };
 
     /** Matches the gallery section. */
     private static final Pattern RE_GALLERY = Pattern.compile("^(.*<gallery[^>]*>)(.*?)(</gallery>.*)$", Pattern.DOTALL);
@@ -113,12 +144,31 @@ public class WikiService
     /** Matches the expedition section. */
     private static final Pattern RE_EXPEDITION = Pattern.compile("^(.*)(==+ ?Expedition ?==+.*?)(==+ ?.*? ?==+.*?)$", Pattern.DOTALL);
 
-    /** How long we wait (in millis) before retrying a throttled edit. */
-    private static final long THROTTLE_DELAY = 60000;
+    /**
+     * The most queued posts to the same page that get folded into one edit.
+     * Images still get uploaded one at a time; it's just the page edit that
+     * gets shared.
+     */
+    private static final int MAX_BATCH_SIZE = 10;
 
     /** The wakelock timeout (10 minutes). */
     private static final long WAKELOCK_TIMEOUT = 10 * 60 * 1000;
 
+    /**
+     * How many expedition pages get posted to at once.  Posts to the same page
+     * still go in order.  This is kept small so we don't look like we're
+     * hammering the wiki.
+     */
+    private static final int MAX_WORKERS = 3;
+
+    // Reasons for pausing, as far as the queue metrics are concerned.
+    private static final String PAUSE_OFFLINE = "offline";
+    private static final String PAUSE_THROTTLED = "throttled";
+    private static final String PAUSE_NEEDS_LOGIN = "needs_login";
+    private static final String PAUSE_WIKI_BUSY = "wiki_busy";
+    private static final String PAUSE_WIKI_ERROR = "wiki_error";
+    private static final String PAUSE_UNKNOWN_ERROR = "unknown_error";
+
     /**
      * The {@link Info} object for the current expedition.
      */
@@ -152,6 +202,17 @@ public class WikiService
      */
     public static final String EXTRA_IMAGE_DATA = "net.exclaimindustries.geohashdroid.EXTRA_IMAGE_DATA";
 
+    /**
+     * Path to a file of image data that's already been prepared for upload,
+     * as a String.  This is what
+     * {@link net.exclaimindustries.geohashdroid.wiki.WikiImagePreparer} hands
+     * back, and it's better than {@link #EXTRA_IMAGE_DATA}, since the data
+     * never has to go through the Intent.  WikiService takes the file over
+     * (it gets moved into the spool), so don't touch it after sending it.
+     * Only files in the preparer's directory are accepted.
+     */
+    public static final String EXTRA_IMAGE_FILE = "net.exclaimindustries.geohashdroid.EXTRA_IMAGE_FILE";
+
     /**
      * The {@link net.exclaimindustries.geohashdroid.wiki.WikiImageUtils.ImageInfo}
      * object associated with an image to be uploaded.  This gets generated in
@@ -193,20 +254,73 @@ public class WikiService
         // Also, get the NotificationManager on standby.
         mNotificationManager = NotificationManagerCompat.from(this);
 
-        // How alarming.  We need the AlarmManager.
-        mAlarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        // And the spool.
+        mImageSpool = new BlobSpool(new File(getFilesDir(), IMAGE_SPOOL_DIR));
+
+        // And the wiki session.
+        mSession = new WikiSession();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        mSession.close();
     }
 
     @Override
     protected ReturnCode handleIntent(Intent i) {
-        // First and foremost, if there's no network connection, just give up
-        // now.
-        if(!AndroidUtil.isConnected(this)) {
-            showWaitingForConnectionNotification();
-            return ReturnCode.PAUSE;
+        ReturnCode toReturn = postToWiki(i, false);
+
+        // If we're done with this one, one way or another, so is its image.
+        // Every queued post gets its own spool file, even if it's the same
+        // picture as another one, so this can't pull the rug out from under
+        // anybody else.
+        if(toReturn == ReturnCode.CONTINUE) {
+            String ref = i.getStringExtra(EXTRA_IMAGE_REF);
+            if(ref != null) mImageSpool.delete(ref);
         }
 
-        // Hey, there, Intent.  Got some extras for me?
+        return toReturn;
+    }
+
+    /**
+     * Tags an Intent with why it's pausing the queue, for the metrics and for
+     * {@link #getRetryMode(Intent)}, and returns PAUSE.
+     */
+    private static ReturnCode pause(@NonNull Intent i, @NonNull String reason) {
+        return pause(i, reason, -1);
+    }
+
+    /**
+     * Same as {@link #pause(Intent, String)}, but also passes along how long
+     * the wiki said to wait, if it said.
+     */
+    private static ReturnCode pause(@NonNull Intent i, @NonNull String reason, long retryAfter) {
+        i.putExtra(EXTRA_PAUSE_REASON, reason);
+        i.putExtra(EXTRA_RETRY_AFTER, retryAfter);
+        return ReturnCode.PAUSE;
+    }
+
+    /**
+     * Determines if a WikiException is the sort of thing that'll probably go
+     * away if we just wait a bit.
+     */
+    private static boolean isTemporary(@NonNull WikiException we) {
+        int id = we.getErrorTextId();
+        return id == R.string.wiki_error_xml
+                || id == R.string.wiki_error_unknown
+                || id == R.string.wiki_error_read_only
+                || id == R.string.wiki_error_conflict
+                || id == R.string.wiki_error_session;
+    }
+
+    /**
+     * Everything a queued post needs, as pulled out of its Intent.  Any of
+     * these can be null if the Intent didn't have them; it's up to whoever's
+     * posting to decide what's vital.
+     */
+    private static class QueuedPost {
         Info info;
         Location loc;
         String message;
@@ -214,70 +328,107 @@ public class WikiService
         Uri imageLocation;
         byte[] imageData;
         WikiImageUtils.ImageInfo imageInfo;
+    }
+
+    /**
+     * Reads the extras out of a queued Intent, including getting back any
+     * spooled image data.
+     *
+     * @param i the Intent
+     * @return a QueuedPost, or null if the extras were the wrong types
+     */
+    @Nullable
+    private QueuedPost readPost(@NonNull Intent i) {
+        QueuedPost post = new QueuedPost();
         boolean includeLocation;
 
         try {
-            info = i.getParcelableExtra(EXTRA_INFO);
-            loc = i.getParcelableExtra(EXTRA_LOCATION);
-            message = i.getStringExtra(EXTRA_MESSAGE);
-            timestamp = (Calendar) i.getSerializableExtra(EXTRA_TIMESTAMP);
-            imageLocation = i.getParcelableExtra(EXTRA_IMAGE);
-            imageData = i.getByteArrayExtra(EXTRA_IMAGE_DATA);
-            imageInfo = i.getParcelableExtra(EXTRA_IMAGE_INFO);
+            post.info = i.getParcelableExtra(EXTRA_INFO);
+            post.loc = i.getParcelableExtra(EXTRA_LOCATION);
+            post.message = i.getStringExtra(EXTRA_MESSAGE);
+            post.timestamp = (Calendar) i.getSerializableExtra(EXTRA_TIMESTAMP);
+            post.imageLocation = i.getParcelableExtra(EXTRA_IMAGE);
+            post.imageData = i.getByteArrayExtra(EXTRA_IMAGE_DATA);
+            post.imageInfo = i.getParcelableExtra(EXTRA_IMAGE_INFO);
             includeLocation = i.getBooleanExtra(EXTRA_INCLUDE_LOCATION, true);
         } catch(ClassCastException cce) {
             // If any of those threw a CCE, bail out.
             Log.e(DEBUG_TAG, "ClassCastException!  Check your casts!", cce);
-            return ReturnCode.CONTINUE;
+            return null;
+        }
+
+        // If the image data got spooled, now's the time to get it back.  If
+        // it came in as a file and somehow skipped the queue's spooling, it
+        // gets spooled now.
+        String imageRef = i.getStringExtra(EXTRA_IMAGE_REF);
+        if(imageRef == null) imageRef = adoptImageFile(i);
+        if(post.imageData == null && imageRef != null) {
+            try {
+                post.imageData = mImageSpool.get(imageRef);
+            } catch(IOException ioe) {
+                // If it's gone, the upload will notice the null and complain
+                // on its own.
+                Log.e(DEBUG_TAG, "Couldn't read spooled image data " + imageRef + "!", ioe);
+            }
         }
 
-        // Prep an HttpClient for later...
-        try(CloseableHttpClient client = HttpClients.createDefault()) {
+        // Location becomes null if we're not including it.  Nothing should
+        // need to care.
+        if(!includeLocation) post.loc = null;
+
+        return post;
+    }
+
+    /**
+     * Posts whatever's in the Intent to the wiki.
+     *
+     * @param i the Intent
+     * @param isRetry true if this is a second try after the wiki forgot our
+     *                login, in which case we won't try a third time
+     * @return what the queue should do next
+     */
+    private ReturnCode postToWiki(Intent i, boolean isRetry) {
+        // First and foremost, if there's no network connection, just give up
+        // now.
+        if(!AndroidUtil.isConnected(this)) {
+            showWaitingForConnectionNotification();
+            return pause(i, PAUSE_OFFLINE);
+        }
+
+        // Hey, there, Intent.  Got some extras for me?
+        QueuedPost post = readPost(i);
+        if(post == null) return ReturnCode.CONTINUE;
+
+        // Which login we used, in case the wiki forgets it.  -1 means we
+        // never got that far, so there's nothing of ours to forget.
+        long generation = -1;
+
+        try {
             // To Preferences!
             SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
             String username = prefs.getString(GHDConstants.PREF_WIKI_USER, "");
             String password = prefs.getString(GHDConstants.PREF_WIKI_PASS, "");
-            if(info == null || message == null || timestamp == null) {
+            if(post.info == null || post.message == null || post.timestamp == null) {
                 // If we're missing something vital, bail out.
                 Log.e(DEBUG_TAG, "Intent was missing some vital data (either Info, message, or timestamp), giving up...");
                 return ReturnCode.CONTINUE;
             }
-            if(imageLocation != null && username.isEmpty()) {
+            if(post.imageLocation != null && username.isEmpty()) {
                 // Also, if there's an image specified, make sure there's also a
                 // username.  The wiki does not allow anonymous image uploads.
                 // This one, unlike the previous one, produces an interruption
                 // so the user can enter in a username and password.
                 showPausingErrorNotification(getString(R.string.wiki_conn_anon_pic_error),
                         resolveWikiExceptionActions(new WikiException(R.string.wiki_conn_anon_pic_error)));
-                return ReturnCode.PAUSE;
-            }
-            // Location becomes null if we're not including it.  Nothing should
-            // need to care.
-            if(!includeLocation) loc = null;
-            // If we got a username/password combo, try to log in.  This throws
-            // a WikiException if the login fails.
-            if(!username.isEmpty() && !password.isEmpty()) {
-                WikiUtils.login(client, username, password);
+                return pause(i, PAUSE_NEEDS_LOGIN);
             }
 
-            // Prep a page.  We want a populated formfields for later.
+            // Log in (if need be) and get the page ready.
             HashMap<String, String> formfields = new HashMap<>();
-            String expedition = WikiUtils.getWikiPageName(info);
-
-            // This will be null if the page didn't exist to begin with.
-            String page = WikiUtils.getWikiPage(client, expedition, formfields);
-
-            // And if it IS null (or empty), then we ought to make said page.
-            if(page == null || page.trim().isEmpty()) {
-                // Aha!
-                WikiUtils.putWikiPage(client, expedition,
-                        WikiUtils.getWikiExpeditionTemplate(info, this),
-                        formfields);
-
-                // And once it's there, we pull it back, as we'll be futzing
-                // about with it some more.
-                page = WikiUtils.getWikiPage(client, expedition, formfields);
-            }
+            generation = prepareSession(username, password, formfields);
+            CloseableHttpClient client = mSession.getClient();
+            String expedition = WikiUtils.getWikiPageName(post.info);
+            String page = getOrCreatePage(client, expedition, post.info, formfields);
 
             // I know this is making a monstrous, ugly method that's just a big
             // if statement, but I tried breaking this down into more specific
@@ -285,22 +436,22 @@ public class WikiService
             // enough in common between them, and wound up with methods with
             // ten or so arguments.  If anyone else has a better idea, feel free
             // to suggest.
-            if(imageLocation != null) {
+            if(post.imageLocation != null) {
                 // If there's an image location, the image info better be
                 // defined.
-                if(imageInfo == null) {
+                if(post.imageInfo == null) {
                     throw new IllegalArgumentException("There's an image location, but there's no image info?");
                 }
 
                 // Let's say there's an image specified.  Get the image's
                 // filename, too.  Well, that is, the name it'll have on the
                 // wiki.
-                String wikiName = WikiImageUtils.getImageWikiName(info, imageInfo, username);
+                String wikiName = WikiImageUtils.getImageWikiName(post.info, post.imageInfo, username);
 
                 // Make sure the image doesn't already exist.  If it does, we
                 // can skip the upload.
                 if(!WikiUtils.doesWikiPageExist(client, wikiName)) {
-                    if(imageData == null) {
+                    if(post.imageData == null) {
                         // No image is a problem at this point...
                         Log.w(DEBUG_TAG, "Trying to upload an image, but imageData was null at upload time?");
                         showImageErrorNotification();
@@ -308,28 +459,17 @@ public class WikiService
                     }
 
                     // Upload now!  Do it!
-                    String description = message + "\n\n" + WikiUtils.getWikiCategories(info);
-                    WikiUtils.putWikiImage(client, wikiName, description, formfields, imageData);
+                    String description = post.message + "\n\n" + WikiUtils.getWikiCategories(post.info);
+                    WikiUtils.putWikiImage(client, wikiName, description, formfields, post.imageData);
                 } else {
                     Log.w(DEBUG_TAG, "Trying to upload an image, but it already exists on the wiki?");
                 }
 
-                // Good, good.  Now, let's get some tags for posting.
-                String locationTag = WikiUtils.makeLocationTag(loc);
-                String prefixTag = WikiImageUtils.getImagePrefixTag(this, imageInfo, info);
-
-                // The message is now going to be surrounded by tags.
-                message = message.trim() + locationTag;
-
-                // And the gallery entry is the name of the file plus that
-                // message.
-                String galleryEntry = "\nImage:" + wikiName + "|" + message + "\n";
-
                 // Then, add the gallery entry into the page...
-                page = addGalleryEntryToPage(page, galleryEntry);
+                page = addImageToPage(page, post, wikiName);
 
                 // ...make a summary...
-                formfields.put("summary", prefixTag + message);
+                formfields.put("summary", makeImageSummary(post));
 
                 // ...and out it goes!
                 WikiUtils.putWikiPage(client, expedition, page, formfields);
@@ -338,22 +478,7 @@ public class WikiService
                 // If we DON'T have an image, it's just a plain message.  That's
                 // a lot easier than an image, but the posting's different,
                 // slightly.
-                String locationTag = WikiUtils.makeLocationTag(loc);
-
-                // The summary gets a prefix depending on if it's a retro or
-                // live post.  Unlike images, "live" always applies if it's not
-                // a retrohash.
-                String summaryPrefix;
-                if(info.isRetroHash())
-                    summaryPrefix = getString(R.string.wiki_post_message_summary_retro);
-                else
-                    summaryPrefix = getString(R.string.wiki_post_message_summary);
-
-                formfields.put("summary", summaryPrefix + " " + message);
-
-                // And now, insert text where need be on the page.
-                String before;
-                String after;
+                formfields.put("summary", makeMessageSummary(post));
 
                 if(page == null) {
                     // This shouldn't happen.  If it did, there's something very
@@ -361,31 +486,21 @@ public class WikiService
                     throw new WikiException(R.string.wiki_error_unknown);
                 }
 
-                Matcher expeditionq = RE_EXPEDITION.matcher(page);
-                if(expeditionq.matches()) {
-                    before = expeditionq.group(1) + expeditionq.group(2);
-                    after = expeditionq.group(3);
-                } else {
-                    // If the expedition section doesn't exist, well, just slap
-                    // it onto the end of the page.  This shouldn't happen
-                    // unless someone's mucking about with the page on the web.
-                    before = page;
-                    after = "";
-                }
-
-                String localtime = DateTools.getWikiDateString(timestamp);
-
-                // Attach requisite tags to the message...
-                message = "\n*" + message + "  -- ~~~" + locationTag + " "
-                        + localtime + "\n";
-
                 // And go!
-                WikiUtils.putWikiPage(client, expedition, before + message
-                        + after, formfields);
+                WikiUtils.putWikiPage(client, expedition, addMessageToPage(page, post), formfields);
             }
 
             return ReturnCode.CONTINUE;
         } catch(WikiException we) {
+            // If the wiki forgot our login, log in again and take one more
+            // shot at it before bothering anyone.  If another post already
+            // noticed and logged in again, the session keeps that login.
+            if(we.getErrorTextId() == R.string.wiki_error_session && !isRetry) {
+                Log.i(DEBUG_TAG, "The wiki forgot the login, trying again...");
+                mSession.invalidateLogin(generation);
+                return postToWiki(i, true);
+            }
+
             // There's two possible exceptions we want to keep an eye on, both
             // of them related to throttling.  Since we're potentially posting
             // numerous edits one right after another (i.e. if the user's been
@@ -394,12 +509,14 @@ public class WikiService
             // waiting it out for a minute or so.
             if(we.getErrorTextId() == R.string.wiki_error_throttled || we.getErrorTextId() == R.string.wiki_error_rate_limit) {
                 showThrottleNotification();
+                return pause(i, PAUSE_THROTTLED, we.getRetryAfter());
             } else {
-                // Otherwise, throw a normal notification.
+                // Otherwise, throw a normal notification.  If it's something
+                // that'll clear up on its own, the queue will try again on its
+                // own, too; the user can still nudge it along.
                 showPausingErrorNotification(getString(we.getErrorTextId()), resolveWikiExceptionActions(we));
+                return pause(i, isTemporary(we) ? PAUSE_WIKI_BUSY : PAUSE_WIKI_ERROR, we.getRetryAfter());
             }
-
-            return ReturnCode.PAUSE;
         } catch(Exception e) {
             // Okay, first off, are we still connected?  An Exception will get
             // thrown if the connection just goes poof while we're trying to do
@@ -407,18 +524,237 @@ public class WikiService
             if(!AndroidUtil.isConnected(this)) {
                 // We're not!  Go to disconnected mode and wait.
                 showWaitingForConnectionNotification();
+                return pause(i, PAUSE_OFFLINE);
             } else {
                 // Otherwise, we're kinda stumped.  Maybe the user will know
                 // what to do?
                 Log.e(DEBUG_TAG, "Unknown wiki problem", e);
                 showPausingErrorNotification(getString(R.string.wiki_notification_general_error), resolveWikiExceptionActions(null));
+                return pause(i, PAUSE_UNKNOWN_ERROR);
             }
-
-            return ReturnCode.PAUSE;
         }
         // Eh, forget it.
     }
 
+    @Override
+    protected int getMaxBatchSize() {
+        return MAX_BATCH_SIZE;
+    }
+
+    @Override
+    protected int handleIntents(@NonNull List<Intent> batch) {
+        // All of these are for the same page (that's the ordering key), so
+        // instead of fetching and putting the whole page once per post, we
+        // fetch it once, add everything, and put it once.  Anything even
+        // slightly unusual stops the batch right there, and the usual
+        // one-at-a-time route takes over from that post, complete with all
+        // its notifications and pauses.
+        if(!AndroidUtil.isConnected(this)) return 0;
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        String username = prefs.getString(GHDConstants.PREF_WIKI_USER, "");
+        String password = prefs.getString(GHDConstants.PREF_WIKI_PASS, "");
+
+        List<QueuedPost> posts = new ArrayList<>(batch.size());
+        String expedition = null;
+        for(Intent i : batch) {
+            QueuedPost post = readPost(i);
+
+            if(post == null || post.info == null || post.message == null || post.timestamp == null)
+                break;
+
+            if(post.imageLocation != null
+                    && (username.isEmpty() || post.imageInfo == null || post.imageData == null))
+                break;
+
+            String name = WikiUtils.getWikiPageName(post.info);
+            if(expedition == null)
+                expedition = name;
+            else if(!expedition.equals(name))
+                break;
+
+            posts.add(post);
+        }
+
+        // A batch of one isn't a batch.
+        if(expedition == null || posts.size() < 2) return 0;
+
+        try {
+            HashMap<String, String> formfields = new HashMap<>();
+            prepareSession(username, password, formfields);
+            CloseableHttpClient client = mSession.getClient();
+            String page = getOrCreatePage(client, expedition, posts.get(0).info, formfields);
+            if(page == null) return 0;
+
+            List<String> summaries = new ArrayList<>(posts.size());
+            for(QueuedPost post : posts) {
+                if(post.imageLocation != null) {
+                    // Images still need uploading one by one.  If the batch
+                    // falls through later, the one-at-a-time route will see
+                    // these are already there and won't upload them again.
+                    String wikiName = WikiImageUtils.getImageWikiName(post.info, post.imageInfo, username);
+                    if(!WikiUtils.doesWikiPageExist(client, wikiName)) {
+                        String description = post.message + "\n\n" + WikiUtils.getWikiCategories(post.info);
+                        WikiUtils.putWikiImage(client, wikiName, description, formfields, post.imageData);
+                    }
+
+                    page = addImageToPage(page, post, wikiName);
+                    summaries.add(makeImageSummary(post));
+                } else {
+                    page = addMessageToPage(page, post);
+                    summaries.add(makeMessageSummary(post));
+                }
+            }
+
+            formfields.put("summary", getString(R.string.wiki_post_batch_summary,
+                    summaries.get(0), summaries.size() - 1));
+            WikiUtils.putWikiPage(client, expedition, page, formfields);
+        } catch(WikiException we) {
+            if(we.getErrorTextId() == R.string.wiki_error_conflict)
+                Log.i(DEBUG_TAG, "Edit conflict on a batch for " + expedition + ", going one at a time...");
+            else
+                Log.w(DEBUG_TAG, "Batch for " + expedition + " failed, going one at a time...", we);
+            return 0;
+        } catch(Exception e) {
+            Log.w(DEBUG_TAG, "Batch for " + expedition + " failed, going one at a time...", e);
+            return 0;
+        }
+
+        Log.d(DEBUG_TAG, "Posted " + posts.size() + " queued posts to " + expedition + " in one edit.");
+
+        // Same as handleIntent, the images are done with now.
+        for(int n = 0; n < posts.size(); n++) {
+            String ref = batch.get(n).getStringExtra(EXTRA_IMAGE_REF);
+            if(ref != null) mImageSpool.delete(ref);
+        }
+
+        return posts.size();
+    }
+
+    /**
+     * Gets the wiki session ready to post.  If we got a username/password
+     * combo, that means making sure we're logged in; the session remembers
+     * if we already are, so this only actually hits the wiki for the first
+     * post in a while.  This throws a WikiException if the login fails.
+     *
+     * @param username the username, or empty
+     * @param password the password, or empty
+     * @param formfields if we log in, this gets told to make the wiki check
+     * @return the login's generation, for if the wiki forgets it later
+     */
+    private long prepareSession(@NonNull String username,
+                                @NonNull String password,
+                                @NonNull HashMap<String, String> formfields) throws Exception {
+        boolean loggedIn = !username.isEmpty() && !password.isEmpty();
+        long generation = mSession.ensureLoggedIn(loggedIn ? username : "", password);
+
+        // If we're supposed to be logged in, tell the wiki that.  That way,
+        // if the login expired on the wiki's end, the edit fails instead of
+        // quietly going in as an anonymous one.
+        if(loggedIn) formfields.put("assert", "user");
+
+        return generation;
+    }
+
+    /**
+     * Gets the text of an expedition page, making the page first if it isn't
+     * there yet.  formfields gets populated along the way.
+     *
+     * @return the page text, which really shouldn't be null, but might be
+     */
+    @Nullable
+    private String getOrCreatePage(@NonNull CloseableHttpClient client,
+                                   @NonNull String expedition,
+                                   @NonNull Info info,
+                                   @NonNull HashMap<String, String> formfields) throws Exception {
+        // This will be null if the page didn't exist to begin with.
+        String page = WikiUtils.getWikiPage(client, expedition, formfields);
+
+        // And if it IS null (or empty), then we ought to make said page.
+        if(page == null || page.trim().isEmpty()) {
+            // Aha!
+            WikiUtils.putWikiPage(client, expedition,
+                    WikiUtils.getWikiExpeditionTemplate(info, this),
+                    formfields);
+
+            // And once it's there, we pull it back, as we'll be futzing
+            // about with it some more.
+            page = WikiUtils.getWikiPage(client, expedition, formfields);
+        }
+
+        return page;
+    }
+
+    /**
+     * Makes an image's caption: the message, followed by a location tag.
+     */
+    @NonNull
+    private static String makeImageCaption(@NonNull QueuedPost post) {
+        return post.message.trim() + WikiUtils.makeLocationTag(post.loc);
+    }
+
+    /**
+     * Makes the edit summary for an image post.
+     */
+    @NonNull
+    private String makeImageSummary(@NonNull QueuedPost post) {
+        return WikiImageUtils.getImagePrefixTag(this, post.imageInfo, post.info) + makeImageCaption(post);
+    }
+
+    /**
+     * Adds an image's gallery entry to the page.
+     */
+    private String addImageToPage(String page, @NonNull QueuedPost post, @NonNull String wikiName) {
+        // The gallery entry is the name of the file plus the caption.
+        String galleryEntry = "\nImage:" + wikiName + "|" + makeImageCaption(post) + "\n";
+        return addGalleryEntryToPage(page, galleryEntry);
+    }
+
+    /**
+     * Makes the edit summary for a plain message post.
+     */
+    @NonNull
+    private String makeMessageSummary(@NonNull QueuedPost post) {
+        // The summary gets a prefix depending on if it's a retro or live post.
+        // Unlike images, "live" always applies if it's not a retrohash.
+        String summaryPrefix;
+        if(post.info.isRetroHash())
+            summaryPrefix = getString(R.string.wiki_post_message_summary_retro);
+        else
+            summaryPrefix = getString(R.string.wiki_post_message_summary);
+
+        return summaryPrefix + " " + post.message;
+    }
+
+    /**
+     * Inserts a plain message at the end of the page's expedition section.
+     */
+    @NonNull
+    private static String addMessageToPage(@NonNull String page, @NonNull QueuedPost post) {
+        String before;
+        String after;
+
+        Matcher expeditionq = RE_EXPEDITION.matcher(page);
+        if(expeditionq.matches()) {
+            before = expeditionq.group(1) + expeditionq.group(2);
+            after = expeditionq.group(3);
+        } else {
+            // If the expedition section doesn't exist, well, just slap it onto
+            // the end of the page.  This shouldn't happen unless someone's
+            // mucking about with the page on the web.
+            before = page;
+            after = "";
+        }
+
+        String localtime = DateTools.getWikiDateString(post.timestamp);
+
+        // Attach requisite tags to the message...
+        String message = "\n*" + post.message + "  -- ~~~" + WikiUtils.makeLocationTag(post.loc)
+                + " " + localtime + "\n";
+
+        return before + message + after;
+    }
+
     @Override
     protected void onQueueStart() {
         // WAKELOCK!  Front and center!
@@ -449,6 +785,12 @@ public class WikiService
         // Done!  Wakelock go away now.
         if(mWakeLock.isHeld()) mWakeLock.release();
 
+        // If everything got processed, nothing can possibly need anything
+        // that's spooled, so toss anything that got left behind (if, say, we
+        // got killed between an upload and its delete).  If not, we're about
+        // to be cleared, which takes care of it.
+        if(allProcessed) mImageSpool.clear();
+
         // Notifications go boom, too.
         removeActiveNotification();
 
@@ -457,216 +799,151 @@ public class WikiService
     }
 
     @Override
-    protected String serializeIntent(@NonNull Intent i) {
-        Log.d(DEBUG_TAG, "Now serializing an intent...");
-        try {
-            // Let's mash this all down into JSON.  It's a reasonably right
-            // thing to do, more or less.
-            JSONObject toReturn = new JSONObject();
-
-            // For the date, just use the timestamp.
-            Calendar cal = (Calendar) i.getSerializableExtra(EXTRA_TIMESTAMP);
-            if(cal != null) {
-                toReturn.put("timestamp",
-                        Long.valueOf(cal.getTimeInMillis()).toString());
-            }
+    protected void clearQueue() {
+        super.clearQueue();
 
-            // The location, if known, is two doubles.  Also easy.
-            Location loc = i.getParcelableExtra(EXTRA_LOCATION);
-            if(loc != null) {
-                JSONObject location = new JSONObject();
-                location.put("latitude", loc.getLatitude());
-                location.put("longitude", loc.getLongitude());
-                toReturn.put("location", location);
-            }
-
-            // The image is a URI...
-            Uri uri = i.getParcelableExtra(EXTRA_IMAGE);
-            if(uri != null) {
-                toReturn.put("image", uri.toString());
-            }
+        // The queue's empty, so the spool can be, too.
+        mImageSpool.clear();
+    }
 
-            // ...and a byte array.  That's the troublesome one, as it's large.
-            byte[] imageData = i.getByteArrayExtra(EXTRA_IMAGE_DATA);
-            if(imageData != null) {
-                toReturn.put("imageData",
-                        Base64.encodeToString(imageData, Base64.DEFAULT));
-            }
+    @Override
+    protected int getMaxWorkers() {
+        return MAX_WORKERS;
+    }
 
-            // Info time!
+    @Nullable
+    @Override
+    protected String getOrderingKey(@NonNull Intent i) {
+        // Posts to the same expedition page have to go in order, or the
+        // gallery and the message log get mixed up.  Posts to different pages
+        // don't care about each other at all.  Anything without an Info gets
+        // thrown out on arrival anyway, so it can go wherever.
+        try {
             Info info = i.getParcelableExtra(EXTRA_INFO);
-            if(info != null) {
-                JSONObject infoObj = new JSONObject();
-                infoObj.put("latitude", info.getLatitude());
-                infoObj.put("longitude", info.getLongitude());
-                infoObj.put("timestamp",
-                        Long.valueOf(info.getDate().getTime()).toString());
-
-                Graticule g = info.getGraticule();
-                if(g != null) {
-                    JSONObject graticule = new JSONObject();
-                    graticule.put("latitude", g.getLatitude());
-                    graticule.put("longitude", g.getLongitude());
-                    graticule.put("isSouth", g.isSouth());
-                    graticule.put("isWest", g.isWest());
-
-                    infoObj.put("graticule", graticule);
-                }
-
-                toReturn.put("info", infoObj);
-            }
-
-            // IMAGE info time!
-            WikiImageUtils.ImageInfo imageInfo = i.getParcelableExtra(EXTRA_IMAGE_INFO);
-            if(imageInfo != null) {
-                JSONObject imageInfoObj = new JSONObject();
-                imageInfoObj.put("uri", imageInfo.uri.toString());
-                imageInfoObj.put("timestamp", imageInfo.timestamp);
-
-                Location imageLocation = imageInfo.location;
-                if(imageLocation != null) {
-                    JSONObject locationObj = new JSONObject();
-                    locationObj.put("latitude", imageLocation.getLatitude());
-                    locationObj.put("longitude", imageLocation.getLongitude());
-
-                    imageInfoObj.put("location", locationObj);
-                }
-
-                toReturn.put("imageInfo", imageInfoObj);
-            }
-
-            // Finally, the message.
-            String message = i.getStringExtra(EXTRA_MESSAGE);
-            if(message != null) {
-                toReturn.put("message", message);
-            }
-
-            // And out it goes!
-            return toReturn.toString();
-        } catch(Exception e) {
-            // If we got an exception, we're in deep trouble.
-            Log.e(DEBUG_TAG, "Exception when serializing an Intent!", e);
-            return "{}";
+            return info == null ? null : WikiUtils.getWikiPageName(info);
+        } catch(ClassCastException cce) {
+            return null;
         }
     }
 
+    @NonNull
     @Override
-    protected Intent deserializeIntent(@NonNull String input) {
-        // Now we go the other way around.
-        Intent toReturn = new Intent();
-
-        try {
-            // Since this should be all JSON, all the time, this simplifies
-            // quite a bit, it turns out.
-            JSONObject incoming = new JSONObject(input);
-
-            // Date, as a long (as a String).
-            String timestamp = incoming.optString("timestamp");
-            if(!timestamp.isEmpty()) {
-                try {
-                    Calendar cal = Calendar.getInstance();
-                    cal.setTimeInMillis(Long.parseLong(timestamp));
-                    toReturn.putExtra(EXTRA_TIMESTAMP, cal);
-                } catch(NumberFormatException nfe) {
-                    Log.w(DEBUG_TAG, "Couldn't parse post date " +
-                            timestamp + " as a long, ignoring...", nfe);
-                }
-            }
+    protected RetryMode getRetryMode(@NonNull Intent i) {
+        String reason = i.getStringExtra(EXTRA_PAUSE_REASON);
+        if(reason == null) return RetryMode.MANUAL;
+
+        switch(reason) {
+            case PAUSE_OFFLINE:
+                // Just wait for the network to come back.
+                return RetryMode.WHEN_CONNECTED;
+            case PAUSE_THROTTLED:
+            case PAUSE_WIKI_BUSY:
+            case PAUSE_UNKNOWN_ERROR:
+                // These might clear up if we give them a bit.  If not, we'll
+                // give them a bit longer next time, and eventually give up.
+                return RetryMode.BACKOFF;
+            default:
+                // Anything else (bad logins and the like) needs the user to do
+                // something about it first.
+                return RetryMode.MANUAL;
+        }
+    }
 
-            // Location, as two doubles.
-            JSONObject location = incoming.optJSONObject("location");
-            if(location != null) {
-                try {
-                    Location loc = new Location("");
-                    loc.setLatitude(location.getDouble("latitude"));
-                    loc.setLongitude(location.getDouble("longitude"));
-                    toReturn.putExtra(EXTRA_LOCATION, loc);
-                } catch(JSONException je) {
-                    Log.w(DEBUG_TAG, "Couldn't parse location from " +
-                            location + ", ignoring...", je);
-                }
-            }
+    @Override
+    protected boolean retryRequiresNetwork() {
+        // There's no talking to the wiki without it.
+        return true;
+    }
 
-            // Image URI, as a string.
-            String image = incoming.optString("image");
-            if(!image.isEmpty()) {
-                toReturn.putExtra(EXTRA_IMAGE, Uri.parse(image));
-            }
+    @Nullable
+    @Override
+    protected QueueCodec getQueueCodec() {
+        return mQueueCodec;
+    }
 
-            // Image data, as a byte array.
-            String imageDataBase64 = incoming.optString("imageData");
-            if(!imageDataBase64.isEmpty()) {
-                toReturn.putExtra(EXTRA_IMAGE_DATA,
-                        Base64.decode(imageDataBase64, Base64.DEFAULT));
+    /**
+     * Spools an Intent's image data, if it has any and it isn't already
+     * spooled.
+     *
+     * @param i the Intent
+     * @return the spool reference, or null if there's no image data or it
+     *         couldn't be spooled (in which case it has to go in inline)
+     */
+    @Nullable
+    private String spoolImage(@NonNull Intent i) {
+        String imageRef = i.getStringExtra(EXTRA_IMAGE_REF);
+        if(imageRef == null) imageRef = adoptImageFile(i);
+        byte[] imageData = i.getByteArrayExtra(EXTRA_IMAGE_DATA);
+
+        if(imageRef == null && imageData != null) {
+            try {
+                imageRef = mImageSpool.put(imageData);
+
+                // Same as adopting a file, the Intent keeps the reference
+                // from here on, so if it gets written out again, it doesn't
+                // get a second copy of the same spool file.
+                i.removeExtra(EXTRA_IMAGE_DATA);
+                i.putExtra(EXTRA_IMAGE_REF, imageRef);
+            } catch(IOException ioe) {
+                // If the spool's not working, fall back to storing it inline.
+                // It's big, but at least it's not lost.
+                Log.w(DEBUG_TAG, "Couldn't spool image data, storing it inline instead...", ioe);
             }
+        }
 
-            // The Info object, as a mess of things.
-            JSONObject infoObj = incoming.optJSONObject("info");
-            if(infoObj != null) {
-                try {
-                    double lat = infoObj.getDouble("latitude");
-                    double lon = infoObj.getDouble("longitude");
-                    Calendar cal = Calendar.getInstance();
-                    cal.setTimeInMillis(
-                            Long.parseLong(infoObj.getString("timestamp")));
-
-                    Graticule grat = null;
-                    JSONObject gratObj = infoObj.optJSONObject("graticule");
-                    if(gratObj != null) {
-                        // Notably, this doesn't have to have a graticule.  It
-                        // could be a globalhash.
-                        grat = new Graticule(gratObj.getInt("latitude"),
-                                gratObj.getBoolean("isSouth"),
-                                gratObj.getInt("longitude"),
-                                gratObj.getBoolean("isWest"));
-                    }
-
-                    toReturn.putExtra(EXTRA_INFO, new Info(lat, lon, grat, cal));
-                } catch(JSONException je) {
-                    Log.w(DEBUG_TAG, "Couldn't parse something from the Info object, giving up and ignoring...", je);
-                } catch(NumberFormatException nfe) {
-                    Log.w(DEBUG_TAG, "Couldn't parse info date " +
-                            infoObj.getString("timestamp") +
-                            " as a long, giving up and ignoring...", nfe);
-                }
-            }
+        return imageRef;
+    }
 
-            // Image info, as a mess of not quite so many things.
-            JSONObject imageInfoObj = incoming.optJSONObject("imageInfo");
-            if(imageInfoObj != null) {
-                try {
-                    Uri uri = Uri.parse(imageInfoObj.getString("uri"));
-                    long imageTimestamp = imageInfoObj.getLong("timestamp");
-
-                    Location imageLocation = null;
-                    JSONObject locationObj = incoming.optJSONObject("location");
-                    if(locationObj != null) {
-                        imageLocation = new Location("");
-                        imageLocation.setLatitude(locationObj.getDouble("latitude"));
-                        imageLocation.setLongitude(locationObj.getDouble("longitude"));
-                    }
+    /**
+     * Moves an Intent's prepared image file into the spool, if it has one.
+     * The Intent gets the spool reference in place of the file, so nothing
+     * tries to adopt it twice.
+     *
+     * @param i the Intent
+     * @return the spool reference, or null if there's no file or it couldn't
+     *         be spooled
+     */
+    @Nullable
+    private String adoptImageFile(@NonNull Intent i) {
+        String path = i.getStringExtra(EXTRA_IMAGE_FILE);
+        if(path == null) return null;
 
-                    toReturn.putExtra(EXTRA_IMAGE_INFO,
-                            new WikiImageUtils.ImageInfo(uri, imageLocation, imageTimestamp));
-                } catch(JSONException je) {
-                    Log.w(DEBUG_TAG, "Couldn't parse something from the ImageInfo object, giving up and ignoring...", je);
-                }
-            }
+        File file = new File(path);
 
-            // Finally, the message.
-            String message = incoming.optString("message");
-            if(!message.isEmpty()) {
-                toReturn.putExtra(EXTRA_MESSAGE, message);
+        try {
+            // Only take files from where the preparer puts them.  Anything
+            // else, we don't own, and we're about to move it.
+            File dir = WikiImagePreparer.getPreparedDirectory(this).getCanonicalFile();
+            if(!dir.equals(file.getCanonicalFile().getParentFile())) {
+                Log.w(DEBUG_TAG, "Ignoring image file " + path + ", it's not one of ours!");
+                i.removeExtra(EXTRA_IMAGE_FILE);
+                return null;
             }
 
-            // There!  Rebuilt!
-            return toReturn;
-        } catch(JSONException je) {
-            Log.e(DEBUG_TAG, "Something went really wrong deserializing a JSON blob, returning null...", je);
+            String imageRef = mImageSpool.adopt(file);
+            i.removeExtra(EXTRA_IMAGE_FILE);
+            i.putExtra(EXTRA_IMAGE_REF, imageRef);
+            return imageRef;
+        } catch(IOException ioe) {
+            // Leave the extra alone; maybe it'll work next time.
+            Log.e(DEBUG_TAG, "Couldn't spool image file " + path + "!", ioe);
             return null;
         }
     }
 
+    @Override
+    protected String serializeIntent(@NonNull Intent i) {
+        // This only happens if the binary codec couldn't handle something.
+        Log.d(DEBUG_TAG, "Now serializing an intent to JSON...");
+        return WikiQueueCodec.encodeJson(i, spoolImage(i));
+    }
+
+    @Override
+    protected Intent deserializeIntent(@NonNull String input) {
+        // Anything queued up before the binary codec will be JSON.
+        return WikiQueueCodec.decodeJson(input);
+    }
+
     @Override
     protected boolean resumeOnNewIntent() {
         // Try to resume the queue on a new intent.  If it fails again, it'll
@@ -723,28 +1000,12 @@ public class WikiService
             mNotificationManager.notify(R.id.wiki_waiting_notification, builder.build());
         }
 
-        WorkRequest connectivityWorkRequest =
-                new OneTimeWorkRequest.Builder(ConnectivityWorker.class)
-                        .setConstraints(new Constraints.Builder()
-                                .setRequiredNetworkType(NetworkType.CONNECTED)
-                                .build())
-                        .build();
-
-        mLastWikiConnectivityRequestId = connectivityWorkRequest.getId();
-        WorkManager.getInstance(this).enqueue(connectivityWorkRequest);
+        // The queue itself will wait for the network to come back (see
+        // getRetryMode()), so all we need is the notification.
     }
 
     private void hideWaitingForConnectionNotification() {
         mNotificationManager.cancel(R.id.wiki_waiting_notification);
-
-        // If there's still a request waiting, cancel it.  This really shouldn't
-        // matter (worst case, it just means a stray RESUME will be shot off),
-        // and chances are the ID will be lost as soon as this service ends,
-        // but let's just try anyway.
-        if(mLastWikiConnectivityRequestId != null) {
-            WorkManager.getInstance(this)
-                    .cancelWorkById(mLastWikiConnectivityRequestId);
-        }
     }
 
     private void showPausingErrorNotification(String reason, NotificationCompat.Action[] actions) {
@@ -777,8 +1038,9 @@ public class WikiService
 
     private void showThrottleNotification() {
         if(ActivityCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS) == PackageManager.PERMISSION_GRANTED) {
-            // Throttling just means we wait a minute before we try again.  The
-            // user is free to force the issue, however.
+            // Throttling just means we wait a bit before we try again (the
+            // queue schedules that itself).  The user is free to force the
+            // issue, however.
             NotificationCompat.Builder builder = getFreshNotificationBuilder()
                     .setAutoCancel(true)
                     .setOngoing(true)
@@ -791,16 +1053,10 @@ public class WikiService
 
             mNotificationManager.notify(R.id.wiki_throttle_notification, builder.build());
         }
-
-        // Also, get the alarm ready.
-        mAlarmManager.set(AlarmManager.RTC_WAKEUP,
-                System.currentTimeMillis() + THROTTLE_DELAY,
-                getBasicCommandIntent(QueueService.COMMAND_RESUME));
     }
 
     private void hideThrottleNotification() {
         mNotificationManager.cancel(R.id.wiki_throttle_notification);
-        mAlarmManager.cancel(getBasicCommandIntent(QueueService.COMMAND_RESUME));
     }
 
     @SuppressLint("NewApi")
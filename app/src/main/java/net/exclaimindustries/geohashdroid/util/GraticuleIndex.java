@@ -0,0 +1,259 @@
+/*
+ * GraticuleIndex.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import android.location.Location;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+
+/**
+ * <p>
+ * A <code>GraticuleIndex</code> is a spatial index of things with locations
+ * (KnownLocations, mostly).  Everything gets bucketed by its Graticule, and
+ * each Graticule is chopped up into a smaller grid, so asking for everything
+ * within some distance of a point only has to look at the few cells that
+ * could possibly have anything in range, not every single thing in the index.
+ * </p>
+ *
+ * <p>
+ * The cells checked are picked generously, then everything in them gets its
+ * actual distance checked with {@link Location#distanceBetween(double, double, double, double, float[])},
+ * so the results are exactly what checking everything one by one would give.
+ * Searches that go over the 180th meridian or around a pole work, too.
+ * </p>
+ *
+ * <p>
+ * This isn't thread-safe.  Fill it up, then search it.
+ * </p>
+ *
+ * @param <T> whatever's being indexed
+ * @author Nicholas Killewald
+ */
+public class GraticuleIndex<T> {
+    // Each Graticule gets split into this many rows and columns.  An eighth
+    // of a degree is about 14km north-to-south, which is on the order of how
+    // far out most people set their KnownLocations.
+    private static final int CELLS = 8;
+
+    // A bit under the smallest radius of curvature on the WGS84 ellipsoid, so
+    // any range in degrees worked out from it is always a little too big, never
+    // too small.
+    private static final double SMALL_EARTH_RADIUS = 6300000.0;
+
+    /**
+     * Gets told about everything a search finds.
+     *
+     * @param <T> whatever's being indexed
+     */
+    public interface Visitor<T> {
+        /**
+         * Something was found.
+         *
+         * @param item the thing
+         * @param distance how far it is from the search point, in m
+         */
+        void visit(@NonNull T item, float distance);
+    }
+
+    private static class Entry {
+        final Object item;
+        final double latitude;
+        final double longitude;
+        Entry next;
+
+        Entry(@NonNull Object item, double latitude, double longitude) {
+            this.item = item;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+
+    private static class Bucket {
+        // The southwest corner of the Graticule, in real degrees.
+        final double south;
+        final double west;
+        // Each cell is a linked list, row-major from the southwest.
+        final Entry[] cells = new Entry[CELLS * CELLS];
+
+        Bucket(@NonNull Graticule g) {
+            south = g.isSouth() ? -(g.getLatitude() + 1) : g.getLatitude();
+            west = g.isWest() ? -(g.getLongitude() + 1) : g.getLongitude();
+        }
+    }
+
+    private final Map<Graticule, Bucket> mBuckets = new HashMap<>();
+    private final float[] mDistance = new float[1];
+    private int mSize;
+
+    /**
+     * Adds something to the index.
+     *
+     * @param item the thing
+     * @param latitude where it is
+     * @param longitude where it is
+     */
+    public void add(@NonNull T item, double latitude, double longitude) {
+        Graticule g = new Graticule(latitude, longitude);
+        Bucket bucket = mBuckets.get(g);
+
+        if(bucket == null) {
+            bucket = new Bucket(g);
+            mBuckets.put(g, bucket);
+        }
+
+        int cell = cellIndex(latitude - bucket.south) * CELLS + cellIndex(longitude - bucket.west);
+        Entry entry = new Entry(item, latitude, longitude);
+        entry.next = bucket.cells[cell];
+        bucket.cells[cell] = entry;
+        mSize++;
+    }
+
+    /**
+     * Gets how many things are in the index.
+     *
+     * @return the size
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Finds everything within the given distance of a point.  The visitor
+     * gets called for each of them, in no particular order.
+     *
+     * @param latitude the point
+     * @param longitude the point
+     * @param radius the distance, in m
+     * @param visitor what to tell about everything found
+     */
+    public void findWithin(double latitude,
+                           double longitude,
+                           double radius,
+                           @NonNull Visitor<T> visitor) {
+        if(mSize == 0 || radius < 0) return;
+
+        // Work out a box that's sure to cover everything in range.  North and
+        // south is easy.  East and west depends on the latitude, and if the
+        // circle goes over a pole, it's every longitude.
+        double angle = radius / SMALL_EARTH_RADIUS;
+        double dLat = Math.toDegrees(angle);
+        double south = Math.max(-90.0, latitude - dLat);
+        double north = Math.min(90.0, latitude + dLat);
+        double west = -180.0;
+        double east = 180.0;
+        boolean allLongitudes = true;
+
+        if(angle < Math.PI / 2 && Math.abs(latitude) + dLat < 90.0) {
+            double spread = Math.sin(angle) / Math.cos(Math.toRadians(latitude));
+
+            if(spread < 1.0) {
+                double dLon = Math.toDegrees(Math.asin(spread));
+
+                // Anything that's nearly the whole way around might as well
+                // be, and this way we never look at the same Graticule twice.
+                if(dLon < 178.0) {
+                    west = longitude - dLon;
+                    east = longitude + dLon;
+                    allLongitudes = false;
+                }
+            }
+        }
+
+        // Graticules round toward zero, so something sitting exactly on 1S or
+        // 1W belongs to the Graticule south or west of where flooring would
+        // put it.  Start one early to catch those.
+        int rowLo = Math.max(-90, (int)Math.floor(south) - 1);
+        int rowHi = Math.min(89, (int)Math.floor(north));
+        int colLo = allLongitudes ? -180 : (int)Math.floor(west) - 1;
+        int colHi = allLongitudes ? 179 : (int)Math.floor(east);
+
+        // If the box covers more Graticules than we've got buckets, it's
+        // cheaper to just go through the buckets.
+        long boxSize = (long)(rowHi - rowLo + 1) * (colHi - colLo + 1);
+
+        if(boxSize > mBuckets.size()) {
+            for(Bucket bucket : mBuckets.values())
+                searchBucket(bucket, south, north, west, east, allLongitudes,
+                        latitude, longitude, radius, visitor);
+        } else {
+            for(int row = rowLo; row <= rowHi; row++) {
+                for(int col = colLo; col <= colHi; col++) {
+                    // Wrap around the 180th meridian if need be.
+                    int wrapped = ((col + 180) % 360 + 360) % 360 - 180;
+
+                    // Graticules are named after their corner nearest the
+                    // Prime Meridian and equator, so ask for the middle of
+                    // the cell to get the right one.
+                    Bucket bucket = mBuckets.get(new Graticule(row + 0.5, wrapped + 0.5));
+                    if(bucket != null)
+                        searchBucket(bucket, south, north, west, east, allLongitudes,
+                                latitude, longitude, radius, visitor);
+                }
+            }
+        }
+    }
+
+    private void searchBucket(@NonNull Bucket bucket,
+                              double south,
+                              double north,
+                              double west,
+                              double east,
+                              boolean allLongitudes,
+                              double latitude,
+                              double longitude,
+                              double radius,
+                              @NonNull Visitor<T> visitor) {
+        if(north < bucket.south || south > bucket.south + 1) return;
+
+        int rowLo = clampCell((int)Math.floor((south - bucket.south) * CELLS));
+        int rowHi = clampCell((int)Math.floor((north - bucket.south) * CELLS));
+
+        for(int col = 0; col < CELLS; col++) {
+            if(!allLongitudes) {
+                double cellWest = bucket.west + (double)col / CELLS;
+                double cellEast = cellWest + 1.0 / CELLS;
+
+                // The box might hang off either side of the 180th meridian,
+                // so try the cell a world to either side, too.
+                boolean overlaps = false;
+                for(int shift = -360; shift <= 360 && !overlaps; shift += 360)
+                    overlaps = cellWest + shift <= east && cellEast + shift >= west;
+
+                if(!overlaps) continue;
+            }
+
+            for(int row = rowLo; row <= rowHi; row++) {
+                for(Entry e = bucket.cells[row * CELLS + col]; e != null; e = e.next) {
+                    // Same way around as KnownLocation does it, so the
+                    // answers come out exactly the same.
+                    Location.distanceBetween(e.latitude, e.longitude, latitude, longitude, mDistance);
+
+                    if(mDistance[0] <= radius) {
+                        @SuppressWarnings("unchecked")
+                        T item = (T)e.item;
+                        visitor.visit(item, mDistance[0]);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int cellIndex(double offset) {
+        // Anything right on the far edge (like 90N or 180E) goes in the last
+        // cell.
+        return clampCell((int)(offset * CELLS));
+    }
+
+    private static int clampCell(int cell) {
+        return Math.max(0, Math.min(CELLS - 1, cell));
+    }
+}
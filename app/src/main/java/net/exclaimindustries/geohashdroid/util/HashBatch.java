@@ -0,0 +1,247 @@
+/*
+ * HashBatch.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import net.exclaimindustries.tools.DateTools;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * <p>
+ * <code>HashBatch</code> works out a whole bunch of hashpoints at once, over a
+ * range of dates and a set of Graticules.  This is for planning ahead (or
+ * behind, with retrohashes), where asking {@link HashBuilder.StockRunner} for
+ * every single date and Graticule one at a time would mean a whole lot of
+ * round trips for the same handful of stock values.
+ * </p>
+ *
+ * <p>
+ * The trick is that, on any given date, there are at most three distinct
+ * stock dates in play (30W, non-30W, and the Globalhash, the latter two of
+ * which are always the same), and thus at most two distinct hashes.  So this
+ * works out every stock date needed for the whole range first, gets each one
+ * exactly once, calculates each distinct hash exactly once (in parallel), and
+ * then hands the results out to every Graticule that needs them.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+public class HashBatch {
+    private static final String DEBUG_TAG = "HashBatch";
+
+    // The kinds of Graticule, as far as the stock date is concerned.
+    private static final int KIND_NON_30W = 0;
+    private static final int KIND_30W = 1;
+    private static final int KIND_GLOBAL = 2;
+
+    /**
+     * One distinct hash: a real date and the stock date it uses, plus every
+     * slot in the results that needs it.
+     */
+    private static class HashGroup {
+        final Calendar date;
+        final Calendar stockDate;
+        final List<Graticule> graticules = new ArrayList<>();
+        final List<Integer> slots = new ArrayList<>();
+        String stock;
+
+        HashGroup(@NonNull Calendar date, @NonNull Calendar stockDate) {
+            this.date = date;
+            this.stockDate = stockDate;
+        }
+    }
+
+    // No constructing this, either.
+    private HashBatch() { }
+
+    /**
+     * <p>
+     * Builds Infos for every date from <code>start</code> to <code>end</code>
+     * (inclusive, ignoring the time of day) for every Graticule given.  A null
+     * in the Graticule list means the Globalhash.  As with StockRunner, give
+     * this the REAL dates; the 30W Rule and weekends are accounted for here.
+     * </p>
+     *
+     * <p>
+     * The returned list is in date order, and within each date, in the same
+     * order as the Graticules were given.  If the stock for a given date
+     * couldn't be found (not posted yet, server trouble, etc), the Infos for
+     * that date will be invalid (see {@link Info#isValid()}), the same as
+     * StockRunner would return on an error.
+     * </p>
+     *
+     * <p>
+     * This may go to the network, so don't call it from the main thread.
+     * </p>
+     *
+     * @param con Context for databasey stuff
+     * @param start the first date to build
+     * @param end the last date to build
+     * @param graticules the Graticules to build (null entries mean Globalhash)
+     * @return a list of Infos, one per date per Graticule
+     * @throws InterruptedException the thread got interrupted while waiting
+     *                              for the hashes to finish
+     */
+    @NonNull
+    public static List<Info> build(@NonNull Context con,
+                                   @NonNull Calendar start,
+                                   @NonNull Calendar end,
+                                   @NonNull List<Graticule> graticules)
+            throws InterruptedException {
+        List<Info> toReturn = new ArrayList<>();
+        if(graticules.isEmpty()) return toReturn;
+
+        int endDate = DateTools.getDateInt(end);
+
+        // First, work out every distinct hash we need.  The key here is the
+        // real date and the stock date together; two different kinds of
+        // Graticule on the same date that wind up with the same stock date
+        // (i.e. before the 30W Rule existed, or non-30W and Globalhash) have
+        // the same hash, and there's no reason to do it twice.
+        Map<Long, HashGroup> groups = new LinkedHashMap<>();
+        Map<Integer, Calendar> stockDates = new TreeMap<>();
+
+        int slot = 0;
+        Calendar cal = (Calendar)start.clone();
+        while(DateTools.getDateInt(cal) <= endDate) {
+            Calendar date = (Calendar)cal.clone();
+            HashGroup[] byKind = new HashGroup[3];
+
+            for(Graticule g : graticules) {
+                int kind = getKind(g);
+
+                if(byKind[kind] == null) {
+                    Calendar sCal = Info.makeAdjustedCalendar(date, g);
+                    int stockDate = DateTools.getDateInt(sCal);
+                    long key = ((long)DateTools.getDateInt(date) << 32) | stockDate;
+
+                    HashGroup group = groups.get(key);
+                    if(group == null) {
+                        group = new HashGroup(date, sCal);
+                        groups.put(key, group);
+                    }
+
+                    byKind[kind] = group;
+                    stockDates.put(stockDate, sCal);
+                }
+
+                byKind[kind].graticules.add(g);
+                byKind[kind].slots.add(slot);
+                toReturn.add(null);
+                slot++;
+            }
+
+            cal.add(Calendar.DAY_OF_MONTH, 1);
+        }
+
+        Log.d(DEBUG_TAG, "Batch of " + toReturn.size() + " Infos needs "
+                + stockDates.size() + " stock(s) and " + groups.size() + " hash(es).");
+
+        // Second, get every stock date, once each.  These are sorted, so once
+        // we hit a recent one that isn't posted yet, we know anything after
+        // that isn't posted either, and we don't need to bother the servers
+        // about it.  Older ones are probably just holidays, so keep going.
+        Calendar yesterday = Calendar.getInstance();
+        yesterday.add(Calendar.DAY_OF_MONTH, -1);
+        int recent = DateTools.getDateInt(yesterday);
+
+        Map<Integer, String> stocks = new TreeMap<>();
+        boolean allowNetwork = true;
+        for(Map.Entry<Integer, Calendar> entry : stockDates.entrySet()) {
+            try {
+                stocks.put(entry.getKey(), HashBuilder.resolveStock(con, entry.getValue(), allowNetwork));
+            } catch(FileNotFoundException fnfe) {
+                Log.d(DEBUG_TAG, "No stock posted for " + entry.getKey());
+                if(entry.getKey() >= recent) allowNetwork = false;
+            } catch(IOException ioe) {
+                Log.w(DEBUG_TAG, "Couldn't get a stock for " + entry.getKey() + ": " + ioe.toString());
+            }
+        }
+
+        for(HashGroup group : groups.values())
+            group.stock = stocks.get(DateTools.getDateInt(group.stockDate));
+
+        // Third, calculate all the hashes and fan them out.  Each group writes
+        // to its own slots, so they won't step on each other.
+        final Info[] results = new Info[toReturn.size()];
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), groups.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            List<Future<?>> futures = new ArrayList<>(groups.size());
+
+            for(final HashGroup group : groups.values()) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        fillGroup(group, results);
+                        return null;
+                    }
+                }));
+            }
+
+            for(Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch(ExecutionException ee) {
+                    // Nothing in fillGroup throws anything checked, so this
+                    // really shouldn't happen.
+                    throw new RuntimeException(ee.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for(int i = 0; i < results.length; i++)
+            toReturn.set(i, results[i]);
+
+        return toReturn;
+    }
+
+    private static void fillGroup(@NonNull HashGroup group, @NonNull Info[] results) {
+        if(group.stock == null) {
+            // No stock, no hash.  Everyone gets an invalid Info.
+            for(int i = 0; i < group.slots.size(); i++)
+                results[group.slots.get(i)] = new Info(group.graticules.get(i), group.date);
+            return;
+        }
+
+        double[] hash = new double[2];
+        HashEngine.calculate(group.date, group.stock, hash);
+
+        for(int i = 0; i < group.slots.size(); i++) {
+            results[group.slots.get(i)] = HashBuilder.createInfo(group.date,
+                    hash[0], hash[1], group.graticules.get(i));
+        }
+    }
+
+    private static int getKind(@Nullable Graticule g) {
+        if(g == null) return KIND_GLOBAL;
+        return g.uses30WRule() ? KIND_30W : KIND_NON_30W;
+    }
+}
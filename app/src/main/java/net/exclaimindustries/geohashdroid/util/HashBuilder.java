@@ -13,25 +13,20 @@ import androidx.annotation.Nullable;
 import android.util.Log;
 
 import net.exclaimindustries.tools.DateTools;
-import net.exclaimindustries.tools.HexFraction;
-import net.exclaimindustries.tools.MD5Tools;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.security.InvalidParameterException;
+import java.io.InterruptedIOException;
 import java.util.Calendar;
-import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
-
-import cz.msebera.android.httpclient.HttpResponse;
-import cz.msebera.android.httpclient.client.methods.HttpGet;
-import cz.msebera.android.httpclient.impl.client.CloseableHttpClient;
-import cz.msebera.android.httpclient.impl.client.HttpClients;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <p>
@@ -47,28 +42,52 @@ import cz.msebera.android.httpclient.impl.client.HttpClients;
  * </p>
  * 
  * <p>
- * This implementation uses the Crox site to get the DJIA, falling back to
- * the peeron.com site if Crox can't figure it out (upstream faults, server
- * failure, etc).
+ * The actual trip to the internet is handled by {@link StockFetcher}, which
+ * asks the peeron.com and Crox mirrors, hedging over to the second one if the
+ * first is slow or can't figure it out (upstream faults, server failure,
+ * etc).
  * </p>
  * 
  * @author Nicholas Killewald
  */
 public class HashBuilder {
     
-    // This is used as the lock to prevent multiple requests from happening at
-    // once.  This really shouldn't ever happen, but just in case.
-    private static final Object locker = new Object();
-    
     private static final String DEBUG_TAG = "HashBuilder";
-    
-    private static StockStoreDatabase mStore;
-    // This set allows for quick reloading of the most recent stock and hash in
-    // a given instance of the program, bypassing the SQLite database, as well
-    // as allow for a small cache even if the SQLite database is turned off by
-    // preferences.
-    private static Info mLastInfo;
-    private static Info mTwoInfosAgo;
+
+    // Any stock fetches currently out on the network, keyed by the adjusted
+    // stock date (as YYYYMMDD).  If two StockRunners (or a StockRunner and a
+    // HashBatch, or whatever) want the same stock at the same time, the second
+    // one just waits on the first one's fetch instead of making its own.  This
+    // replaces the old single global lock, which made everything wait on
+    // everything else, even cache hits and fetches for entirely different
+    // dates.
+    private static final ConcurrentHashMap<Integer, FutureTask<String>> mInFlight = new ConcurrentHashMap<>();
+
+    private static volatile StockStoreDatabase mStore;
+
+    // Pruning the database happens over here, out of the way of whatever was
+    // storing things.  Only one prune is ever queued up at a time; if another
+    // batch of inserts comes in while one's waiting, that one'll cover it.
+    private static final ExecutorService mPruner = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread t = new Thread(r, DEBUG_TAG + " pruner");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }
+    });
+    private static final AtomicBoolean mPruneQueued = new AtomicBoolean(false);
+
+    /** The default number of hashes the quick cache holds. */
+    public static final int DEFAULT_QUICK_CACHE_SIZE = 64;
+
+    // This allows for quick reloading of recent hashes in a given instance of
+    // the program, bypassing the SQLite database, as well as allow for a small
+    // cache even if the SQLite database is turned off by preferences.  Each
+    // entry covers every Graticule on one side of the 30W line for one date,
+    // so the nearby points don't push each other out.
+    private static final HashCache mQuickCache = new HashCache(DEFAULT_QUICK_CACHE_SIZE);
 
     /**
      * <code>StockRunner</code> is what fetches the stocks.  It spawns off
@@ -80,10 +99,6 @@ public class HashBuilder {
     public static class StockRunner {
         private static final String DEBUG_TAG = "StockRunner";
 
-        // In milliseconds, remember.
-        private static final int CONNECTION_TIMEOUT_SEC = 10;
-        private static final int CONNECTION_TIMEOUT_MS = CONNECTION_TIMEOUT_SEC * 1000;
-
         /**
          * This is busy, either with getting the stock price or working out
          * the hash.
@@ -112,17 +127,9 @@ public class HashBuilder {
         private final Context mContext;
         private final Calendar mCal;
         private final Graticule mGrat;
-        private HttpGet mRequest;
         private int mStatus;
         private Info mLastObject;
-
-        // This may be expanded later to allow a user-definable list, hence why
-        // it doesn't follow the usual naming conventions I use.  Of course, in
-        // THAT case, we'd need to make it not be a raw array.  The general form
-        // is that %Y is the four-digit year, %m is the zero-padded month, and
-        // %d is the zero-padded date.
-        private final static String[] mServers = { "http://irc.peeron.com/xkcd/map/data/%Y/%m/%d",
-                "http://geo.crox.net/djia/%Y/%m/%d" };
+        private double[] mLastHash;
 
         private StockRunner(@NonNull Context con, @NonNull Calendar c, @Nullable Graticule g) {
             mContext = con;
@@ -159,65 +166,54 @@ public class HashBuilder {
             // range of the 30W rule.  To that end, sCal is for stock calendar.
             Calendar sCal = Info.makeAdjustedCalendar(mCal, mGrat);
             
-            // Grab a lock on our lock object.
-            synchronized(locker) {
-                // First, if this exists in the cache, use it instead of going
-                // off to the internet.  This method uses the ACTUAL date, so
-                // we can ignore sCal for now.
-                toReturn = getStoredInfo(mContext, mCal, mGrat);
-                if(toReturn != null) {
-                    // Hey, whadya know, we've got something!  Send this data
-                    // back to the Handler and return!
-                    Log.d(DEBUG_TAG, "Found it in the cache!");
-                    mStatus = ALL_OKAY;
-                    sendMessage(toReturn);
-                    return;
-                }
-                
-                // If that failed, we need a stock price.  First, check to see
-                // if it's in the database.  
-                stock = getStoredStock(mContext, sCal);
-                
-                // If we found something, great!  Let's move on!
-                if(stock == null) {
-                    // Otherwise, we need to start heading off to the net.
-                    mStatus = BUSY;
-                    try {
-                        stock = fetchStock(sCal);
-                        // If this didn't throw an exception AND it's not blank,
-                        // stash it in the database.
-                        if(stock.trim().length() != 0)
-                            storeStock(mContext, sCal, stock);
-                    } catch (FileNotFoundException fnfe) {
-                        // If we got a 404, assume it's not posted yet.
-                        mStatus = ERROR_NOT_POSTED;
-                        sendMessage(createInvalidInfo(mCal, mGrat));
-                        return;
-                    } catch (IOException ioe) {
-                        // If we got anything else, assume a problem.
-                        mStatus = ERROR_SERVER;
-                        sendMessage(createInvalidInfo(mCal, mGrat));
-                        return;
-                    }
-                }
+            // First, if this exists in the cache, use it instead of going off
+            // to the internet.  This method uses the ACTUAL date, so we can
+            // ignore sCal for now.  No locks needed for this part.
+            double[] hash = new double[2];
+            if(getStoredHash(mContext, mCal, mGrat, hash)) {
+                // Hey, whadya know, we've got something!  Send this data back
+                // to the Handler and return!
+                Log.d(DEBUG_TAG, "Found it in the cache!");
+                mStatus = ALL_OKAY;
+                sendMessage(createInfo(mCal, hash[0], hash[1], mGrat), hash);
+                return;
+            }
+
+            // If that failed, we need a stock price.  resolveStock checks the
+            // database first, then goes to the net, sharing the fetch with
+            // anyone else who wants the same stock date right now.
+            try {
+                stock = resolveStock(mContext, sCal, true);
+            } catch (FileNotFoundException fnfe) {
+                // If we got a 404, assume it's not posted yet.
+                mStatus = ERROR_NOT_POSTED;
+                sendMessage(createInvalidInfo(mCal, mGrat), null);
+                return;
+            } catch (IOException ioe) {
+                // If we got anything else, assume a problem.
+                mStatus = ERROR_SERVER;
+                sendMessage(createInvalidInfo(mCal, mGrat), null);
+                return;
             }
 
             // We assemble an Info object and get ready to return it.  This uses
             // the REAL date so we display the right thing on the detail screen
             // (or anywhere else; the point is, we can report to the user if
             // they're in the influence of the 30W Rule).
-            toReturn = createInfo(mCal, stock, mGrat);
+            HashEngine.calculate(mCal, stock, hash);
+            toReturn = createInfo(mCal, hash[0], hash[1], mGrat);
                 
             // Good!  Now, we can stash this away in the database for later.
-            storeInfo(mContext, toReturn);
+            storeInfo(mContext, toReturn, hash);
             
             // And we're done!
             mStatus = ALL_OKAY;
-            sendMessage(toReturn);
+            sendMessage(toReturn, hash);
         }
         
-        private void sendMessage(@NonNull Info toReturn) {
+        private void sendMessage(@NonNull Info toReturn, @Nullable double[] hash) {
             mLastObject = toReturn;
+            mLastHash = hash;
         }
         
         /**
@@ -233,136 +229,19 @@ public class HashBuilder {
             return mLastObject;
         }
 
-        @NonNull
-        private String fetchStock(@NonNull Calendar sCal) throws IOException {
-            // Now, generate a string for the URL.
-            String sMonthStr = String.format(Locale.US, "%02d", sCal.get(Calendar.MONTH) + 1);
-            String sDayStr = String.format(Locale.US, "%02d", sCal.get(Calendar.DAY_OF_MONTH));
-
-            // Good, good! Now, to the web!  Go through our list of sites in
-            // order until we find an answer, we bottom out, or we abort.  In
-            // terms of what we report to the user, "Server error" is lowest-
-            // priority, with "Stock not posted" rating above it.  That is to
-            // say, if one server reports and error but another one explicitly
-            // tells us the stock wasn't found, the latter is what we use.  Of
-            // course, if we get an abort request, that takes absolute
-            // precedence.
-            int curStatus = ERROR_SERVER;
-            String result = "";
-
-            for(String s : mServers) {
-                // Do all our substitutions...
-                String location = s.replaceAll("%Y", Integer.toString(sCal.get(Calendar.YEAR)));
-                location = location.replaceAll("%m", sMonthStr);
-                location = location.replaceAll("%d", sDayStr);
-                Log.v(DEBUG_TAG, "Trying " + location + "...");
-                
-                // And go fetch!
-                CloseableHttpClient client = HttpClients.createDefault();
-                mRequest = new HttpGet(location);
-
-                HttpResponse response;
-
-                // Get ready to time out if need be.  You never know.
-                TimerTask task = new TimerTask() {
-                    @Override
-                    public void run() {
-                        Log.i(DEBUG_TAG, "Stock fetch connection timed out, aborting now.");
-                        try {
-                            mRequest.abort();
-                        } catch (NullPointerException npe) {
-                            // It COULD be null at that point.  If it is, we can
-                            // just safely ignore it.
-                        }
-                    }
-                };
-
-                // Timer goes now!  We'll start the client immediately in the
-                // upcoming try block.
-                new Timer(true).schedule(task, CONNECTION_TIMEOUT_MS);
-
-                try {
-                    response = client.execute(mRequest);
-                    task.cancel();
-
-                    // If that came out aborted, it was a timeout, so move on.
-                    if(mRequest.isAborted()) continue;
-                } catch (IOException e) {
-                    // If there was an exception, there was some issue with the
-                    // server.  It might've been aborted by timeout, but still,
-                    // move on to the next server.
-                    Log.d(DEBUG_TAG, "IOException!", e);
-                    continue;
-                }
-
-                if (response.getStatusLine().getStatusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
-                    // If the server gives us a 404, that's saying it can't find
-                    // the stock for the day, which in turn implies it hasn't
-                    // been posted yet.  Log as such and try the next server.
-                    // Maybe they're just not in sync.
-                    Log.d(DEBUG_TAG, "Server said there was no stock for " + DateTools.getHyphenatedDateString(sCal));
-                    curStatus = ERROR_NOT_POSTED;
-                    continue;
-                } else if (response.getStatusLine().getStatusCode() != HttpURLConnection.HTTP_OK) {
-                    // A non-okay response that isn't a 404 is bad.  Count this
-                    // one as ERROR_SERVER and just continue.
-                    continue;
-                }
-                
-                // Well, we got this far!  Let's read!
-                result = getStringFromStream(response.getEntity().getContent());
-                
-                // With that done, we try to convert the output to the float.
-                // If this fails, we got bogus data and should roll on.
-                try {
-                    Float.parseFloat(result);
-                } catch (NumberFormatException nfe) {
-                    result = "";
-                    continue;
-                }
-                
-                // We survived!  Set the status flag and keep going!
-                Log.d(DEBUG_TAG, "Success!  Stock found!  It's " + result + "!");
-                curStatus = ALL_OKAY;
-                client.close();
-                break;
-            }
-            
-            // If we got this far and we still had an ERROR_SERVER or
-            // ERROR_NOT_POSTED, throw 'em.  We failed.
-            if(curStatus == ERROR_NOT_POSTED)
-                throw new FileNotFoundException();
-            else if(curStatus == ERROR_SERVER)
-                throw new IOException();
-
-            // If we finally, FINALLY got this far, we've got a successful stock!
-            return result;
-        }
-        
         /**
-         * Takes the given stream and makes a String out of whatever data it has. Be
-         * really careful with this, as it will just attempt to read whatever's in
-         * the stream until it stops, meaning it'll spin endlessly if this isn't the
-         * sort of stream that ends.
-         * 
-         * @param stream
-         *            InputStream to read from
-         * @return a String consisting of the data from the stream
+         * Returns the raw hash fractions behind the last result, exactly as
+         * {@link HashEngine} made them (or as they were stored), latitude
+         * first.  Use these instead of the ones Info works back out of its
+         * coordinates if you're going to build more Infos from them.  Same
+         * rules as {@link #getLastResultObject()} apply; this will be null if
+         * the last result wasn't an ALL_OKAY.
+         *
+         * @return the last raw hash from this StockRunner (may be null)
          */
-        @NonNull
-        private static String getStringFromStream(@NonNull InputStream stream)
-                throws IOException {
-            BufferedReader buff = new BufferedReader(new InputStreamReader(stream));
-
-            // Load it up...
-            StringBuilder tempstring = new StringBuilder();
-            char[] bean = new char[1024];
-            int read;
-            while ((read = buff.read(bean)) != -1) {
-                tempstring.append(bean, 0, read);
-            }
-
-            return tempstring.toString();
+        @Nullable
+        public double[] getLastHash() {
+            return mLastHash;
         }
 
         /**
@@ -390,12 +269,21 @@ public class HashBuilder {
      * @return a new StockStoreDatabase object
      */
     @NonNull
-    private static synchronized StockStoreDatabase getStore(@NonNull Context c) {
-        if(mStore == null) {
-            mStore = new StockStoreDatabase().init(c);
+    private static StockStoreDatabase getStore(@NonNull Context c) {
+        // Only lock if we actually need to make one, so cache reads don't all
+        // line up behind each other here.
+        StockStoreDatabase store = mStore;
+        if(store == null) {
+            synchronized(HashBuilder.class) {
+                store = mStore;
+                if(store == null) {
+                    store = new StockStoreDatabase().init(c);
+                    mStore = store;
+                }
+            }
         }
-        
-        return mStore;
+
+        return store;
     }
     
     /**
@@ -426,26 +314,56 @@ public class HashBuilder {
      */
     @Nullable
     public static Info getStoredInfo(@NonNull Context con, @NonNull Calendar c, @Nullable Graticule g) {
+        double[] hash = new double[2];
+        if(!getStoredHash(con, c, g, hash))
+            return null;
+
+        return createInfo(c, hash[0], hash[1], g);
+    }
+
+    /**
+     * Attempt to get the raw hash fractions for the given date and Graticule
+     * from stored info, explicitly without going to the internet.  These are
+     * exactly what {@link HashEngine} made, not what an Info works back out
+     * of its coordinates, so they're what you want if you're building more
+     * than one Info out of them.
+     *
+     * @param con Context used to retrieve the database, if needed
+     * @param c Calendar object with the adventure date requested (this will
+     *          account for the 30W Rule, so don't put it in)
+     * @param g Graticule to use
+     * @param out array of at least two doubles to write the hash into,
+     *            latitude first
+     * @return true if it was found, false if it can't be had without going to
+     *         the internet (out is untouched)
+     */
+    public static boolean getStoredHash(@NonNull Context con, @NonNull Calendar c, @Nullable Graticule g, @NonNull double[] out) {
         // First, check the quick cache.  If it's in the quick cache, use it.
+        boolean is30W = Info.uses30WRule(c, g);
         Log.v(DEBUG_TAG, "Checking caches for " + DateTools.getDateString(c)
-                + ((g == null || g.uses30WRule()) ? " with 30W rule" : " without 30W rule"));
-        Info result = getQuickCache(c, g);
-        if(result != null) {
-            Log.v(DEBUG_TAG, "Data found in quickcache!");
-            if(result.isGlobalHash()) return result;
-            else return cloneInfo(result, g);
+                + (is30W ? " with 30W rule" : " without 30W rule"));
+        if(mQuickCache.get(c, is30W, out)) {
+            Log.v(DEBUG_TAG, "Data found in quickcache: " + out[0] + ", " + out[1]);
+
+            // The database still needs to know this one's in use, or it'll
+            // get pruned out from under us.  If there's no store yet, there
+            // hasn't been a prune yet, either.
+            StockStoreDatabase store = mStore;
+            if(store != null) store.touchInfo(c, is30W);
+
+            return true;
         }
         
         // Otherwise, check the stock cache.
-        Info i = getStore(con).getInfo(c, g);
-        
-        if(i == null)
-            return null;
+        if(!getStore(con).getHash(c, is30W, out))
+            return false;
             
         Log.v(DEBUG_TAG, "Data found in database!  Quickcaching...");
         // If it was in the main cache but not the quick cache, quick cache it.
-        quickCache(i);
-        return i;
+        // That's the raw hash, not whatever Info says it was; Info works it
+        // back out of the final coordinates, which can be a hair off.
+        mQuickCache.put(c, is30W, out[0], out[1]);
+        return true;
     }
     
     /**
@@ -466,15 +384,104 @@ public class HashBuilder {
     }
     
     /**
-     * Puts the given data into the quick cache.  Note that the Calendar object
-     * is the date of the stock, not the date of the expedition.
-     * 
-     * @param i Info to store
+     * <p>
+     * Gets the stock value for the given already-adjusted date, going to the
+     * internet for it if it isn't in the database (and storing it in the
+     * database if it came from the internet).  This skips all the Info-making
+     * parts of {@link StockRunner#runStock()}, for the cases where all we want
+     * is the stock itself, like {@link HashBatch}.
+     * </p>
+     *
+     * <p>
+     * If another thread is already fetching the same stock date, this waits
+     * for that fetch and returns (or throws) whatever it did, rather than
+     * going to the servers a second time.  Fetches for different dates don't
+     * wait on each other at all.
+     * </p>
+     *
+     * @param con Context used to retrieve the database, if needed
+     * @param sCal already-adjusted date for which to get a stock
+     * @param allowNetwork false to only check the database
+     * @return the String representation of the stock
+     * @throws FileNotFoundException the stock isn't posted yet (or isn't in
+     *                               the database and allowNetwork is false)
+     * @throws IOException some other problem talking to the servers
      */
-    private static void quickCache(@NonNull Info i) {
-        // Slide over!
-        mTwoInfosAgo = mLastInfo;
-        mLastInfo = i;
+    @NonNull
+    static String resolveStock(@NonNull Context con, @NonNull Calendar sCal, boolean allowNetwork)
+            throws IOException {
+        String stock = getStoredStock(con, sCal);
+        if(stock != null) return stock;
+
+        if(!allowNetwork) throw new FileNotFoundException();
+
+        // Time for the network.  If someone's already fetching this date, we
+        // just wait on theirs.  Otherwise, we put ours in the map and run it
+        // right here on this thread.
+        final Context appCon = con;
+        final Calendar fetchCal = sCal;
+        final Integer key = DateTools.getDateInt(sCal);
+
+        FutureTask<String> task = new FutureTask<>(new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                // Somebody else might've finished fetching it between our
+                // database check and us getting into the map.
+                String fetched = getStoredStock(appCon, fetchCal);
+                if(fetched != null) return fetched;
+
+                fetched = StockFetcher.getDefault().fetch(fetchCal);
+
+                // If this didn't throw an exception AND it's not blank, stash
+                // it in the database.  This has to happen before the task
+                // leaves the map, so anyone who shows up later finds it in the
+                // database instead of fetching it all over again.
+                if(fetched.trim().length() != 0)
+                    storeStock(appCon, fetchCal, fetched);
+
+                return fetched;
+            }
+        });
+
+        FutureTask<String> inFlight = mInFlight.putIfAbsent(key, task);
+
+        if(inFlight == null) {
+            try {
+                task.run();
+            } finally {
+                mInFlight.remove(key, task);
+            }
+            inFlight = task;
+        } else {
+            Log.d(DEBUG_TAG, "Already fetching the stock for " + key + ", waiting on that one...");
+        }
+
+        try {
+            return inFlight.get();
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting on the stock for " + key);
+        } catch(ExecutionException ee) {
+            // Whatever the fetch threw, everyone waiting on it gets the same
+            // thing.  FileNotFoundException is an IOException, so the "not
+            // posted yet" case comes through intact.
+            Throwable cause = ee.getCause();
+            if(cause instanceof IOException) throw (IOException)cause;
+            if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Gets the quick cache, the in-memory cache of recent hashes that gets
+     * checked before the database.  This is mostly here so its hit, miss, and
+     * eviction counters can be read.
+     *
+     * @return the quick cache
+     */
+    @NonNull
+    public static HashCache getQuickCache() {
+        return mQuickCache;
     }
     
     /**
@@ -483,23 +490,69 @@ public class HashBuilder {
      * 
      * @param con Context used to retrieve the database, if needed
      * @param i an Info bundle with everything we need
+     * @param hash the raw hash fractions that went into i, from HashEngine
      */
-    private synchronized static void storeInfo(@NonNull Context con, @NonNull Info i) {
-        // First, replace the last-known results.
-        quickCache(i);
+    private synchronized static void storeInfo(@NonNull Context con, @NonNull Info i, @NonNull double[] hash) {
+        // First, put the raw hash in the quick cache.
+        mQuickCache.put(i.getCalendar(), i.uses30WRule(), hash[0], hash[1]);
         
         StockStoreDatabase store = getStore(con);
         
         // Then, write it to the database.
-        store.storeInfo(i);
-        store.cleanup(con);
+        store.storeInfo(i, hash);
+        schedulePruneIfNeeded(con, store);
     }
     
     private synchronized static void storeStock(@NonNull Context con, @NonNull Calendar cal, @NonNull String stock) {
         StockStoreDatabase store = getStore(con);
         
         store.storeStock(cal, stock);
-        store.cleanup(con);
+        schedulePruneIfNeeded(con, store);
+    }
+
+    /**
+     * Stores a bunch of stock values in the database in one go, for
+     * {@link StockPrefetcher}.  The dates need to already be adjusted.
+     *
+     * @param con Context used to retrieve the database, if needed
+     * @param stocks map of YYYYMMDD dates to stock values
+     * @return the number of stocks actually stored (ones that were already
+     *         there don't count)
+     */
+    synchronized static int storeStocks(@NonNull Context con, @NonNull Map<Integer, String> stocks) {
+        if(stocks.isEmpty()) return 0;
+
+        StockStoreDatabase store = getStore(con);
+
+        int stored = store.storeStocks(stocks);
+        schedulePruneIfNeeded(con, store);
+        return stored;
+    }
+
+    private static void schedulePruneIfNeeded(@NonNull Context con, @NonNull final StockStoreDatabase store) {
+        if(!store.needsPruning() || !mPruneQueued.compareAndSet(false, true)) return;
+
+        final Context appContext = con.getApplicationContext();
+        mPruner.execute(new Runnable() {
+            @Override
+            public void run() {
+                mPruneQueued.set(false);
+                store.prune(appContext);
+            }
+        });
+    }
+
+    /**
+     * Prunes the stock cache down to size right now, regardless of whether
+     * it's due.  This is for maintenance jobs; normal storing takes care of
+     * pruning on its own in the background as needed.  This hits the
+     * database, so don't call it from the main thread.
+     *
+     * @param con Context used to retrieve the database
+     * @return the number of entries pruned
+     */
+    public static int pruneCache(@NonNull Context con) {
+        return getStore(con).prune(con);
     }
 
     /**
@@ -509,13 +562,15 @@ public class HashBuilder {
      * @return true on success, false on failure
      */
     public synchronized static boolean deleteCache(@NonNull Context con) {
+        mQuickCache.clear();
         return getStore(con).deleteCache();
     }
     
     /**
      * Build an Info object.  Since this assumes we already have a stock price
      * AND the Graticule can tell us if we need to use the 30W rule, use the
-     * REAL date on the Calendar object.
+     * REAL date on the Calendar object.  This is package-private so the
+     * benchmarks can get at it.
      * 
      * @param c date from which this hash comes
      * @param stockPrice effective stock price (already adjusted for the 30W Rule)
@@ -523,16 +578,34 @@ public class HashBuilder {
      * @return a new Info object
      */
     @NonNull
-    private static Info createInfo(@NonNull Calendar c, @NonNull String stockPrice, @Nullable Graticule g) {
+    static Info createInfo(@NonNull Calendar c, @NonNull String stockPrice, @Nullable Graticule g) {
         // This creates the Info object that'll go right back to whatever was
         // calling it.  In general, this is the Handler in StockRunner.
         
-        // So to that end, we first build up the hash.
-        String hash = makeHash(c, stockPrice);
+        // So to that end, we first build up the hash.  HashEngine gives us the
+        // fractional parts directly.
+        double[] hash = new double[2];
+        HashEngine.calculate(c, stockPrice, hash);
         
-        // Then, get the latitude and longitude from that.
-        double lat = getLatitude(g, hash);
-        double lon = getLongitude(g, hash);
+        return createInfo(c, hash[0], hash[1], g);
+    }
+
+    /**
+     * Build an Info object from an already-calculated hash.  This is for when
+     * the same hash is going to be applied to a whole bunch of Graticules, so
+     * there's no point in calculating it over and over.
+     *
+     * @param c date from which this hash comes
+     * @param latHash the fractional latitude value from HashEngine
+     * @param lonHash the fractional longitude value from HashEngine
+     * @param g the graticule in question
+     * @return a new Info object
+     */
+    @NonNull
+    static Info createInfo(@NonNull Calendar c, double latHash, double lonHash, @Nullable Graticule g) {
+        // Get the latitude and longitude from the hash...
+        double lat = getLatitude(g, latHash);
+        double lon = getLongitude(g, lonHash);
         
         // And finally...
         return new Info(lat, lon, g, c);
@@ -551,158 +624,50 @@ public class HashBuilder {
     }
     
     /**
-     * Builds a new Info object by applying a new Graticule to an existing Info
-     * object.  That is to say, change the destination of an Info object to
-     * somewhere else, as if it were the same day and same stock value (and
-     * thus the same hash).  Note that this will throw an exception if the 
-     * existing Info's 30W-alignment isn't the same as the new Graticule's,
-     * because that might require a trip back to the internet, and by this
-     * point, we should know that we don't need to do so.
-     * 
-     * Also note that you can't do any cloning actions on a globalhash, since
-     * that doesn't make any sense.
-     * 
-     * @param i old Info object to clone
-     * @param g new Graticule to apply
-     * @throws InvalidParameterException the Info and Graticule do not lie on
-     *                                   the same side of the 30W line, or one
-     *                                   of the Graticules in question
-     *                                   represents a globalhash.
-     * @return a new, improved Info object
-     */
-    @NonNull
-    private static Info cloneInfo(@NonNull Info i, @Nullable Graticule g) {
-        if(i.isGlobalHash() || g == null)
-            throw new InvalidParameterException("You can't clone a globalhash point, since that doesn't make any sense.");
-
-        Graticule source = i.getGraticule();
-
-        if(source == null)
-            throw new InvalidParameterException("You can't clone a globalhash point, since that doesn't make any sense.");
-        
-        // This sort of requires the 30W-itude of both to match.
-        if(source.uses30WRule() != g.uses30WRule())
-            throw new InvalidParameterException("The given Info and Graticule do not lie on the same side of the 30W line; this should not have happened.");
-        
-        // Get the destination set...
-        double lat = (g.getLatitude() + i.getLatitudeHash()) * (g.isSouth() ? -1 : 1);
-        double lon = (g.getLongitude() + i.getLongitudeHash()) * (g.isWest() ? -1 : 1);
-        
-        // Then...
-        return new Info(lat, lon, g, i.getCalendar());
-    }
-    
-    /**
-     * Generate the hash string from the date and stock price.  The REAL date,
-     * that is.  Not a 30W Rule-adjusted date.
-     * 
-     * @param c date to use
-     * @param stockPrice stock price to use
-     * @return the hash you're looking for
-     */
-    @NonNull
-    private static String makeHash(@NonNull Calendar c, @NonNull String stockPrice) {
-        // Just reset the hash. This can be handy alone if the graticule has
-        // changed.  Remember, c is the REAL date, not the STOCK date!
-        return MD5Tools.MD5hash(String.format(Locale.US,
-                "%4d-%02d-%02d-%s",
-                c.get(Calendar.YEAR),
-                c.get(Calendar.MONTH) + 1,
-                c.get(Calendar.DAY_OF_MONTH),
-                stockPrice));
-    }
-
-    @Nullable
-    private static Info getQuickCache(@NonNull Calendar sCal, @Nullable Graticule g) {
-        // We don't use Calendar.equals here, as that checks all properties,
-        // including potentially some we don't really care about.
-        boolean is30W = (g == null || g.uses30WRule());
-        
-        // At any rate, first off, the most recent date/30W combo.  Then, the
-        // second-most.  Failing THAT, return null.
-        Log.v(DEBUG_TAG, "Checking quickcache for data...");
-        if(mLastInfo != null) {
-            Calendar stored = mLastInfo.getCalendar();
-            
-            if(stored.get(Calendar.MONTH) ==  sCal.get(Calendar.MONTH)
-                    && stored.get(Calendar.DAY_OF_MONTH) ==  sCal.get(Calendar.DAY_OF_MONTH)
-                    && stored.get(Calendar.YEAR) ==  sCal.get(Calendar.YEAR)
-                    && ((mLastInfo.getGraticule() == null && g == null)
-                            || (mLastInfo.getGraticule() != null && g != null))
-                    && mLastInfo.uses30WRule() == is30W) {
-                Log.v(DEBUG_TAG, "Hash data is in quick cache (mLastInfo): " + mLastInfo.getLatitudeHash() + ", " + mLastInfo.getLongitudeHash());
-                return mLastInfo;
-            }
-        }
-        
-        if(mTwoInfosAgo != null) {
-            Calendar stored = mTwoInfosAgo.getCalendar();
-            
-            if(stored.get(Calendar.MONTH) ==  sCal.get(Calendar.MONTH)
-                    && stored.get(Calendar.DAY_OF_MONTH) ==  sCal.get(Calendar.DAY_OF_MONTH)
-                    && stored.get(Calendar.YEAR) ==  sCal.get(Calendar.YEAR)
-                    && ((mTwoInfosAgo.getGraticule() == null && g == null)
-                            || (mTwoInfosAgo.getGraticule() != null && g != null))
-                    && mTwoInfosAgo.uses30WRule() == is30W) {
-                Log.v(DEBUG_TAG, "Hash data is in quick cache (mTwoInfosAgo): " + mTwoInfosAgo.getLatitudeHash() + ", " + mTwoInfosAgo.getLongitudeHash());
-                return mTwoInfosAgo;
-            }
-        }
-        
-        Log.v(DEBUG_TAG, "Data wasn't in quickcache.");
-        
-        return null;
-    }
-    
-    /**
-     * Gets the latitude value of the location for the current date. This is
-     * attached to the current graticule integer value to produce the longitude.
-     * 
-     * @return the fractional latitude value
-     */
-    private static double getLatitudeHash(@NonNull String hash) {
-        String chunk = hash.substring(0, 16);
-        return HexFraction.calculate(chunk);
-    }
-
-    /**
-     * Gets the longitude value of the location for the current date. This is
-     * attached to the current graticule integer value to produce the latitude.
-     * 
-     * @return the fractional longitude value
+     * Attaches the fractional latitude part of a hash to the given Graticule.
+     * If the Graticule is null, this is a globalhash, and the fraction is
+     * returned as-is (Info deals with that).
+     *
+     * @param g the Graticule in question
+     * @param latHash the fractional latitude value from HashEngine
+     * @return the final latitude
      */
-    private static double getLongitudeHash(@NonNull String hash) {
-        String chunk = hash.substring(16, 32);
-        return HexFraction.calculate(chunk);
-    }
-
-    private static double getLatitude(@Nullable Graticule g, @NonNull String hash) {
+    private static double getLatitude(@Nullable Graticule g, double latHash) {
         // If the Graticule's not null, this is a normal hash.  If it is, it's a
         // globalhash, and has to be treated differently.
         if(g != null) {
             int lat = g.getLatitude();
             if (g.isSouth()) {
-                return (lat + getLatitudeHash(hash)) * -1;
+                return (lat + latHash) * -1;
             } else {
-                return lat + getLatitudeHash(hash);
+                return lat + latHash;
             }
         } else {
-            return getLatitudeHash(hash);
+            return latHash;
         }
 
     }
 
-    private static double getLongitude(@Nullable Graticule g, @NonNull String hash) {
+    /**
+     * Attaches the fractional longitude part of a hash to the given Graticule.
+     * If the Graticule is null, this is a globalhash, and the fraction is
+     * returned as-is (Info deals with that).
+     *
+     * @param g the Graticule in question
+     * @param lonHash the fractional longitude value from HashEngine
+     * @return the final longitude
+     */
+    private static double getLongitude(@Nullable Graticule g, double lonHash) {
         // Same deal as with getLatitude.
         if(g != null) {
             int lon = g.getLongitude();
             if (g.isWest()) {
-                return (lon + getLongitudeHash(hash)) * -1;
+                return (lon + lonHash) * -1;
             } else {
-                return lon + getLongitudeHash(hash);
+                return lon + lonHash;
             }
         } else {
-            return getLongitudeHash(hash);
+            return lonHash;
         }
     }
 
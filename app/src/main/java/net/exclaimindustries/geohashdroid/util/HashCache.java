@@ -0,0 +1,176 @@
+/*
+ * HashCache.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import net.exclaimindustries.tools.DateTools;
+
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+
+/**
+ * <p>
+ * A <code>HashCache</code> is a small, in-memory, least-recently-used cache
+ * of hashes.  Each entry is keyed by the date and whether or not the 30W Rule
+ * is in effect, and holds the raw fractional latitude and longitude values,
+ * exactly as {@link HashEngine} produced them.  Since those two things are all
+ * that determine a hash, one entry covers every Graticule on that side of the
+ * 30W line (and the Globalhash, if it's on the 30W side).
+ * </p>
+ *
+ * <p>
+ * This replaces the old two-slot quick cache in {@link HashBuilder}, which
+ * got thrashed to pieces any time the nearby points were involved.  It's safe
+ * to use from multiple threads.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+public class HashCache {
+    private final int mMaxSize;
+
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    private final LinkedHashMap<Long, double[]> mEntries;
+
+    /**
+     * Makes a new HashCache with the given maximum number of entries.
+     *
+     * @param maxSize the most entries this will hold before it starts evicting
+     *                the least-recently-used ones
+     * @throws IllegalArgumentException maxSize was less than 1
+     */
+    public HashCache(int maxSize) {
+        if(maxSize < 1)
+            throw new IllegalArgumentException("A HashCache needs room for at least one entry!");
+
+        mMaxSize = maxSize;
+
+        // The true at the end makes this an access-ordered map, which is all
+        // an LRU cache really is.
+        mEntries = new LinkedHashMap<Long, double[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, double[]> eldest) {
+                if(size() > mMaxSize) {
+                    mEvictions++;
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Looks up a hash.  If it's there, the fractional latitude and longitude
+     * are written into the first two elements of <code>out</code>.
+     *
+     * @param c the REAL date of the hash (not adjusted for the 30W Rule)
+     * @param uses30W whether or not the 30W Rule is in effect (see
+     *                {@link Info#uses30WRule(Calendar, Graticule)})
+     * @param out array of at least two doubles to write the hash into
+     * @return true if it was found, false if not (out is untouched)
+     */
+    public synchronized boolean get(@NonNull Calendar c, boolean uses30W, @NonNull double[] out) {
+        double[] entry = mEntries.get(makeKey(c, uses30W));
+
+        if(entry == null) {
+            mMisses++;
+            return false;
+        }
+
+        mHits++;
+        out[0] = entry[0];
+        out[1] = entry[1];
+        return true;
+    }
+
+    /**
+     * Puts a hash into the cache, replacing whatever was there for that date
+     * and 30W-ness before, and evicting the least-recently-used entry if need
+     * be.
+     *
+     * @param c the REAL date of the hash (not adjusted for the 30W Rule)
+     * @param uses30W whether or not the 30W Rule is in effect
+     * @param latHash the fractional latitude value
+     * @param lonHash the fractional longitude value
+     */
+    public synchronized void put(@NonNull Calendar c, boolean uses30W, double latHash, double lonHash) {
+        mEntries.put(makeKey(c, uses30W), new double[] {latHash, lonHash});
+    }
+
+    /**
+     * Gets the maximum size of the cache.
+     *
+     * @return the maximum size
+     */
+    public synchronized int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Gets how many entries are in the cache right now.
+     *
+     * @return the current size
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Empties out the cache.  The counters are left alone.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * Gets the number of lookups that found something.
+     *
+     * @return the hit count
+     */
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * Gets the number of lookups that didn't find anything.
+     *
+     * @return the miss count
+     */
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * Gets the number of entries that got pushed out to make room.
+     *
+     * @return the eviction count
+     */
+    public synchronized long getEvictionCount() {
+        return mEvictions;
+    }
+
+    @Override
+    @NonNull
+    public synchronized String toString() {
+        return "HashCache with " + mEntries.size() + "/" + mMaxSize
+                + " entries; " + mHits + " hits, " + mMisses + " misses, "
+                + mEvictions + " evictions";
+    }
+
+    private static long makeKey(@NonNull Calendar c, boolean uses30W) {
+        // YYYYMMDD in the upper bits, 30W-ness in the lowest.
+        return ((long)DateTools.getDateInt(c) << 1) | (uses30W ? 1L : 0L);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * HashEngine.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import androidx.annotation.NonNull;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Calendar;
+
+/**
+ * <p>
+ * <code>HashEngine</code> does the actual number-crunching part of the
+ * Geohashing algorithm.  That is, it takes a date and a stock value, MD5s the
+ * two together, and turns the two halves of that digest into the fractional
+ * latitude and longitude parts of the hashpoint.
+ * </p>
+ *
+ * <p>
+ * This used to go through a series of Strings (format the input, hex-encode
+ * the digest, cut the hex string in half, then feed each half one hexit at a
+ * time through {@link net.exclaimindustries.tools.HexFraction}).  Now, it
+ * writes the input straight into a reused byte buffer, digests that into
+ * another reused byte buffer, and converts each 64-bit half of the digest into
+ * a double directly.  The results are bit-for-bit identical to the old method;
+ * HexFraction summed everything up exactly in a BigDecimal and rounded once at
+ * the end, and that's exactly what the conversion here does, too.
+ * </p>
+ *
+ * <p>
+ * The buffers are kept per-thread, so this is safe to call from whatever
+ * threads StockWorker, AlarmWorker, and the like happen to be on.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+public class HashEngine {
+    /** 2^-64, for scaling a 64-bit half of the digest down to [0, 1]. */
+    private static final double TWO_TO_THE_MINUS_64 = 0x1.0p-64;
+
+    /**
+     * Longest input we'll ever need to build.  "YYYY-MM-DD-" is eleven bytes,
+     * and no stock value is going to come anywhere near the rest of this.
+     */
+    private static final int INPUT_BUFFER_SIZE = 64;
+
+    /** Length of an MD5 digest, in bytes. */
+    private static final int DIGEST_LENGTH = 16;
+
+    /**
+     * Everything a single thread needs to compute a hash without allocating
+     * anything new along the way.
+     */
+    private static class Workspace {
+        final MessageDigest digest;
+        final byte[] input = new byte[INPUT_BUFFER_SIZE];
+        final byte[] output = new byte[DIGEST_LENGTH];
+
+        Workspace() {
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch(NoSuchAlgorithmException e) {
+                // No, seriously, if this fails, we're all doomed.
+                throw new IllegalStateException("MD5 isn't available on this device?", e);
+            }
+        }
+    }
+
+    private static final ThreadLocal<Workspace> mWorkspace = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace();
+        }
+    };
+
+    // You don't construct a HashEngine, either.
+    private HashEngine() { }
+
+    /**
+     * Computes the fractional parts of a hashpoint from the given date and
+     * stock value.  The date is the REAL date, not the 30W Rule-adjusted one,
+     * and the stock is whatever the stock was for the adjusted date.  The
+     * results get written into the first two elements of <code>out</code>,
+     * latitude first, then longitude.
+     *
+     * @param c the date of the expedition
+     * @param stockPrice the stock value, as a String exactly as it came from
+     *                   the server
+     * @param out array of at least two doubles into which the latitude and
+     *            longitude hash fractions will be written
+     * @throws IllegalArgumentException the stock value was absurdly long or the
+     *                                  output array is too short
+     */
+    public static void calculate(@NonNull Calendar c,
+                                 @NonNull CharSequence stockPrice,
+                                 @NonNull double[] out) {
+        calculate(c.get(Calendar.YEAR),
+                c.get(Calendar.MONTH) + 1,
+                c.get(Calendar.DAY_OF_MONTH),
+                stockPrice,
+                out);
+    }
+
+    /**
+     * Computes the fractional parts of a hashpoint from the given date parts
+     * and stock value.  This is the same as
+     * {@link #calculate(Calendar, CharSequence, double[])}, only without the
+     * need for a Calendar.
+     *
+     * @param year four-digit year of the expedition
+     * @param month month of the expedition (1-12, NOT Calendar-style)
+     * @param day day of the month of the expedition
+     * @param stockPrice the stock value, as a String exactly as it came from
+     *                   the server
+     * @param out array of at least two doubles into which the latitude and
+     *            longitude hash fractions will be written
+     * @throws IllegalArgumentException the stock value was absurdly long or the
+     *                                  output array is too short
+     */
+    public static void calculate(int year,
+                                 int month,
+                                 int day,
+                                 @NonNull CharSequence stockPrice,
+                                 @NonNull double[] out) {
+        if(out.length < 2)
+            throw new IllegalArgumentException("The output array needs room for both latitude and longitude!");
+
+        Workspace work = mWorkspace.get();
+        byte[] input = work.input;
+
+        // This is the same thing as "%4d-%02d-%02d-%s" in String.format, only
+        // without ever making a String.
+        int pos = writeNumber(input, 0, year, 4, (byte)' ');
+        input[pos++] = '-';
+        pos = writeNumber(input, pos, month, 2, (byte)'0');
+        input[pos++] = '-';
+        pos = writeNumber(input, pos, day, 2, (byte)'0');
+        input[pos++] = '-';
+
+        int stockLength = stockPrice.length();
+        if(pos + stockLength > input.length)
+            throw new IllegalArgumentException("That stock value is WAY too long to be real: " + stockPrice);
+
+        // Same as CharToByte.charsToBytes; just take the low byte of each char.
+        // Stock values are plain ASCII, so this doesn't lose anything.
+        for(int i = 0; i < stockLength; i++)
+            input[pos++] = (byte)(stockPrice.charAt(i) & 0xFF);
+
+        // Digest!
+        MessageDigest digest = work.digest;
+        digest.reset();
+        digest.update(input, 0, pos);
+
+        try {
+            digest.digest(work.output, 0, DIGEST_LENGTH);
+        } catch(DigestException de) {
+            // This only happens if the output buffer is too small, and it's
+            // exactly the size of an MD5 digest.
+            throw new IllegalStateException("MD5 digest didn't fit in an MD5-sized buffer?", de);
+        }
+
+        out[0] = fractionFromBytes(work.output, 0);
+        out[1] = fractionFromBytes(work.output, 8);
+    }
+
+    /**
+     * Converts eight bytes of a digest, big-endian, into the fraction they'd
+     * represent if they were the hex digits after the decimal point (er, hex
+     * point).  In other words, the 64-bit unsigned value divided by 2^64.
+     *
+     * @param bytes the digest
+     * @param offset where in the digest to start
+     * @return the fraction, correctly rounded to the nearest double
+     */
+    static double fractionFromBytes(@NonNull byte[] bytes, int offset) {
+        long bits = 0;
+        for(int i = 0; i < 8; i++)
+            bits = (bits << 8) | (bytes[offset + i] & 0xFFL);
+
+        return unsignedToDouble(bits) * TWO_TO_THE_MINUS_64;
+    }
+
+    /**
+     * Converts a long, treated as unsigned, into the nearest double.  Java's
+     * long-to-double conversion already rounds to nearest (ties to even), so
+     * all we need to do is deal with the top bit.  For that, we halve the
+     * value, keeping the lowest bit around so the rounding still comes out the
+     * same, convert, and double it back up.  Scaling by powers of two is exact,
+     * so the only rounding that happens is the one in the conversion.
+     *
+     * @param bits the long to convert
+     * @return the nearest double to its unsigned value
+     */
+    private static double unsignedToDouble(long bits) {
+        if(bits >= 0) return (double)bits;
+
+        return (double)((bits >>> 1) | (bits & 1L)) * 2.0;
+    }
+
+    /**
+     * Writes a non-negative number as ASCII digits into a buffer, padded on
+     * the left out to at least the given width.
+     *
+     * @param buffer where to write
+     * @param pos where in the buffer to start
+     * @param value the number to write
+     * @param width the minimum number of bytes to write
+     * @param pad the byte to pad with
+     * @return the position just after the last byte written
+     */
+    private static int writeNumber(@NonNull byte[] buffer, int pos, int value, int width, byte pad) {
+        // Count up the digits first.
+        int digits = 1;
+        for(int v = value / 10; v != 0; v /= 10)
+            digits++;
+
+        for(int i = digits; i < width; i++)
+            buffer[pos++] = pad;
+
+        // Then fill them in backwards.
+        int end = pos + digits;
+        for(int i = end - 1; i >= pos; i--) {
+            buffer[i] = (byte)('0' + (value % 10));
+            value /= 10;
+        }
+
+        return end;
+    }
+}
@@ -275,11 +275,25 @@ public class Info implements Parcelable {
      * @return true if 30W or global, false if not
      */
     public boolean uses30WRule() {
-        // If mGraticule is null, this is always 30W.
-        if(mGraticule == null) return true;
+        return uses30WRule(mDate, mGraticule);
+    }
+
+    /**
+     * Determines if a point on the given date in the given Graticule follows
+     * the 30W Rule.  This is the same thing as {@link #uses30WRule()}, only
+     * for when you don't have an Info yet.  Note that globalhashes always
+     * follow the 30W Rule.
+     *
+     * @param c the date in question
+     * @param g the Graticule in question (null means globalhash)
+     * @return true if 30W or global, false if not
+     */
+    public static boolean uses30WRule(@NonNull Calendar c, @Nullable Graticule g) {
+        // If g is null, this is always 30W.
+        if(g == null) return true;
         
         // Otherwise, just forward it to the graticule itself.
-        return mDate.after(LIMIT_30W) && mGraticule.uses30WRule();
+        return c.after(LIMIT_30W) && g.uses30WRule();
     }
     
     /**
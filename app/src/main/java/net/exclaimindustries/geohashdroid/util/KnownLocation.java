@@ -430,35 +430,28 @@ public class KnownLocation implements Parcelable {
             return info;
         }
 
+        // Work out the whole neighborhood at once.  There's at most two
+        // distinct hashes in there, so this is only one or two trips to the
+        // cache, not nine.
+        Neighborhood hood = Neighborhood.resolve(con, cal, base, false);
+
+        if(!hood.isComplete()) {
+            // If any info is missing, we're asking for a date that doesn't
+            // exist yet.  Doesn't matter if some of the infos came through;
+            // ALL the infos SHOULD ALWAYS exist if any of them do, so that's
+            // still really really bad.
+            throw new IllegalArgumentException("Info didn't exist in the cache for that date!");
+        }
+
         double bestSoFar = Double.MAX_VALUE;
         Info bestInfo = null;
 
-        for(int i = -1; i <= 1; i++) {
-            for(int j = -1; j <= 1; j++) {
-                // Offset the base Graticule, if need be...
-                Graticule check = base;
-                if(i != 0 && j != 0) {
-                    check = Graticule.createOffsetFrom(base, i, j);
-                }
-
-                // Okay, now we can get an Info...
-                Info info = HashBuilder.getStoredInfo(con, cal, check);
-
-                if(info == null) {
-                    // If the info is ever null, we're asking for a date that
-                    // doesn't exist yet.  Doesn't matter if some of the infos
-                    // in this loop succeeded (unless we already returned true);
-                    // ALL the infos SHOULD ALWAYS exist if any of them do, so
-                    // that's still really really bad.
-                    throw new IllegalArgumentException("Info didn't exist in the cache for that date!");
-                }
-
-                // Now, how close is it?
-                double dist = getDistanceFrom(info);
-                if(dist < bestSoFar) {
-                    bestSoFar = dist;
-                    bestInfo = info;
-                }
+        for(Info info : hood.getAllInfos()) {
+            // Now, how close is it?
+            double dist = getDistanceFrom(info);
+            if(dist < bestSoFar) {
+                bestSoFar = dist;
+                bestInfo = info;
             }
         }
 
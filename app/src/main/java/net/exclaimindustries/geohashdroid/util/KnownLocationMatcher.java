@@ -0,0 +1,311 @@
+/*
+ * KnownLocationMatcher.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * <p>
+ * A <code>KnownLocationMatcher</code> figures out which KnownLocations are
+ * close enough to a hashpoint to tell the user about.  This gives the same
+ * answers as calling {@link KnownLocation#getClosestInfo(Context, Calendar)}
+ * and {@link KnownLocation#isCloseEnough(LatLng)} on every KnownLocation, but
+ * goes at it from the other direction.
+ * </p>
+ *
+ * <p>
+ * On any given day, every Graticule's hashpoint comes from one of at most two
+ * hashes, and the Graticules around a bunch of KnownLocations overlap a LOT.
+ * So instead of looking up the neighborhood of every KnownLocation, this
+ * works out each Graticule's hashpoint once, then asks a {@link GraticuleIndex}
+ * which KnownLocations are in range of it.  That's a couple trips to the cache
+ * no matter how many KnownLocations there are.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+public class KnownLocationMatcher {
+    private static final String DEBUG_TAG = "KnownLocationMatcher";
+
+    /**
+     * Gets told about every KnownLocation that matched.  These come in the
+     * same order as the KnownLocations were given to the matcher.
+     */
+    public interface Listener {
+        /**
+         * A KnownLocation matched.
+         *
+         * @param knownLocation the KnownLocation
+         * @param info the closest Info to it (or the globalhash)
+         * @param distance how far away the Info is, in m
+         */
+        void matched(@NonNull KnownLocation knownLocation,
+                     @NonNull Info info,
+                     double distance);
+    }
+
+    /**
+     * Where the matcher gets its hashes.  Normally that's HashBuilder's
+     * caches.
+     */
+    interface HashLookup {
+        /**
+         * Gets the hash for a Graticule on a date.  Just like with
+         * HashBuilder, give this the REAL date.
+         *
+         * @param cal the date
+         * @param g the Graticule
+         * @return the latitude and longitude hashes, or null if there isn't one
+         */
+        @Nullable
+        double[] lookup(@NonNull Calendar cal, @NonNull Graticule g);
+    }
+
+    // Everything the matcher needs to know about a KnownLocation, worked out
+    // once up front.
+    private static class Candidate {
+        final int order;
+        final KnownLocation knownLocation;
+        final Graticule[] graticules;
+
+        Candidate(int order, @NonNull KnownLocation knownLocation) {
+            this.order = order;
+            this.knownLocation = knownLocation;
+            graticules = makeNeighborhood(knownLocation);
+        }
+
+        boolean isNeighbor(@NonNull Graticule g) {
+            for(Graticule mine : graticules)
+                if(mine.equals(g)) return true;
+
+            return false;
+        }
+    }
+
+    private final List<Candidate> mCandidates = new ArrayList<>();
+
+    // 30W KnownLocations go by tomorrow's date; see AlarmWorker.  So they get
+    // their own index.
+    private final GraticuleIndex<Candidate> mIndex30W = new GraticuleIndex<>();
+    private final GraticuleIndex<Candidate> mIndexNon30W = new GraticuleIndex<>();
+    private double mMaxRange;
+    private double mMaxGlobalhashRange;
+
+    /**
+     * Makes a new matcher for the given KnownLocations.
+     *
+     * @param locations the KnownLocations
+     */
+    public KnownLocationMatcher(@NonNull List<KnownLocation> locations) {
+        for(KnownLocation kl : locations) {
+            Candidate c = new Candidate(mCandidates.size(), kl);
+            mCandidates.add(c);
+
+            LatLng ll = kl.getLatLng();
+            (kl.is30w() ? mIndex30W : mIndexNon30W).add(c, ll.latitude, ll.longitude);
+
+            mMaxRange = Math.max(mMaxRange, kl.getRange());
+            mMaxGlobalhashRange = Math.max(mMaxGlobalhashRange, kl.getGlobalhashRange());
+        }
+    }
+
+    /**
+     * Matches KnownLocations against the closest hashpoints to them (not
+     * counting the globalhash).  This only uses what's already in the cache.
+     * KnownLocations that don't have every hash they need in there (if it's
+     * too early for tomorrow's stock, say) just don't match.
+     *
+     * @param con a Context, for the cache
+     * @param today the date for non-30W KnownLocations
+     * @param tomorrow the date for 30W KnownLocations
+     * @param listener what to tell about matches
+     */
+    public void matchHashpoints(@NonNull final Context con,
+                                @NonNull Calendar today,
+                                @NonNull Calendar tomorrow,
+                                @NonNull Listener listener) {
+        matchHashpoints(today, tomorrow, new HashLookup() {
+            @Nullable
+            @Override
+            public double[] lookup(@NonNull Calendar cal, @NonNull Graticule g) {
+                // The raw hash, not what an Info works back out of its
+                // coordinates, since it gets used for every other Graticule
+                // on this side of 30W, too.
+                double[] hash = new double[2];
+                return HashBuilder.getStoredHash(con, cal, g, hash) ? hash : null;
+            }
+        }, listener);
+    }
+
+    void matchHashpoints(@NonNull Calendar today,
+                         @NonNull Calendar tomorrow,
+                         @NonNull HashLookup lookup,
+                         @NonNull Listener listener) {
+        Info[] bestInfos = new Info[mCandidates.size()];
+        float[] bestDistances = new float[mCandidates.size()];
+
+        matchIndex(mIndexNon30W, false, today, lookup, bestInfos, bestDistances);
+        matchIndex(mIndex30W, true, tomorrow, lookup, bestInfos, bestDistances);
+
+        int count = 0;
+        for(Candidate c : mCandidates) {
+            Info best = bestInfos[c.order];
+            if(best != null) {
+                count++;
+                listener.matched(c.knownLocation, best, bestDistances[c.order]);
+            }
+        }
+
+        Log.d(DEBUG_TAG, count + " of " + mCandidates.size() + " KnownLocation(s) matched");
+    }
+
+    private void matchIndex(@NonNull GraticuleIndex<Candidate> index,
+                            final boolean is30W,
+                            @NonNull Calendar cal,
+                            @NonNull HashLookup lookup,
+                            @NonNull final Info[] bestInfos,
+                            @NonNull final float[] bestDistances) {
+        if(index.size() == 0) return;
+
+        // There's at most two hashes for any date: one for 30W Graticules and
+        // one for everything else.
+        double[][] hashes = new double[2][];
+        boolean[] looked = new boolean[2];
+
+        // Gather up every Graticule anybody cares about.  If somebody's
+        // missing a hash, they're out entirely, same as getClosestInfo
+        // throwing.
+        final boolean[] skipped = new boolean[mCandidates.size()];
+        Set<Graticule> graticules = new LinkedHashSet<>();
+
+        for(Candidate c : mCandidates) {
+            if(c.knownLocation.is30w() != is30W) continue;
+
+            for(Graticule g : c.graticules) {
+                if(getHash(cal, g, lookup, hashes, looked) == null) {
+                    skipped[c.order] = true;
+                    break;
+                }
+            }
+
+            if(!skipped[c.order]) {
+                for(Graticule g : c.graticules)
+                    graticules.add(g);
+            }
+        }
+
+        // Now, for each hashpoint, who's in range?
+        for(final Graticule g : graticules) {
+            double[] hash = getHash(cal, g, lookup, hashes, looked);
+            if(hash == null) continue;
+
+            final Info info = HashBuilder.createInfo(cal, hash[0], hash[1], g);
+
+            index.findWithin(info.getLatitude(), info.getLongitude(), mMaxRange,
+                    new GraticuleIndex.Visitor<Candidate>() {
+                @Override
+                public void visit(@NonNull Candidate c, float distance) {
+                    // Same rules as isCloseEnough.  Plus, this has to be one
+                    // of the Graticules the KnownLocation actually considers.
+                    if(skipped[c.order]
+                            || c.knownLocation.getRange() <= 0.0
+                            || distance > c.knownLocation.getRange()
+                            || !c.isNeighbor(g))
+                        return;
+
+                    if(bestInfos[c.order] == null || distance < bestDistances[c.order]) {
+                        bestInfos[c.order] = info;
+                        bestDistances[c.order] = distance;
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Matches KnownLocations against the globalhash, using their globalhash
+     * ranges.
+     *
+     * @param global the globalhash Info
+     * @param listener what to tell about matches
+     */
+    public void matchGlobalhash(@NonNull Info global, @NonNull Listener listener) {
+        final float[] distances = new float[mCandidates.size()];
+        final boolean[] matched = new boolean[mCandidates.size()];
+
+        GraticuleIndex.Visitor<Candidate> visitor = new GraticuleIndex.Visitor<Candidate>() {
+            @Override
+            public void visit(@NonNull Candidate c, float distance) {
+                // Same rules as isCloseEnoughForGlobalhash.
+                double range = c.knownLocation.getGlobalhashRange();
+                if(range > 0.0 && distance <= range) {
+                    matched[c.order] = true;
+                    distances[c.order] = distance;
+                }
+            }
+        };
+
+        mIndexNon30W.findWithin(global.getLatitude(), global.getLongitude(), mMaxGlobalhashRange, visitor);
+        mIndex30W.findWithin(global.getLatitude(), global.getLongitude(), mMaxGlobalhashRange, visitor);
+
+        for(Candidate c : mCandidates) {
+            if(matched[c.order])
+                listener.matched(c.knownLocation, global, distances[c.order]);
+        }
+    }
+
+    @Nullable
+    private static double[] getHash(@NonNull Calendar cal,
+                                    @NonNull Graticule g,
+                                    @NonNull HashLookup lookup,
+                                    @NonNull double[][] hashes,
+                                    @NonNull boolean[] looked) {
+        int which = Info.uses30WRule(cal, g) ? 1 : 0;
+
+        if(!looked[which]) {
+            hashes[which] = lookup.lookup(cal, g);
+            looked[which] = true;
+        }
+
+        return hashes[which];
+    }
+
+    @NonNull
+    private static Graticule[] makeNeighborhood(@NonNull KnownLocation kl) {
+        Graticule base = new Graticule(kl.getLatLng());
+
+        // Graticule-restricted KnownLocations only ever consider their own.
+        if(kl.isRestrictedGraticule()) return new Graticule[] {base};
+
+        // Otherwise, it's the same nine Graticules as a Neighborhood.
+        List<Graticule> toReturn = new ArrayList<>(9);
+
+        for(int i = -1; i <= 1; i++) {
+            if(Math.abs((base.isSouth() ? -1 : 1) * base.getLatitude() + i) > 90)
+                continue;
+
+            for(int j = -1; j <= 1; j++)
+                toReturn.add(Graticule.createOffsetFrom(base, i, j));
+        }
+
+        return toReturn.toArray(new Graticule[0]);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * MarketCalendar.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import androidx.annotation.NonNull;
+
+/**
+ * <p>
+ * <code>MarketCalendar</code> knows which days the NYSE is closed.  On those
+ * days, the Geohashing algorithm uses the most recent opening value, which is
+ * what the mirror servers hand back for them.  {@link Info#makeAdjustedCalendar(Calendar, Graticule)}
+ * handles weekends already, but not holidays, so this fills in the rest for
+ * {@link StockPrefetcher}, which wants to know ahead of time that, say, next
+ * Monday is going to be Friday's value all over again.
+ * </p>
+ *
+ * <p>
+ * This only knows the regular, rule-based holidays (the current set, as of
+ * this writing), not the one-off closures the NYSE occasionally declares.
+ * Those just get fetched from the mirrors like any other day.  It's not meant
+ * for dates far in the past, either; the holiday list has changed over the
+ * years, and the mirrors already know the history.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+public class MarketCalendar {
+    // No constructing this one, either.
+    private MarketCalendar() { }
+
+    /**
+     * Determines if the NYSE is open on the given date, as far as we know.
+     *
+     * @param c the date in question
+     * @return true if it's a weekday that isn't a holiday, false otherwise
+     */
+    public static boolean isTradingDay(@NonNull Calendar c) {
+        int dow = c.get(Calendar.DAY_OF_WEEK);
+        if(dow == Calendar.SATURDAY || dow == Calendar.SUNDAY) return false;
+
+        return !isHoliday(c);
+    }
+
+    /**
+     * Determines if the given date is a (weekday) NYSE holiday.
+     *
+     * @param c the date in question
+     * @return true if it's a holiday, false if not
+     */
+    public static boolean isHoliday(@NonNull Calendar c) {
+        int year = c.get(Calendar.YEAR);
+        int month = c.get(Calendar.MONTH);
+        int day = c.get(Calendar.DAY_OF_MONTH);
+        int dow = c.get(Calendar.DAY_OF_WEEK);
+
+        switch(month) {
+            case Calendar.JANUARY:
+                // New Year's Day, or the Monday after if it's on a Sunday.  If
+                // it's on a Saturday, the NYSE doesn't close the Friday before,
+                // as that'd be in the previous year.
+                if(isObserved(day, dow, 1, false)) return true;
+
+                // Martin Luther King, Jr. Day, the third Monday.
+                return isNthWeekday(day, dow, Calendar.MONDAY, 3);
+            case Calendar.FEBRUARY:
+                // Washington's Birthday, the third Monday.
+                return isNthWeekday(day, dow, Calendar.MONDAY, 3);
+            case Calendar.MARCH:
+            case Calendar.APRIL:
+                // Good Friday.
+                return isGoodFriday(year, month, day);
+            case Calendar.MAY:
+                // Memorial Day, the last Monday.
+                return dow == Calendar.MONDAY && day + 7 > 31;
+            case Calendar.JUNE:
+                // Juneteenth, starting in 2022.
+                return year >= 2022 && isObserved(day, dow, 19, true);
+            case Calendar.JULY:
+                // Independence Day.
+                return isObserved(day, dow, 4, true);
+            case Calendar.SEPTEMBER:
+                // Labor Day, the first Monday.
+                return isNthWeekday(day, dow, Calendar.MONDAY, 1);
+            case Calendar.NOVEMBER:
+                // Thanksgiving, the fourth Thursday.
+                return isNthWeekday(day, dow, Calendar.THURSDAY, 4);
+            case Calendar.DECEMBER:
+                // Christmas.
+                return isObserved(day, dow, 25, true);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Gets the most recent trading day strictly before the given date.
+     *
+     * @param c the date to start from
+     * @return a new Calendar for the previous trading day
+     */
+    @NonNull
+    public static Calendar getPreviousTradingDay(@NonNull Calendar c) {
+        Calendar cal = (Calendar)c.clone();
+
+        do {
+            cal.add(Calendar.DAY_OF_MONTH, -1);
+        } while(!isTradingDay(cal));
+
+        return cal;
+    }
+
+    /**
+     * Gets the date whose opening value the Geohashing algorithm uses for the
+     * given date.  That's the date itself if it's a trading day, or the most
+     * recent trading day before it if not.
+     *
+     * @param c the date in question
+     * @return a new Calendar for the date whose stock applies
+     */
+    @NonNull
+    public static Calendar getEffectiveStockDate(@NonNull Calendar c) {
+        if(isTradingDay(c)) return (Calendar)c.clone();
+
+        return getPreviousTradingDay(c);
+    }
+
+    private static boolean isObserved(int day, int dow, int holiday, boolean fridayBefore) {
+        // A fixed-date holiday on a weekday is just that day.  On a Sunday,
+        // it moves to Monday.  On a Saturday, it moves to Friday, if that's
+        // allowed.
+        if(day == holiday)
+            return dow != Calendar.SATURDAY && dow != Calendar.SUNDAY;
+        if(day == holiday + 1 && dow == Calendar.MONDAY)
+            return true;
+        return fridayBefore && day == holiday - 1 && dow == Calendar.FRIDAY;
+    }
+
+    private static boolean isNthWeekday(int day, int dow, int weekday, int n) {
+        return dow == weekday && (day - 1) / 7 == n - 1;
+    }
+
+    private static boolean isGoodFriday(int year, int month, int day) {
+        // This is the anonymous Gregorian algorithm (Meeus/Jones/Butcher) for
+        // working out Easter.  Good Friday's two days before that.
+        int a = year % 19;
+        int b = year / 100;
+        int c = year % 100;
+        int d = b / 4;
+        int e = b % 4;
+        int f = (b + 8) / 25;
+        int g = (b - f + 1) / 3;
+        int h = (19 * a + b - d - g + 15) % 30;
+        int i = c / 4;
+        int k = c % 4;
+        int l = (32 + 2 * e + 2 * i - h - k) % 7;
+        int m = (a + 11 * h + 22 * l) / 451;
+        int easterMonth = (h + l - 7 * m + 114) / 31;
+        int easterDay = ((h + l - 7 * m + 114) % 31) + 1;
+
+        Calendar goodFriday = new GregorianCalendar(year, easterMonth - 1, easterDay);
+        goodFriday.add(Calendar.DAY_OF_MONTH, -2);
+
+        return goodFriday.get(Calendar.MONTH) == month
+                && goodFriday.get(Calendar.DAY_OF_MONTH) == day;
+    }
+}
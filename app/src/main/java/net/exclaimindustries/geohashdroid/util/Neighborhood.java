@@ -0,0 +1,261 @@
+/*
+ * Neighborhood.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * <p>
+ * A <code>Neighborhood</code> is the 3x3 block of Graticules around (and
+ * including) some center Graticule, along with the Infos for each of them on a
+ * given date.  This is what the nearby points and the closest-hashpoint checks
+ * for KnownLocations use.
+ * </p>
+ *
+ * <p>
+ * The thing about a neighborhood is that, no matter where it is, there are at
+ * most two distinct hashes in it: one for the Graticules under the 30W Rule,
+ * and one for the ones that aren't.  Everything else is just adding the
+ * Graticule's own latitude and longitude to the right hash.  So rather than
+ * look up (or worse, fetch) all nine one at a time, this looks up those one or
+ * two hashes, then builds all nine Infos from them.  If it does need two, the
+ * lookups run at the same time.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+public class Neighborhood {
+    private static final String DEBUG_TAG = "Neighborhood";
+
+    // Only ever used to look up the second hash while the calling thread looks
+    // up the first, and that only happens near the 30W line.  Idle threads go
+    // away on their own.
+    private static final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    private final Graticule[] mGraticules = new Graticule[9];
+    private final Info[] mInfos = new Info[9];
+
+    private Neighborhood() { }
+
+    /**
+     * <p>
+     * Resolves the neighborhood around the given Graticule on the given date.
+     * Just like with StockRunner, give this the REAL date; the 30W Rule gets
+     * accounted for here.
+     * </p>
+     *
+     * <p>
+     * If <code>allowNetwork</code> is true and a hash isn't in the cache, this
+     * will go off and fetch the stock for it, so don't call it from the main
+     * thread in that case.  Either way, anything that couldn't be found just
+     * comes back as null from {@link #getInfo(int, int)}; this won't throw
+     * anything over it.
+     * </p>
+     *
+     * @param con Context for databasey stuff
+     * @param cal the date in question
+     * @param center the Graticule in the middle of the neighborhood
+     * @param allowNetwork true to go to the internet for hashes that aren't
+     *                     cached, false to stick to the caches
+     * @return a resolved Neighborhood
+     */
+    @NonNull
+    public static Neighborhood resolve(@NonNull Context con,
+                                       @NonNull Calendar cal,
+                                       @NonNull Graticule center,
+                                       boolean allowNetwork) {
+        Neighborhood toReturn = new Neighborhood();
+
+        // First, lay out the Graticules, and find one of each kind to use to
+        // look up the hashes.
+        Graticule rep30W = null;
+        Graticule repNon30W = null;
+
+        for(int i = -1; i <= 1; i++) {
+            // If the user's truly adventurous enough to go to the 90N/S
+            // graticules, there aren't any Graticules north/south of where
+            // they are.  Graticule would clamp those to 89, which would just
+            // give us duplicates.
+            if(Math.abs((center.isSouth() ? -1 : 1) * center.getLatitude() + i) > 90)
+                continue;
+
+            for(int j = -1; j <= 1; j++) {
+                Graticule g = Graticule.createOffsetFrom(center, i, j);
+                toReturn.mGraticules[index(i, j)] = g;
+
+                if(Info.uses30WRule(cal, g)) {
+                    if(rep30W == null) rep30W = g;
+                } else {
+                    if(repNon30W == null) repNon30W = g;
+                }
+            }
+        }
+
+        // Now, get the hashes.  If we need both, the second one goes off to
+        // another thread while this one works on the first.
+        double[] hash30W = null;
+        double[] hashNon30W = null;
+        Future<double[]> pending = null;
+
+        if(rep30W != null && repNon30W != null)
+            pending = mExecutor.submit(makeLookup(con, cal, repNon30W, allowNetwork));
+        else if(repNon30W != null)
+            hashNon30W = lookupHash(con, cal, repNon30W, allowNetwork);
+
+        if(rep30W != null)
+            hash30W = lookupHash(con, cal, rep30W, allowNetwork);
+
+        if(pending != null) {
+            try {
+                hashNon30W = pending.get();
+            } catch(InterruptedException ie) {
+                // If we got interrupted, whoever interrupted us probably
+                // doesn't care about the result anymore.  Pass it along and
+                // leave those Infos out.
+                Log.w(DEBUG_TAG, "Interrupted while waiting for the non-30W hash!");
+                pending.cancel(true);
+                Thread.currentThread().interrupt();
+            } catch(ExecutionException ee) {
+                // lookupHash doesn't throw anything checked, so this is a
+                // genuine bug if it happens.
+                throw new RuntimeException(ee.getCause());
+            }
+        }
+
+        // Finally, build every Info from whichever hash applies.
+        for(int k = 0; k < 9; k++) {
+            Graticule g = toReturn.mGraticules[k];
+            if(g == null) continue;
+
+            double[] hash = Info.uses30WRule(cal, g) ? hash30W : hashNon30W;
+            if(hash != null)
+                toReturn.mInfos[k] = HashBuilder.createInfo(cal, hash[0], hash[1], g);
+        }
+
+        return toReturn;
+    }
+
+    /**
+     * Gets the Info at the given offset from the center.  This will be null if
+     * that Graticule doesn't exist (off past a pole) or if its hash couldn't
+     * be found.
+     *
+     * @param latOff latitude offset, -1 to 1 (positive is north)
+     * @param lonOff longitude offset, -1 to 1 (positive is east)
+     * @return the Info there, or null
+     * @throws IllegalArgumentException either offset wasn't -1, 0, or 1
+     */
+    @Nullable
+    public Info getInfo(int latOff, int lonOff) {
+        if(latOff < -1 || latOff > 1 || lonOff < -1 || lonOff > 1)
+            throw new IllegalArgumentException("A Neighborhood only goes one Graticule out in each direction!");
+
+        return mInfos[index(latOff, lonOff)];
+    }
+
+    /**
+     * Determines if every Graticule in this Neighborhood got an Info.
+     * Graticules that don't exist (off past a pole) don't count against it.
+     *
+     * @return true if everything resolved, false if something's missing
+     */
+    public boolean isComplete() {
+        for(int k = 0; k < 9; k++) {
+            if(mGraticules[k] != null && mInfos[k] == null)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets every Info in the Neighborhood that resolved, center included.
+     *
+     * @return an array of Infos, with no nulls in it
+     */
+    @NonNull
+    public Info[] getAllInfos() {
+        return collect(true);
+    }
+
+    /**
+     * Gets every Info around the center that resolved, NOT including the
+     * center itself.  These are the nearby points.
+     *
+     * @return an array of up to eight Infos, with no nulls in it
+     */
+    @NonNull
+    public Info[] getNearbyInfos() {
+        return collect(false);
+    }
+
+    @NonNull
+    private Info[] collect(boolean includeCenter) {
+        List<Info> infos = new ArrayList<>(9);
+
+        for(int k = 0; k < 9; k++) {
+            if(!includeCenter && k == index(0, 0)) continue;
+            if(mInfos[k] != null) infos.add(mInfos[k]);
+        }
+
+        return infos.toArray(new Info[0]);
+    }
+
+    @NonNull
+    private static Callable<double[]> makeLookup(@NonNull final Context con,
+                                                 @NonNull final Calendar cal,
+                                                 @NonNull final Graticule g,
+                                                 final boolean allowNetwork) {
+        return new Callable<double[]>() {
+            @Override
+            public double[] call() {
+                return lookupHash(con, cal, g, allowNetwork);
+            }
+        };
+    }
+
+    @Nullable
+    private static double[] lookupHash(@NonNull Context con,
+                                       @NonNull Calendar cal,
+                                       @NonNull Graticule g,
+                                       boolean allowNetwork) {
+        // Cache first.  This has to be the raw hash, not what an Info works
+        // back out of its coordinates, since it's going to be used for every
+        // other Graticule on this side of 30W, too.
+        double[] hash = new double[2];
+        if(HashBuilder.getStoredHash(con, cal, g, hash)) return hash;
+
+        if(!allowNetwork) return null;
+
+        // It's not in the cache.  Try to make it be in the cache.
+        HashBuilder.StockRunner runner = HashBuilder.requestStockRunner(con, cal, g);
+        runner.runStock();
+
+        if(runner.getStatus() != HashBuilder.StockRunner.ALL_OKAY) return null;
+
+        return runner.getLastHash();
+    }
+
+    private static int index(int latOff, int lonOff) {
+        return (latOff + 1) * 3 + (lonOff + 1);
+    }
+}
@@ -0,0 +1,575 @@
+/*
+ * StockFetcher.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import android.util.Log;
+
+import net.exclaimindustries.tools.DateTools;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.client.config.RequestConfig;
+import cz.msebera.android.httpclient.client.methods.CloseableHttpResponse;
+import cz.msebera.android.httpclient.client.methods.HttpGet;
+import cz.msebera.android.httpclient.impl.client.CloseableHttpClient;
+import cz.msebera.android.httpclient.impl.client.HttpClients;
+import cz.msebera.android.httpclient.impl.conn.PoolingHttpClientConnectionManager;
+import cz.msebera.android.httpclient.util.EntityUtils;
+
+/**
+ * <p>
+ * A <code>StockFetcher</code> goes out to the mirror servers to get the DJIA
+ * for a given (already-adjusted) date.  This is what {@link HashBuilder}
+ * uses whenever the stock isn't in the database.
+ * </p>
+ *
+ * <p>
+ * It used to be that we'd try each mirror in order, with a brand new HTTP
+ * client and a brand new Timer thread each time, so if the first mirror was
+ * dead, we'd sit there for the full timeout before even trying the second.
+ * Now, the first mirror gets a head start (the hedge delay), and if it hasn't
+ * answered by then (or it answers with an error), the next one goes out, too.
+ * Whichever comes back first with a real number wins, and everything still
+ * in flight gets aborted.  Set the hedge delay to zero to just race them all
+ * from the start.
+ * </p>
+ *
+ * <p>
+ * All fetchers share one thread pool to run requests on and one scheduler
+ * thread to time them out, and each fetcher keeps a single pooled HTTP client
+ * around.  Each mirror also keeps some {@link MirrorStats} on how it's been
+ * doing, for the curious.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+public class StockFetcher {
+    private static final String DEBUG_TAG = "StockFetcher";
+
+    /** Default time, in milliseconds, to give a mirror before hedging. */
+    public static final long DEFAULT_HEDGE_DELAY_MS = 1500;
+
+    /** Default time, in milliseconds, before giving up on a single request. */
+    public static final int DEFAULT_TIMEOUT_MS = 10000;
+
+    /**
+     * The mirrors we use, in order of preference.  The general form is that %Y
+     * is the four-digit year, %m is the zero-padded month, and %d is the
+     * zero-padded date.
+     */
+    public static final String[] DEFAULT_MIRRORS = {
+            "http://irc.peeron.com/xkcd/map/data/%Y/%m/%d",
+            "http://geo.crox.net/djia/%Y/%m/%d" };
+
+    // What a single attempt came back with.
+    private static final int RESULT_OKAY = 0;
+    private static final int RESULT_NOT_POSTED = 1;
+    private static final int RESULT_ERROR = 2;
+
+    // How many connections each mirror gets at once.  Any one fetch only
+    // hits a mirror once, but the prefetcher runs several fetches at a time,
+    // and whatever the user's looking at right now (StockService, a batch of
+    // hashes, etc) can be fetching on top of that.  If this runs out, the
+    // extra requests sit waiting for a connection until they time out, which
+    // looks just like the mirror being down.
+    private static final int MAX_CONNECTIONS_PER_MIRROR = StockPrefetcher.MAX_THREADS + 4;
+
+    private static final ThreadFactory mThreadFactory = new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread t = new Thread(r, DEBUG_TAG);
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    // Requests block, so they each get a thread.  These go away after a minute
+    // of idleness, so there's no cost when nothing's being fetched.
+    private static final ExecutorService mWorkers = Executors.newCachedThreadPool(mThreadFactory);
+
+    // And one thread to abort anything that's taking too long.
+    private static final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor(mThreadFactory);
+
+    private static StockFetcher mDefault;
+
+    /**
+     * <p>
+     * Statistics for one mirror.  Latencies only count requests that actually
+     * finished, whether or not they had a stock; aborted ones are counted
+     * separately, as they didn't really get a chance.
+     * </p>
+     */
+    public static class MirrorStats {
+        private final String mTemplate;
+        private long mAttempts;
+        private long mSuccesses;
+        private long mNotPosted;
+        private long mErrors;
+        private long mAborted;
+        private long mTotalLatencyMs;
+        private long mMinLatencyMs = Long.MAX_VALUE;
+        private long mMaxLatencyMs;
+
+        private MirrorStats(@NonNull String template) {
+            mTemplate = template;
+        }
+
+        private synchronized void recordStart() {
+            mAttempts++;
+        }
+
+        private synchronized void recordResult(int result, long latencyMs) {
+            switch(result) {
+                case RESULT_OKAY:
+                    mSuccesses++;
+                    break;
+                case RESULT_NOT_POSTED:
+                    mNotPosted++;
+                    break;
+                default:
+                    mErrors++;
+            }
+
+            mTotalLatencyMs += latencyMs;
+            mMinLatencyMs = Math.min(mMinLatencyMs, latencyMs);
+            mMaxLatencyMs = Math.max(mMaxLatencyMs, latencyMs);
+        }
+
+        private synchronized void recordAborted() {
+            mAborted++;
+        }
+
+        /**
+         * Gets the URL template for this mirror.
+         *
+         * @return the template
+         */
+        @NonNull
+        public String getTemplate() {
+            return mTemplate;
+        }
+
+        /**
+         * Gets how many requests have gone to this mirror.
+         *
+         * @return the attempt count
+         */
+        public synchronized long getAttempts() {
+            return mAttempts;
+        }
+
+        /**
+         * Gets how many requests came back with a valid stock.
+         *
+         * @return the success count
+         */
+        public synchronized long getSuccesses() {
+            return mSuccesses;
+        }
+
+        /**
+         * Gets how many requests came back saying the stock isn't posted.
+         *
+         * @return the not-posted count
+         */
+        public synchronized long getNotPosted() {
+            return mNotPosted;
+        }
+
+        /**
+         * Gets how many requests failed (server errors, bogus data, timeouts,
+         * and the like).
+         *
+         * @return the error count
+         */
+        public synchronized long getErrors() {
+            return mErrors;
+        }
+
+        /**
+         * Gets how many requests got aborted because another mirror won.
+         *
+         * @return the aborted count
+         */
+        public synchronized long getAborted() {
+            return mAborted;
+        }
+
+        /**
+         * Gets the mean latency of requests that finished.
+         *
+         * @return the mean latency in milliseconds, or -1 if nothing's
+         *         finished yet
+         */
+        public synchronized long getMeanLatencyMs() {
+            long finished = mSuccesses + mNotPosted + mErrors;
+            return finished == 0 ? -1 : mTotalLatencyMs / finished;
+        }
+
+        /**
+         * Gets the fastest latency of any request that finished.
+         *
+         * @return the minimum latency in milliseconds, or -1 if nothing's
+         *         finished yet
+         */
+        public synchronized long getMinLatencyMs() {
+            return mMinLatencyMs == Long.MAX_VALUE ? -1 : mMinLatencyMs;
+        }
+
+        /**
+         * Gets the slowest latency of any request that finished.
+         *
+         * @return the maximum latency in milliseconds, or -1 if nothing's
+         *         finished yet
+         */
+        public synchronized long getMaxLatencyMs() {
+            return mMinLatencyMs == Long.MAX_VALUE ? -1 : mMaxLatencyMs;
+        }
+
+        @Override
+        @NonNull
+        public synchronized String toString() {
+            return mTemplate + ": " + mAttempts + " attempts, " + mSuccesses
+                    + " okay, " + mNotPosted + " not posted, " + mErrors
+                    + " errors, " + mAborted + " aborted; latency min/mean/max "
+                    + getMinLatencyMs() + "/" + getMeanLatencyMs() + "/"
+                    + getMaxLatencyMs() + "ms";
+        }
+    }
+
+    /**
+     * One request to one mirror.
+     */
+    private class Attempt implements Callable<Attempt> {
+        final int mirror;
+        final HttpGet request;
+        int result = RESULT_ERROR;
+        String stock;
+        long latencyMs;
+
+        Attempt(int mirror, @NonNull String url) {
+            this.mirror = mirror;
+            this.request = new HttpGet(url);
+            this.request.setConfig(RequestConfig.custom()
+                    .setConnectTimeout(mTimeoutMs)
+                    .setConnectionRequestTimeout(mTimeoutMs)
+                    .setSocketTimeout(mTimeoutMs)
+                    .build());
+        }
+
+        @Override
+        public Attempt call() {
+            long start = System.nanoTime();
+
+            // The socket timeout only covers gaps between packets, so make
+            // sure a mirror trickling out bytes still gets cut off eventually.
+            ScheduledFuture<?> timeout = mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    Log.i(DEBUG_TAG, "Request to " + request.getURI() + " timed out, aborting now.");
+                    request.abort();
+                }
+            }, mTimeoutMs, TimeUnit.MILLISECONDS);
+
+            CloseableHttpResponse response = null;
+
+            try {
+                Log.v(DEBUG_TAG, "Trying " + request.getURI() + "...");
+                response = mClient.execute(request);
+                int code = response.getStatusLine().getStatusCode();
+                HttpEntity entity = response.getEntity();
+
+                if(code == HttpURLConnection.HTTP_NOT_FOUND) {
+                    // If the server gives us a 404, that's saying it can't
+                    // find the stock for the day, which in turn implies it
+                    // hasn't been posted yet.
+                    result = RESULT_NOT_POSTED;
+                } else if(code == HttpURLConnection.HTTP_OK && entity != null) {
+                    String body = EntityUtils.toString(entity);
+
+                    // If this isn't a number, we got bogus data and it counts
+                    // as an error.
+                    Float.parseFloat(body);
+                    stock = body;
+                    result = RESULT_OKAY;
+                }
+            } catch(IOException | NumberFormatException e) {
+                // Either something went wrong with the server, or we got
+                // aborted, or it wasn't a number.  All errors either way.
+                Log.d(DEBUG_TAG, "Request to " + request.getURI() + " failed: " + e.toString());
+                result = RESULT_ERROR;
+            } finally {
+                timeout.cancel(false);
+
+                if(response != null) {
+                    // Drain whatever's left so the connection can go back to
+                    // the pool.
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    try {
+                        response.close();
+                    } catch(IOException ioe) {
+                        // Oh well.
+                    }
+                }
+
+                latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            }
+
+            return this;
+        }
+    }
+
+    private final String[] mMirrors;
+    private final MirrorStats[] mStats;
+    private final CloseableHttpClient mClient;
+    private volatile long mHedgeDelayMs = DEFAULT_HEDGE_DELAY_MS;
+    private volatile int mTimeoutMs = DEFAULT_TIMEOUT_MS;
+
+    /**
+     * Makes a new StockFetcher for the given mirrors.  You probably want
+     * {@link #getDefault()} instead, unless you're testing.
+     *
+     * @param mirrors URL templates for each mirror, in order of preference
+     *                (see {@link #DEFAULT_MIRRORS} for the format)
+     * @throws IllegalArgumentException no mirrors were given
+     */
+    public StockFetcher(@NonNull String... mirrors) {
+        if(mirrors.length == 0)
+            throw new IllegalArgumentException("A StockFetcher needs at least one mirror!");
+
+        mMirrors = mirrors.clone();
+        mStats = new MirrorStats[mMirrors.length];
+        for(int i = 0; i < mMirrors.length; i++)
+            mStats[i] = new MirrorStats(mMirrors[i]);
+
+        // Every fetch going at once could be on the same mirror, so give each
+        // mirror room for all of them.
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+        manager.setMaxTotal(mMirrors.length * MAX_CONNECTIONS_PER_MIRROR);
+        manager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_MIRROR);
+
+        mClient = HttpClients.custom().setConnectionManager(manager).build();
+    }
+
+    /**
+     * Gets the StockFetcher for the default mirrors.
+     *
+     * @return the default StockFetcher
+     */
+    @NonNull
+    public static synchronized StockFetcher getDefault() {
+        if(mDefault == null)
+            mDefault = new StockFetcher(DEFAULT_MIRRORS);
+
+        return mDefault;
+    }
+
+    /**
+     * Sets how long the current mirror gets to answer before the next one is
+     * tried alongside it.  Zero (or less) means all mirrors get tried at once.
+     *
+     * @param delayMs the hedge delay, in milliseconds
+     */
+    public void setHedgeDelay(long delayMs) {
+        mHedgeDelayMs = delayMs;
+    }
+
+    /**
+     * Gets the current hedge delay.
+     *
+     * @return the hedge delay, in milliseconds
+     */
+    public long getHedgeDelay() {
+        return mHedgeDelayMs;
+    }
+
+    /**
+     * Sets how long any single request gets before it's given up on.
+     *
+     * @param timeoutMs the timeout, in milliseconds
+     * @throws IllegalArgumentException timeoutMs wasn't positive
+     */
+    public void setTimeout(int timeoutMs) {
+        if(timeoutMs <= 0)
+            throw new IllegalArgumentException("The timeout has to be positive!");
+
+        mTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * Gets the current per-request timeout.
+     *
+     * @return the timeout, in milliseconds
+     */
+    public int getTimeout() {
+        return mTimeoutMs;
+    }
+
+    /**
+     * Gets the stats for every mirror, in the same order the mirrors were
+     * given.
+     *
+     * @return a list of MirrorStats
+     */
+    @NonNull
+    public List<MirrorStats> getStats() {
+        List<MirrorStats> toReturn = new ArrayList<>(mStats.length);
+        for(MirrorStats stats : mStats)
+            toReturn.add(stats);
+        return toReturn;
+    }
+
+    /**
+     * <p>
+     * Fetches the stock for the given already-adjusted date.  This blocks
+     * until a mirror comes through or they all fail, so don't call it from the
+     * main thread.
+     * </p>
+     *
+     * <p>
+     * In terms of what gets reported, "not posted" outranks a server error.
+     * That is to say, if one mirror has an error but another one explicitly
+     * tells us the stock wasn't found, the latter is what we throw.
+     * </p>
+     *
+     * @param sCal the already-adjusted date
+     * @return the stock, exactly as the mirror sent it
+     * @throws FileNotFoundException no mirror had it, and at least one said
+     *                               it isn't posted yet
+     * @throws InterruptedIOException the thread got interrupted while waiting
+     * @throws IOException no mirror had it, for some other reason
+     */
+    @NonNull
+    public String fetch(@NonNull Calendar sCal) throws IOException {
+        CompletionService<Attempt> completion = new ExecutorCompletionService<>(mWorkers);
+        List<Attempt> attempts = new ArrayList<>(mMirrors.length);
+        List<Future<Attempt>> futures = new ArrayList<>(mMirrors.length);
+        boolean[] finished = new boolean[mMirrors.length];
+        boolean notPosted = false;
+        int running = 0;
+
+        try {
+            // If we're racing, everybody goes now.  Otherwise, just the first.
+            long hedgeDelay = mHedgeDelayMs;
+            do {
+                launch(completion, sCal, attempts, futures);
+                running++;
+            } while(hedgeDelay <= 0 && attempts.size() < mMirrors.length);
+
+            while(running > 0) {
+                Future<Attempt> done;
+
+                if(attempts.size() < mMirrors.length) {
+                    // There's still someone on the bench.  Wait for the hedge
+                    // delay, and if nobody's back by then, send them in.
+                    done = completion.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+                    if(done == null) {
+                        Log.d(DEBUG_TAG, "No answer yet, hedging with mirror " + attempts.size() + "...");
+                        launch(completion, sCal, attempts, futures);
+                        running++;
+                        continue;
+                    }
+                } else {
+                    done = completion.take();
+                }
+
+                running--;
+
+                Attempt attempt;
+                try {
+                    attempt = done.get();
+                } catch(ExecutionException ee) {
+                    // Attempt.call() catches everything it expects, so this is
+                    // a genuine bug.
+                    throw new RuntimeException(ee.getCause());
+                }
+
+                finished[attempt.mirror] = true;
+                mStats[attempt.mirror].recordResult(attempt.result, attempt.latencyMs);
+
+                if(attempt.result == RESULT_OKAY) {
+                    Log.d(DEBUG_TAG, "Success!  Stock found!  It's " + attempt.stock + "!");
+                    return attempt.stock;
+                }
+
+                if(attempt.result == RESULT_NOT_POSTED) {
+                    Log.d(DEBUG_TAG, "Mirror " + attempt.mirror + " said there was no stock for "
+                            + DateTools.getHyphenatedDateString(sCal));
+                    notPosted = true;
+                }
+
+                // That one's out, so there's no reason to wait out the hedge
+                // delay before trying the next.
+                if(attempts.size() < mMirrors.length) {
+                    launch(completion, sCal, attempts, futures);
+                    running++;
+                }
+            }
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching the stock for "
+                    + DateTools.getHyphenatedDateString(sCal));
+        } finally {
+            // Whoever's still out there lost.  Stop them.
+            for(int i = 0; i < attempts.size(); i++) {
+                if(!finished[i]) {
+                    attempts.get(i).request.abort();
+                    futures.get(i).cancel(true);
+                    mStats[i].recordAborted();
+                }
+            }
+        }
+
+        // If we got this far, we failed.
+        if(notPosted)
+            throw new FileNotFoundException("Stock for " + DateTools.getHyphenatedDateString(sCal) + " isn't posted yet");
+        else
+            throw new IOException("Couldn't get the stock for " + DateTools.getHyphenatedDateString(sCal) + " from any mirror");
+    }
+
+    private void launch(@NonNull CompletionService<Attempt> completion,
+                        @NonNull Calendar sCal,
+                        @NonNull List<Attempt> attempts,
+                        @NonNull List<Future<Attempt>> futures) {
+        int mirror = attempts.size();
+        Attempt attempt = new Attempt(mirror, makeUrl(mMirrors[mirror], sCal));
+        mStats[mirror].recordStart();
+        attempts.add(attempt);
+        futures.add(completion.submit(attempt));
+    }
+
+    @NonNull
+    private static String makeUrl(@NonNull String template, @NonNull Calendar sCal) {
+        // Do all our substitutions...
+        return template.replace("%Y", Integer.toString(sCal.get(Calendar.YEAR)))
+                .replace("%m", String.format(Locale.US, "%02d", sCal.get(Calendar.MONTH) + 1))
+                .replace("%d", String.format(Locale.US, "%02d", sCal.get(Calendar.DAY_OF_MONTH)));
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * StockPrefetcher.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import net.exclaimindustries.tools.DateTools;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import androidx.annotation.NonNull;
+
+/**
+ * <p>
+ * <code>StockPrefetcher</code> fills the stock cache ahead of time.  Around
+ * 9:30am ET, the stock alarm goes off and asks for the 30W and non-30W hashes
+ * one at a time, snoozing and trying again if they aren't posted yet.  That's
+ * a lot of wakeups with a lot of network trips in them.  Instead, this works
+ * out every stock date anything will want for the past few days and the next
+ * few days, gets whichever ones it can in one pass, and writes them all to
+ * the database in one transaction.  After that, most alarm wakeups just find
+ * what they need sitting right there.
+ * </p>
+ *
+ * <p>
+ * The "next few days" part is where this earns its keep.  Weekends already
+ * get clamped to Friday by {@link Info#makeAdjustedCalendar(Calendar, Graticule)},
+ * but holidays don't, so on, say, a Friday before a Monday holiday, we already
+ * know Monday's stock is going to be Friday's all over again (see
+ * {@link MarketCalendar}).  That gets stored under Monday's date right away.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+public class StockPrefetcher {
+    private static final String DEBUG_TAG = "StockPrefetcher";
+
+    /** How many days back to make sure the cache has. */
+    public static final int DEFAULT_DAYS_BACK = 3;
+
+    /**
+     * How many days ahead to look.  Four covers a Friday through a Monday
+     * holiday, plus the day after for the 30W Rule.
+     */
+    private static final int DAYS_AHEAD = 4;
+
+    // Most fetches will be for one or two dates.  Anything past this many at
+    // once would just be rude to the mirrors.  StockFetcher sizes its
+    // connection pool off this, too.
+    static final int MAX_THREADS = 4;
+
+    // No constructing this one.
+    private StockPrefetcher() { }
+
+    /**
+     * Prefetches the stock cache, using the current time and the default
+     * window.  This may go to the network, so don't call it from the main
+     * thread.
+     *
+     * @param con Context for databasey stuff
+     * @return the number of stock values newly stored
+     */
+    public static int prefetch(@NonNull Context con) {
+        return prefetch(con, Calendar.getInstance(TimeZone.getTimeZone("America/New_York")), DEFAULT_DAYS_BACK);
+    }
+
+    /**
+     * Prefetches the stock cache from the point of view of the given time.
+     * This may go to the network, so don't call it from the main thread.
+     *
+     * @param con Context for databasey stuff
+     * @param now what time it is (or what time to pretend it is)
+     * @param daysBack how many days back to cover
+     * @return the number of stock values newly stored
+     */
+    public static int prefetch(@NonNull Context con, @NonNull Calendar now, int daysBack) {
+        Calendar today = getEasternDate(now);
+        int latest = DateTools.getDateInt(getLatestPostedDate(now));
+
+        // First, work out every stock date that anything in the window would
+        // look up, and what date's stock each one actually is.  This is keyed
+        // (and thus sorted) by the date that gets looked up.
+        Map<Integer, Calendar> wanted = new TreeMap<>();
+        Map<Integer, Calendar> sources = new TreeMap<>();
+
+        Calendar cal = (Calendar)today.clone();
+        cal.add(Calendar.DAY_OF_MONTH, -daysBack);
+        for(int i = -daysBack; i <= DAYS_AHEAD; i++) {
+            for(Graticule g : new Graticule[] {GHDConstants.DUMMY_TODAY, GHDConstants.DUMMY_YESTERDAY}) {
+                Calendar sCal = Info.makeAdjustedCalendar(cal, g);
+                Calendar source = MarketCalendar.getEffectiveStockDate(sCal);
+                int sourceDate = DateTools.getDateInt(source);
+
+                // If the stock this would use isn't out yet, there's no point.
+                if(sourceDate > latest) continue;
+
+                wanted.put(DateTools.getDateInt(sCal), sCal);
+                sources.put(sourceDate, source);
+            }
+
+            cal.add(Calendar.DAY_OF_MONTH, 1);
+        }
+
+        // Anything already stored can be skipped.  Anything that's a source
+        // needs to be known, whether from the database or the network.
+        Map<Integer, String> known = new TreeMap<>();
+        List<Calendar> toFetch = new ArrayList<>();
+
+        for(Map.Entry<Integer, Calendar> entry : sources.entrySet()) {
+            String stock = HashBuilder.getStoredStock(con, entry.getValue());
+            if(stock != null)
+                known.put(entry.getKey(), stock);
+            else
+                toFetch.add(entry.getValue());
+        }
+
+        if(!toFetch.isEmpty()) {
+            Log.d(DEBUG_TAG, "Prefetching " + toFetch.size() + " stock(s)...");
+            known.putAll(fetchAll(toFetch));
+        }
+
+        // Now, fill in every wanted date that isn't in the database yet with
+        // its source's stock.  For trading days, that's just its own stock.
+        // For holidays, it's whatever trading day came before.
+        Map<Integer, String> toStore = new TreeMap<>();
+
+        for(Map.Entry<Integer, Calendar> entry : wanted.entrySet()) {
+            int sourceDate = DateTools.getDateInt(MarketCalendar.getEffectiveStockDate(entry.getValue()));
+            String stock = known.get(sourceDate);
+
+            if(stock != null && HashBuilder.getStoredStock(con, entry.getValue()) == null)
+                toStore.put(entry.getKey(), stock);
+        }
+
+        // Whatever we fetched that wasn't one of the wanted dates (i.e. the
+        // trading day before a holiday that's just outside the window) is
+        // still worth keeping.
+        for(Calendar fetched : toFetch) {
+            int date = DateTools.getDateInt(fetched);
+            String stock = known.get(date);
+            if(stock != null && !toStore.containsKey(date))
+                toStore.put(date, stock);
+        }
+
+        int stored = HashBuilder.storeStocks(con, toStore);
+        Log.d(DEBUG_TAG, "Prefetch done; " + wanted.size() + " date(s) wanted, " + stored + " newly stored.");
+        return stored;
+    }
+
+    /**
+     * Gets the most recent date whose stock should be out by now.  That's
+     * today in New York if it's 9:30am ET or later, yesterday otherwise, then
+     * backed up to the most recent trading day.
+     *
+     * @param now the current time
+     * @return the date of the latest stock that should be posted
+     */
+    @NonNull
+    static Calendar getLatestPostedDate(@NonNull Calendar now) {
+        Calendar eastern = (Calendar)now.clone();
+        eastern.setTimeZone(TimeZone.getTimeZone("America/New_York"));
+
+        Calendar date = getEasternDate(now);
+        if(eastern.get(Calendar.HOUR_OF_DAY) * 60 + eastern.get(Calendar.MINUTE) < 9 * 60 + 30)
+            date.add(Calendar.DAY_OF_MONTH, -1);
+
+        return MarketCalendar.getEffectiveStockDate(date);
+    }
+
+    @NonNull
+    private static Calendar getEasternDate(@NonNull Calendar now) {
+        // Get the date it is in New York, but as a plain local-time Calendar,
+        // as that's what everything else in the cache deals in.
+        Calendar eastern = (Calendar)now.clone();
+        eastern.setTimeZone(TimeZone.getTimeZone("America/New_York"));
+
+        return new GregorianCalendar(eastern.get(Calendar.YEAR),
+                eastern.get(Calendar.MONTH),
+                eastern.get(Calendar.DAY_OF_MONTH));
+    }
+
+    @NonNull
+    private static Map<Integer, String> fetchAll(@NonNull List<Calendar> dates) {
+        Map<Integer, String> toReturn = new TreeMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(MAX_THREADS, dates.size()));
+
+        try {
+            List<Future<String>> futures = new ArrayList<>(dates.size());
+
+            for(final Calendar date : dates) {
+                futures.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws IOException {
+                        return StockFetcher.getDefault().fetch(date);
+                    }
+                }));
+            }
+
+            for(int i = 0; i < dates.size(); i++) {
+                int date = DateTools.getDateInt(dates.get(i));
+
+                try {
+                    String stock = futures.get(i).get();
+                    if(stock.trim().length() != 0)
+                        toReturn.put(date, stock);
+                } catch(ExecutionException ee) {
+                    // Not posted yet or a server problem; either way, the
+                    // alarm will try again on its own later.
+                    if(ee.getCause() instanceof FileNotFoundException)
+                        Log.d(DEBUG_TAG, "No stock posted for " + date + " yet.");
+                    else
+                        Log.w(DEBUG_TAG, "Couldn't prefetch the stock for " + date + ": " + ee.getCause());
+                } catch(InterruptedException ie) {
+                    // Stop here, but keep whatever we already got.
+                    Log.w(DEBUG_TAG, "Interrupted while prefetching!");
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return toReturn;
+    }
+}
@@ -1,26 +1,34 @@
 /*
  * StockStoreDatabase.java
  * Copyright (C)2009 Nicholas Killewald
- * 
+ *
  * This file is distributed under the terms of the BSD license.
  * The source package should have a LICENSE file at the toplevel.
  */
 package net.exclaimindustries.geohashdroid.util;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import net.exclaimindustries.tools.DateTools;
 
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.preference.PreferenceManager;
 
 /**
@@ -30,24 +38,63 @@ import androidx.preference.PreferenceManager;
  * <code>Info</code> bundles, so it will account for the 30W Rule as need be,
  * assuming it was created properly from <code>HashBuilder</code>.
  * </p>
- * 
+ *
+ * <p>
+ * Both tables are keyed on what they get looked up by (the date for stocks,
+ * the date and 30W-ness for hashes), the lookups and inserts are compiled once
+ * and reused, and the database runs in write-ahead logging mode, so reads
+ * don't have to wait on each other or on writes.
+ * </p>
+ *
+ * <p>
+ * Every row also knows when it was last used.  Once enough new rows have gone
+ * in (see {@link #needsPruning()}), or whenever something decides it's time
+ * for some maintenance, {@link #prune(Context)} throws out whatever's been
+ * used least recently until the cache is back down to size.  Inserting never
+ * prunes anything by itself.
+ * </p>
+ *
  * @author Nicholas Killewald
  */
 public class StockStoreDatabase {
     private DatabaseHelper mHelper;
     private SQLiteDatabase mDatabase;
-    
+
+    // These are compiled once in init() and reused forever after.  A compiled
+    // statement isn't safe to use from two threads at once, so each one gets
+    // synchronized on individually.  That's still a whole lot better than
+    // locking the entire store for every lookup.
+    private SQLiteStatement mGetStockStatement;
+    private SQLiteStatement mInsertStockStatement;
+    private SQLiteStatement mInsertHashStatement;
+
+    // Lookups that hit, waiting to be written back to the accessed columns.
+    // Writing on every read would undo a lot of the point of WAL, so these
+    // pile up here and get flushed all at once when pruning.  If the process
+    // dies before then, the worst that happens is something gets evicted a
+    // bit earlier than it strictly should have.
+    private final ConcurrentMap<Long, Long> mHashTouches = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, Long> mStockTouches = new ConcurrentHashMap<>();
+
+    // How many rows have gone in since the last prune.
+    private final AtomicInteger mInsertsSincePrune = new AtomicInteger();
+
+    /**
+     * How many new rows can go in before {@link #needsPruning()} says it's
+     * time.  Pruning in batches like this means bulk loads don't pay for a
+     * prune per row.
+     */
+    public static final int PRUNE_BATCH = 32;
+
     private static final String DEBUG_TAG = "StockStoreDatabase";
-    
-    /** The name of the column for the row's ID. */
-    private static final String KEY_STOCKS_ROWID = "_id";
+
     /** The name of the date column. */
     private static final String KEY_STOCKS_DATE = "date";
     /** The name of the stock value column. */
     private static final String KEY_STOCKS_STOCK = "stock";
-    
-    /** The name of the column for the row's IDs for hashes. */
-    private static final String KEY_HASHES_ROWID = "_id";
+    /** The name of the column holding when the stock was last used. */
+    private static final String KEY_STOCKS_ACCESSED = "accessed";
+
     /** The name of the date column for hashes. */
     private static final String KEY_HASHES_DATE = "date";
     /** The name of the column flagging if the 30W rule was in effect here. */
@@ -56,42 +103,92 @@ public class StockStoreDatabase {
     private static final String KEY_HASHES_LATHASH = "lathash";
     /** The name of the longitude hashpart column. */
     private static final String KEY_HASHES_LONHASH = "lonhash";
-    
+    /** The name of the column holding when the hash was last used. */
+    private static final String KEY_HASHES_ACCESSED = "accessed";
+
     private static final String TABLE_STOCKS = "stocks";
     private static final String TABLE_HASHES = "hashes";
-    
+
+    private static final String SQL_GET_STOCK =
+            "SELECT " + KEY_STOCKS_STOCK + " FROM " + TABLE_STOCKS
+                    + " WHERE " + KEY_STOCKS_DATE + " = ?";
+
+    // SQLiteStatement can only hand back one column, and this needs two.  So
+    // this one goes through rawQuery, which keeps its own per-connection cache
+    // of compiled statements keyed on the SQL, which is why this is a
+    // constant with placeholders and not concatenated together every time.
+    private static final String SQL_GET_HASH =
+            "SELECT " + KEY_HASHES_LATHASH + ", " + KEY_HASHES_LONHASH
+                    + " FROM " + TABLE_HASHES
+                    + " WHERE " + KEY_HASHES_DATE + " = ? AND " + KEY_HASHES_30W + " = ?";
+
+    private static final String SQL_INSERT_STOCK =
+            "INSERT OR IGNORE INTO " + TABLE_STOCKS
+                    + " (" + KEY_STOCKS_DATE + ", " + KEY_STOCKS_STOCK + ", "
+                    + KEY_STOCKS_ACCESSED + ") VALUES (?, ?, ?)";
+
+    private static final String SQL_INSERT_HASH =
+            "INSERT OR IGNORE INTO " + TABLE_HASHES
+                    + " (" + KEY_HASHES_DATE + ", " + KEY_HASHES_30W + ", "
+                    + KEY_HASHES_LATHASH + ", " + KEY_HASHES_LONHASH + ", "
+                    + KEY_HASHES_ACCESSED + ") VALUES (?, ?, ?, ?, ?)";
+
+    private static final String SQL_TOUCH_STOCK =
+            "UPDATE " + TABLE_STOCKS + " SET " + KEY_STOCKS_ACCESSED + " = ?"
+                    + " WHERE " + KEY_STOCKS_DATE + " = ? AND " + KEY_STOCKS_ACCESSED + " < ?";
+
+    private static final String SQL_TOUCH_HASH =
+            "UPDATE " + TABLE_HASHES + " SET " + KEY_HASHES_ACCESSED + " = ?"
+                    + " WHERE " + KEY_HASHES_DATE + " = ? AND " + KEY_HASHES_30W + " = ?"
+                    + " AND " + KEY_HASHES_ACCESSED + " < ?";
+
     /**
      * Implements SQLiteOpenHelper.  Much like Hamburger Helper, this can take
      * a pound of database and turn it into a meal.
-     * 
+     *
      * @author Nicholas Killewald
      */
     private static class DatabaseHelper extends SQLiteOpenHelper {
         private static final String DATABASE_NAME = "stockstore";
-        private static final int DATABASE_VERSION = 3;
+        private static final int DATABASE_VERSION = 5;
 
         private static final String CREATE_STOCKS_TABLE =
                 "CREATE TABLE " + TABLE_STOCKS
-                        + " (" + KEY_STOCKS_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                        + KEY_STOCKS_DATE + " INTEGER NOT NULL, "
-                        + KEY_STOCKS_STOCK + " TEXT NOT NULL);";
+                        + " (" + KEY_STOCKS_DATE + " INTEGER NOT NULL PRIMARY KEY, "
+                        + KEY_STOCKS_STOCK + " TEXT NOT NULL, "
+                        + KEY_STOCKS_ACCESSED + " INTEGER NOT NULL DEFAULT 0);";
 
         private static final String CREATE_HASHES_TABLE =
                 "CREATE TABLE " + TABLE_HASHES
-                        + " (" + KEY_HASHES_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                        + KEY_HASHES_DATE + " INTEGER NOT NULL, "
+                        + " (" + KEY_HASHES_DATE + " INTEGER NOT NULL, "
                         + KEY_HASHES_30W + " INTEGER NOT NULL, "
                         + KEY_HASHES_LATHASH + " REAL NOT NULL, "
-                        + KEY_HASHES_LONHASH + " REAL NOT NULL);";
+                        + KEY_HASHES_LONHASH + " REAL NOT NULL, "
+                        + KEY_HASHES_ACCESSED + " INTEGER NOT NULL DEFAULT 0, "
+                        + "PRIMARY KEY (" + KEY_HASHES_DATE + ", " + KEY_HASHES_30W + "));";
+
+        // Pruning goes through these oldest-first.
+        private static final String CREATE_STOCKS_ACCESSED_INDEX =
+                "CREATE INDEX IF NOT EXISTS " + TABLE_STOCKS + "_" + KEY_STOCKS_ACCESSED
+                        + " ON " + TABLE_STOCKS + " (" + KEY_STOCKS_ACCESSED + ");";
+
+        private static final String CREATE_HASHES_ACCESSED_INDEX =
+                "CREATE INDEX IF NOT EXISTS " + TABLE_HASHES + "_" + KEY_HASHES_ACCESSED
+                        + " ON " + TABLE_HASHES + " (" + KEY_HASHES_ACCESSED + ");";
 
         DatabaseHelper(Context context) {
             super(context, DATABASE_NAME, null, DATABASE_VERSION);
+
+            // WAL lets readers carry on while something's writing.
+            setWriteAheadLoggingEnabled(true);
         }
 
         @Override
         public void onCreate(SQLiteDatabase db) {
             db.execSQL(CREATE_STOCKS_TABLE);
             db.execSQL(CREATE_HASHES_TABLE);
+            db.execSQL(CREATE_STOCKS_ACCESSED_INDEX);
+            db.execSQL(CREATE_HASHES_ACCESSED_INDEX);
         }
 
         @Override
@@ -99,8 +196,51 @@ public class StockStoreDatabase {
             if(oldVersion == 1 || oldVersion == 2) {
                 // Versions 1 and 2 only had one table, named "stocks".
                 db.execSQL("DROP TABLE IF EXISTS stocks");
+                onCreate(db);
+            } else if(oldVersion == 3) {
+                // Version 3 had the same data, but keyed on an autoincrement
+                // _id with nothing on the columns we actually look things up
+                // by.  SQLite can't change a primary key in place, so move
+                // everything over to new tables.  Anything duplicated (which
+                // could happen with the old check-then-insert dance) gets
+                // dropped on the way, and the dates (which went in as
+                // strings) get made into proper integers.
+                db.execSQL("ALTER TABLE " + TABLE_STOCKS + " RENAME TO " + TABLE_STOCKS + "_old");
+                db.execSQL("ALTER TABLE " + TABLE_HASHES + " RENAME TO " + TABLE_HASHES + "_old");
                 db.execSQL(CREATE_STOCKS_TABLE);
                 db.execSQL(CREATE_HASHES_TABLE);
+
+                db.execSQL("INSERT OR IGNORE INTO " + TABLE_STOCKS
+                        + " (" + KEY_STOCKS_DATE + ", " + KEY_STOCKS_STOCK + ")"
+                        + " SELECT CAST(" + KEY_STOCKS_DATE + " AS INTEGER), " + KEY_STOCKS_STOCK
+                        + " FROM " + TABLE_STOCKS + "_old ORDER BY _id");
+                db.execSQL("INSERT OR IGNORE INTO " + TABLE_HASHES
+                        + " (" + KEY_HASHES_DATE + ", " + KEY_HASHES_30W + ", "
+                        + KEY_HASHES_LATHASH + ", " + KEY_HASHES_LONHASH + ")"
+                        + " SELECT CAST(" + KEY_HASHES_DATE + " AS INTEGER), " + KEY_HASHES_30W + ", "
+                        + KEY_HASHES_LATHASH + ", " + KEY_HASHES_LONHASH
+                        + " FROM " + TABLE_HASHES + "_old ORDER BY _id");
+
+                db.execSQL("DROP TABLE " + TABLE_STOCKS + "_old");
+                db.execSQL("DROP TABLE " + TABLE_HASHES + "_old");
+                db.execSQL(CREATE_STOCKS_ACCESSED_INDEX);
+                db.execSQL(CREATE_HASHES_ACCESSED_INDEX);
+            } else if(oldVersion == 4) {
+                // Version 4 just didn't know when anything was last used.
+                // Everything already there starts out as never used, which
+                // makes it first in line for pruning.  Pruning breaks ties by
+                // rowid.  In the stocks table, that's the date itself (it's
+                // an INTEGER PRIMARY KEY, so it IS the rowid), so the oldest
+                // dates go first, not the oldest inserts.  In the hashes
+                // table, it's more or less the order they went in.  Either
+                // way, the really old stuff goes first, which is close enough
+                // to what happened before.
+                db.execSQL("ALTER TABLE " + TABLE_STOCKS + " ADD COLUMN "
+                        + KEY_STOCKS_ACCESSED + " INTEGER NOT NULL DEFAULT 0");
+                db.execSQL("ALTER TABLE " + TABLE_HASHES + " ADD COLUMN "
+                        + KEY_HASHES_ACCESSED + " INTEGER NOT NULL DEFAULT 0");
+                db.execSQL(CREATE_STOCKS_ACCESSED_INDEX);
+                db.execSQL(CREATE_HASHES_ACCESSED_INDEX);
             }
         }
     }
@@ -118,86 +258,119 @@ public class StockStoreDatabase {
     public StockStoreDatabase init(@NonNull Context c) throws SQLException {
         mHelper = new DatabaseHelper(c);
         mDatabase = mHelper.getWritableDatabase();
+
+        mGetStockStatement = mDatabase.compileStatement(SQL_GET_STOCK);
+        mInsertStockStatement = mDatabase.compileStatement(SQL_INSERT_STOCK);
+        mInsertHashStatement = mDatabase.compileStatement(SQL_INSERT_HASH);
         return this;
     }
-    
+
     /**
      * Finishes up.  In this case, closes the database.
      */
     public void finish() {
+        mGetStockStatement.close();
+        mInsertStockStatement.close();
+        mInsertHashStatement.close();
         mHelper.close();
     }
-    
+
     /**
      * Stores a bundle of Info into the database.  That is, store a new entry in
      * the hashes table.  It is presumed this has nothing to do with the actual
-     * stock value.  When retrieved later, this will preserve the fractional
-     * parts of the coordinates (that is, the hash part).
-     * 
+     * stock value.  What gets stored is the raw hash, exactly as
+     * {@link HashEngine} made it, not what the Info works back out of its
+     * coordinates (which can be a hair off).  If there's already an entry for
+     * that date and 30W-ness, this doesn't do anything.
+     *
      * @param i the aforementioned bundle of Info to be stored into the database
+     * @param hash the raw hash fractions that went into i, latitude first
      */
-    public void storeInfo(Info i) {
-        synchronized(this) {
-            // Fortunately, there's a handy ContentValues object for this sort
-            // of thing.  I mean, we COULD do manual SQLite calls, but why
-            // bother?
-            
-            // But first!  First we need to know if this already exists.  If it
-            // does, return a -1.
-            // TODO: No, wrong.  I need a better mechanism for that.
-            if(getInfo(i.getCalendar(), i.getGraticule()) != null) {
-                Log.v(DEBUG_TAG, "Info already exists for that data, ignoring...");
-                return;
-            }
-            
-            ContentValues toGo = new ContentValues();
-            Calendar cal = i.getCalendar();
-            toGo.put(KEY_HASHES_DATE, DateTools.getDateString(cal));
-            toGo.put(KEY_HASHES_30W, i.uses30WRule());
-            toGo.put(KEY_HASHES_LATHASH, i.getLatitudeHash());
-            toGo.put(KEY_HASHES_LONHASH, i.getLongitudeHash());
-            
-            Log.v(DEBUG_TAG, "NOW STORING TO HASHES " + DateTools.getDateString(cal)
-                    + (i.uses30WRule() ? " (30W)" : "") + " : "
-                    + i.getLatitudeHash() + "," + i.getLongitudeHash());
-
-            mDatabase.insert(TABLE_HASHES, null, toGo);
+    public void storeInfo(@NonNull Info i, @NonNull double[] hash) {
+        Calendar cal = i.getCalendar();
+
+        Log.v(DEBUG_TAG, "NOW STORING TO HASHES " + DateTools.getDateString(cal)
+                + (i.uses30WRule() ? " (30W)" : "") + " : "
+                + hash[0] + "," + hash[1]);
+
+        synchronized(mInsertHashStatement) {
+            mInsertHashStatement.bindLong(1, DateTools.getDateInt(cal));
+            mInsertHashStatement.bindLong(2, i.uses30WRule() ? 1 : 0);
+            mInsertHashStatement.bindDouble(3, hash[0]);
+            mInsertHashStatement.bindDouble(4, hash[1]);
+            mInsertHashStatement.bindLong(5, System.currentTimeMillis());
+
+            if(mInsertHashStatement.executeInsert() != -1)
+                mInsertsSincePrune.incrementAndGet();
         }
     }
-    
+
     /**
      * Stores a stock value in the stock table.  Presumably, the given calendar
      * value is already adjusted for weekends and 30W (that is, this is the raw
-     * stock value for that date).
-     * 
+     * stock value for that date).  If there's already a stock for that date,
+     * this doesn't do anything.
+     *
      * @param cal the date of the stock
      * @param stock the stock itself, as a string
      */
-    public void storeStock(Calendar cal, String stock) {
-        synchronized(this) {
-            // First, check over the database to make sure it doesn't already
-            // exist.
-            if(getStock(cal) != null) {
-                Log.v(DEBUG_TAG, "Stock price already exists in database for " + DateTools.getDateString(cal) + ", ignoring...");
-                return;
+    public void storeStock(@NonNull Calendar cal, @NonNull String stock) {
+        Log.v(DEBUG_TAG, "NOW STORING TO STOCKS " + DateTools.getDateString(cal)
+                + " : " + stock);
+
+        insertStock(DateTools.getDateInt(cal), stock);
+    }
+
+    /**
+     * Stores a whole bunch of stock values in the stock table at once, all in
+     * one transaction.  As with {@link #storeStock(Calendar, String)}, the
+     * dates are presumed to already be adjusted, and anything already in the
+     * database is left alone.
+     *
+     * @param stocks map of YYYYMMDD dates (see {@link DateTools#getDateInt(Calendar)})
+     *               to stock values
+     * @return the number of stocks actually stored
+     */
+    public int storeStocks(@NonNull Map<Integer, String> stocks) {
+        int stored = 0;
+
+        mDatabase.beginTransaction();
+        try {
+            for(Map.Entry<Integer, String> entry : stocks.entrySet()) {
+                Log.v(DEBUG_TAG, "NOW STORING TO STOCKS " + entry.getKey()
+                        + " : " + entry.getValue());
+
+                if(insertStock(entry.getKey(), entry.getValue()))
+                    stored++;
             }
-            
-            // Otherwise, store away!
-            ContentValues toGo = new ContentValues();
-            toGo.put(KEY_STOCKS_DATE, DateTools.getDateString(cal));
-            toGo.put(KEY_STOCKS_STOCK, stock);
-            
-            Log.v(DEBUG_TAG, "NOW STORING TO STOCKS " + DateTools.getDateString(cal)
-                    + " : " + stock);
-
-            mDatabase.insert(TABLE_STOCKS, null, toGo);
+
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
         }
+
+        return stored;
     }
-    
+
+    private boolean insertStock(int date, @NonNull String stock) {
+        synchronized(mInsertStockStatement) {
+            mInsertStockStatement.bindLong(1, date);
+            mInsertStockStatement.bindString(2, stock);
+            mInsertStockStatement.bindLong(3, System.currentTimeMillis());
+
+            // INSERT OR IGNORE gives back -1 if it got ignored.
+            if(mInsertStockStatement.executeInsert() == -1)
+                return false;
+        }
+
+        mInsertsSincePrune.incrementAndGet();
+        return true;
+    }
+
     /**
      * Retrieves enough data from the database to construct an Info bundle, if
      * such data exists.  If not, returns null instead.
-     * 
+     *
      * @param c Calendar containing the date to retrieve (this should NOT be
      *          adjusted for the 30W Rule)
      * @param g Graticule to use to determine if the 30W Rule is in effect and
@@ -205,146 +378,230 @@ public class StockStoreDatabase {
      * @return Info bundle you're looking for, or null if the database doesn't
      *         have the data you want
      */
-    public Info getInfo(Calendar c, Graticule g) {
-        synchronized(this) {
-            Log.v(DEBUG_TAG, "Querying the hashes database...");
-            // First, adjust the calendar if we need to.
-            Info toReturn = null;
-            
-            // Now, to the database!
-            Cursor cursor = mDatabase.query(TABLE_HASHES, new String[] {KEY_HASHES_LATHASH, KEY_HASHES_LONHASH},
-                    KEY_HASHES_DATE + " = " + DateTools.getDateString(c) + " AND " + KEY_HASHES_30W + " = "
-                    + ((g == null || g.uses30WRule()) ? "1" : "0"),
-                    null, null, null, null);
-            
-            if(cursor == null) {
-                // If a problem happens, assume there's no stock to get.
-                Log.w(DEBUG_TAG, "HEY!  The cursor returned from the query was null!");
-                return null;
-            } else if(cursor.getCount() == 0) {
+    @Nullable
+    public Info getInfo(@NonNull Calendar c, @Nullable Graticule g) {
+        // Note that this has to use the same idea of 30W-ness as storeInfo
+        // did (Info's, which knows the 30W Rule didn't exist before 2008), or
+        // older hashes would never be found again.
+        double[] hash = new double[2];
+        if(!getHash(c, Info.uses30WRule(c, g), hash))
+            return null;
+
+        return HashBuilder.createInfo(c, hash[0], hash[1], g);
+    }
+
+    /**
+     * Retrieves the raw hash fractions from the database, exactly as they
+     * were stored, if they exist.  Unlike the ones an Info works back out of
+     * its coordinates, these are suitable for building more Infos (or
+     * quick-caching).
+     *
+     * @param c Calendar containing the date to retrieve (this should NOT be
+     *          adjusted for the 30W Rule)
+     * @param uses30W whether or not the 30W Rule is in effect (see
+     *                {@link Info#uses30WRule(Calendar, Graticule)})
+     * @param out array of at least two doubles to write the hash into
+     * @return true if it was found, false if not (out is untouched)
+     */
+    public boolean getHash(@NonNull Calendar c, boolean uses30W, @NonNull double[] out) {
+        Log.v(DEBUG_TAG, "Querying the hashes database...");
+        boolean found = false;
+
+        // Now, to the database!
+        int date = DateTools.getDateInt(c);
+        Cursor cursor = mDatabase.rawQuery(SQL_GET_HASH, new String[] {
+                Integer.toString(date),
+                uses30W ? "1" : "0"});
+
+        if(cursor == null) {
+            // If a problem happens, assume there's no stock to get.
+            Log.w(DEBUG_TAG, "HEY!  The cursor returned from the query was null!");
+            return false;
+        }
+
+        try {
+            if(!cursor.moveToFirst()) {
                 // If nothing resulted from this, the stock doesn't exist in the
                 // cache.
                 Log.v(DEBUG_TAG, "Info doesn't exist in database");
             } else {
-                // Otherwise, grab the first one we come across.
-                if(!cursor.moveToFirst()) return null;
-                
-                double latHash = cursor.getDouble(0);
-                double lonHash = cursor.getDouble(1);
-                Log.v(DEBUG_TAG, "Info found -- Today's lucky numbers are " + latHash + "," + lonHash);
-                
-                // Get the destination set...
-                if(g != null) {
-                    double lat = (g.getLatitude() + latHash) * (g.isSouth() ? -1 : 1);
-                    double lon = (g.getLongitude() + lonHash) * (g.isWest() ? -1 : 1);
-                    
-                    toReturn = new Info(lat, lon, g, c);
-                } else {
-                    toReturn = new Info(latHash, lonHash, null, c);
-                }
+                out[0] = cursor.getDouble(0);
+                out[1] = cursor.getDouble(1);
+                Log.v(DEBUG_TAG, "Info found -- Today's lucky numbers are " + out[0] + "," + out[1]);
+
+                mHashTouches.put(makeHashTouchKey(date, uses30W), System.currentTimeMillis());
+                found = true;
             }
-            
+        } finally {
             cursor.close();
-            return toReturn;
         }
+
+        return found;
     }
-    
+
+    /**
+     * Notes that a hash got used without going through
+     * {@link #getHash(Calendar, boolean, double[])}, like when it came out of the
+     * quick cache instead.  Otherwise, the hashes in heaviest use would look
+     * like they were never used at all and get pruned first.  This doesn't
+     * hit the database; it gets written back with everything else at the next
+     * prune.
+     *
+     * @param c Calendar containing the date (same as getHash, NOT adjusted
+     *          for the 30W Rule)
+     * @param uses30W whether or not the hash used the 30W Rule
+     */
+    public void touchInfo(@NonNull Calendar c, boolean uses30W) {
+        mHashTouches.put(makeHashTouchKey(DateTools.getDateInt(c), uses30W), System.currentTimeMillis());
+    }
+
+    private static long makeHashTouchKey(int date, boolean uses30W) {
+        return ((long)date << 1) | (uses30W ? 1L : 0L);
+    }
+
     /**
      * Retrieves a stock value from the database for the given date.  This date
      * should already be adjusted for weekends and such.
-     * 
+     *
      * @param cal already-adjusted date for which to get a stock
-     * @return the String representation of the stock, or null if none is stored 
+     * @return the String representation of the stock, or null if none is stored
      */
-    public String getStock(Calendar cal) {
-        synchronized(this) {
-            Log.v(DEBUG_TAG, "Querying the stock database...");
-            
-            String toReturn = null;
-            
-            // Go!
-            Cursor cursor = mDatabase.query(TABLE_STOCKS, new String[] {KEY_STOCKS_STOCK},
-                    KEY_STOCKS_DATE + " = " + DateTools.getDateString(cal),
-                    null, null, null, null);
-            
-            // And now the check...
-            if(cursor == null) {
-                // If a problem happens, assume there's no stock to get.
-                Log.w(DEBUG_TAG, "HEY!  The cursor returned from the query was null!");
-                return null;
-            } else if(cursor.getCount() == 0) {
-                // If nothing resulted from this, the stock doesn't exist in the
-                // cache.
-                Log.v(DEBUG_TAG, "Stock doesn't exist in database");
-            } else {
-                // Otherwise, grab the first one we come across.
-                if(!cursor.moveToFirst()) return null;
-                
-                toReturn = cursor.getString(0);
+    @Nullable
+    public String getStock(@NonNull Calendar cal) {
+        Log.v(DEBUG_TAG, "Querying the stock database...");
+
+        int date = DateTools.getDateInt(cal);
+
+        synchronized(mGetStockStatement) {
+            mGetStockStatement.bindLong(1, date);
+
+            try {
+                String toReturn = mGetStockStatement.simpleQueryForString();
                 Log.v(DEBUG_TAG, "Stock found -- Today's lucky number is " + toReturn);
+                mStockTouches.put(date, System.currentTimeMillis());
+                return toReturn;
+            } catch(SQLiteDoneException sde) {
+                // That's how simpleQueryForString says there weren't any rows.
+                Log.v(DEBUG_TAG, "Stock doesn't exist in database");
+                return null;
             }
-            
-            cursor.close();
-            return toReturn;
         }
     }
-    
+
     /**
-     * Performs cache cleanup.  This involves pruning the cache down to however
-     * many entries should be the max.
+     * Whether or not enough has been inserted since the last prune that it's
+     * time for another one.  This doesn't prune anything itself; it's up to
+     * the caller to get {@link #prune(Context)} run somewhere that isn't in
+     * the way.
+     *
+     * @return true if a prune is due
+     */
+    public boolean needsPruning() {
+        return mInsertsSincePrune.get() >= PRUNE_BATCH;
+    }
+
+    /**
+     * Prunes the cache.  First, any pending last-used times get written back,
+     * then each table gets its least recently used rows thrown out until it's
+     * down to however many entries the preferences say it should have.  This
+     * hits the database, so keep it off the main thread.
      *
      * @param c Context to use to get preferences and such
+     * @return the total number of rows deleted
      */
-    public void cleanup(@NonNull Context c) {
+    public int prune(@NonNull Context c) {
         synchronized(this) {
             SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(c);
-            
+
             Log.v(DEBUG_TAG, "Pruning database...");
+            mInsertsSincePrune.set(0);
+
             try {
                 // Presumably, initPrefs was already run from the GeohashDroid
                 // class.  Thus, if the pref doesn't exist at this point or
                 // isn't parseable into an int, we can quite justifiably spaz
                 // out.
                 int max = Integer.parseInt(prefs.getString(GHDConstants.PREF_STOCK_CACHE_SIZE, "15"));
-                
-                // Step one: Get the highest row ID.  I could probably ram this
-                // all into one big monolithic SQL statement, but that would get
-                // more than a bit unreadable.  Also note very carefully, this
-                // entire method depends on there being no holes in the rowids.
-                // "SELECT _rowid FROM stocks ORDER BY _rowid DESC LIMIT 1;"
-                Cursor cursor = mDatabase.query(TABLE_STOCKS, new String[] {KEY_STOCKS_ROWID},
-                        null, null, null, null, KEY_STOCKS_ROWID + " DESC", "1");
-                
-                cursor.moveToFirst();
-                int highest = cursor.getInt(0);
-                cursor.close();
-                
-                // Step two: Delete anything in the database older than the
-                // highest minus the max.
-                // "DELETE FROM stocks WHERE _rowid < (highest - max);"
-                int deleted = mDatabase.delete(TABLE_STOCKS, KEY_STOCKS_ROWID + " <= " + (highest - max), null);
 
+                flushTouches();
+
+                int deleted = pruneTable(TABLE_STOCKS, KEY_STOCKS_ACCESSED, max);
                 Log.v(DEBUG_TAG, "Stock rows deleted: " + deleted);
-                
-                // Now, do all that again, but for hashes.
-                
-                cursor = mDatabase.query(TABLE_HASHES, new String[] {KEY_HASHES_ROWID},
-                        null, null, null, null, KEY_HASHES_ROWID + " DESC", "1");
-                
-                cursor.moveToFirst();
-                highest = cursor.getInt(0);
-                cursor.close();
-                
-                deleted = mDatabase.delete(TABLE_HASHES, KEY_HASHES_ROWID + " <= " + (highest - max), null);
-                
-                Log.v(DEBUG_TAG, "Info rows deleted: " + deleted);
+
+                int deletedHashes = pruneTable(TABLE_HASHES, KEY_HASHES_ACCESSED, max);
+                Log.v(DEBUG_TAG, "Info rows deleted: " + deletedHashes);
+
+                return deleted + deletedHashes;
             } catch (Exception e) {
                 // If something went wrong, let it go.
                 Log.w(DEBUG_TAG, "HEY!  Couldn't prune the stock cache database: " + e.toString());
+                return 0;
+            }
+        }
+    }
+
+    private void flushTouches() {
+        if(mStockTouches.isEmpty() && mHashTouches.isEmpty()) return;
+
+        // These only ever move the accessed time forward, so a touch that got
+        // held up doesn't undo a newer one (or the insert time).
+        SQLiteStatement touchStock = mDatabase.compileStatement(SQL_TOUCH_STOCK);
+        SQLiteStatement touchHash = mDatabase.compileStatement(SQL_TOUCH_HASH);
+
+        // Work from a snapshot.  Lookups keep touching things while this
+        // goes on, and those newer touches have to survive to the next flush.
+        Map<Integer, Long> stocks = new HashMap<>(mStockTouches);
+        Map<Long, Long> hashes = new HashMap<>(mHashTouches);
+        boolean written = false;
+
+        mDatabase.beginTransaction();
+        try {
+            for(Map.Entry<Integer, Long> entry : stocks.entrySet()) {
+                touchStock.bindLong(1, entry.getValue());
+                touchStock.bindLong(2, entry.getKey());
+                touchStock.bindLong(3, entry.getValue());
+                touchStock.executeUpdateDelete();
+            }
+
+            for(Map.Entry<Long, Long> entry : hashes.entrySet()) {
+                touchHash.bindLong(1, entry.getValue());
+                touchHash.bindLong(2, entry.getKey() >> 1);
+                touchHash.bindLong(3, entry.getKey() & 1L);
+                touchHash.bindLong(4, entry.getValue());
+                touchHash.executeUpdateDelete();
             }
+
+            mDatabase.setTransactionSuccessful();
+            written = true;
+        } finally {
+            mDatabase.endTransaction();
+            touchStock.close();
+            touchHash.close();
+        }
+
+        // Only now that they're committed can they go, and only if nothing
+        // touched them again in the meantime.  If the transaction didn't make
+        // it, they all stay for next time.
+        if(written) {
+            for(Map.Entry<Integer, Long> entry : stocks.entrySet())
+                mStockTouches.remove(entry.getKey(), entry.getValue());
+            for(Map.Entry<Long, Long> entry : hashes.entrySet())
+                mHashTouches.remove(entry.getKey(), entry.getValue());
         }
     }
-    
+
+    private int pruneTable(@NonNull String table, @NonNull String accessedColumn, int max) {
+        long count = DatabaseUtils.queryNumEntries(mDatabase, table);
+        if(count <= max) return 0;
+
+        // "DELETE FROM table WHERE rowid IN (SELECT rowid FROM table ORDER BY
+        // accessed, rowid LIMIT (count - max));"
+        // The index on accessed already has everything in that order, so this
+        // just walks the front of it.
+        return mDatabase.delete(table, "rowid IN (SELECT rowid FROM " + table
+                + " ORDER BY " + accessedColumn + ", rowid LIMIT " + (count - max) + ")", null);
+    }
+
     /**
      * Erases everything from the stock cache database.  This is really only to
      * be used if something's gone horribly wrong.
@@ -356,6 +613,9 @@ public class StockStoreDatabase {
                 // KABOOM!
                 mDatabase.delete(TABLE_STOCKS, null, null);
                 mDatabase.delete(TABLE_HASHES, null, null);
+                mStockTouches.clear();
+                mHashTouches.clear();
+                mInsertsSincePrune.set(0);
                 return true;
             } catch (Exception e) {
                 // If something went wrong, let it go.
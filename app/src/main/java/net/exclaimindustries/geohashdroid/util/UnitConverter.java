@@ -174,8 +174,31 @@ public class UnitConverter {
                                                       double lat,
                                                       boolean useNegative,
                                                       int format) {
-        String units = getCoordUnitPreference(c);
-        
+        return makeLatitudeCoordinateString(getCoordUnitPreference(c), lat, useNegative, format);
+    }
+
+    /**
+     * This is the latitude half of makeFullCoordinateString, given the
+     * coordinate units directly instead of reading them from preferences.
+     * This is handy if you're about to format a whole bunch of coordinates at
+     * once and don't want to go to SharedPreferences for every single one.
+     *
+     * @param units
+     *            one of the PREFVAL_COORD_ constants in GHDConstants
+     * @param lat
+     *            Latitude to calculate
+     * @param useNegative
+     *            true to use positive/negative values, false to use N/S
+     * @param format
+     *            specify the output format using one of the OUTPUT_ statics
+     * @return
+     *             a string form of the latitude of the coordinates given
+     */
+    @NonNull
+    public static String makeLatitudeCoordinateString(@NonNull String units,
+                                                      double lat,
+                                                      boolean useNegative,
+                                                      int format) {
         // Keep track of whether or not this is negative.  We'll attach the
         // prefix or suffix later.
         boolean isNegative = lat < 0;
@@ -219,8 +242,31 @@ public class UnitConverter {
                                                        double lon,
                                                        boolean useNegative,
                                                        int format) {
-        String units = getCoordUnitPreference(c);
-        
+        return makeLongitudeCoordinateString(getCoordUnitPreference(c), lon, useNegative, format);
+    }
+
+    /**
+     * This is the longitude half of makeFullCoordinateString, given the
+     * coordinate units directly instead of reading them from preferences.
+     * This is handy if you're about to format a whole bunch of coordinates at
+     * once and don't want to go to SharedPreferences for every single one.
+     *
+     * @param units
+     *            one of the PREFVAL_COORD_ constants in GHDConstants
+     * @param lon
+     *            Longitude to calculate
+     * @param useNegative
+     *            true to use positive/negative values, false to use E/W
+     * @param format
+     *            specify the output format using one of the OUTPUT_ statics
+     * @return
+     *             a string form of the longitude of the coordinates given
+     */
+    @NonNull
+    public static String makeLongitudeCoordinateString(@NonNull String units,
+                                                       double lon,
+                                                       boolean useNegative,
+                                                       int format) {
         // Keep track of whether or not this is negative.  We'll attach the
         // prefix or suffix later.
         boolean isNegative = lon < 0;
@@ -0,0 +1,134 @@
+/*
+ * AndroidInfoboxBackend.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.wiki;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import net.exclaimindustries.geohashdroid.R;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+
+/**
+ * The {@link InfoboxRenderer.Backend} that actually draws things, using
+ * android.graphics.  The paints come from the Context's resources when this
+ * is made, so make a new one if the configuration changes.
+ *
+ * @author Nicholas Killewald
+ */
+class AndroidInfoboxBackend implements InfoboxRenderer.Backend<Bitmap> {
+    private final Resources mResources;
+    private final Paint mBackgroundPaint;
+    private final Paint mTextPaint;
+    private final Canvas mCanvas = new Canvas();
+    private final Rect mBounds = new Rect();
+
+    AndroidInfoboxBackend(@NonNull Context context) {
+        mResources = context.getResources();
+
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setStyle(Paint.Style.FILL);
+        mBackgroundPaint.setColor(ContextCompat.getColor(context, R.color.infobox_background));
+
+        mTextPaint = new Paint();
+        mTextPaint.setColor(ContextCompat.getColor(context, R.color.infobox_text));
+        mTextPaint.setTextSize(mResources.getDimension(R.dimen.infobox_picture_fontsize));
+        mTextPaint.setAntiAlias(true);
+    }
+
+    @Nullable
+    @Override
+    public Bitmap loadIcon(int resId) {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inScaled = false;
+        return BitmapFactory.decodeResource(mResources, resId, opts);
+    }
+
+    @Override
+    public int getWidth(@NonNull Bitmap bitmap) {
+        return bitmap.getWidth();
+    }
+
+    @Override
+    public int getHeight(@NonNull Bitmap bitmap) {
+        return bitmap.getHeight();
+    }
+
+    @Override
+    public void measureText(@NonNull String text, @NonNull float[] out) {
+        mTextPaint.getTextBounds(text, 0, text.length(), mBounds);
+        out[0] = mTextPaint.measureText(text);
+        out[1] = mBounds.top;
+        out[2] = mBounds.bottom;
+    }
+
+    @NonNull
+    @Override
+    public Bitmap obtainBuffer(@Nullable Bitmap old, int width, int height) {
+        Bitmap toReturn;
+
+        if(old != null
+                && old.isMutable()
+                && !old.isRecycled()
+                && old.getAllocationByteCount() >= width * height * 4) {
+            old.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+            old.eraseColor(Color.TRANSPARENT);
+            toReturn = old;
+        } else {
+            if(old != null) old.recycle();
+            toReturn = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+
+        // The buffer's in pixels, not dips.  With a density set, Canvas would
+        // scale it to whatever density the target image has (and decoded
+        // images can have some pretty weird ones; see BitmapTools), and the
+        // box would come out the wrong size.
+        toReturn.setDensity(Bitmap.DENSITY_NONE);
+        return toReturn;
+    }
+
+    @Override
+    public void drawBackground(@NonNull Bitmap buffer) {
+        mCanvas.setBitmap(buffer);
+        mCanvas.drawRect(0, 0, buffer.getWidth(), buffer.getHeight(), mBackgroundPaint);
+        mCanvas.setBitmap(null);
+    }
+
+    @Override
+    public void drawIcon(@NonNull Bitmap buffer, @NonNull Bitmap icon, int x, int y) {
+        mCanvas.setBitmap(buffer);
+        mCanvas.drawBitmap(icon, x, y, null);
+        mCanvas.setBitmap(null);
+    }
+
+    @Override
+    public void drawText(@NonNull Bitmap buffer, @NonNull String text, int x, int y) {
+        mCanvas.setBitmap(buffer);
+        mCanvas.drawText(text, x, y, mTextPaint);
+        mCanvas.setBitmap(null);
+    }
+
+    @Override
+    public void composite(@NonNull Bitmap target, @NonNull Bitmap buffer, int x, int y) {
+        if(!target.isMutable())
+            throw new IllegalArgumentException("The Bitmap has to be mutable in order to draw an infobox on it!");
+
+        mCanvas.setBitmap(target);
+        mCanvas.drawBitmap(buffer, x, y, null);
+        mCanvas.setBitmap(null);
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * InfoboxRenderer.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.wiki;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.DrawableRes;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * <p>
+ * An <code>InfoboxRenderer</code> draws the infobox (the little box of
+ * coordinates and icons in the corner) onto wiki images.  It hangs onto
+ * everything that doesn't change from one image to the next: the paints, the
+ * decoded icons, and the measurements of the strings it's drawn lately.
+ * The box itself gets rendered into its own buffer and then stuck onto the
+ * image, so if the next image gets the same box (say, a few pictures from the
+ * same spot), it's just stuck on again without drawing anything.
+ * </p>
+ *
+ * <p>
+ * All that cached stuff depends on the screen density, locale, and so on, so
+ * there should be one of these per configuration.  See
+ * {@link WikiImageUtils#drawInfobox(android.content.Context, net.exclaimindustries.geohashdroid.util.Info, android.location.Location, android.graphics.Bitmap)}.
+ * </p>
+ *
+ * <p>
+ * The actual drawing goes through a {@link Backend}, which on a device is
+ * just android.graphics.  That's mostly so the layout and caching can be
+ * benchmarked somewhere that isn't a device.
+ * </p>
+ *
+ * @param <B> whatever the backend calls a bitmap
+ * @author Nicholas Killewald
+ */
+public class InfoboxRenderer<B> {
+    // Padding around the sides of the icons/text.
+    private static final int BOX_PADDING = 8;
+    // Padding between things in the infobox.
+    private static final int ITEM_PADDING = 8;
+
+    // How many strings' measurements to hang onto.  The destination and the
+    // "location unknown" line stay put; the current location and distance
+    // change as the user moves, so old ones need to fall out eventually.
+    private static final int MAX_MEASUREMENTS = 32;
+
+    /**
+     * The drawing operations the renderer needs.  Implementations don't need
+     * to be thread-safe; the renderer only uses them one at a time.
+     *
+     * @param <B> whatever this backend calls a bitmap
+     */
+    public interface Backend<B> {
+        /**
+         * Loads an icon.
+         *
+         * @param resId the icon's resource ID
+         * @return the icon, or null if it couldn't be loaded
+         */
+        @Nullable
+        B loadIcon(@DrawableRes int resId);
+
+        /**
+         * Gets a bitmap's width.
+         *
+         * @param bitmap the bitmap
+         * @return its width
+         */
+        int getWidth(@NonNull B bitmap);
+
+        /**
+         * Gets a bitmap's height.
+         *
+         * @param bitmap the bitmap
+         * @return its height
+         */
+        int getHeight(@NonNull B bitmap);
+
+        /**
+         * Measures a whole string in the text paint, the same way it'll get
+         * drawn (kerning, ligatures, and all).  The first element of out gets
+         * the advance width, the second gets the top of the string's bounds
+         * (relative to the baseline, so usually negative), and the third gets
+         * the bottom.
+         *
+         * @param text the string
+         * @param out a three-element array to put the results in
+         */
+        void measureText(@NonNull String text, @NonNull float[] out);
+
+        /**
+         * Gets a buffer of exactly the given size, cleared to transparent.
+         * If the old buffer has enough room, reuse it.
+         *
+         * @param old the last buffer, or null if there wasn't one
+         * @param width the width
+         * @param height the height
+         * @return a buffer
+         */
+        @NonNull
+        B obtainBuffer(@Nullable B old, int width, int height);
+
+        /**
+         * Fills a buffer with the infobox background.
+         *
+         * @param buffer the buffer
+         */
+        void drawBackground(@NonNull B buffer);
+
+        /**
+         * Draws an icon onto a buffer.
+         *
+         * @param buffer the buffer
+         * @param icon the icon
+         * @param x left edge
+         * @param y top edge
+         */
+        void drawIcon(@NonNull B buffer, @NonNull B icon, int x, int y);
+
+        /**
+         * Draws text onto a buffer with the text paint.
+         *
+         * @param buffer the buffer
+         * @param text the text
+         * @param x left edge
+         * @param y baseline
+         */
+        void drawText(@NonNull B buffer, @NonNull String text, int x, int y);
+
+        /**
+         * Draws a buffer onto a target bitmap, blending it in.
+         *
+         * @param target the target
+         * @param buffer the buffer
+         * @param x left edge
+         * @param y top edge
+         */
+        void composite(@NonNull B target, @NonNull B buffer, int x, int y);
+    }
+
+    private final Backend<B> mBackend;
+
+    private final Map<Integer, B> mIcons = new HashMap<>();
+
+    // Access-ordered, so the oldest-used measurement is the one that goes.
+    private final Map<String, float[]> mMeasurements =
+            new LinkedHashMap<String, float[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                    return size() > MAX_MEASUREMENTS;
+                }
+            };
+
+    // The last box we rendered, and what was in it.
+    private B mOverlay;
+    private String[] mOverlayStrings;
+    private int[] mOverlayIcons;
+
+    /**
+     * Makes a new renderer.
+     *
+     * @param backend the backend to draw with
+     */
+    public InfoboxRenderer(@NonNull Backend<B> backend) {
+        mBackend = backend;
+    }
+
+    /**
+     * Draws an infobox onto the top-right corner of a bitmap.  Each string
+     * gets its own row, with the matching icon to its left.  If there are
+     * fewer icons than strings, the extra strings just go on the left margin.
+     *
+     * @param strings the strings (if there aren't any, nothing gets drawn)
+     * @param icons the icons' resource IDs
+     * @param target the bitmap to draw on (must be mutable)
+     */
+    public synchronized void render(@NonNull String[] strings,
+                                    @NonNull int[] icons,
+                                    @NonNull B target) {
+        // We need SOME strings.  If we've got nothing, bail out.
+        if(strings.length < 1) return;
+
+        if(mOverlay == null
+                || !Arrays.equals(strings, mOverlayStrings)
+                || !Arrays.equals(icons, mOverlayIcons)) {
+            mOverlay = renderOverlay(strings, icons);
+            mOverlayStrings = strings.clone();
+            mOverlayIcons = icons.clone();
+        }
+
+        mBackend.composite(target, mOverlay,
+                mBackend.getWidth(target) - mBackend.getWidth(mOverlay), 0);
+    }
+
+    @NonNull
+    private B renderOverlay(@NonNull String[] strings, @NonNull int[] icons) {
+        // First, init our variables.
+        float[] metrics = new float[3];
+        int[] stringHeights = new int[strings.length];
+        int[] stringTops = new int[strings.length];
+        int[] iconHeights = new int[strings.length]; // Yes, strings.length.
+        Object[] rowIcons = new Object[strings.length];
+        int totalHeight = BOX_PADDING * 2;
+        int longestWidth = 0;
+
+        // The height of the box is the total heights of either the texts or
+        // images (whichever is bigger), plus the margins.  The width of it is
+        // the LONGEST icon/text combo.
+        for(int i = 0; i < strings.length; i++) {
+            measureString(strings[i], metrics);
+            int textWidth = (int)Math.ceil(metrics[0]);
+            stringTops[i] = (int)Math.floor(metrics[1]);
+            stringHeights[i] = (int)Math.ceil(metrics[2]) - stringTops[i];
+
+            int iconWidth = 0;
+            B icon = i < icons.length ? getIcon(icons[i]) : null;
+
+            // If we even HAVE an icon for this...
+            if(icon != null) {
+                // With an extra shot of padding for the icon...
+                iconWidth = mBackend.getWidth(icon) + ITEM_PADDING;
+                iconHeights[i] = mBackend.getHeight(icon);
+                rowIcons[i] = icon;
+            }
+
+            totalHeight += Math.max(stringHeights[i], iconHeights[i]);
+            longestWidth = Math.max(longestWidth, textWidth + iconWidth);
+        }
+
+        // With the total height and widest width, we've got us a rectangle.
+        B overlay = mBackend.obtainBuffer(mOverlay, longestWidth + BOX_PADDING * 2, totalHeight);
+        mBackend.drawBackground(overlay);
+
+        // Now, place each of the strings with their respective icons next to
+        // them.  Topmost one is index 0, they're all left-justified, and the
+        // icons go in first.  Whichever of the two is shorter gets centered
+        // on the other.
+        int curHeight = BOX_PADDING;
+        for(int i = 0; i < strings.length; i++) {
+            int iconOffset = 0;
+            int textOffsetX = 0;
+            int textOffsetY = 0;
+            int heightOffset;
+
+            if(stringHeights[i] > iconHeights[i]) {
+                // String is taller, icon needs to adjust.
+                iconOffset = (stringHeights[i] - iconHeights[i]) / 2;
+                heightOffset = stringHeights[i];
+            } else {
+                // Icon is taller, string needs to adjust.
+                textOffsetY = (iconHeights[i] - stringHeights[i]) / 2;
+                heightOffset = iconHeights[i];
+            }
+
+            // Text gets drawn from the baseline, not the top, so move it down
+            // by however far above the baseline it goes.
+            textOffsetY -= stringTops[i];
+
+            // Icon!
+            @SuppressWarnings("unchecked")
+            B icon = (B)rowIcons[i];
+            if(icon != null) {
+                mBackend.drawIcon(overlay, icon, BOX_PADDING, curHeight + iconOffset);
+                textOffsetX = mBackend.getWidth(icon) + ITEM_PADDING;
+            }
+
+            // Text!
+            mBackend.drawText(overlay, strings[i],
+                    BOX_PADDING + textOffsetX,
+                    curHeight + textOffsetY);
+
+            // Then set the height for the next row.
+            curHeight += heightOffset;
+        }
+
+        return overlay;
+    }
+
+    @Nullable
+    private B getIcon(@DrawableRes int resId) {
+        if(mIcons.containsKey(resId)) return mIcons.get(resId);
+
+        // Even if it's null, remember that; it's not going to get any better.
+        B icon = mBackend.loadIcon(resId);
+        mIcons.put(resId, icon);
+        return icon;
+    }
+
+    private void measureString(@NonNull String s, @NonNull float[] out) {
+        // This has to be the whole string at once.  Adding up the characters
+        // one by one is fine for digits and degree signs, but not for
+        // whatever a translated "location unknown" or distance unit turns
+        // out to be.
+        float[] measured = mMeasurements.get(s);
+
+        if(measured == null) {
+            measured = new float[3];
+            mBackend.measureText(s, measured);
+            mMeasurements.put(s, measured);
+        }
+
+        System.arraycopy(measured, 0, out, 0, 3);
+    }
+}
@@ -21,10 +21,23 @@ public class WikiException extends Exception {
     private static final long serialVersionUID = 1L;
 
     @StringRes private final int mTextId;
+    private final long mRetryAfter;
     
     public WikiException(@StringRes int textId) {
+        this(textId, -1);
+    }
+
+    /**
+     * Makes a WikiException that knows how long the wiki wants us to wait
+     * before trying again.
+     *
+     * @param textId the text ID
+     * @param retryAfter how long to wait, in ms, or -1 if the wiki didn't say
+     */
+    public WikiException(@StringRes int textId, long retryAfter) {
         super();
         mTextId = textId;
+        mRetryAfter = retryAfter;
     }
     
     @Override
@@ -43,4 +56,15 @@ public class WikiException extends Exception {
     public int getErrorTextId() {
         return mTextId;
     }
+
+    /**
+     * Gets how long the wiki said to wait before trying again, if it said
+     * anything at all (usually with a Retry-After header when it's busy or
+     * we're going too fast).
+     *
+     * @return how long to wait, in ms, or -1 if the wiki didn't say
+     */
+    public long getRetryAfter() {
+        return mRetryAfter;
+    }
 }
@@ -0,0 +1,294 @@
+/*
+ * WikiImagePreparer.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.wiki;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.location.Location;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import net.exclaimindustries.geohashdroid.util.Info;
+import net.exclaimindustries.tools.BitmapTools;
+import net.exclaimindustries.tools.ImageSource;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * <p>
+ * <code>WikiImagePreparer</code> does the heavy lifting on images for the
+ * wiki off the main thread: reading the EXIF data and making a thumbnail when
+ * an image gets picked, and decoding, stamping, and compressing the upload
+ * version when it gets posted.  Results come back on the main thread.
+ * </p>
+ *
+ * <p>
+ * Previews go through a small pool with a short line; if someone picks a
+ * bunch of images in a row, the oldest requests still waiting get dropped,
+ * since nobody's going to look at them anyway.  Thumbnails are kept in a
+ * memory cache sized to the heap, so picking the same image again (or
+ * rotating the screen) doesn't decode anything.  Upload images are much
+ * bigger, so those go one at a time, which keeps it to one full-size image
+ * in memory no matter how many posts are lined up.  Those never get dropped.
+ * </p>
+ *
+ * <p>
+ * Upload images are written to a file in the cache directory, and that file
+ * is what gets handed to {@link net.exclaimindustries.geohashdroid.services.WikiService}
+ * (which moves it into its own spool).  That way the image never has to go
+ * through an Intent as a byte array.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+public class WikiImagePreparer {
+    private static final String DEBUG_TAG = "WikiImagePreparer";
+
+    /** The directory (under the app's cache) where prepared images wait. */
+    private static final String PREPARED_DIR = "wikiprep";
+
+    /**
+     * How long a prepared image can sit around before we assume it got lost
+     * (the app died between preparing it and posting it, say).
+     */
+    private static final long PREPARED_EXPIRY = TimeUnit.DAYS.toMillis(1);
+
+    /** How many previews can be worked on at once. */
+    private static final int PREVIEW_THREADS = 2;
+
+    /** How many previews can be waiting before the oldest get dropped. */
+    private static final int PREVIEW_BACKLOG = 4;
+
+    /** The most the thumbnail cache can hold, in kilobytes. */
+    private static final int MAX_THUMBNAIL_CACHE_KB = 8 * 1024;
+
+    /**
+     * Called when a preview's ready.  If anything went wrong, the thumbnail
+     * will be null.
+     */
+    public interface PreviewCallback {
+        /**
+         * The preview's ready.
+         *
+         * @param uri the image that was asked for
+         * @param thumbnail the thumbnail, or null if the image couldn't be read
+         * @param imageInfo the image's info, or null if the image couldn't be read
+         */
+        void previewReady(@NonNull Uri uri,
+                          @Nullable Bitmap thumbnail,
+                          @Nullable WikiImageUtils.ImageInfo imageInfo);
+    }
+
+    /**
+     * Called when an upload image is ready.
+     */
+    public interface UploadCallback {
+        /**
+         * The upload image is ready.  Pass the file on to WikiService with
+         * {@link net.exclaimindustries.geohashdroid.services.WikiService#EXTRA_IMAGE_FILE}.
+         *
+         * @param prepared the file, or null if the image couldn't be made
+         */
+        void uploadReady(@Nullable File prepared);
+    }
+
+    private static final ThreadFactory mThreadFactory = new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread t = new Thread(r, DEBUG_TAG);
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    private static final ThreadPoolExecutor mPreviewExecutor = new ThreadPoolExecutor(
+            PREVIEW_THREADS, PREVIEW_THREADS,
+            30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(PREVIEW_BACKLOG),
+            mThreadFactory,
+            new ThreadPoolExecutor.DiscardOldestPolicy());
+
+    // Upload images go one at a time.  See the class comment.
+    private static final ExecutorService mUploadExecutor = Executors.newSingleThreadExecutor(mThreadFactory);
+
+    private static final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // An eighth of the heap or the max, whichever's less.  Thumbnails are
+    // small, so that's a good number of them either way.
+    private static final LruCache<String, Bitmap> mThumbnails = new LruCache<String, Bitmap>(
+            (int)Math.min(MAX_THUMBNAIL_CACHE_KB, Runtime.getRuntime().maxMemory() / 1024 / 8)) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return Math.max(1, value.getByteCount() / 1024);
+        }
+    };
+
+    static {
+        // Previews that aren't being asked for can let their threads go.
+        mPreviewExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private WikiImagePreparer() { }
+
+    /**
+     * Reads an image's info and makes a thumbnail of it, both from one pass
+     * over the image.  If the thumbnail's been made before, it comes out of
+     * the cache (the info still gets read fresh, since the fallback
+     * timestamp is supposed to be now).  Either way, the callback gets called
+     * on the main thread.
+     *
+     * @param context a Context, for opening the image
+     * @param uri the image
+     * @param size the max width and height of the thumbnail (either way around)
+     * @param callback what to call when it's ready
+     */
+    public static void loadPreview(@NonNull Context context,
+                                   @NonNull final Uri uri,
+                                   final int size,
+                                   @NonNull final PreviewCallback callback) {
+        final Context appContext = context.getApplicationContext();
+        final String key = uri.toString() + "@" + size;
+
+        mPreviewExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap thumbnail = mThumbnails.get(key);
+                WikiImageUtils.ImageInfo imageInfo = null;
+
+                // The EXIF data comes first, since the thumbnail decode reads
+                // the whole image.
+                try(ImageSource source = new ImageSource(appContext, uri)) {
+                    imageInfo = WikiImageUtils.readImageInfo(source, null, Calendar.getInstance());
+
+                    if(thumbnail == null) {
+                        thumbnail = BitmapTools.decodeRatioPreservedDownscaledBitmap(
+                                source, size, size, true, null);
+                        if(thumbnail != null) mThumbnails.put(key, thumbnail);
+                    }
+                } catch(IOException | RuntimeException e) {
+                    // SecurityExceptions count, too.
+                    Log.e(DEBUG_TAG, "Couldn't make a preview of " + uri, e);
+                    thumbnail = null;
+                }
+
+                final Bitmap finalThumbnail = thumbnail;
+                final WikiImageUtils.ImageInfo finalInfo = thumbnail != null ? imageInfo : null;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.previewReady(uri, finalThumbnail, finalInfo);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Makes the image that gets uploaded to the wiki (see
+     * {@link WikiImageUtils#writeWikiImage(Context, Info, ImageSource, Location, boolean, java.io.OutputStream)})
+     * and writes it to a file.  The callback gets called on the main thread.
+     * Do this while whoever picked the image is still around, since that's
+     * who has permission to read it.
+     *
+     * @param context a Context, for opening the image and resources
+     * @param info the Info for the expedition
+     * @param imageInfo the image's info
+     * @param location a location for the infobox (can be null)
+     * @param drawInfobox true to draw the infobox, false to just shrink and compress
+     * @param callback what to call when it's ready
+     */
+    public static void prepareUpload(@NonNull Context context,
+                                     @NonNull final Info info,
+                                     @NonNull final WikiImageUtils.ImageInfo imageInfo,
+                                     @Nullable final Location location,
+                                     final boolean drawInfobox,
+                                     @NonNull final UploadCallback callback) {
+        final Context appContext = context.getApplicationContext();
+
+        mUploadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File prepared = null;
+
+                try {
+                    File dir = getPreparedDirectory(appContext);
+                    removeExpired(dir);
+
+                    if(!dir.isDirectory() && !dir.mkdirs())
+                        throw new IOException("Couldn't create " + dir);
+
+                    prepared = File.createTempFile("upload", ".jpg", dir);
+
+                    boolean written;
+                    try(ImageSource source = new ImageSource(appContext, imageInfo.uri);
+                        FileOutputStream out = new FileOutputStream(prepared)) {
+                        written = WikiImageUtils.writeWikiImage(appContext, info, source,
+                                location, drawInfobox, out);
+                    }
+
+                    if(!written) throw new IOException("Couldn't make the upload image");
+                } catch(IOException | RuntimeException e) {
+                    Log.e(DEBUG_TAG, "Couldn't prepare " + imageInfo.uri + " for upload", e);
+
+                    if(prepared != null) {
+                        //noinspection ResultOfMethodCallIgnored
+                        prepared.delete();
+                        prepared = null;
+                    }
+                }
+
+                final File finalPrepared = prepared;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.uploadReady(finalPrepared);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Gets the directory prepared images go in.  WikiService uses this to
+     * make sure whatever file it's been handed is one of ours.
+     *
+     * @param context a Context
+     * @return the directory (which might not exist yet)
+     */
+    @NonNull
+    public static File getPreparedDirectory(@NonNull Context context) {
+        return new File(context.getCacheDir(), PREPARED_DIR);
+    }
+
+    private static void removeExpired(@NonNull File dir) {
+        File[] files = dir.listFiles();
+        if(files == null) return;
+
+        long now = System.currentTimeMillis();
+        for(File f : files) {
+            if(now - f.lastModified() > PREPARED_EXPIRY && f.delete())
+                Log.d(DEBUG_TAG, "Removed stale prepared image " + f.getName());
+        }
+    }
+}
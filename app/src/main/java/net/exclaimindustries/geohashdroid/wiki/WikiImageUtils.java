@@ -9,31 +9,33 @@
 package net.exclaimindustries.geohashdroid.wiki;
 
 import android.content.Context;
-import android.content.res.Resources;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Rect;
 import android.location.Location;
 import android.net.Uri;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.util.Log;
 
 import net.exclaimindustries.geohashdroid.R;
 import net.exclaimindustries.geohashdroid.util.Info;
 import net.exclaimindustries.geohashdroid.util.UnitConverter;
 import net.exclaimindustries.tools.BitmapTools;
+import net.exclaimindustries.tools.ImageSource;
+import net.exclaimindustries.tools.JpegBudgetEncoder;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
 import java.text.DecimalFormat;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.core.content.ContextCompat;
+import androidx.core.os.ConfigurationCompat;
 import androidx.exifinterface.media.ExifInterface;
 
 /**
@@ -45,12 +47,24 @@ import androidx.exifinterface.media.ExifInterface;
  * @author Nicholas Killewald
  */
 public class WikiImageUtils {
+    private static final String DEBUG_TAG = "WikiImageUtils";
+
     /** The largest width we'll allow to be uploaded. */
     private static final int MAX_UPLOAD_WIDTH = 800;
     /** The largest height we'll allow to be uploaded. */
     private static final int MAX_UPLOAD_HEIGHT = 600;
-    /** The JPEG quality setting to be uploaded. */
+    /** The best JPEG quality setting to be uploaded. */
     private static final int IMAGE_JPEG_QUALITY = 90;
+    /**
+     * The worst JPEG quality setting to be uploaded.  If it's still too big at
+     * this, it gets shrunk instead.
+     */
+    private static final int IMAGE_JPEG_MIN_QUALITY = 60;
+    /**
+     * The most bytes we'd like an uploaded image to be.  The Geohashing wiki
+     * tends to frown upon images over 150k, and mobile data isn't free.
+     */
+    private static final int MAX_UPLOAD_BYTES = 150 * 1024;
 
     /**
      * Amount of time until we don't consider this to be a "live" picture.
@@ -59,13 +73,28 @@ public class WikiImageUtils {
      */
     private static final int LIVE_TIMEOUT = 900000;
 
-    // Padding around the sides of the icons/text.
-    private static final int INFOBOX_BOX_PADDING = 8;
-    // Padding between things in the infobox.
-    private static final int INFOBOX_ITEM_PADDING = 8;
+    // The infobox icons, with and without a location to go with them.
+    private static final int[] INFOBOX_ICONS = {
+            R.drawable.final_destination_wiki_image,
+            R.drawable.current_location_wiki_image,
+            R.drawable.distance_wiki_image
+    };
+    private static final int[] INFOBOX_ICONS_NO_LOCATION = {
+            R.drawable.final_destination_wiki_image,
+            R.drawable.current_location_wiki_image
+    };
+
+    // One renderer per configuration.  See getInfoboxRenderer.
+    private static final Map<String, InfoboxRenderer<Bitmap>> mInfoboxRenderers = new HashMap<>();
+
+    // One Bitmap left over from the last upload image, so the next one can be
+    // decoded into its memory instead of a fresh couple of megabytes.  It's
+    // soft so it doesn't stick around if memory gets tight.
+    private static SoftReference<Bitmap> mSpareBitmap;
+
+    private static final JpegBudgetEncoder mEncoder = new JpegBudgetEncoder(
+            MAX_UPLOAD_BYTES, IMAGE_JPEG_MIN_QUALITY, IMAGE_JPEG_QUALITY);
 
-    private static Paint mBackgroundPaint;
-    private static Paint mTextPaint;
     private static final DecimalFormat DIST_FORMAT =
             new DecimalFormat("###.######");
 
@@ -102,14 +131,39 @@ public class WikiImageUtils {
         public ImageInfo(@NonNull Uri uri,
                          @Nullable Location location,
                          long timestamp) {
-            this.uri = uri;
-            this.location = location;
-
             // Ignore the timestamp field for now and just use the time at the
             // moment this object was created; from bug reports and personal
             // testing, I have this feeling something isn't giving me the data
             // I want at that point.
-            this.timestamp = Calendar.getInstance().getTimeInMillis();
+            this(Calendar.getInstance().getTimeInMillis(), uri, location);
+        }
+
+        private ImageInfo(long timestamp,
+                          @NonNull Uri uri,
+                          @Nullable Location location) {
+            this.uri = uri;
+            this.location = location;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * Rebuilds an ImageInfo that was made earlier and stored somewhere
+         * (say, the wiki queue), timestamp and all.  Unlike the constructor,
+         * this keeps the timestamp it's given.  That matters, since the name
+         * the image gets on the wiki comes from it, and a post that comes back
+         * out of the queue needs to wind up with the same name it had going
+         * in.
+         *
+         * @param uri the image URI
+         * @param location the image location if known, or null if not
+         * @param timestamp the timestamp the ImageInfo had when it was stored
+         * @return a new ImageInfo, same as the old one
+         */
+        @NonNull
+        public static ImageInfo restore(@NonNull Uri uri,
+                                        @Nullable Location location,
+                                        long timestamp) {
+            return new ImageInfo(timestamp, uri, location);
         }
 
         /**
@@ -191,13 +245,33 @@ public class WikiImageUtils {
                                           @NonNull Uri uri,
                                           @Nullable Location locationIfNoneSet,
                                           @NonNull Calendar timeIfNoneSet) {
+        try(ImageSource source = new ImageSource(context, uri)) {
+            return readImageInfo(source, locationIfNoneSet, timeIfNoneSet);
+        }
+    }
+
+    /**
+     * <p>
+     * Creates an {@link ImageInfo} object from an already-open
+     * {@link ImageSource}.  The EXIF data is at the start of the image, so
+     * the source can be rewound and used to decode the image afterward
+     * without opening it again.
+     * </p>
+     *
+     * @param source the image
+     * @param locationIfNoneSet location to use if the image has no location metadata stored in it
+     * @param timeIfNoneSet Calendar containing a timestamp to use if the image has no time metadata stored in it
+     * @return a brand new ImageInfo
+     */
+    @NonNull
+    public static ImageInfo readImageInfo(@NonNull ImageSource source,
+                                          @Nullable Location locationIfNoneSet,
+                                          @NonNull Calendar timeIfNoneSet) {
+        Uri uri = source.getUri();
         ExifInterface exif = null;
 
         try {
-            InputStream input = context.getContentResolver().openInputStream(uri);
-            if(input != null) {
-                exif = new ExifInterface(input);
-            }
+            exif = new ExifInterface(source.rewind());
         } catch(IOException ioe) {
             // This can happen, the error is handled right up next.
         }
@@ -233,8 +307,9 @@ public class WikiImageUtils {
 
     /**
      * Loads, shrinks, stamps, and JPEGifies an image for the wiki.  Call this
-     * to get a byte array, then shove that out the door.  Do it quick, too, as
-     * this might get sort of big on memory use.
+     * to get a byte array, then shove that out the door.  This opens the image
+     * just the once and decodes it straight to size, so it's not as bad on
+     * memory as it used to be, but don't go holding onto the array forever.
      *
      * @param context a Context for getting necessary paints and resources
      * @param info an Info object for determining the distance to the destination
@@ -249,29 +324,108 @@ public class WikiImageUtils {
                                          @NonNull Uri uri,
                                          @Nullable Location location,
                                          boolean drawInfobox) {
+        try(ImageSource source = new ImageSource(context, uri)) {
+            // The encoder tries to stay under the budget, so starting there
+            // means the stream usually never has to grow (and copy itself)
+            // on the way.
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(MAX_UPLOAD_BYTES);
+
+            if(!writeWikiImage(context, info, source, location, drawInfobox, bytes))
+                return null;
+
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Loads, shrinks, stamps, and JPEGifies an image for the wiki, writing
+     * the JPEG straight to the given stream.  Point it at a file if the image
+     * doesn't need to be in memory at all.  The JPEG gets squeezed to fit
+     * in {@link #MAX_UPLOAD_BYTES} if it can be.  This won't close the stream.
+     *
+     * @param context a Context for getting necessary paints and resources
+     * @param info an Info object for determining the distance to the destination
+     * @param source the image (anything else that needs to read it, like {@link #readImageInfo(ImageSource, Location, Calendar)}, should do so first)
+     * @param location a location for the image, for the infobox (can be null)
+     * @param drawInfobox true to draw the infobox, false to just shrink and compress
+     * @param out where the JPEG goes
+     * @return true if it worked, false if something went wrong
+     */
+    public static boolean writeWikiImage(@NonNull Context context,
+                                         @NonNull Info info,
+                                         @NonNull ImageSource source,
+                                         @Nullable Location location,
+                                         boolean drawInfobox,
+                                         @NonNull OutputStream out) {
         // First, we want to scale the image to cut down on memory use and
-        // upload time. The Geohashing wiki tends to frown upon images over
-        // 150k, so scaling and compressing are the way to go.
-        Bitmap bitmap = BitmapTools
-                .createRatioPreservedDownscaledBitmapFromUri(
-                        context, uri, MAX_UPLOAD_WIDTH,
-                        MAX_UPLOAD_HEIGHT, true);
+        // upload time.  If there's a Bitmap left over from last time, decode
+        // right into that.
+        Bitmap bitmap;
+        Bitmap spare = takeSpareBitmap();
+
+        try {
+            try {
+                bitmap = BitmapTools.decodeRatioPreservedDownscaledBitmap(
+                        source, MAX_UPLOAD_WIDTH, MAX_UPLOAD_HEIGHT, true, spare);
+            } catch(IllegalArgumentException iae) {
+                // The decoder didn't like the spare.  Fine, have a new one.
+                Log.d(DEBUG_TAG, "Couldn't reuse the spare Bitmap, decoding without it...");
+                spare = null;
+                bitmap = BitmapTools.decodeRatioPreservedDownscaledBitmap(
+                        source, MAX_UPLOAD_WIDTH, MAX_UPLOAD_HEIGHT, true, null);
+            }
+        } catch(IOException ioe) {
+            Log.e(DEBUG_TAG, "Couldn't read " + source.getUri(), ioe);
+            returnSpareBitmap(spare);
+            return false;
+        }
 
         // If the Bitmap wound up null, we're in trouble.
-        if(bitmap == null) return null;
+        if(bitmap == null) {
+            returnSpareBitmap(spare);
+            return false;
+        }
 
-        // Then, put the infobox up if that's what we're into.
-        if(drawInfobox)
+        // Then, put the infobox up if that's what we're into.  What's in the
+        // infobox changes how well the image compresses, so that (and how
+        // it's drawn) goes into the key the encoder remembers settings by.
+        StringBuilder key = new StringBuilder(source.getUri().toString());
+        if(drawInfobox) {
             drawInfobox(context, info, location, bitmap);
 
-        // Finally, compress it and away it goes!
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.JPEG, IMAGE_JPEG_QUALITY, bytes);
-        byte[] toReturn = bytes.toByteArray();
-        bitmap.recycle();
+            key.append('#').append(getRendererKey(context));
+            for(String line : makeInfoboxStrings(context, info, location))
+                key.append('#').append(line);
+        }
+
+        // Finally, compress it (as well as we can within the budget) and
+        // away it goes!  The settings are remembered per image and infobox,
+        // so if the same one comes back, it's one try.  The Bitmap gets kept
+        // around for next time, since there's usually a next time.
+        boolean toReturn;
+        try {
+            toReturn = mEncoder.encode(bitmap, key.toString(), out) != null;
+        } catch(IOException ioe) {
+            Log.e(DEBUG_TAG, "Couldn't write the JPEG out", ioe);
+            toReturn = false;
+        }
+
+        returnSpareBitmap(bitmap);
         return toReturn;
     }
 
+    @Nullable
+    private static synchronized Bitmap takeSpareBitmap() {
+        Bitmap toReturn = mSpareBitmap != null ? mSpareBitmap.get() : null;
+        mSpareBitmap = null;
+        return toReturn != null && !toReturn.isRecycled() ? toReturn : null;
+    }
+
+    private static synchronized void returnSpareBitmap(@Nullable Bitmap bitmap) {
+        if(bitmap != null && bitmap.isMutable())
+            mSpareBitmap = new SoftReference<>(bitmap);
+    }
+
     /**
      * Puts the handy infobox on a Bitmap.
      *
@@ -288,210 +442,72 @@ public class WikiImageUtils {
         if (!bitmap.isMutable())
             throw new IllegalArgumentException("The Bitmap has to be mutable in order to draw an infobox on it!");
 
-        // PAINT!
-        makePaints(context);
-
-        // First, we need to draw something.  Get a Canvas.
-        Canvas c = new Canvas(bitmap);
-
-        String[] strings;
-        int[] icons;
+        getInfoboxRenderer(context).render(makeInfoboxStrings(context, info, location),
+                location != null ? INFOBOX_ICONS : INFOBOX_ICONS_NO_LOCATION,
+                bitmap);
+    }
 
+    /**
+     * Makes the lines of text that go in the infobox, one per icon.
+     */
+    @NonNull
+    private static String[] makeInfoboxStrings(@NonNull Context context,
+                                               @NonNull Info info,
+                                               @Nullable Location location) {
         // I'm sure this could have less redundant code if I wasn't thinking too
         // hard about it...
         if (location != null) {
             // Assemble all our data.  Our three strings will be the final
             // destination, our current location, and the distance.
-            strings = new String[3];
-
-            strings[0] = UnitConverter.makeFullCoordinateString(context,
-                    info.getFinalLocation(),
-                    false,
-                    UnitConverter.OUTPUT_LONG);
-            strings[1] = UnitConverter.makeFullCoordinateString(context,
-                    location,
-                    false,
-                    UnitConverter.OUTPUT_LONG);
-            strings[2] = UnitConverter.makeDistanceString(context,
-                    DIST_FORMAT,
-                    info.getDistanceInMeters(location));
-
-            // Then, to the render method!
-            icons = new int[3];
-            icons[0] = R.drawable.final_destination_wiki_image;
-            icons[1] = R.drawable.current_location_wiki_image;
-            icons[2] = R.drawable.distance_wiki_image;
+            return new String[] {
+                    UnitConverter.makeFullCoordinateString(context,
+                            info.getFinalLocation(),
+                            false,
+                            UnitConverter.OUTPUT_LONG),
+                    UnitConverter.makeFullCoordinateString(context,
+                            location,
+                            false,
+                            UnitConverter.OUTPUT_LONG),
+                    UnitConverter.makeDistanceString(context,
+                            DIST_FORMAT,
+                            info.getDistanceInMeters(location))
+            };
         } else {
             // Otherwise, just throw up an unknown.  Location's still there,
             // though.
-            strings = new String[2];
-            strings[0] = UnitConverter.makeFullCoordinateString(context,
-                    info.getFinalLocation(),
-                    false,
-                    UnitConverter.OUTPUT_LONG);
-            strings[1] = context.getString(R.string.location_unknown);
-
-            icons = new int[2];
-            icons[0] = R.drawable.final_destination_wiki_image;
-            icons[1] = R.drawable.current_location_wiki_image;
-        }
-
-        drawStrings(context.getResources(), strings, icons, c, mTextPaint, mBackgroundPaint);
-    }
-
-    private static void makePaints(@NonNull Context context) {
-        // These are for efficiency's sake so we don't rebuild paints uselessly.
-        if(mBackgroundPaint == null) {
-            mBackgroundPaint = new Paint();
-            mBackgroundPaint.setStyle(Paint.Style.FILL);
-            mBackgroundPaint.setColor(ContextCompat.getColor(context, R.color.infobox_background));
-        }
-
-        if(mTextPaint == null) {
-            mTextPaint = new Paint();
-            mTextPaint.setColor(ContextCompat.getColor(context, R.color.infobox_text));
-            mTextPaint.setTextSize(context.getResources().getDimension(R.dimen.infobox_picture_fontsize));
-            mTextPaint.setAntiAlias(true);
+            return new String[] {
+                    UnitConverter.makeFullCoordinateString(context,
+                            info.getFinalLocation(),
+                            false,
+                            UnitConverter.OUTPUT_LONG),
+                    context.getString(R.string.location_unknown)
+            };
         }
     }
 
-    private static void drawStrings(@NonNull Resources resources,
-                                    @NonNull String[] strings,
-                                    @NonNull int[] icons,
-                                    @NonNull Canvas c,
-                                    @NonNull Paint textPaint,
-                                    @NonNull Paint backgroundPaint) {
-        // All we do here is prepare the Bitmaps before tossing them to the
-        // OTHER method.  Hence the need for a Resources.
-        Bitmap[] bitmaps = new Bitmap[icons.length];
-        BitmapFactory.Options opts = new BitmapFactory.Options();
-        opts.inScaled = false;
-
-        for(int i = 0; i < icons.length; i++) {
-            bitmaps[i] = BitmapFactory.decodeResource(resources, icons[i], opts);
-        }
-
-        drawStrings(strings, bitmaps, c, textPaint, backgroundPaint);
+    @NonNull
+    private static String getRendererKey(@NonNull Context context) {
+        // The paints, icons, and text measurements all depend on the
+        // configuration, so that's what the renderers are kept by.  Night
+        // mode counts, since the colors change.
+        Configuration config = context.getResources().getConfiguration();
+        return config.densityDpi
+                + "/" + ConfigurationCompat.getLocales(config).get(0)
+                + "/" + (config.uiMode & Configuration.UI_MODE_NIGHT_MASK)
+                + "/" + config.fontScale;
     }
 
-    private static void drawStrings(@NonNull String[] strings,
-                                    @Nullable Bitmap[] bitmaps,
-                                    @NonNull Canvas c,
-                                    @NonNull Paint textPaint,
-                                    @NonNull Paint backgroundPaint) {
-        // The default paint should do, right?
-        Paint paint = new Paint();
-
-        // We need SOME strings.  If we've got nothing, bail out.  This doesn't
-        // apply to icons, though; if there's fewer icons than there are
-        // strings, the strings just get placed on the left margin.
-        if(strings.length < 1) return;
-        if(bitmaps == null) bitmaps = new Bitmap[0];
-
-        // First, init our variables.  This is as good a place as any to do so.
-        Rect textBounds = new Rect();
-        int[] stringHeights = new int[strings.length];
-        int[] iconHeights = new int[strings.length]; // Yes, strings.length.
-        int totalHeight = INFOBOX_BOX_PADDING * 2;
-        int longestWidth = 0;
-
-        // The height of the box is the total heights of either the texts or
-        // images (whichever is bigger), plus the margins.  The width of it is
-        // the LONGEST icon/text combo.
-        for(int i = 0; i < strings.length; i++) {
-            String s = strings[i];
-            textPaint.getTextBounds(s, 0, s.length(), textBounds);
-            int textWidth = textBounds.width();
-            int textHeight = textBounds.height();
-
-            int iconWidth = 0;
-            int iconHeight = 0;
-
-            // If we even HAVE an icon for this...
-            if(bitmaps.length > i) {
-                // With an extra shot of padding for the icon...
-                iconWidth = bitmaps[i].getWidth() + INFOBOX_ITEM_PADDING;
-                iconHeight = bitmaps[i].getHeight();
-            }
-
-            // Now, add the tallest of those into the height...
-            totalHeight += Math.max(textHeight, iconHeight);
-
-            // ...keep track of the individual heights so we don't have to keep
-            // recalculating them...
-            stringHeights[i] = textHeight;
-            iconHeights[i] = iconHeight;
+    @NonNull
+    private static synchronized InfoboxRenderer<Bitmap> getInfoboxRenderer(@NonNull Context context) {
+        String key = getRendererKey(context);
 
-            // ...and see if the sum of the widths is wider than the widest we
-            // found so far.
-            if(textWidth + iconWidth > longestWidth) {
-                longestWidth = textWidth + iconWidth;
-            }
+        InfoboxRenderer<Bitmap> toReturn = mInfoboxRenderers.get(key);
+        if(toReturn == null) {
+            toReturn = new InfoboxRenderer<>(new AndroidInfoboxBackend(context));
+            mInfoboxRenderers.put(key, toReturn);
         }
 
-        // With the total height and widest width, we've got us a rectangle.
-        Rect drawBounds =  new Rect(c.getWidth() - longestWidth - (INFOBOX_BOX_PADDING * 2),
-                0,
-                c.getWidth(),
-                totalHeight);
-
-        c.drawRect(drawBounds, backgroundPaint);
-
-        // Now, place each of the strings with their respective icons next to
-        // them.  Topmost one is index 0, they're all left-justified, and the
-        // icons go in first.
-        int curHeight = INFOBOX_BOX_PADDING;
-        for(int i = 0; i < strings.length; i++) {
-            // Oh, and we want to center the text and the icons.  The way the
-            // textBounds grabber works, it just gives us the rectangle around
-            // the entire text.  That rectangle, however, doesn't account for
-            // any font descenders or whatnot unless such glyphs are in the
-            // string itself.  For what we're doing, however, that should work,
-            // as the numbers and letters we use don't descend.  If that changes
-            // at any point, we need to get more in-depth with font analysis to
-            // make sure everything centers consistently on the same baseline.
-            int iconOffset = 0;
-            int textOffsetX = 0;
-            int textOffsetY = 0;
-            int heightOffset;
-
-            if(stringHeights[i] > iconHeights[i]) {
-                // String is taller, icon needs to adjust.
-                iconOffset = (stringHeights[i] - iconHeights[i]) / 2;
-                heightOffset = stringHeights[i];
-            } else {
-                // Icon is taller, string needs to adjust.
-                textOffsetY = (iconHeights[i] - stringHeights[i]) / 2;
-                heightOffset = iconHeights[i];
-            }
-
-            // textOffsetY must also be adjusted, since Android draws text from
-            // the baseline, not the top-left corner of the text block.
-            textOffsetY += stringHeights[i];
-
-            // The icon and text need to be vertically centered.  The way that
-            // happens depends on which is bigger.  At time of writing, the
-            // icons were, but knowing me, this could change at any time.
-
-            // Icon!
-            if(bitmaps.length > i) {
-                c.drawBitmap(bitmaps[i], drawBounds.left + INFOBOX_BOX_PADDING, curHeight + iconOffset, paint);
-
-                textOffsetX = bitmaps[i].getWidth() + INFOBOX_ITEM_PADDING;
-
-                // Oh, and jettison that Bitmap.
-                bitmaps[i].recycle();
-            }
-
-            // Text!
-            c.drawText(strings[i],
-                    drawBounds.left + INFOBOX_BOX_PADDING + textOffsetX,
-                    curHeight + textOffsetY,
-            textPaint);
-
-            // Then set the height for the next row.
-            curHeight += heightOffset;
-        }
+        return toReturn;
     }
 
     /**
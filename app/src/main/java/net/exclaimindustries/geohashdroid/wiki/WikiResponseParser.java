@@ -0,0 +1,275 @@
+/*
+ * WikiResponseParser.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.wiki;
+
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * <p>
+ * A <code>WikiResponseParser</code> reads a MediaWiki API response (the XML
+ * format, that is) and pulls out just the handful of things we actually care
+ * about: the attributes of a few named elements, the text of at most one
+ * element, and whatever error the wiki sent back.  It does this with a pull
+ * parser, so no DOM tree gets built.  That matters for page requests, where
+ * the tree would otherwise include the entire wikitext of the page, and busy
+ * expedition pages can get pretty big.
+ * </p>
+ *
+ * <p>
+ * Like {@link net.exclaimindustries.tools.DOMUtil#getFirstElement}, only the
+ * first element of any given name counts.  Once everything asked for has
+ * turned up (or an error has), the parser stops reading.  Whoever handed it
+ * the stream is responsible for anything left over.
+ * </p>
+ *
+ * <p>
+ * Parsers don't hold any state between calls, so it's fine to keep one around
+ * as a constant and use it from multiple threads.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+public class WikiResponseParser {
+    /** The element MediaWiki uses to report errors. */
+    private static final String ERROR_ELEMENT = "error";
+
+    /** The attribute on the error element that says what went wrong. */
+    private static final String ERROR_CODE_ATTRIBUTE = "code";
+
+    private final Set<String> mElements;
+    private final String mTextElement;
+
+    /**
+     * The results of a parse.  Anything that wasn't asked for won't be here,
+     * even if it was in the response.
+     */
+    public static class Result {
+        private final Map<String, Map<String, String>> mAttributes = new HashMap<>();
+        private String mText;
+        private boolean mHasError;
+        private String mErrorCode;
+
+        /**
+         * Whether or not the wiki returned an error.
+         *
+         * @return true if there was an error element
+         */
+        public boolean hasError() {
+            return mHasError;
+        }
+
+        /**
+         * Gets the error code the wiki returned.  This can be null even if
+         * {@link #hasError()} is true, if the wiki didn't bother to give us a
+         * code.
+         *
+         * @return the error code, or null
+         */
+        @Nullable
+        public String getErrorCode() {
+            return mErrorCode;
+        }
+
+        /**
+         * Whether or not the given element showed up in the response.  Only
+         * works for the elements the parser was asked to look for.
+         *
+         * @param element the element name
+         * @return true if it was there
+         */
+        public boolean hasElement(@NonNull String element) {
+            return mAttributes.containsKey(element);
+        }
+
+        /**
+         * Whether or not the given element showed up with the given attribute.
+         * MediaWiki likes to use empty attributes as flags (like "missing"),
+         * so this is more useful than it sounds.
+         *
+         * @param element the element name
+         * @param attribute the attribute name
+         * @return true if the element was there with that attribute
+         */
+        public boolean hasAttribute(@NonNull String element, @NonNull String attribute) {
+            Map<String, String> attrs = mAttributes.get(element);
+            return attrs != null && attrs.containsKey(attribute);
+        }
+
+        /**
+         * Gets the value of an attribute on an element.
+         *
+         * @param element the element name
+         * @param attribute the attribute name
+         * @return the value, or null if the element or attribute wasn't there
+         */
+        @Nullable
+        public String getAttribute(@NonNull String element, @NonNull String attribute) {
+            Map<String, String> attrs = mAttributes.get(element);
+            return attrs == null ? null : attrs.get(attribute);
+        }
+
+        /**
+         * Gets the text of the text element, if the parser was asked for one.
+         * Like {@link net.exclaimindustries.tools.DOMUtil#getSimpleElementText(org.w3c.dom.Element)},
+         * only text directly inside the element counts.
+         *
+         * @return the text, or null if the element never showed up
+         */
+        @Nullable
+        public String getText() {
+            return mText;
+        }
+    }
+
+    /**
+     * Makes a parser that looks for the given elements' attributes.  Any
+     * error the wiki sends back is always looked for, so this can be called
+     * with no elements at all if that's all you need to know.
+     *
+     * @param elements the elements to look for
+     */
+    public WikiResponseParser(@NonNull String... elements) {
+        this(new LinkedHashSet<>(Arrays.asList(elements)), null);
+    }
+
+    private WikiResponseParser(@NonNull Set<String> elements,
+                               @Nullable String textElement) {
+        mElements = elements;
+        mTextElement = textElement;
+    }
+
+    /**
+     * Makes a new parser that looks for everything this one does, plus the
+     * text inside the given element.
+     *
+     * @param element the element to get the text of
+     * @return a new parser
+     */
+    @NonNull
+    public WikiResponseParser withText(@NonNull String element) {
+        return new WikiResponseParser(mElements, element);
+    }
+
+    /**
+     * Parses a response from a stream.  This won't close the stream, and it
+     * might not read all of it.
+     *
+     * @param in the response
+     * @return the results
+     * @throws XmlPullParserException the response wasn't XML
+     * @throws IOException something went wrong reading the stream
+     */
+    @NonNull
+    public Result parse(@NonNull InputStream in) throws XmlPullParserException, IOException {
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setInput(in, null);
+        return parse(parser);
+    }
+
+    /**
+     * Parses a response from a parser that already has its input set.  This
+     * is mostly for when there's no {@link Xml} around to make a parser.
+     *
+     * @param parser the parser, with its input set
+     * @return the results
+     * @throws XmlPullParserException the response wasn't XML
+     * @throws IOException something went wrong reading the input
+     */
+    @NonNull
+    public Result parse(@NonNull XmlPullParser parser) throws XmlPullParserException, IOException {
+        Result toReturn = new Result();
+
+        // Count down what we still need.  Once it hits zero, we're done, no
+        // matter how much is left in the stream.
+        int remaining = mElements.size() + (mTextElement != null ? 1 : 0);
+        int event = parser.getEventType();
+
+        while(event != XmlPullParser.END_DOCUMENT) {
+            if(event == XmlPullParser.START_TAG) {
+                String name = parser.getName();
+
+                if(ERROR_ELEMENT.equals(name) && !toReturn.mHasError) {
+                    // An error trumps everything.  Whatever else we were
+                    // looking for isn't going to be useful now.
+                    toReturn.mHasError = true;
+                    toReturn.mErrorCode = parser.getAttributeValue(null, ERROR_CODE_ATTRIBUTE);
+                    break;
+                }
+
+                boolean found = false;
+
+                if(mElements.contains(name) && !toReturn.mAttributes.containsKey(name)) {
+                    toReturn.mAttributes.put(name, readAttributes(parser));
+                    found = true;
+                    remaining--;
+                }
+
+                if(name.equals(mTextElement) && toReturn.mText == null) {
+                    // This leaves the parser on the element's end tag.
+                    toReturn.mText = readText(parser);
+                    found = true;
+                    remaining--;
+                }
+
+                // If we weren't looking for anything but errors, this never
+                // happens, and we read to the end.
+                if(found && remaining <= 0) break;
+            }
+
+            event = parser.next();
+        }
+
+        return toReturn;
+    }
+
+    @NonNull
+    private static Map<String, String> readAttributes(@NonNull XmlPullParser parser) {
+        int count = parser.getAttributeCount();
+        Map<String, String> toReturn = new HashMap<>(Math.max(count * 2, 4));
+
+        for(int i = 0; i < count; i++)
+            toReturn.put(parser.getAttributeName(i), parser.getAttributeValue(i));
+
+        return toReturn;
+    }
+
+    @NonNull
+    private static String readText(@NonNull XmlPullParser parser)
+            throws XmlPullParserException, IOException {
+        // Only text at this element's own depth counts, same as DOMUtil.  If
+        // there's anything nested in there, we skip right over it.
+        int depth = parser.getDepth();
+        StringBuilder sb = new StringBuilder();
+        int event;
+
+        while((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if(event == XmlPullParser.END_TAG && parser.getDepth() == depth)
+                break;
+
+            if(event == XmlPullParser.TEXT && parser.getDepth() == depth)
+                sb.append(parser.getText());
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * WikiSession.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.wiki;
+
+import android.util.Log;
+
+import net.exclaimindustries.geohashdroid.R;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import cz.msebera.android.httpclient.impl.client.BasicCookieStore;
+import cz.msebera.android.httpclient.impl.client.CloseableHttpClient;
+import cz.msebera.android.httpclient.impl.client.HttpClients;
+import cz.msebera.android.httpclient.impl.conn.PoolingHttpClientConnectionManager;
+
+/**
+ * <p>
+ * A <code>WikiSession</code> is a long-lived connection to the wiki.  It owns
+ * one HTTP client with a pool of keep-alive connections and one cookie store,
+ * and it remembers whether it's logged in (and as whom) and what version the
+ * wiki is running.  That way, posting a whole backlog of queued stuff costs
+ * one login and one version check instead of one of each per post, and the
+ * connections (TLS handshakes and all) get reused.
+ * </p>
+ *
+ * <p>
+ * Logins and the wiki version are both cached with an expiry, since the wiki
+ * can forget us (or upgrade) without telling us.  If the wiki says the login
+ * went away anyway (that's {@link R.string#wiki_error_session}), call
+ * {@link #invalidateLogin(long)} and the next
+ * {@link #ensureLoggedIn(String, String)} will log in again.
+ * </p>
+ *
+ * <p>
+ * Since several threads can be posting at once, every login gets a
+ * generation number, which {@link #ensureLoggedIn(String, String)} hands back.
+ * When the wiki forgets the login, all of those threads will probably notice
+ * at about the same time, but only the first one to call
+ * {@link #invalidateLogin(long)} actually throws the cookies out.  Everyone
+ * else sees the generation's already moved on and leaves the new login (which
+ * other threads may well be in the middle of using) alone.
+ * </p>
+ *
+ * <p>
+ * This is safe to share between threads.  The HTTP client is, and the login
+ * state is synchronized.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+public class WikiSession {
+    private static final String DEBUG_TAG = "WikiSession";
+
+    /**
+     * How long a login is trusted before we log in again.  The wiki's session
+     * lasts longer than this, but this is cheap insurance.
+     */
+    private static final long LOGIN_EXPIRY = TimeUnit.MINUTES.toMillis(30);
+
+    /** How long the wiki version is trusted.  It doesn't change much. */
+    private static final long VERSION_EXPIRY = TimeUnit.HOURS.toMillis(12);
+
+    /** How many connections the pool holds. */
+    private static final int MAX_CONNECTIONS = 4;
+
+    /** How long an idle connection hangs around before it's closed. */
+    private static final long IDLE_TIMEOUT = 60;
+
+    private final PoolingHttpClientConnectionManager mConnectionManager;
+    private final BasicCookieStore mCookieStore;
+    private final CloseableHttpClient mClient;
+
+    // Who we're logged in as (null if nobody), with what password, and when
+    // that happened.  The password's only here to notice if it changed.
+    private String mLoginName;
+    private String mLoginPassword;
+    private long mLoginTime;
+
+    // Goes up every time the login gets thrown out, so anyone holding an old
+    // one can tell.
+    private long mGeneration;
+
+    private WikiUtils.WikiVersionData mVersion;
+    private long mVersionTime;
+
+    public WikiSession() {
+        mConnectionManager = new PoolingHttpClientConnectionManager();
+        mConnectionManager.setMaxTotal(MAX_CONNECTIONS);
+        mConnectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+
+        mCookieStore = new BasicCookieStore();
+
+        mClient = HttpClients.custom()
+                .setConnectionManager(mConnectionManager)
+                .setDefaultCookieStore(mCookieStore)
+                .build();
+    }
+
+    /**
+     * Gets the HTTP client.  Use this for everything; that's the whole point.
+     * Don't close it, either; {@link #close()} does that.
+     *
+     * @return the session's HTTP client
+     */
+    @NonNull
+    public CloseableHttpClient getClient() {
+        // Anything that's been sitting around too long is probably dead on
+        // the server's end by now anyway.
+        mConnectionManager.closeExpiredConnections();
+        mConnectionManager.closeIdleConnections(IDLE_TIMEOUT, TimeUnit.SECONDS);
+
+        return mClient;
+    }
+
+    /**
+     * Makes sure the session is logged in as the given user, logging in if
+     * it isn't (or if it's been a while).  An empty username means anonymous,
+     * which means logging out if we were logged in.
+     *
+     * @param username the wiki username, or empty for anonymous
+     * @param password the matching password
+     * @return the login's generation, for {@link #invalidateLogin(long)}
+     * @throws WikiException problem with the wiki, translate the ID
+     * @throws Exception     anything else happened, use getMessage
+     */
+    public synchronized long ensureLoggedIn(@NonNull String username,
+                                            @NonNull String password) throws Exception {
+        long now = System.currentTimeMillis();
+
+        if(username.isEmpty()) {
+            if(mLoginName != null) {
+                Log.d(DEBUG_TAG, "Going anonymous, dropping the old login...");
+                clearLogin();
+            }
+            return mGeneration;
+        }
+
+        if(username.equals(mLoginName)
+                && password.equals(mLoginPassword)
+                && now - mLoginTime < LOGIN_EXPIRY) {
+            // Already good.
+            return mGeneration;
+        }
+
+        // Either we're not logged in, we're logged in as someone else, or it's
+        // been too long.  Any of those mean a fresh start.
+        clearLogin();
+        WikiUtils.login(mClient, username, password, getVersion());
+
+        mLoginName = username;
+        mLoginPassword = password;
+        mLoginTime = now;
+
+        return mGeneration;
+    }
+
+    /**
+     * Gets the wiki version, asking the wiki only if we haven't asked in a
+     * while.
+     *
+     * @return the wiki version
+     * @throws WikiException problem with the wiki, translate the ID
+     * @throws Exception     anything else happened, use getMessage
+     */
+    @NonNull
+    public synchronized WikiUtils.WikiVersionData getVersion() throws Exception {
+        long now = System.currentTimeMillis();
+
+        if(mVersion == null || now - mVersionTime >= VERSION_EXPIRY) {
+            mVersion = WikiUtils.getWikiVersion(mClient);
+            mVersionTime = now;
+        }
+
+        return mVersion;
+    }
+
+    /**
+     * Gets who this session is logged in as, if anyone.
+     *
+     * @return the username, or null if anonymous
+     */
+    @Nullable
+    public synchronized String getLoginName() {
+        return mLoginName;
+    }
+
+    /**
+     * Forgets the current login, cookies and all, but only if it's the same
+     * login the caller was using.  If it isn't, someone else already noticed
+     * the wiki forgot us and logged in again, and that login's fine.  Either
+     * way, the next {@link #ensureLoggedIn(String, String)} will make sure
+     * there's a good login.
+     *
+     * @param generation what {@link #ensureLoggedIn(String, String)} returned
+     * @return true if the login was thrown out, false if it was already gone
+     */
+    public synchronized boolean invalidateLogin(long generation) {
+        if(generation != mGeneration) return false;
+
+        clearLogin();
+        return true;
+    }
+
+    private void clearLogin() {
+        mGeneration++;
+        mCookieStore.clear();
+        mLoginName = null;
+        mLoginPassword = null;
+        mLoginTime = 0;
+    }
+
+    /**
+     * Shuts down the session and all its connections.  Don't use it after
+     * this.
+     */
+    public void close() {
+        try {
+            mClient.close();
+        } catch(IOException ioe) {
+            Log.w(DEBUG_TAG, "Couldn't close the HTTP client cleanly", ioe);
+        }
+    }
+}
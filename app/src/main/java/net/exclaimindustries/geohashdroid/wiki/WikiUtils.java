@@ -18,12 +18,8 @@ import net.exclaimindustries.geohashdroid.R;
 import net.exclaimindustries.geohashdroid.util.Graticule;
 import net.exclaimindustries.geohashdroid.util.Info;
 import net.exclaimindustries.geohashdroid.util.UnitConverter;
-import net.exclaimindustries.tools.DOMUtil;
 import net.exclaimindustries.tools.DateTools;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -38,14 +34,13 @@ import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.Header;
 import cz.msebera.android.httpclient.HttpResponse;
 import cz.msebera.android.httpclient.NameValuePair;
 import cz.msebera.android.httpclient.client.entity.UrlEncodedFormEntity;
+import cz.msebera.android.httpclient.client.methods.CloseableHttpResponse;
 import cz.msebera.android.httpclient.client.methods.HttpGet;
 import cz.msebera.android.httpclient.client.methods.HttpPost;
 import cz.msebera.android.httpclient.client.methods.HttpUriRequest;
@@ -55,6 +50,7 @@ import cz.msebera.android.httpclient.entity.mime.content.ByteArrayBody;
 import cz.msebera.android.httpclient.entity.mime.content.StringBody;
 import cz.msebera.android.httpclient.impl.client.CloseableHttpClient;
 import cz.msebera.android.httpclient.message.BasicNameValuePair;
+import cz.msebera.android.httpclient.util.EntityUtils;
 
 /**
  * Various stateless utility methods to query a mediawiki server
@@ -188,13 +184,15 @@ public class WikiUtils {
         }
     }
 
-    /**
-     * A bucketload of the usual stuff we grab from a wiki request.
-     */
-    private static class WikiResponse {
-        Document document;
-        Element rootElem;
-    }
+    // The parsers for each sort of response.  Each one only looks for what
+    // the method using it needs, and stops reading once it's found it.
+    private static final WikiResponseParser PARSER_ERROR_ONLY = new WikiResponseParser();
+    private static final WikiResponseParser PARSER_PAGE_INFO = new WikiResponseParser("page");
+    private static final WikiResponseParser PARSER_PAGE_CONTENT = new WikiResponseParser("page").withText("rev");
+    private static final WikiResponseParser PARSER_SITEINFO = new WikiResponseParser("general");
+    private static final WikiResponseParser PARSER_LOGIN_TOKEN = new WikiResponseParser("tokens");
+    private static final WikiResponseParser PARSER_CLIENT_LOGIN = new WikiResponseParser("clientlogin");
+    private static final WikiResponseParser PARSER_LOGIN = new WikiResponseParser("login");
 
     /**
      * This format is used for all latitude/longitude texts in the wiki.
@@ -221,41 +219,65 @@ public class WikiUtils {
     }
 
     /**
-     * Returns the content of a http request as an XML Document.  This is to be
-     * used only when we know the response to a request will be XML.  Otherwise,
-     * this will probably throw an exception.
+     * Gets how long the server wants us to wait before trying again, from the
+     * Retry-After header.  That header can also be an HTTP date, but MediaWiki
+     * only ever sends seconds, so that's all this bothers with.
      *
-     * @param httpclient an active HTTP session
-     * @param httpreq    an HTTP request (GET or POST)
-     * @return a Document containing the contents of the response
+     * @param response an HTTP response
+     * @return how long to wait, in ms, or -1 if the server didn't say
      */
-    private static Document getHttpDocument(@NonNull CloseableHttpClient httpclient,
-                                            @NonNull HttpUriRequest httpreq) throws Exception {
-        HttpResponse response = httpclient.execute(httpreq);
-
-        HttpEntity entity = response.getEntity();
+    private static long getRetryAfter(@NonNull HttpResponse response) {
+        Header header = response.getFirstHeader("Retry-After");
+        if(header == null) return -1;
 
-        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(entity.getContent());
+        try {
+            long seconds = Long.parseLong(header.getValue().trim());
+            return seconds < 0 ? -1 : seconds * 1000;
+        } catch(NumberFormatException nfe) {
+            return -1;
+        }
     }
 
     /**
-     * Gets a standard {@link WikiResponse} object for a wiki request.  Because
-     * I was getting sick of all that boilerplate.
+     * Sends a wiki request and parses the response.  Because I was getting
+     * sick of all that boilerplate.
      *
      * @param httpclient an active HTTP session
      * @param httpreq    an HTTP request (GET or POST)
-     * @return a WikiResponse containing WikiResponsey stuff
+     * @param parser     a parser that knows what to look for in the response
+     * @return whatever the parser found
      */
     @NonNull
-    private static WikiResponse getWikiResponse(@NonNull CloseableHttpClient httpclient,
-                                                @NonNull HttpUriRequest httpreq) throws Exception {
-        WikiResponse toReturn = new WikiResponse();
+    private static WikiResponseParser.Result getWikiResponse(@NonNull CloseableHttpClient httpclient,
+                                                             @NonNull HttpUriRequest httpreq,
+                                                             @NonNull WikiResponseParser parser) throws Exception {
+        WikiResponseParser.Result toReturn;
+        long retryAfter;
 
-        toReturn.document = getHttpDocument(httpclient, httpreq);
+        try(CloseableHttpResponse response = httpclient.execute(httpreq)) {
+            try {
+                retryAfter = getRetryAfter(response);
+
+                // If the server's too busy or we're going too fast, that's not
+                // going to be XML, but it might say how long to wait.
+                int status = response.getStatusLine().getStatusCode();
+                if(status == 429) {
+                    throw new WikiException(R.string.wiki_error_rate_limit, retryAfter);
+                } else if(status == 503) {
+                    throw new WikiException(R.string.wiki_error_unknown, retryAfter);
+                }
+
+                toReturn = parser.parse(response.getEntity().getContent());
+            } finally {
+                // Read whatever's left (the parser may well have stopped
+                // early) so the connection can go back in the pool instead of
+                // getting closed.
+                EntityUtils.consume(response.getEntity());
+            }
+        }
 
-        toReturn.rootElem = toReturn.document.getDocumentElement();
-        if(doesResponseHaveError(toReturn.rootElem)) {
-            throw new WikiException(getErrorTextId(findErrorCode(toReturn.rootElem)));
+        if(toReturn.hasError()) {
+            throw new WikiException(getErrorTextId(toReturn.getErrorCode()), retryAfter);
         }
 
         return toReturn;
@@ -278,18 +300,15 @@ public class WikiUtils {
         HttpGet httpget = new HttpGet(WIKI_API_URL + "?action=query&format=xml&titles="
                 + URLEncoder.encode(pagename, "UTF-8"));
 
-        WikiResponse response = getWikiResponse(httpclient, httpget);
+        WikiResponseParser.Result response = getWikiResponse(httpclient, httpget, PARSER_PAGE_INFO);
 
-        Element pageElem;
-        try {
-            pageElem = DOMUtil.getFirstElement(response.rootElem, "page");
-        } catch(Exception e) {
+        if(!response.hasElement("page")) {
             throw new WikiException(R.string.wiki_error_xml);
         }
 
         // "invalid" or "missing" both resolve to the same answer: No.  Anything
         // else means yes.
-        return !(pageElem.hasAttribute("invalid") || pageElem.hasAttribute("missing"));
+        return !(response.hasAttribute("page", "invalid") || response.hasAttribute("page", "missing"));
     }
 
     /**
@@ -308,22 +327,17 @@ public class WikiUtils {
         // SiteInfo call!
         HttpGet httpget = new HttpGet(WIKI_API_URL + "?action=query&format=xml&meta=siteinfo&siprop=general");
 
-        WikiResponse response = getWikiResponse(httpclient, httpget);
-
-        Element generalElem;
-        try {
-            generalElem = DOMUtil.getFirstElement(response.rootElem, "general");
-        } catch(Exception e) {
-            throw new WikiException(R.string.wiki_error_xml);
-        }
+        WikiResponseParser.Result response = getWikiResponse(httpclient, httpget, PARSER_SITEINFO);
 
-        // If the generator attribute isn't there, there's a problem.
-        if(!generalElem.hasAttribute("generator")) {
+        // If the general element or its generator attribute isn't there,
+        // there's a problem.
+        String generator = response.getAttribute("general", "generator");
+        if(generator == null) {
             throw new WikiException(R.string.wiki_error_xml);
         }
 
         // Finally, we've got us a WikiVersionData!
-        return new WikiVersionData(generalElem.getAttribute("generator"));
+        return new WikiVersionData(generator);
     }
 
     /**
@@ -347,46 +361,38 @@ public class WikiUtils {
                 + "&rvprop=content&format=xml&intoken=edit&titles="
                 + URLEncoder.encode(pagename, "UTF-8"));
 
-        String page;
-        WikiResponse response = getWikiResponse(httpclient, httpget);
+        WikiResponseParser.Result response = getWikiResponse(httpclient, httpget, PARSER_PAGE_CONTENT);
 
-        Element pageElem;
-        Element text;
-        try {
-            pageElem = DOMUtil.getFirstElement(response.rootElem, "page");
-        } catch(Exception e) {
+        if(!response.hasElement("page")) {
             throw new WikiException(R.string.wiki_error_xml);
         }
 
         // If we got an "invalid" attribute, the page not only doesn't exist,
         // but it CAN'T exist, and is therefore an error.
-        if(pageElem.hasAttribute("invalid"))
+        if(response.hasAttribute("page", "invalid"))
             throw new WikiException(R.string.wiki_error_invalid_page);
 
         if(formfields != null) {
             // If we have a formfields hash ready, populate it with a couple
             // values.
             formfields.put("summary", "An expedition message sent via Geohash Droid for Android.");
-            if(pageElem.hasAttribute("edittoken"))
-                formfields.put("token", DOMUtil.getSimpleAttributeText(pageElem, "edittoken"));
-            if(pageElem.hasAttribute("touched"))
-                formfields.put("basetimestamp", DOMUtil.getSimpleAttributeText(pageElem, "touched"));
+            if(response.hasAttribute("page", "edittoken"))
+                formfields.put("token", response.getAttribute("page", "edittoken"));
+            if(response.hasAttribute("page", "touched"))
+                formfields.put("basetimestamp", response.getAttribute("page", "touched"));
         }
 
         // If we got a "missing" attribute, the page hasn't been made yet, so we
         // return null.
-        if(pageElem.hasAttribute("missing"))
+        if(response.hasAttribute("page", "missing"))
             return null;
 
-        // Otherwise, get the text and fill out the form fields.
-        try {
-            text = DOMUtil.getFirstElement(pageElem, "rev");
-        } catch(Exception e) {
+        // Otherwise, the text had better be there.
+        String page = response.getText();
+        if(page == null) {
             throw new WikiException(R.string.wiki_error_xml);
         }
 
-        page = DOMUtil.getSimpleElementText(text);
-
         return page;
     }
 
@@ -421,7 +427,7 @@ public class WikiUtils {
 
         httppost.setEntity(new UrlEncodedFormEntity(nvps, "utf-8"));
 
-        getWikiResponse(httpclient, httppost);
+        getWikiResponse(httpclient, httppost, PARSER_ERROR_ONLY);
 
         // And really, that's it.  We're done!
     }
@@ -456,19 +462,11 @@ public class WikiUtils {
 
         httppost.setEntity(new UrlEncodedFormEntity(tnvps, "utf-8"));
 
-        WikiResponse response = getWikiResponse(httpclient, httppost);
+        WikiResponseParser.Result response = getWikiResponse(httpclient, httppost, PARSER_PAGE_INFO);
 
-        // Hopefully, a token exists.  If not, a problem exists.
-        String token;
-        Element page;
-        try {
-            page = DOMUtil.getFirstElement(response.rootElem, "page");
-            token = DOMUtil.getSimpleAttributeText(page, "edittoken");
-        } catch(Exception e) {
-            throw new WikiException(R.string.wiki_error_xml);
-        }
-
-        // We very much need an edit token here.
+        // Hopefully, a token exists.  If not, a problem exists.  We very much
+        // need an edit token here.
+        String token = response.getAttribute("page", "edittoken");
         if(token == null) {
             throw new WikiException(R.string.wiki_error_xml);
         }
@@ -484,9 +482,15 @@ public class WikiUtils {
                 .addPart("format", new StringBody("xml", ContentType.TEXT_PLAIN))
                 .addPart("file", new ByteArrayBody(data, ContentType.create("image/jpeg", "utf-8"), filename));
 
+        // If we're supposed to be logged in, make sure the wiki knows that,
+        // too.  Otherwise it'll just assume we're anonymous.
+        String assertion = formfields.get("assert");
+        if(assertion != null)
+            builder.addPart("assert", new StringBody(assertion, ContentType.TEXT_PLAIN));
+
         httppost.setEntity(builder.build());
 
-        getWikiResponse(httpclient, httppost);
+        getWikiResponse(httpclient, httppost, PARSER_ERROR_ONLY);
     }
 
     /**
@@ -503,11 +507,28 @@ public class WikiUtils {
     public static void login(@NonNull CloseableHttpClient httpclient,
                              @NonNull String wpName,
                              @NonNull String wpPassword) throws Exception {
-        HttpPost httppost = new HttpPost(WIKI_API_URL);
-
         // Login changes depending on version.  Once we know that the GHD wiki
         // has upgraded, this will probably go away.
-        WikiVersionData version = getWikiVersion(httpclient);
+        login(httpclient, wpName, wpPassword, getWikiVersion(httpclient));
+    }
+
+    /**
+     * Same as {@link #login(CloseableHttpClient, String, String)}, but for
+     * when the wiki version is already known (say, by a {@link WikiSession}),
+     * so there's no need to ask the wiki again.
+     *
+     * @param httpclient an active HTTP session.
+     * @param wpName     a wiki user name.
+     * @param wpPassword the matching password to this user name.
+     * @param version    the wiki's version
+     * @throws WikiException problem with the wiki, translate the ID
+     * @throws Exception     anything else happened, use getMessage
+     */
+    public static void login(@NonNull CloseableHttpClient httpclient,
+                             @NonNull String wpName,
+                             @NonNull String wpPassword,
+                             @NonNull WikiVersionData version) throws Exception {
+        HttpPost httppost = new HttpPost(WIKI_API_URL);
 
         if(!version.valid) {
             throw new WikiException(R.string.wiki_error_unknown);
@@ -521,14 +542,10 @@ public class WikiUtils {
             Log.d(DEBUG_TAG, "The wiki is running 1.27 or higher, going with the new login method...");
             HttpGet httpget = new HttpGet(WIKI_API_URL + "?action=query&format=xml&meta=tokens&type=login");
 
-            WikiResponse response = getWikiResponse(httpclient, httpget);
+            WikiResponseParser.Result response = getWikiResponse(httpclient, httpget, PARSER_LOGIN_TOKEN);
 
-            Element tokenElem;
-            String token;
-            try {
-                tokenElem = DOMUtil.getFirstElement(response.rootElem, "tokens");
-                token = DOMUtil.getSimpleAttributeText(tokenElem, "logintoken");
-            } catch(Exception e) {
+            String token = response.getAttribute("tokens", "logintoken");
+            if(token == null) {
                 Log.d(DEBUG_TAG, "Couldn't get a token!");
                 throw new WikiException(R.string.wiki_error_xml);
             }
@@ -545,23 +562,17 @@ public class WikiUtils {
             httppost.setEntity(new UrlEncodedFormEntity(nvps, "utf-8"));
 
             Log.d(DEBUG_TAG, "Token obtained, trying login...");
-            response = getWikiResponse(httpclient, httppost);
+            response = getWikiResponse(httpclient, httppost, PARSER_CLIENT_LOGIN);
 
-            Element login;
-            String status;
-            try {
-                login = DOMUtil.getFirstElement(response.rootElem, "clientlogin");
-                status = DOMUtil.getSimpleAttributeText(login, "status");
-
-                // If we got a clientlogin response but no status in it, I
-                // just... what?
-                if(status == null) throw new WikiException(R.string.wiki_error_unknown);
-            } catch(WikiException we) {
-                throw we;
-            } catch (Exception e) {
+            if(!response.hasElement("clientlogin")) {
                 throw new WikiException(R.string.wiki_error_xml);
             }
 
+            // If we got a clientlogin response but no status in it, I just...
+            // what?
+            String status = response.getAttribute("clientlogin", "status");
+            if(status == null) throw new WikiException(R.string.wiki_error_unknown);
+
             // Our result will hopefully either be PASS or FAIL.  If it's UI or
             // REDIRECT, we don't cover those cases just yet.  I really hope we
             // don't have to cover those on the Geohashing wiki.
@@ -598,19 +609,15 @@ public class WikiUtils {
             httppost.setEntity(new UrlEncodedFormEntity(nvps, "utf-8"));
 
             Log.d(DEBUG_TAG, "Trying login...");
-            WikiResponse response = getWikiResponse(httpclient, httppost);
+            WikiResponseParser.Result response = getWikiResponse(httpclient, httppost, PARSER_LOGIN);
 
             // The result comes in as an XML chunk.  Since we're expecting the
             // cookies to be set properly, all we care about is the "result"
             // attribute of the "login" element.
-            Element login;
-            String result;
-            try {
-                login = DOMUtil.getFirstElement(response.rootElem, "login");
-                result = DOMUtil.getSimpleAttributeText(login, "result");
-            } catch(Exception e) {
+            if(!response.hasElement("login")) {
                 throw new WikiException(R.string.wiki_error_xml);
             }
+            String result = response.getAttribute("login", "result");
 
             Log.d(DEBUG_TAG, "After login, result is " + result);
 
@@ -622,7 +629,7 @@ public class WikiUtils {
                 // Okay, do the same thing again, this time with the token we got
                 // the first time around.  Cookies will be set this time around, I
                 // think.
-                String token = DOMUtil.getSimpleAttributeText(login, "token");
+                String token = response.getAttribute("login", "token");
 
                 httppost = new HttpPost(WIKI_API_URL);
 
@@ -636,17 +643,15 @@ public class WikiUtils {
                 httppost.setEntity(new UrlEncodedFormEntity(nvps, "utf-8"));
 
                 Log.d(DEBUG_TAG, "Sending it out...");
-                response = getWikiResponse(httpclient, httppost);
+                response = getWikiResponse(httpclient, httppost, PARSER_LOGIN);
 
                 Log.d(DEBUG_TAG, "Response has returned!");
 
                 // Again!
-                try {
-                    login = DOMUtil.getFirstElement(response.rootElem, "login");
-                    result = DOMUtil.getSimpleAttributeText(login, "result");
-                } catch(Exception e) {
+                if(!response.hasElement("login")) {
                     throw new WikiException(R.string.wiki_error_xml);
                 }
+                result = response.getAttribute("login", "result");
             }
 
             // Check it.  If NeedToken was returned again, then the wiki is just
@@ -705,6 +710,13 @@ public class WikiUtils {
             case "readonly":
                 error = R.string.wiki_error_read_only;
                 break;
+            case "badtoken":
+            case "notloggedin":
+            case "assertuserfailed":
+            case "assertnameduserfailed":
+                // These all mean the wiki forgot who we are.
+                error = R.string.wiki_error_session;
+                break;
 
             // Then, login errors.  These come from the result attribute.
             case "Illegal":
@@ -760,29 +772,6 @@ public class WikiUtils {
         return error;
     }
 
-    private static boolean doesResponseHaveError(@Nullable Element elem) {
-        if(elem == null) return false;
-
-        try {
-            DOMUtil.getFirstElement(elem, "error");
-        } catch(Exception ex) {
-            return false;
-        }
-
-        return true;
-    }
-
-    private static String findErrorCode(@Nullable Element elem) {
-        if(elem == null) return "UnknownError";
-
-        try {
-            Element error = DOMUtil.getFirstElement(elem, "error");
-            return DOMUtil.getSimpleAttributeText(error, "code");
-        } catch(Exception ex) {
-            return "UnknownError";
-        }
-    }
-
     /**
      * Retrieves the wiki page name for the given data.  This accounts for
      * globalhashes, too.
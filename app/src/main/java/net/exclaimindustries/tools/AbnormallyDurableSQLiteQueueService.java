@@ -13,6 +13,8 @@ import android.database.SQLException;
 import androidx.annotation.NonNull;
 import android.util.Log;
 
+import java.util.List;
+
 /**
  * This version of {@link AbstractSQLiteQueueService} does NOT use a
  * {@link java.util.Queue} to store Intents.  Rather, it keeps everything in the
@@ -22,14 +24,33 @@ import android.util.Log;
  * given it will make SQLite calls for literally every data access, including a
  * trip through serializing and deserializing as each is added to the queue AND
  * processed.
+ *
+ * <p>
+ * In parallel mode (see {@link #getMaxWorkers()}), Intents aren't deleted
+ * when they're taken out for the lanes, only once they're done with (see
+ * {@link #onQueuedIntentsDone(List)}).  Until then, they just sit in their
+ * rows, and the queue keeps track of the last row it took so it doesn't hand
+ * them out twice.  So if the process gets killed partway through, whatever
+ * was in the lanes is still in the database next time, right where it was.
+ * The catch is that something that was being handled right when that
+ * happened will get handled again.
+ * </p>
  */
 public abstract class AbnormallyDurableSQLiteQueueService
         extends AbstractSQLiteQueueService {
     private static final String DEBUG_TAG = "SuperSQLiteQueueService";
 
+    // The row ID of the last Intent taken out for the lanes this run, or -1
+    // if nothing has been.  Everything up to here is still in the database,
+    // but it's either in a lane or already deleted.  Row IDs never get
+    // reused, so anything queued after this will always be past it.
+    private volatile long mLastTakenRowId = -1;
+
     @Override
     protected final void onQueueLoad() {
-        // Nothing happens.  We're doing this the hard way.
+        // Nothing happens, other than starting over at the head.  We're doing
+        // this the hard way.
+        mLastTakenRowId = -1;
     }
 
     @Override
@@ -42,7 +63,9 @@ public abstract class AbnormallyDurableSQLiteQueueService
         // Since all the data is stored in the database this time around, we
         // ALWAYS need to make an SQLite call for it.  Yes, even during normal
         // working operation.  I told you this could get considerably slower.
-        return getQueueCountFromDatabase();
+        // Whatever's in the lanes is still in there, too, but that gets
+        // counted separately, so skip past it.
+        return getQueueCountFromDatabase(mLastTakenRowId);
     }
 
     @Override
@@ -70,6 +93,37 @@ public abstract class AbnormallyDurableSQLiteQueueService
         }
     }
 
+    @Override
+    protected QueuedIntent takeNextIntentFromQueue() {
+        // The row stays put until it's done.  Just move past it.
+        try {
+            QueuedIntent taken = readIntentAfterFromDatabase(mLastTakenRowId);
+            if(taken != null) mLastTakenRowId = taken.rowId;
+            return taken;
+        } catch(SQLException sqle) {
+            Log.e(DEBUG_TAG, "Error taking the next Intent from the queue! (returning null)", sqle);
+            return null;
+        }
+    }
+
+    @Override
+    protected void requeueIntents(@NonNull List<QueuedIntent> intents) {
+        // They never left, so there's nothing to write.  Everything that
+        // was done got deleted, so what's left at the head is exactly what
+        // should be there.
+        mLastTakenRowId = -1;
+    }
+
+    @Override
+    protected void onQueuedIntentsDone(@NonNull List<QueuedIntent> intents) {
+        // NOW they can go.
+        try {
+            deleteIntentsFromDatabase(intents);
+        } catch(SQLException sqle) {
+            Log.e(DEBUG_TAG, "Error removing finished Intents from the queue!", sqle);
+        }
+    }
+
     @Override
     protected void addIntentToQueue(@NonNull Intent i) {
         try {
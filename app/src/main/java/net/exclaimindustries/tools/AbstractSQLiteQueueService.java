@@ -8,19 +8,22 @@
 
 package net.exclaimindustries.tools;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import android.util.Log;
 
-import java.util.Calendar;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -31,6 +34,21 @@ import java.util.List;
  * You're probably looking for a bit more implementation, like, say,
  * {@link PlainSQLiteQueueService} or {@link AbnormallyDurableSQLiteQueueService}.
  * </p>
+ *
+ * <p>
+ * The queue order is the row ID.  It's AUTOINCREMENT, so it only ever goes
+ * up and never gets reused, and it's the primary key, so SQLite can find
+ * either end of it without looking at anything else.  The head of the queue
+ * is always one <code>LIMIT 1</code> lookup away, and once it's been peeked
+ * at, its row ID is remembered so removing it is just a delete.
+ * </p>
+ *
+ * <p>
+ * By default, Intents go in as Strings, via {@link #serializeIntent(Intent)}
+ * and {@link #deserializeIntent(String)}.  If {@link #getQueueCodec()} hands
+ * back a {@link QueueCodec}, they go in as blobs instead.  Either way, each
+ * row gets read back the way it was written, so old rows still work.
+ * </p>
  */
 public abstract class AbstractSQLiteQueueService extends QueueService {
     private static final String DEBUG_TAG = "SQLiteQueueService";
@@ -41,13 +59,79 @@ public abstract class AbstractSQLiteQueueService extends QueueService {
     /** The name of the table storing everything. */
     protected static final String TABLE_QUEUE = "queue";
 
-    /** Everybody needs a rowid, right? */
+    /** Everybody needs a rowid, right?  This is also the queue order. */
     protected static final String KEY_QUEUE_ROWID = "_id";
-    /** The timestamp of the data.  We sort by this. */
+    /**
+     * When the data was first queued.  This isn't the order (that's the row
+     * ID), but it's how the metrics know how old the backlog is.
+     */
     protected static final String KEY_QUEUE_TIMESTAMP = "timestamp";
-    /** The serialized data itself.  Treat as an opaque string. */
+    /**
+     * The serialized data itself.  Treat as opaque.  This is a String if it
+     * came from {@link #serializeIntent(Intent)} or a blob if it came from a
+     * {@link QueueCodec}; SQLite doesn't mind either way.
+     */
     protected static final String KEY_QUEUE_DATA = "data";
 
+    private static final String SQL_GET_HEAD =
+            "SELECT " + KEY_QUEUE_ROWID + " FROM " + TABLE_QUEUE
+                    + " ORDER BY " + KEY_QUEUE_ROWID + " ASC LIMIT 1";
+
+    private static final String SQL_GET_AFTER =
+            "SELECT " + KEY_QUEUE_ROWID + " FROM " + TABLE_QUEUE
+                    + " WHERE " + KEY_QUEUE_ROWID + " > ?"
+                    + " ORDER BY " + KEY_QUEUE_ROWID + " ASC LIMIT 1";
+
+    private static final String SQL_GET_DATA =
+            "SELECT " + KEY_QUEUE_DATA + " FROM " + TABLE_QUEUE
+                    + " WHERE " + KEY_QUEUE_ROWID + " = ?";
+
+    private static final String SQL_DELETE_ROW =
+            "DELETE FROM " + TABLE_QUEUE + " WHERE " + KEY_QUEUE_ROWID + " = ?";
+
+    // Binding a null row ID here means SQLite picks the next one, putting the
+    // row on the end of the queue.  Binding an actual row ID puts it back
+    // exactly where it used to be.
+    private static final String SQL_INSERT =
+            "INSERT INTO " + TABLE_QUEUE
+                    + " (" + KEY_QUEUE_ROWID + ", " + KEY_QUEUE_TIMESTAMP + ", " + KEY_QUEUE_DATA + ")"
+                    + " VALUES (?, ?, ?)";
+
+    private static final String SQL_GET_PAGE =
+            "SELECT " + KEY_QUEUE_ROWID + ", " + KEY_QUEUE_TIMESTAMP + ", LENGTH(" + KEY_QUEUE_DATA + "), "
+                    + KEY_QUEUE_DATA + " FROM " + TABLE_QUEUE
+                    + " ORDER BY " + KEY_QUEUE_ROWID + " ASC LIMIT ?";
+
+    private static final String SQL_GET_ROW_AFTER =
+            "SELECT " + KEY_QUEUE_ROWID + ", " + KEY_QUEUE_TIMESTAMP + ", LENGTH(" + KEY_QUEUE_DATA + "), "
+                    + KEY_QUEUE_DATA + " FROM " + TABLE_QUEUE
+                    + " WHERE " + KEY_QUEUE_ROWID + " > ?"
+                    + " ORDER BY " + KEY_QUEUE_ROWID + " ASC LIMIT 1";
+
+    // LENGTH() is bytes for a blob, but characters for a String.  For
+    // anything serializeIntent() writes, that's close enough, and it means
+    // SQLite doesn't have to read the data itself to answer.
+    private static final String SQL_GET_BYTES =
+            "SELECT TOTAL(LENGTH(" + KEY_QUEUE_DATA + ")) FROM " + TABLE_QUEUE;
+
+    private static final String SQL_GET_OLDEST =
+            "SELECT MIN(" + KEY_QUEUE_TIMESTAMP + ") FROM " + TABLE_QUEUE;
+
+    // These get compiled whenever the database gets (re)opened.  Everything
+    // that uses them is synchronized on this, so they don't need any more
+    // protection than that.
+    private SQLiteStatement mGetHeadStatement;
+    private SQLiteStatement mGetAfterStatement;
+    private SQLiteStatement mDeleteRowStatement;
+    private SQLiteStatement mInsertStatement;
+    private SQLiteStatement mGetBytesStatement;
+    private SQLiteStatement mGetOldestStatement;
+
+    // The row ID of the head of the queue, as of the last peek, or -1 if we
+    // don't know it.  New rows only ever go on the far end, so this stays
+    // good until something removes the head or clears the queue.
+    private long mHeadRowId = -1;
+
     /**
      * We all need some help once in a while.  Databases moreso.
      */
@@ -76,6 +160,19 @@ public abstract class AbstractSQLiteQueueService extends QueueService {
         }
     }
 
+    /**
+     * Gets the {@link QueueCodec} to use to write Intents to the database.  By
+     * default, there isn't one, meaning everything goes through
+     * {@link #serializeIntent(Intent)}.  Override this to use one.  Whatever
+     * gets returned here should be the same every time.
+     *
+     * @return a QueueCodec, or null to use Strings
+     */
+    @Nullable
+    protected QueueCodec getQueueCodec() {
+        return null;
+    }
+
     /**
      * Initializes a handle to the database.
      *
@@ -90,9 +187,63 @@ public abstract class AbstractSQLiteQueueService extends QueueService {
 
         mHelper = new DatabaseHelper(this);
         mDatabase = mHelper.getWritableDatabase();
+
+        mGetHeadStatement = mDatabase.compileStatement(SQL_GET_HEAD);
+        mGetAfterStatement = mDatabase.compileStatement(SQL_GET_AFTER);
+        mDeleteRowStatement = mDatabase.compileStatement(SQL_DELETE_ROW);
+        mInsertStatement = mDatabase.compileStatement(SQL_INSERT);
+        mGetBytesStatement = mDatabase.compileStatement(SQL_GET_BYTES);
+        mGetOldestStatement = mDatabase.compileStatement(SQL_GET_OLDEST);
+        mHeadRowId = -1;
+
         return mDatabase;
     }
 
+    /**
+     * Gets the row ID of the first row after the given one, in queue order.
+     *
+     * @param after the row ID to start after, or -1 to get the head
+     * @return the row ID, or -1 if there's nothing there
+     */
+    private long getRowIdAfter(long after) {
+        SQLiteStatement statement;
+
+        if(after < 0) {
+            statement = mGetHeadStatement;
+        } else {
+            statement = mGetAfterStatement;
+            statement.bindLong(1, after);
+        }
+
+        try {
+            return statement.simpleQueryForLong();
+        } catch(SQLiteDoneException sde) {
+            // Nothing left.
+            return -1;
+        }
+    }
+
+    /**
+     * Deletes a bunch of rows in one transaction.
+     *
+     * @param database the database to delete from
+     * @param rowIds the row IDs to get rid of
+     */
+    private void deleteRows(@NonNull SQLiteDatabase database, @NonNull List<Long> rowIds) {
+        if(rowIds.isEmpty()) return;
+
+        database.beginTransaction();
+        try {
+            for(Long l : rowIds) {
+                mDeleteRowStatement.bindLong(1, l);
+                mDeleteRowStatement.executeUpdateDelete();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
     /**
      * Queries the database for the current queue count.  Will return 0 if
      * anything goes wrong.
@@ -101,34 +252,92 @@ public abstract class AbstractSQLiteQueueService extends QueueService {
      */
     protected int getQueueCountFromDatabase() {
         synchronized(this) {
-            Cursor cursor = null;
             try {
                 SQLiteDatabase database = initDatabase();
 
-                // This oughta be easy.
-                cursor = database.query(TABLE_QUEUE, new String[]{KEY_QUEUE_ROWID},
-                        null, null, null, null,
-                        null);
+                // This oughta be easy.  And it is, with COUNT(*).
+                return (int)DatabaseUtils.queryNumEntries(database, TABLE_QUEUE);
+            } catch (SQLException sqle) {
+                Log.e(DEBUG_TAG, "Exception in getQueueCount()!", sqle);
+                return 0;
+            }
+        }
+    }
 
-                if(cursor == null) {
-                    Log.w(DEBUG_TAG, "When getting the queue count, the Cursor was null!");
-                    return 0;
-                }
+    /**
+     * Queries the database for how many rows come after the given one, in
+     * queue order.  Will return 0 if anything goes wrong.
+     *
+     * @param after the row ID to start after, or -1 to count everything
+     * @return the number of rows after that one
+     */
+    protected int getQueueCountFromDatabase(long after) {
+        if(after < 0) return getQueueCountFromDatabase();
 
-                int toReturn = cursor.getCount();
-                cursor.close();
-                return toReturn;
+        synchronized(this) {
+            try {
+                SQLiteDatabase database = initDatabase();
+
+                return (int)DatabaseUtils.queryNumEntries(database, TABLE_QUEUE,
+                        KEY_QUEUE_ROWID + " > ?", new String[] {Long.toString(after)});
             } catch (SQLException sqle) {
                 Log.e(DEBUG_TAG, "Exception in getQueueCount()!", sqle);
                 return 0;
-            } finally {
-                if(cursor != null && !cursor.isClosed()) {
-                    cursor.close();
-                }
             }
         }
     }
 
+    /**
+     * Queries the database for roughly how many bytes the queue is taking up.
+     * Will return -1 if anything goes wrong.
+     *
+     * @return the size of the queue as it stands on the database
+     */
+    protected long getQueueBytesFromDatabase() {
+        synchronized(this) {
+            try {
+                initDatabase();
+
+                // TOTAL() returns a float, even for integers, so...
+                return (long)Double.parseDouble(mGetBytesStatement.simpleQueryForString());
+            } catch(SQLException | NumberFormatException e) {
+                Log.e(DEBUG_TAG, "Exception in getQueueBytes()!", e);
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Queries the database for when the oldest thing in it was queued.  Will
+     * return -1 if the database is empty or anything goes wrong.
+     *
+     * @return the oldest queue time as it stands on the database
+     */
+    protected long getOldestQueuedTimeFromDatabase() {
+        synchronized(this) {
+            try {
+                initDatabase();
+
+                // MIN() of nothing is NULL, which comes back as a null String.
+                String result = mGetOldestStatement.simpleQueryForString();
+                return result == null ? -1 : Long.parseLong(result);
+            } catch(SQLException | NumberFormatException e) {
+                Log.e(DEBUG_TAG, "Exception in getOldestQueuedTime()!", e);
+                return -1;
+            }
+        }
+    }
+
+    @Override
+    protected long getQueueBytes() {
+        return getQueueBytesFromDatabase();
+    }
+
+    @Override
+    protected long getOldestQueuedTime() {
+        return getOldestQueuedTimeFromDatabase();
+    }
+
     /**
      * Clears out the database.  That is, effectively does a DELETE ALL FROM
      * TABLE.
@@ -140,6 +349,7 @@ public abstract class AbstractSQLiteQueueService extends QueueService {
                 SQLiteDatabase database = initDatabase();
 
                 database.delete(TABLE_QUEUE, null, null);
+                mHeadRowId = -1;
             } catch(SQLException sqle) {
                 Log.e(DEBUG_TAG, "Exception in clearQueue()!", sqle);
             }
@@ -156,22 +366,240 @@ public abstract class AbstractSQLiteQueueService extends QueueService {
     protected final void writeIntentToDatabase(@NonNull Intent i) throws SQLiteException {
         synchronized(this) {
             Log.d(DEBUG_TAG, "Writing an intent to the database...");
+            initDatabase();
+
+            // It's on the end, so the head doesn't move.
+            insertIntent(-1, i, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Writes a whole bunch of Intents to database, all in one transaction.
+     * Anything that came from {@link #takeIntentsFromDatabase(int)} goes back
+     * where it came from, with the time it was first queued; anything else
+     * (a {@link QueuedIntent} with a row ID of -1) goes on the end, in the
+     * order given.
+     * If anything goes wrong, none of them get written.
+     *
+     * @param intents the Intents to write
+     * @throws SQLException if anything SQL-ish goes wrong.
+     */
+    protected final void writeIntentsToDatabase(@NonNull Iterable<QueuedIntent> intents) throws SQLException {
+        synchronized(this) {
             SQLiteDatabase database = initDatabase();
 
-            // Serialize the Intent, using whatever method the concrete
-            // implementation says it should.
+            int count = 0;
+
+            database.beginTransaction();
+            try {
+                for(QueuedIntent qi : intents) {
+                    // Keep the original time, so the backlog doesn't look
+                    // younger every time it pauses.
+                    insertIntent(qi.rowId, qi.intent, qi.time);
+                    count++;
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+                mHeadRowId = -1;
+            }
+
+            Log.d(DEBUG_TAG, "Wrote " + count + " intent(s) to the database.");
+        }
+    }
+
+    private void insertIntent(long rowId, @NonNull Intent i, long time) {
+        // Serialize the Intent, using whatever method the concrete
+        // implementation says it should.
+        byte[] encoded = null;
+        QueueCodec codec = getQueueCodec();
+        if(codec != null) {
+            try {
+                encoded = codec.encode(i);
+            } catch(IOException ioe) {
+                Log.w(DEBUG_TAG, "Couldn't encode an Intent, serializing it to a String instead...", ioe);
+            }
+        }
+
+        // Now, shove it into the database!
+        if(rowId >= 0)
+            mInsertStatement.bindLong(1, rowId);
+        else
+            mInsertStatement.bindNull(1);
+        mInsertStatement.bindLong(2, time);
+
+        if(encoded != null) {
+            mInsertStatement.bindBlob(3, encoded);
+        } else {
             String data = serializeIntent(i);
-            if(data == null) data = "";
+            mInsertStatement.bindString(3, data == null ? "" : data);
+        }
+
+        mInsertStatement.executeInsert();
+    }
+
+    /**
+     * Reads an Intent out of a Cursor, whichever way it was written.
+     *
+     * @param cursor the Cursor, already on the right row
+     * @param column the column with the data
+     * @return the Intent, or null if it couldn't be read (or shouldn't be)
+     */
+    @Nullable
+    private Intent readIntent(@NonNull Cursor cursor, int column) {
+        if(cursor.isNull(column)) return null;
+
+        if(cursor.getType(column) != Cursor.FIELD_TYPE_BLOB)
+            return deserializeIntent(cursor.getString(column));
+
+        QueueCodec codec = getQueueCodec();
+        if(codec == null) {
+            Log.w(DEBUG_TAG, "There's a blob in the queue, but no QueueCodec to read it with!");
+            return null;
+        }
+
+        try {
+            return codec.decode(cursor.getBlob(column));
+        } catch(IOException ioe) {
+            Log.w(DEBUG_TAG, "Couldn't decode an Intent, ignoring it...", ioe);
+            return null;
+        }
+    }
+
+    /**
+     * Takes Intents off the front of the database, in order, all in one
+     * transaction.  That is, they get returned AND removed from the database.
+     * Anything that can't be deserialized gets removed, too, but doesn't count
+     * toward the maximum.
+     *
+     * @param max the most Intents to take
+     * @return the Intents, in order (empty if there's nothing left)
+     * @throws SQLException if anything SQL-ish goes wrong.
+     */
+    @NonNull
+    protected final List<QueuedIntent> takeIntentsFromDatabase(int max) throws SQLException {
+        synchronized(this) {
+            SQLiteDatabase database = initDatabase();
+            List<QueuedIntent> toReturn = new ArrayList<>(max);
+            List<Long> toDelete = new ArrayList<>(max);
+
+            database.beginTransaction();
+            try {
+                // Keep going until we have enough or we run out.  Usually,
+                // that's one trip, unless something didn't deserialize.
+                while(toReturn.size() < max) {
+                    int wanted = max - toReturn.size();
+                    Cursor cursor = database.rawQuery(SQL_GET_PAGE,
+                            new String[] {Integer.toString(wanted)});
+
+                    if(cursor == null) {
+                        Log.w(DEBUG_TAG, "When taking Intents, the Cursor was null!");
+                        break;
+                    }
+
+                    int rows = 0;
+                    toDelete.clear();
+
+                    try {
+                        while(cursor.moveToNext()) {
+                            rows++;
+                            long rowId = cursor.getLong(0);
+                            toDelete.add(rowId);
+
+                            Intent intent = readIntent(cursor, 3);
+                            if(intent != null)
+                                toReturn.add(new QueuedIntent(rowId, intent,
+                                        cursor.getLong(1), cursor.getLong(2)));
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+
+                    deleteRows(database, toDelete);
+
+                    // If that came up short, that's everything.
+                    if(rows < wanted) break;
+                }
+
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+                mHeadRowId = -1;
+            }
+
+            return toReturn;
+        }
+    }
+
+    /**
+     * Reads the first Intent after the given row, in queue order, WITHOUT
+     * removing it.  Anything along the way that can't be deserialized DOES
+     * get removed, same as with {@link #getNextIntentFromDatabase()}.  Pass
+     * the row ID of whatever came back last time to walk down the queue
+     * without changing it.
+     *
+     * @param after the row ID to start after, or -1 to start at the head
+     * @return the Intent and where it is, or null if there's nothing after that
+     * @throws SQLException if anything SQL-ish goes wrong.
+     */
+    @Nullable
+    protected final QueuedIntent readIntentAfterFromDatabase(long after) throws SQLException {
+        synchronized(this) {
+            SQLiteDatabase database = initDatabase();
+            List<Long> toDelete = new LinkedList<>();
+            QueuedIntent toReturn = null;
+
+            while(toReturn == null) {
+                Cursor cursor = database.rawQuery(SQL_GET_ROW_AFTER, new String[] {Long.toString(after)});
+
+                if(cursor == null) {
+                    Log.w(DEBUG_TAG, "When reading an Intent, the Cursor was null!");
+                    break;
+                }
 
-            // Grab a timestamp!
-            long time = Calendar.getInstance().getTimeInMillis();
+                try {
+                    // Bottomed out?
+                    if(!cursor.moveToFirst()) break;
+
+                    after = cursor.getLong(0);
+                    Intent intent = readIntent(cursor, 3);
+                    if(intent != null)
+                        toReturn = new QueuedIntent(after, intent, cursor.getLong(1), cursor.getLong(2));
+                    else
+                        toDelete.add(after);
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            if(!toDelete.isEmpty()) {
+                deleteRows(database, toDelete);
+                mHeadRowId = -1;
+            }
+
+            return toReturn;
+        }
+    }
+
+    /**
+     * Deletes whatever rows the given Intents came from, all in one
+     * transaction.  Anything with a row ID of -1 is ignored, as is anything
+     * that's already gone.
+     *
+     * @param intents the Intents whose rows should go
+     * @throws SQLException if anything SQL-ish goes wrong.
+     */
+    protected final void deleteIntentsFromDatabase(@NonNull Iterable<QueuedIntent> intents) throws SQLException {
+        synchronized(this) {
+            SQLiteDatabase database = initDatabase();
 
-            // Now, shove it into the database!
-            ContentValues toGo = new ContentValues();
-            toGo.put(KEY_QUEUE_TIMESTAMP, time);
-            toGo.put(KEY_QUEUE_DATA, data);
+            List<Long> toDelete = new ArrayList<>();
+            for(QueuedIntent qi : intents) {
+                if(qi.rowId >= 0) toDelete.add(qi.rowId);
+            }
 
-            database.insert(TABLE_QUEUE, null, toGo);
+            deleteRows(database, toDelete);
+            if(toDelete.contains(mHeadRowId)) mHeadRowId = -1;
         }
     }
 
@@ -184,33 +612,20 @@ public abstract class AbstractSQLiteQueueService extends QueueService {
      */
     protected final void removeNextIntentFromDatabase() throws SQLException {
         synchronized(this) {
-            SQLiteDatabase database = initDatabase();
+            initDatabase();
 
-            // Grab us exactly one entry, if that.
-            Cursor cursor = database.query(TABLE_QUEUE, new String[]{KEY_QUEUE_ROWID},
-                    null, null, null, null,
-                    KEY_QUEUE_TIMESTAMP + " ASC", "1");
+            // If we just peeked, we already know which row this is.  If not,
+            // it's one trip down the index.
+            long rowId = mHeadRowId >= 0 ? mHeadRowId : getRowIdAfter(-1);
 
-            if(cursor == null) {
-                // I really hope this never comes up, else a LOT of methods will
-                // dump this to logcat.
-                Log.w(DEBUG_TAG, "When removing the next Intent, the Cursor was null!");
-                return;
-            }
-
-            if(cursor.getCount() == 0) {
+            if(rowId < 0) {
                 Log.i(DEBUG_TAG, "Tried to remove next Intent but there's nothing in the database!");
                 return;
             }
 
-            // Otherwise, we have us our row ID.
-            cursor.moveToFirst();
-            int columnIndex = cursor.getColumnIndex(KEY_QUEUE_ROWID);
-            assert(columnIndex >= 0);
-            long rowId = cursor.getLong(columnIndex);
-            cursor.close();
-
-            database.delete(TABLE_QUEUE, KEY_QUEUE_ROWID + "=" + rowId, null);
+            mDeleteRowStatement.bindLong(1, rowId);
+            mDeleteRowStatement.executeUpdateDelete();
+            mHeadRowId = -1;
         }
     }
 
@@ -227,60 +642,44 @@ public abstract class AbstractSQLiteQueueService extends QueueService {
         synchronized(this) {
             SQLiteDatabase database = initDatabase();
 
-            // We'll delete these when we're done with the Cursor.
+            // We'll delete these all at once when we're done.
             List<Long> toDelete = new LinkedList<>();
 
-            // Grab everything!  Sorted!
-            Cursor cursor = database.query(TABLE_QUEUE, new String[]{KEY_QUEUE_ROWID, KEY_QUEUE_DATA},
-                    null, null, null, null,
-                    KEY_QUEUE_TIMESTAMP + " ASC");
-
-            if(cursor == null) {
-                // Problem!
-                Log.w(DEBUG_TAG, "When getting the next Intent, the Cursor was null!");
-                return null;
-            }
-
-            if(cursor.getCount() == 0) {
-                // Not really a problem, but the queue's just empty.
-                return null;
-            }
-
-            cursor.moveToFirst();
-
-            // Now, loop through until we find something we can use (or until
-            // we bottom out).
+            // Now, walk forward from the head until we find something we can
+            // use (or until we bottom out).  Normally, that's just the head.
             Intent toReturn = null;
+            long rowId = getRowIdAfter(-1);
 
-            while(toReturn == null && !cursor.isAfterLast()) {
-                // Data!  Now!
-                int columnIndexRow = cursor.getColumnIndex(KEY_QUEUE_ROWID);
-                int columnIndexData = cursor.getColumnIndex(KEY_QUEUE_ROWID);
-                assert(columnIndexRow >= 0);
-                assert(columnIndexData >= 0);
-
-                long rowId = cursor.getLong(columnIndexRow);
-                String data = cursor.getString(columnIndexData);
+            while(rowId >= 0) {
+                // Data!  Now!  This has to be a query, not a compiled
+                // statement, as it might be a blob.  It's still just one row
+                // by primary key.
+                Cursor cursor = database.rawQuery(SQL_GET_DATA, new String[] {Long.toString(rowId)});
 
                 // Now, try to deserialize.  This'll be null if it should be
                 // ignored.
-                toReturn = deserializeIntent(data);
+                if(cursor != null) {
+                    try {
+                        if(cursor.moveToFirst())
+                            toReturn = readIntent(cursor, 0);
+                    } finally {
+                        cursor.close();
+                    }
+                }
 
-                // And if it IS null, delete it afterward.
-                if(toReturn == null)
-                    toDelete.add(rowId);
+                if(toReturn != null) break;
 
-                // The while loop will stop if we found something.  Move on!
-                cursor.moveToNext();
+                // And if it IS null, delete it afterward.
+                toDelete.add(rowId);
+                rowId = getRowIdAfter(rowId);
             }
 
-            // So!  Let's wrap things up.  Get rid of the cursor.
-            cursor.close();
+            // Now, delete everything that was null, all in one go.
+            deleteRows(database, toDelete);
 
-            // Now, delete everything that was null.
-            for(Long l : toDelete) {
-                database.delete(TABLE_QUEUE, KEY_QUEUE_ROWID + "=" + l, null);
-            }
+            // Remember where the head is so a remove doesn't have to go
+            // looking for it.
+            mHeadRowId = toReturn != null ? rowId : -1;
 
             // And return whatever our result was.  That result may very well be
             // null.
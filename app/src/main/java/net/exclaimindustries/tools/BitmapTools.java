@@ -19,10 +19,10 @@ import com.google.android.gms.maps.model.BitmapDescriptor;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 
 import java.io.IOException;
-import java.io.InputStream;
 
 import androidx.annotation.DrawableRes;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 
 /**
@@ -62,26 +62,9 @@ public class BitmapTools {
         }
 
         if(bitmap.getHeight() > maxHeight || bitmap.getWidth() > maxWidth) {
-            // So, we determine how we're going to scale this, mostly
-            // because there's no method in Bitmap to maintain aspect
-            // ratio for us.
-            double scaledByWidthRatio = ((double)maxWidth) / (double)bitmap.getWidth();
-            double scaledByHeightRatio = ((double)maxHeight) / (double)bitmap.getHeight();
-
-            int newWidth;
-            int newHeight;
-
-            if (bitmap.getHeight() * scaledByWidthRatio <= maxHeight) {
-                // Scale it by making the width the max, as scaling the
-                // height by the same amount makes it less than or equal
-                // to the max height.
-                newWidth = maxWidth;
-                newHeight = (int)Math.round(bitmap.getHeight() * scaledByWidthRatio);
-            } else {
-                // Otherwise, go by making the height its own max.
-                newWidth = (int)Math.round(bitmap.getWidth() * scaledByHeightRatio);
-                newHeight = maxHeight;
-            }
+            int[] newSize = getDownscaledSize(bitmap.getWidth(), bitmap.getHeight(), maxWidth, maxHeight);
+            int newWidth = newSize[0];
+            int newHeight = newSize[1];
 
             // Now, do the scaling!  The caller must take care of GCing the
             // original Bitmap.
@@ -183,68 +166,159 @@ public class BitmapTools {
     public static Bitmap createRatioPreservedDownscaledBitmapFromUri(Context context, Uri uri, int maxWidth, int maxHeight, boolean reversible) {
         // Since any exception is grounds for an error, let's just try-catch
         // everything and return null if anything goes wrong.
-        try {
-            // Alright, ContentResolver.  You'd better do your job.
-            InputStream input = context.getContentResolver().openInputStream(uri);
-
-            if(input == null) return null;
-
-            // Otherwise, it's the same as before.  Grab the bounds only.
-            BitmapFactory.Options opts = new BitmapFactory.Options();
-            opts.inJustDecodeBounds = true;
-            BitmapFactory.decodeStream(input, null, opts);
-            input.close();
-
-            // I'm reasonably certain that there's no oddities possible with the
-            // Uri in this case.  If the dimensions wind up -1, I'm just saying
-            // it can't open it, and if there's some obscure case where a
-            // legitimate Bitmap can be loaded whose dimensions are less than
-            // zero, I don't care.
-            if(opts.outHeight < 0 || opts.outWidth < 0) {
-                Log.e(DEBUG_TAG, "Error opening URI " + uri.toString());
-                return null;
-            }
-
-            // Do the same calculations as in the filename version...
-            if(reversible && shouldBeReversed(maxWidth, maxHeight, opts.outWidth, opts.outHeight)) {
-                int t = maxWidth;
-                //noinspection SuspiciousNameCombination
-                maxWidth = maxHeight;
-                maxHeight = t;
-            }
-
-            int tempWidth = opts.outWidth;
-            int tempHeight = opts.outHeight;
-            int sampleFactor = 1;
-            while(tempWidth / 2 >= maxWidth && tempHeight / 2 >= maxHeight) {
-                tempWidth /= 2;
-                tempHeight /= 2;
-                sampleFactor *= 2;
-            }
-
-            Log.d(DEBUG_TAG, "Downsampling image to " + tempWidth + "x" + tempHeight + "...");
-
-            opts.inJustDecodeBounds = false;
-            opts.inSampleSize = sampleFactor;
-
-            // Re-open the stream, as we closed it already.
-            input = context.getContentResolver().openInputStream(uri);
-            if(input == null) return null;
-
-            // Read it into a Bitmap with the new options in hand.
-            Bitmap bitmap = BitmapFactory.decodeStream(input, null, opts);
-
-            // Close 'er up.
-            input.close();
-
-            // Let 'er rip.
-            return createRatioPreservedDownscaledBitmap(bitmap, maxWidth, maxHeight, false);
+        try(ImageSource source = new ImageSource(context, uri)) {
+            return decodeRatioPreservedDownscaledBitmap(source, maxWidth, maxHeight, reversible, null);
         } catch (IOException ioe) {
             // Aaaaaand something went wrong, so we return null.
             return null;
         }
     }
 
+    /**
+     * <p>
+     * Decodes a downscaled, ratio-preserved, mutable Bitmap out of an
+     * {@link ImageSource} in one go.  The bounds get read first, then the
+     * source gets rewound and the image is decoded with both a power-of-two
+     * sample size AND density scaling, meaning the decoder itself lands on
+     * the final size (give or take a pixel of rounding).  There's no
+     * full-size intermediate Bitmap to scale down afterward, and no copy to
+     * make it mutable.
+     * </p>
+     *
+     * <p>
+     * If a reusable Bitmap is given and it's big enough, the image gets
+     * decoded right into its memory (and it's what gets returned).  Don't use
+     * it for anything else after this.  If the decoder can't reuse it after
+     * all, this throws an IllegalArgumentException, in which case just try
+     * again without one.
+     * </p>
+     *
+     * <p>
+     * The full decode reads the whole source, so anything else that needs to
+     * read from the same source (EXIF, say) should do so before this.
+     * </p>
+     *
+     * @param source where the image is
+     * @param maxWidth max width of new Bitmap, in pixels
+     * @param maxHeight max height of new Bitmap, in pixels
+     * @param reversible whether or not the ratio should be treated as
+     *                   reversible (see {@link #createRatioPreservedDownscaledBitmap(Bitmap, int, int, boolean)})
+     * @param reuse a mutable Bitmap to decode into if possible, or null
+     * @return a new (or reused), mutable, appropriately scaled Bitmap, or null if it couldn't be decoded
+     * @throws IOException the source couldn't be read
+     * @throws IllegalArgumentException the reusable Bitmap couldn't be reused
+     */
+    @Nullable
+    public static Bitmap decodeRatioPreservedDownscaledBitmap(@NonNull ImageSource source,
+                                                              int maxWidth,
+                                                              int maxHeight,
+                                                              boolean reversible,
+                                                              @Nullable Bitmap reuse) throws IOException {
+        // Bounds first.  This only reads the headers, so the rewind afterward
+        // won't need to open anything again.
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        BitmapFactory.decodeStream(source.rewind(), null, opts);
+
+        // I'm reasonably certain that there's no oddities possible with the
+        // Uri in this case.  If the dimensions wind up -1, I'm just saying
+        // it can't open it, and if there's some obscure case where a
+        // legitimate Bitmap can be loaded whose dimensions are less than
+        // zero, I don't care.
+        if(opts.outHeight < 0 || opts.outWidth < 0) {
+            Log.e(DEBUG_TAG, "Error opening URI " + source.getUri().toString());
+            return null;
+        }
+
+        // Do the same calculations as in the filename version...
+        if(reversible && shouldBeReversed(maxWidth, maxHeight, opts.outWidth, opts.outHeight)) {
+            int t = maxWidth;
+            //noinspection SuspiciousNameCombination
+            maxWidth = maxHeight;
+            maxHeight = t;
+        }
+
+        int tempWidth = opts.outWidth;
+        int tempHeight = opts.outHeight;
+        int sampleFactor = 1;
+        while(tempWidth / 2 >= maxWidth && tempHeight / 2 >= maxHeight) {
+            tempWidth /= 2;
+            tempHeight /= 2;
+            sampleFactor *= 2;
+        }
+
+        int[] newSize = getDownscaledSize(tempWidth, tempHeight, maxWidth, maxHeight);
+
+        Log.d(DEBUG_TAG, "Downsampling image to " + tempWidth + "x" + tempHeight
+                + " and scaling to " + newSize[0] + "x" + newSize[1] + "...");
+
+        opts.inJustDecodeBounds = false;
+        opts.inSampleSize = sampleFactor;
+        opts.inMutable = true;
+
+        // Now, the rest of the way.  BitmapFactory scales by the ratio of
+        // target density to source density, so if we call the sampled width
+        // the "density" and the width we want the "target density", out comes
+        // the size we want, filtered and everything, without ever having the
+        // sampled version sitting around as its own Bitmap.
+        if(newSize[0] != tempWidth) {
+            opts.inScaled = true;
+            opts.inDensity = tempWidth;
+            opts.inTargetDensity = newSize[0];
+        } else {
+            opts.inScaled = false;
+        }
+
+        // Rounding might make the decoder's idea of the size a pixel bigger
+        // than ours in either direction, so leave some room for that.
+        if(reuse != null
+                && reuse.isMutable()
+                && !reuse.isRecycled()
+                && reuse.getAllocationByteCount() >= (newSize[0] + 1) * (newSize[1] + 1) * 4) {
+            opts.inBitmap = reuse;
+        }
+
+        Bitmap toReturn = BitmapFactory.decodeStream(source.rewind(), null, opts);
+
+        // That density trick leaves the Bitmap claiming to be at a "density"
+        // of however wide it got sampled to, which would make anything that
+        // draws it (or draws on it) scale it.  It's just pixels.
+        if(toReturn != null) toReturn.setDensity(Bitmap.DENSITY_NONE);
+
+        return toReturn;
+    }
+
+    /**
+     * Figures out what size an image should be scaled to in order to fit in
+     * the given bounds while keeping its aspect ratio.  This only ever
+     * shrinks; if it already fits, its own size comes back.
+     *
+     * @param width current width
+     * @param height current height
+     * @param maxWidth max width, in pixels
+     * @param maxHeight max height, in pixels
+     * @return a two-element array of the new width and height
+     */
+    @NonNull
+    private static int[] getDownscaledSize(int width, int height, int maxWidth, int maxHeight) {
+        if(height <= maxHeight && width <= maxWidth)
+            return new int[] {width, height};
+
+        // So, we determine how we're going to scale this, mostly because
+        // there's no method in Bitmap to maintain aspect ratio for us.
+        double scaledByWidthRatio = ((double)maxWidth) / (double)width;
+        double scaledByHeightRatio = ((double)maxHeight) / (double)height;
+
+        if (height * scaledByWidthRatio <= maxHeight) {
+            // Scale it by making the width the max, as scaling the height by
+            // the same amount makes it less than or equal to the max height.
+            return new int[] {maxWidth, (int)Math.round(height * scaledByWidthRatio)};
+        } else {
+            // Otherwise, go by making the height its own max.
+            return new int[] {(int)Math.round(width * scaledByHeightRatio), maxHeight};
+        }
+    }
+
     private static boolean shouldBeReversed(int inWidth, int inHeight, int outWidth, int outHeight) {
         // If this ratio is 1.0, we never need to reverse it.
         if(inWidth == inHeight) return false;
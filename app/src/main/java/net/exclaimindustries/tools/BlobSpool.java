@@ -0,0 +1,275 @@
+/*
+ * BlobSpool.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.tools;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * A <code>BlobSpool</code> keeps big chunks of bytes in files in a directory
+ * so that something like a {@link QueueService} can keep a short reference
+ * to them instead of dragging the bytes themselves around (and through
+ * serialization, and through SQLite cursors, and so on).
+ * </p>
+ *
+ * <p>
+ * Each blob gets its own file with a random name, and that name is the
+ * reference.  Spooling the same bytes twice gets two different references
+ * and two files, on purpose: whoever spooled something owns that file, and
+ * can delete it when they're done without worrying that something else was
+ * quietly sharing it.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+public class BlobSpool {
+    private static final Pattern RE_REFERENCE = Pattern.compile("^[0-9a-f]{64}$");
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int REFERENCE_BYTES = 32;
+
+    private static final SecureRandom sRandom = new SecureRandom();
+
+    private final File mDirectory;
+
+    /**
+     * Makes a new spool in the given directory.  The directory will be
+     * created the first time anything gets spooled, if it doesn't exist.
+     * Anything else in there that isn't spooled data is fair game for
+     * {@link #clear()} and {@link #retainOnly(Collection)}, so give this a
+     * directory of its own.
+     *
+     * @param directory where to keep everything
+     */
+    public BlobSpool(@NonNull File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Spools some bytes.  Every call gets a new file and a new reference,
+     * even if the bytes are the same as something already spooled.
+     *
+     * @param data the bytes
+     * @return the reference to use to get them back later
+     * @throws IOException something went wrong writing the file
+     */
+    @NonNull
+    public String put(@NonNull byte[] data) throws IOException {
+        makeDirectory();
+        String ref = newReference();
+        File target = getFile(ref);
+
+        // Write it off to the side first, then move it into place, so nobody
+        // ever sees half a file under a real name.
+        File temp = new File(mDirectory, ref + TEMP_SUFFIX);
+
+        try(FileOutputStream out = new FileOutputStream(temp);
+            FileChannel channel = out.getChannel()) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+
+            channel.force(true);
+        } catch(IOException ioe) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw ioe;
+        }
+
+        if(!temp.renameTo(target)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("Couldn't move spooled data into place at " + target);
+        }
+
+        return ref;
+    }
+
+    /**
+     * Spools a file that's already been written, moving it into the spool
+     * instead of reading it into memory and writing it out again.  The file
+     * is gone afterward.  It should be on the same filesystem as the spool
+     * for the move to be cheap; if it isn't, it gets copied.
+     *
+     * @param file the file to spool
+     * @return the reference to use to get its bytes back later
+     * @throws IOException something went wrong reading or moving the file
+     */
+    @NonNull
+    public String adopt(@NonNull File file) throws IOException {
+        if(!file.isFile())
+            throw new FileNotFoundException("Nothing to spool at " + file);
+
+        makeDirectory();
+        String ref = newReference();
+        File target = getFile(ref);
+
+        if(file.renameTo(target)) return ref;
+
+        // Different filesystem, probably.  Copy it off to the side, then move
+        // that into place, same as put().
+        File temp = new File(mDirectory, ref + TEMP_SUFFIX);
+
+        try(FileInputStream in = new FileInputStream(file);
+            FileChannel inChannel = in.getChannel();
+            FileOutputStream out = new FileOutputStream(temp);
+            FileChannel outChannel = out.getChannel()) {
+            long size = inChannel.size();
+            long position = 0;
+            while(position < size)
+                position += inChannel.transferTo(position, size - position, outChannel);
+
+            outChannel.force(true);
+        } catch(IOException ioe) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw ioe;
+        }
+
+        if(!temp.renameTo(target)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("Couldn't move spooled data into place at " + target);
+        }
+
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        return ref;
+    }
+
+    /**
+     * Gets spooled bytes back.
+     *
+     * @param ref the reference {@link #put(byte[])} gave back
+     * @return the bytes
+     * @throws FileNotFoundException there's nothing spooled under that reference
+     * @throws IOException something went wrong reading the file
+     */
+    @NonNull
+    public byte[] get(@NonNull String ref) throws IOException {
+        File source = getFile(ref);
+
+        try(FileInputStream in = new FileInputStream(source);
+            FileChannel channel = in.getChannel()) {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE)
+                throw new IOException("Spooled data at " + source + " is too big to read back");
+
+            ByteBuffer buffer = ByteBuffer.allocate((int)size);
+            while(buffer.hasRemaining()) {
+                if(channel.read(buffer) < 0)
+                    throw new IOException("Spooled data at " + source + " ended early");
+            }
+
+            return buffer.array();
+        }
+    }
+
+    /**
+     * Determines if anything is spooled under the given reference.
+     *
+     * @param ref the reference to check
+     * @return true if it's there, false if not
+     */
+    public boolean contains(@NonNull String ref) {
+        return isReference(ref) && getFile(ref).isFile();
+    }
+
+    /**
+     * Deletes whatever is spooled under the given reference.
+     *
+     * @param ref the reference to delete
+     * @return true if something got deleted, false if there wasn't anything
+     *         there (or it couldn't be deleted)
+     */
+    public boolean delete(@NonNull String ref) {
+        return isReference(ref) && getFile(ref).delete();
+    }
+
+    /**
+     * Deletes everything in the spool except for the given references.
+     * Leftover partial writes go, too.
+     *
+     * @param keep references to keep
+     * @return how many files got deleted
+     */
+    public int retainOnly(@NonNull Collection<String> keep) {
+        File[] files = mDirectory.listFiles();
+        if(files == null) return 0;
+
+        int deleted = 0;
+        for(File f : files) {
+            if(f.isFile() && !keep.contains(f.getName()) && f.delete())
+                deleted++;
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Deletes everything in the spool.
+     *
+     * @return how many files got deleted
+     */
+    public int clear() {
+        return retainOnly(Collections.<String>emptySet());
+    }
+
+    /**
+     * Determines if the given string looks like a reference this class would
+     * hand out.  Anything else gets rejected before it goes near the
+     * filesystem.
+     *
+     * @param ref the possible reference
+     * @return true if it's a reference, false if not
+     */
+    public static boolean isReference(@NonNull String ref) {
+        return RE_REFERENCE.matcher(ref).matches();
+    }
+
+    @NonNull
+    private File getFile(@NonNull String ref) {
+        if(!isReference(ref))
+            throw new IllegalArgumentException("Not a spool reference: " + ref);
+
+        return new File(mDirectory, ref);
+    }
+
+    private void makeDirectory() throws IOException {
+        if(!mDirectory.isDirectory() && !mDirectory.mkdirs())
+            throw new IOException("Couldn't create spool directory " + mDirectory);
+    }
+
+    @NonNull
+    private String newReference() {
+        // 256 random bits, written out as 64 hex characters.  The odds of
+        // running into one that's already there are astronomical, but
+        // checking is cheap.
+        byte[] bytes = new byte[REFERENCE_BYTES];
+        String ref;
+
+        do {
+            sRandom.nextBytes(bytes);
+            ref = CharToByte.bytesToString(bytes);
+        } while(getFile(ref).exists());
+
+        return ref;
+    }
+}
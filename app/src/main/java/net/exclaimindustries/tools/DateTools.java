@@ -35,6 +35,21 @@ public class DateTools {
         return DATE_FORMAT.format(c.getTime());
     }
     
+    /**
+     * Generates a YYYYMMDD int from a given Calendar object.  This is the same
+     * thing as {@link #getDateString(Calendar)}, only packed into an int, so
+     * it's handy as a map key or for date comparisons that don't care about
+     * the time of day.  And it doesn't need to go through SimpleDateFormat.
+     *
+     * @param c Calendar from which to get the int
+     * @return a YYYYMMDD int
+     */
+    public static int getDateInt(@NonNull Calendar c) {
+        return c.get(Calendar.YEAR) * 10000
+                + (c.get(Calendar.MONTH) + 1) * 100
+                + c.get(Calendar.DAY_OF_MONTH);
+    }
+
     /**
      * Generates a YYYY-MM-DD string from a given Calendar object.
      *
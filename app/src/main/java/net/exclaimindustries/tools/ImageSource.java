@@ -0,0 +1,134 @@
+/*
+ * ImageSource.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.tools;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import androidx.annotation.NonNull;
+
+/**
+ * <p>
+ * An <code>ImageSource</code> is an image at a content URI, opened once and
+ * read through a buffered, markable stream.  Loading an image tends to need
+ * the start of the file more than once (EXIF data, then the bounds, then the
+ * actual decode), and opening a content URI over and over isn't cheap,
+ * especially if it's coming from some other app or off a network.  With this,
+ * each of those just calls {@link #rewind()} and gets the same stream back,
+ * right at the start.
+ * </p>
+ *
+ * <p>
+ * The catch is that only the first {@link #MARK_LIMIT} bytes can be rewound
+ * over.  That covers the headers (and EXIF) of just about any image there is,
+ * but the full decode reads everything, so that should be the last thing
+ * done.  If something does read too far, the next {@link #rewind()} just
+ * quietly opens the URI again, same as if this wasn't here at all.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+public class ImageSource implements Closeable {
+    private static final String DEBUG_TAG = "ImageSource";
+
+    /**
+     * How far into the stream we can go and still rewind.  Camera EXIF blocks
+     * (thumbnail included) top out around 64k, so this is plenty.
+     */
+    public static final int MARK_LIMIT = 256 * 1024;
+
+    /** The buffer size for the stream, before any marks make it grow. */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final Context mContext;
+    private final Uri mUri;
+    private InputStream mStream;
+    private int mOpenCount;
+
+    /**
+     * Makes a new ImageSource.  Nothing gets opened until the first
+     * {@link #rewind()}.
+     *
+     * @param context a Context, for its ContentResolver
+     * @param uri the image
+     */
+    public ImageSource(@NonNull Context context, @NonNull Uri uri) {
+        mContext = context;
+        mUri = uri;
+    }
+
+    /**
+     * Gets the stream, positioned at the very start of the image.  Don't
+     * close it; close this ImageSource instead.
+     *
+     * @return the stream
+     * @throws IOException the URI couldn't be opened
+     */
+    @NonNull
+    public InputStream rewind() throws IOException {
+        if(mStream != null) {
+            try {
+                mStream.reset();
+                mStream.mark(MARK_LIMIT);
+                return mStream;
+            } catch(IOException ioe) {
+                // Something read past the mark.  Oh well, start over.
+                Log.d(DEBUG_TAG, "Couldn't rewind " + mUri + ", opening it again...");
+                close();
+            }
+        }
+
+        InputStream input = mContext.getContentResolver().openInputStream(mUri);
+        if(input == null) throw new FileNotFoundException("Couldn't open " + mUri);
+
+        mOpenCount++;
+        mStream = new BufferedInputStream(input, BUFFER_SIZE);
+        mStream.mark(MARK_LIMIT);
+        return mStream;
+    }
+
+    /**
+     * Gets the URI this is reading.
+     *
+     * @return the URI
+     */
+    @NonNull
+    public Uri getUri() {
+        return mUri;
+    }
+
+    /**
+     * Gets how many times the URI actually got opened.  Ideally, that's 1.
+     *
+     * @return the number of opens so far
+     */
+    public int getOpenCount() {
+        return mOpenCount;
+    }
+
+    @Override
+    public void close() {
+        if(mStream == null) return;
+
+        try {
+            mStream.close();
+        } catch(IOException ioe) {
+            // We're done with it anyway.
+        }
+
+        mStream = null;
+    }
+}
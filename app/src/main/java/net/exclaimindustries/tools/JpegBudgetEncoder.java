@@ -0,0 +1,280 @@
+/*
+ * JpegBudgetEncoder.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.tools;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * <p>
+ * A <code>JpegBudgetEncoder</code> compresses Bitmaps to JPEG while trying to
+ * stay under a byte budget.  It starts at the best quality it's allowed and
+ * binary-searches its way down until the result fits.  If even the worst
+ * allowed quality is too big, it shrinks the image (bytes go roughly with
+ * pixel count, so it can make a decent guess how much) and tries again.
+ * </p>
+ *
+ * <p>
+ * Every attempt goes into the same buffer, which sticks around between calls,
+ * so a search doesn't mean a pile of byte arrays.  Whatever settings worked
+ * for a given key are remembered, so encoding the same thing again usually
+ * takes exactly one attempt.  The key has to cover everything that changes
+ * the pixels (not just where the image came from), and if the remembered
+ * settings don't fit anyway, it searches again.  Most photos fit at the best
+ * quality anyway, which is also one attempt, same as just calling
+ * {@link Bitmap#compress(Bitmap.CompressFormat, int, OutputStream)}.
+ * </p>
+ *
+ * <p>
+ * Calls are synchronized, since there's only the one buffer.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+public class JpegBudgetEncoder {
+    private static final String DEBUG_TAG = "JpegBudgetEncoder";
+
+    /**
+     * How close the quality search gets before it calls it good.  Any closer
+     * than this and nobody can tell the difference anyway.
+     */
+    private static final int QUALITY_TOLERANCE = 2;
+
+    // What searchQuality returns when it can't find a quality.
+    private static final int TOO_BIG = -1;
+    private static final int FAILED = -2;
+
+    /** How many settings to remember. */
+    private static final int CACHE_SIZE = 32;
+
+    /**
+     * The smallest scale we'll shrink an image to.  Past this, we just send
+     * it over budget; an image nobody can see isn't worth the bytes either.
+     */
+    private static final float MIN_SCALE = 0.5f;
+
+    /**
+     * Fudge factor for the shrink guess, so we usually get it in one try
+     * instead of landing just over.
+     */
+    private static final float SCALE_MARGIN = 0.95f;
+
+    /**
+     * The settings an image was encoded with.  Immutable, so they can be
+     * cached and handed around.
+     */
+    public static class Settings {
+        /** The JPEG quality. */
+        public final int quality;
+        /** How much the image was scaled down (1.0 means not at all). */
+        public final float scale;
+        /** How many bytes came out. */
+        public final int size;
+
+        private Settings(int quality, float scale, int size) {
+            this.quality = quality;
+            this.scale = scale;
+            this.size = size;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "quality " + quality + ", scale " + scale + ", " + HumanBytes.toIdeal(size);
+        }
+    }
+
+    private final int mMaxBytes;
+    private final int mMinQuality;
+    private final int mMaxQuality;
+    private final ByteArrayOutputStream mBuffer;
+    private final LruCache<String, Settings> mCache = new LruCache<>(CACHE_SIZE);
+
+    /**
+     * Makes a new encoder.
+     *
+     * @param maxBytes the byte budget
+     * @param minQuality the worst JPEG quality to try before shrinking the image
+     * @param maxQuality the best JPEG quality to try
+     * @throws IllegalArgumentException the qualities don't make sense, or the budget's silly
+     */
+    public JpegBudgetEncoder(int maxBytes, int minQuality, int maxQuality) {
+        if(maxBytes <= 0)
+            throw new IllegalArgumentException("The byte budget has to be positive!");
+        if(minQuality < 0 || maxQuality > 100 || minQuality > maxQuality)
+            throw new IllegalArgumentException("Qualities must be in 0-100, and the min can't be more than the max!");
+
+        mMaxBytes = maxBytes;
+        mMinQuality = minQuality;
+        mMaxQuality = maxQuality;
+
+        // Anything bigger than the budget is a failed attempt anyway, so
+        // that's as big as it usually has to get.
+        mBuffer = new ByteArrayOutputStream(maxBytes + maxBytes / 4);
+    }
+
+    /**
+     * Gets the byte budget.
+     *
+     * @return the budget, in bytes
+     */
+    public int getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Encodes a Bitmap, as close to the budget as it can get without going
+     * over, and writes it to the given stream.  If it can't get under budget
+     * at all, the smallest attempt gets written anyway.  The Bitmap isn't
+     * changed or recycled; if it had to be shrunk, that's done on a copy.
+     *
+     * @param bitmap the Bitmap to encode
+     * @param key something to remember the settings by, or null to not bother;
+     *            different pixels should get different keys
+     * @param out where the JPEG goes (this won't close it)
+     * @return the settings that got used, or null if the Bitmap couldn't be compressed at all
+     * @throws IOException the output stream didn't cooperate
+     */
+    @Nullable
+    public synchronized Settings encode(@NonNull Bitmap bitmap,
+                                        @Nullable String key,
+                                        @NonNull OutputStream out) throws IOException {
+        Settings settings = null;
+
+        // If we've done this one before, try that first.  Usually it's the
+        // same image with the same infobox, so it'll work.  If it doesn't
+        // fit (it's not quite the same image after all, or it never fit to
+        // begin with), do the whole search; a search is the only way to know
+        // an over-budget result is the best we can do.
+        Settings cached = key != null ? mCache.get(key) : null;
+        if(cached != null) {
+            Bitmap scaled = scale(bitmap, cached.scale);
+            if(compress(scaled, cached.quality) && mBuffer.size() <= mMaxBytes)
+                settings = new Settings(cached.quality, cached.scale, mBuffer.size());
+            if(scaled != bitmap) scaled.recycle();
+        }
+
+        if(settings == null)
+            settings = search(bitmap);
+
+        if(settings == null) {
+            Log.e(DEBUG_TAG, "Couldn't compress the Bitmap at all!");
+            return null;
+        }
+
+        Log.d(DEBUG_TAG, "Encoded " + bitmap.getWidth() + "x" + bitmap.getHeight()
+                + " at " + settings + (cached != null ? " (cached: " + cached + ")" : ""));
+
+        if(key != null) mCache.put(key, settings);
+        mBuffer.writeTo(out);
+        return settings;
+    }
+
+    /**
+     * Forgets the settings for a key, if there were any.
+     *
+     * @param key the key
+     */
+    public synchronized void forget(@NonNull String key) {
+        mCache.remove(key);
+    }
+
+    @Nullable
+    private Settings search(@NonNull Bitmap bitmap) {
+        float scale = 1.0f;
+        Bitmap current = bitmap;
+
+        try {
+            while(true) {
+                int quality = searchQuality(current);
+
+                // If that didn't fit, the buffer's got the min quality
+                // attempt in it.  If it didn't even compress, we're just
+                // broken.
+                if(quality == FAILED) return null;
+
+                if(quality >= 0 || scale <= MIN_SCALE)
+                    return new Settings(quality >= 0 ? quality : mMinQuality, scale, mBuffer.size());
+
+                // Still too big.  Shrink it by about as much as it's over
+                // (in area, that is) and go again.
+                scale = Math.max(MIN_SCALE,
+                        scale * (float)Math.sqrt((double)mMaxBytes / mBuffer.size()) * SCALE_MARGIN);
+
+                Log.d(DEBUG_TAG, "Still " + HumanBytes.toIdeal(mBuffer.size())
+                        + " at quality " + mMinQuality + ", trying scale " + scale + "...");
+
+                if(current != bitmap) current.recycle();
+                current = scale(bitmap, scale);
+            }
+        } finally {
+            if(current != bitmap) current.recycle();
+        }
+    }
+
+    /**
+     * Finds the best quality that fits in the budget, leaving that attempt in
+     * the buffer.  If nothing fits, this returns {@link #TOO_BIG} and leaves
+     * the min quality attempt in the buffer.  If the Bitmap won't compress,
+     * it's {@link #FAILED}.
+     */
+    private int searchQuality(@NonNull Bitmap bitmap) {
+        // Best case first; it's the common one.
+        if(!compress(bitmap, mMaxQuality)) return FAILED;
+        if(mBuffer.size() <= mMaxBytes) return mMaxQuality;
+
+        // Worst case next.  If that doesn't fit, nothing will.
+        if(!compress(bitmap, mMinQuality)) return FAILED;
+        if(mBuffer.size() > mMaxBytes) return TOO_BIG;
+
+        // Now we know low fits and high doesn't.  Close in.
+        int low = mMinQuality;
+        int high = mMaxQuality;
+        int lastTried = mMinQuality;
+
+        while(high - low > QUALITY_TOLERANCE) {
+            int mid = (low + high) / 2;
+            lastTried = mid;
+
+            if(compress(bitmap, mid) && mBuffer.size() <= mMaxBytes)
+                low = mid;
+            else
+                high = mid;
+        }
+
+        // If the last thing we tried didn't fit, the buffer's got the wrong
+        // one in it.
+        if(lastTried != low) compress(bitmap, low);
+
+        return low;
+    }
+
+    private boolean compress(@NonNull Bitmap bitmap, int quality) {
+        mBuffer.reset();
+        return bitmap.compress(Bitmap.CompressFormat.JPEG, quality, mBuffer);
+    }
+
+    @NonNull
+    private static Bitmap scale(@NonNull Bitmap bitmap, float scale) {
+        if(scale >= 1.0f) return bitmap;
+
+        return Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)),
+                true);
+    }
+}
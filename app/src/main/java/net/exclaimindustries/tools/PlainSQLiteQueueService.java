@@ -9,13 +9,12 @@
 package net.exclaimindustries.tools;
 
 import android.content.Intent;
-import android.database.Cursor;
 import android.database.SQLException;
-import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteException;
 import androidx.annotation.NonNull;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -23,21 +22,36 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * <p>
  * This type of {@link AbstractSQLiteQueueService} writes Intent data to an
  * SQLite database any time the queue pauses for any reason.  This uses a plain
- * ol' {@link java.util.Queue} during normal operation.  While the queue is
- * running, the SQLite database will be empty (that is, it is emptied out during
- * {@link #onQueueLoad()} and restocked during {@link #onQueueUnload()}).
+ * ol' {@link java.util.Queue} during normal operation.
  * </p>
  *
  * <p>
- * If this service is terminated without going through pause first, the queue
- * may be lost.  Keep this in mind.
+ * While the queue is running, Intents get pulled out of the database a page
+ * at a time (see {@link #PAGE_SIZE}) as the in-memory queue runs dry, so a
+ * big backlog doesn't all have to be deserialized and held in memory at once.
+ * Anything added while there's still a backlog in the database goes on the
+ * end of the database, to keep everything in order.  When the queue pauses,
+ * whatever's left in memory goes back to the database in one transaction,
+ * back in front of whatever hadn't been paged in yet.
+ * </p>
+ *
+ * <p>
+ * If this service is terminated without going through pause first, whatever
+ * was in memory at the time may be lost.  Keep this in mind.
  * </p>
  */
 public abstract class PlainSQLiteQueueService
         extends AbstractSQLiteQueueService {
     private static final String DEBUG_TAG = "PlainSQLiteQueueService";
 
-    private final Queue<Intent> mQueue;
+    /** How many Intents get pulled out of the database at a time. */
+    protected static final int PAGE_SIZE = 16;
+
+    private final Queue<QueuedIntent> mQueue;
+
+    // Whether or not there's anything left in the database that hasn't been
+    // paged in yet.  Only meaningful while the thread is alive.
+    private boolean mDatabaseHasMore;
 
     public PlainSQLiteQueueService() {
         super();
@@ -62,87 +76,78 @@ public abstract class PlainSQLiteQueueService
 
     @Override
     protected void clearQueue() {
-        // Empty the database!
-        clearQueueFromDatabase();
+        synchronized(this) {
+            // Empty the database!
+            clearQueueFromDatabase();
 
-        // Also, empty out the working queue, if anything's there.
-        mQueue.clear();
+            // Also, empty out the working queue, if anything's there.
+            mQueue.clear();
+            mDatabaseHasMore = false;
+        }
     }
 
     @Override
     protected final void onQueueLoad() {
         synchronized(this) {
-            SQLiteDatabase database = initDatabase();
-
-            Cursor cursor = null;
-
-            try {
-                // Fetch.  EVERYTHING.  In order.
-                cursor = database.query(TABLE_QUEUE, new String[]{KEY_QUEUE_TIMESTAMP, KEY_QUEUE_DATA},
-                        null, null, null, null,
-                        KEY_QUEUE_TIMESTAMP + " ASC");
-
-                if(cursor == null) {
-                    Log.w(DEBUG_TAG, "When loading the queue, the Cursor was null!");
-                    return;
-                }
-
-                // Loop through each row we pulled out of the database and
-                // deserialize them into queue entries.
-                cursor.moveToFirst();
+            // Just the first page for now.  The rest comes in as the queue
+            // gets to it.
+            mDatabaseHasMore = true;
+            fillQueue();
+        }
+    }
 
-                while(!cursor.isAfterLast()) {
-                    int columnIndex = cursor.getColumnIndex(KEY_QUEUE_DATA);
-                    assert(columnIndex >= 0);
-                    String data = cursor.getString(columnIndex);
-                    if(data != null) {
-                        Intent intent = deserializeIntent(data);
-                        if(intent != null) mQueue.add(intent);
-                    }
+    /**
+     * Pages in the next batch of Intents from the database if the in-memory
+     * queue is empty and there's anything to page in.
+     */
+    private void fillQueue() {
+        if(!mQueue.isEmpty() || !mDatabaseHasMore) return;
 
-                    cursor.moveToNext();
-                }
+        try {
+            mQueue.addAll(takeIntentsFromDatabase(PAGE_SIZE));
 
-                cursor.close();
+            // If we didn't get a full page, that's the whole database.  If we
+            // did, well, there MIGHT be more.  We'll find out next time.
+            mDatabaseHasMore = mQueue.size() >= PAGE_SIZE;
 
-                // Also, wipe out the database.  We'll write it back if need be,
-                // but we don't want stray data hanging around.
-                clearQueueFromDatabase();
-            } catch(SQLException sqle) {
-                Log.e(DEBUG_TAG, "Exception in onQueueLoad()!", sqle);
-            } finally {
-                if(cursor != null && !cursor.isClosed()) cursor.close();
-            }
+            Log.d(DEBUG_TAG, "Paged in " + mQueue.size() + " Intent(s)"
+                    + (mDatabaseHasMore ? ", maybe more to come." : ", that's all."));
+        } catch(SQLException sqle) {
+            Log.e(DEBUG_TAG, "Exception while paging in the queue!", sqle);
+            mDatabaseHasMore = false;
         }
     }
 
     @Override
     protected final void onQueueUnload() {
         synchronized(this) {
-            // If anything's still left, shove it back in.  The database better
-            // be empty right now, else we messed something up.
+            // If anything's still left, shove it back in, all at once.  The
+            // ones that came from the database go back where they were, ahead
+            // of anything that never got paged in.
             if(!mQueue.isEmpty()) {
-                for(Intent intent : mQueue) {
-                    // Hey, look!  We've got a helper function!
-                    try {
-                        writeIntentToDatabase(intent);
-                    } catch(SQLiteException sqle) {
-                        Log.e(DEBUG_TAG, "Exception in onQueueUnload()! (will try to keep going)", sqle);
-                    }
+                try {
+                    writeIntentsToDatabase(mQueue);
+                } catch(SQLException sqle) {
+                    Log.e(DEBUG_TAG, "Exception in onQueueUnload()!", sqle);
                 }
 
                 // With that done, clear out the in-memory queue.
                 mQueue.clear();
             }
+
+            mDatabaseHasMore = false;
         }
     }
 
     @Override
     protected int getQueueCount() {
-        // If the queue is active, use the actual internal queue.
+        // If the queue is active, use the actual internal queue, plus anything
+        // that hasn't been paged in yet.
         if(isThreadAlive()) {
-            Log.d(DEBUG_TAG, "Thread is live, returning size of queue...");
-            return mQueue.size();
+            synchronized(this) {
+                Log.d(DEBUG_TAG, "Thread is live, returning size of queue...");
+                return mQueue.size() + (mDatabaseHasMore ? getQueueCountFromDatabase() : 0);
+            }
         }
 
         // Otherwise, go to the database.
@@ -150,10 +155,56 @@ public abstract class PlainSQLiteQueueService
         return getQueueCountFromDatabase();
     }
 
+    @Override
+    protected long getQueueBytes() {
+        // Same deal as the count.  Anything that went straight into memory
+        // was never measured, so it doesn't count here.
+        if(isThreadAlive()) {
+            synchronized(this) {
+                long toReturn = 0;
+                for(QueuedIntent qi : mQueue) toReturn += qi.size;
+
+                if(mDatabaseHasMore) {
+                    long fromDatabase = getQueueBytesFromDatabase();
+                    if(fromDatabase > 0) toReturn += fromDatabase;
+                }
+
+                return toReturn;
+            }
+        }
+
+        return getQueueBytesFromDatabase();
+    }
+
+    @Override
+    protected long getOldestQueuedTime() {
+        if(isThreadAlive()) {
+            synchronized(this) {
+                // The in-memory queue is in order, so its head is the oldest
+                // thing in memory.  The database might still beat it.
+                QueuedIntent head = mQueue.peek();
+                long toReturn = head == null ? -1 : head.time;
+
+                if(mDatabaseHasMore) {
+                    long fromDatabase = getOldestQueuedTimeFromDatabase();
+                    if(fromDatabase >= 0 && (toReturn < 0 || fromDatabase < toReturn))
+                        toReturn = fromDatabase;
+                }
+
+                return toReturn;
+            }
+        }
+
+        return getOldestQueuedTimeFromDatabase();
+    }
+
     @Override
     protected void removeNextIntentFromQueue() {
         if(isThreadAlive()) {
-            if(!mQueue.isEmpty()) mQueue.remove();
+            synchronized(this) {
+                fillQueue();
+                mQueue.poll();
+            }
         }
         else {
             try {
@@ -166,7 +217,13 @@ public abstract class PlainSQLiteQueueService
 
     @Override
     protected Intent peekNextIntentFromQueue() {
-        if(isThreadAlive()) return mQueue.peek();
+        if(isThreadAlive()) {
+            synchronized(this) {
+                fillQueue();
+                QueuedIntent next = mQueue.peek();
+                return next == null ? null : next.intent;
+            }
+        }
 
         try {
             return getNextIntentFromDatabase();
@@ -177,11 +234,56 @@ public abstract class PlainSQLiteQueueService
     }
 
     @Override
-    protected void addIntentToQueue(@NonNull Intent i) {
+    protected QueuedIntent takeNextIntentFromQueue() {
         if(isThreadAlive()) {
-            mQueue.add(i);
+            synchronized(this) {
+                fillQueue();
+                return mQueue.poll();
+            }
         }
-        else {
+
+        try {
+            List<QueuedIntent> taken = takeIntentsFromDatabase(1);
+            return taken.isEmpty() ? null : taken.get(0);
+        } catch(SQLException sqle) {
+            Log.e(DEBUG_TAG, "Error taking the next Intent from the queue! (returning null)", sqle);
+            return null;
+        }
+    }
+
+    @Override
+    protected void requeueIntents(@NonNull List<QueuedIntent> intents) {
+        synchronized(this) {
+            // While the thread's going, they just go back in front of the
+            // in-memory queue, and onQueueUnload() writes them back to their
+            // old rows with everything else.
+            if(isThreadAlive()) {
+                List<QueuedIntent> rest = new ArrayList<>(mQueue);
+                mQueue.clear();
+                mQueue.addAll(intents);
+                mQueue.addAll(rest);
+                return;
+            }
+
+            try {
+                writeIntentsToDatabase(intents);
+            } catch(SQLException sqle) {
+                Log.e(DEBUG_TAG, "Error putting Intents back in the queue!", sqle);
+            }
+        }
+    }
+
+    @Override
+    protected void addIntentToQueue(@NonNull Intent i) {
+        synchronized(this) {
+            // If the thread's going and everything's already in memory, it goes
+            // in memory, too.  If there's still a backlog in the database, it
+            // has to go behind that.
+            if(isThreadAlive() && !mDatabaseHasMore) {
+                mQueue.add(new QueuedIntent(-1, i));
+                return;
+            }
+
             try {
                 writeIntentToDatabase(i);
             } catch(SQLException sqle) {
@@ -0,0 +1,59 @@
+/*
+ * QueueCodec.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.tools;
+
+import android.content.Intent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * A <code>QueueCodec</code> turns queued Intents into bytes and back again,
+ * for {@link AbstractSQLiteQueueService} implementations that would rather
+ * not go through Strings.  Hand one back from
+ * {@link AbstractSQLiteQueueService#getQueueCodec()} and everything written
+ * to the database from then on goes through it.
+ * </p>
+ *
+ * <p>
+ * Anything already in the database as a String still goes through
+ * {@link QueueService#deserializeIntent(String)}, so switching to a codec
+ * doesn't strand anything that was queued before.  It's a good idea to put a
+ * version number up front in whatever this writes, so the format can change
+ * later without stranding anything, either.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+public interface QueueCodec {
+    /**
+     * Encodes an Intent.  If this throws, the Intent gets written through
+     * {@link QueueService#serializeIntent(Intent)} instead.
+     *
+     * @param i the Intent to encode
+     * @return the encoded bytes
+     * @throws IOException the Intent couldn't be encoded
+     */
+    @NonNull
+    byte[] encode(@NonNull Intent i) throws IOException;
+
+    /**
+     * Decodes an Intent.  As with {@link QueueService#deserializeIntent(String)},
+     * returning null (or throwing) means the entry gets ignored and removed.
+     *
+     * @param data the bytes {@link #encode(Intent)} wrote
+     * @return the Intent, or null if it should be ignored
+     * @throws IOException the bytes couldn't be decoded
+     */
+    @Nullable
+    Intent decode(@NonNull byte[] data) throws IOException;
+}
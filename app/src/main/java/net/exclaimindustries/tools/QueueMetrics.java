@@ -0,0 +1,415 @@
+/*
+ * QueueMetrics.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.tools;
+
+import androidx.annotation.NonNull;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * <code>QueueMetrics</code> keeps track of what a {@link QueueService} has been
+ * up to: how much has gone in and come out, how long each Intent took to
+ * handle, how often (and why) the queue paused, how often things got retried,
+ * and how big and how old the backlog is.  The point is to be able to tell if
+ * a backlog is sitting there because the network's bad or because handling
+ * things is slow.
+ * </p>
+ *
+ * <p>
+ * There's one of these per queue name, and it lives as long as the process
+ * does, NOT as long as the service does.  Services stop themselves whenever
+ * the queue pauses or empties, so anything that lived on the service would
+ * get wiped out at exactly the wrong time.  Get one with
+ * {@link #forQueue(String)} from anywhere in the process, or dump it to a
+ * file with {@link QueueService#COMMAND_DUMP_METRICS}.
+ * </p>
+ *
+ * <p>
+ * Everything here is safe to call from any thread.  The backlog numbers are
+ * snapshots taken whenever the queue starts, pauses, or empties (or gets
+ * dumped), since asking storage for them after every single Intent would be
+ * a bit much.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+public final class QueueMetrics {
+    /**
+     * The upper bounds of the handling latency histogram buckets, in
+     * milliseconds.  There's one more bucket after the last of these for
+     * everything slower.
+     */
+    public static final long[] LATENCY_BUCKETS = {
+            10, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000
+    };
+
+    /** The pause reason used if the Intent didn't say. */
+    public static final String REASON_UNSPECIFIED = "unspecified";
+
+    private static final Map<String, QueueMetrics> sMetrics = new HashMap<>();
+
+    private final String mName;
+    private final long mStartTime;
+
+    private final AtomicLong mEnqueued = new AtomicLong();
+    private final AtomicLong mProcessed = new AtomicLong();
+    private final AtomicLong mAbandoned = new AtomicLong();
+    private final AtomicLong mRetries = new AtomicLong();
+    private final AtomicLong mRuns = new AtomicLong();
+
+    private final ConcurrentHashMap<String, AtomicLong> mPauses = new ConcurrentHashMap<>();
+
+    private final AtomicLongArray mLatencies = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+    private final AtomicLong mLatencyTotal = new AtomicLong();
+    private final AtomicLong mLatencyMax = new AtomicLong();
+
+    // The Intents that were left waiting at the last pause.  Whenever the
+    // queue starts up again, each of them is about to get retried.
+    private final AtomicLong mPendingRetries = new AtomicLong();
+
+    // The backlog snapshot.  These get written together, so they get read
+    // together, too.
+    private int mBacklogCount;
+    private long mBacklogBytes = -1;
+    private long mBacklogOldest = -1;
+    private long mBacklogSampled = -1;
+
+    private QueueMetrics(@NonNull String name, long startTime) {
+        mName = name;
+        mStartTime = startTime;
+    }
+
+    /**
+     * Gets the metrics for the given queue, making them if they don't exist
+     * yet.
+     *
+     * @param name the queue name (see {@link QueueService#getQueueName()})
+     * @return the metrics for that queue
+     */
+    @NonNull
+    public static QueueMetrics forQueue(@NonNull String name) {
+        synchronized(sMetrics) {
+            QueueMetrics toReturn = sMetrics.get(name);
+
+            if(toReturn == null) {
+                toReturn = new QueueMetrics(name, System.currentTimeMillis());
+                sMetrics.put(name, toReturn);
+            }
+
+            return toReturn;
+        }
+    }
+
+    /**
+     * Makes a fresh set of metrics that isn't attached to any queue.  This is
+     * mostly for tests.
+     *
+     * @param name a name for the dump
+     * @param startTime the time the rates should be measured from
+     * @return some brand-new metrics
+     */
+    @NonNull
+    static QueueMetrics makeDetached(@NonNull String name, long startTime) {
+        return new QueueMetrics(name, startTime);
+    }
+
+    /** Records an Intent going into the queue. */
+    void recordEnqueued() {
+        mEnqueued.incrementAndGet();
+    }
+
+    /**
+     * Records the queue starting a run.  Whatever was left waiting at the
+     * last pause is about to get retried.
+     */
+    void recordRunStarted() {
+        mRuns.incrementAndGet();
+        mRetries.addAndGet(mPendingRetries.getAndSet(0));
+    }
+
+    /** Records an Intent that was handled and came back CONTINUE. */
+    void recordProcessed(long latency) {
+        recordLatency(latency);
+        mProcessed.incrementAndGet();
+    }
+
+    /**
+     * Records an Intent that was handled and came back PAUSE.  The Intent
+     * will get retried when the queue starts up again.
+     *
+     * @param latency how long handling it took, in ms
+     * @param reason why, or null if it didn't say
+     */
+    void recordPaused(long latency, String reason) {
+        recordLatency(latency);
+
+        String key = reason == null ? REASON_UNSPECIFIED : reason;
+        AtomicLong count = mPauses.get(key);
+        if(count == null) {
+            AtomicLong fresh = new AtomicLong();
+            count = mPauses.putIfAbsent(key, fresh);
+            if(count == null) count = fresh;
+        }
+        count.incrementAndGet();
+
+        mPendingRetries.incrementAndGet();
+    }
+
+    /**
+     * Records an Intent that was handled and came back STOP.
+     *
+     * @param latency how long handling it took, in ms
+     * @param abandoned how many Intents got thrown out because of it,
+     *                  including this one
+     */
+    void recordStopped(long latency, int abandoned) {
+        recordLatency(latency);
+        recordAbandoned(abandoned);
+    }
+
+    /**
+     * Records Intents getting thrown out without being processed, either by a
+     * STOP, an abort, or a resume that skipped the first one.  The last two
+     * also mean those Intents won't be retried.
+     *
+     * @param abandoned how many
+     */
+    void recordAbandoned(int abandoned) {
+        mAbandoned.addAndGet(abandoned);
+    }
+
+    /** Records the Intent that paused the queue getting skipped. */
+    void recordSkipped() {
+        recordAbandoned(1);
+        if(mPendingRetries.decrementAndGet() < 0) mPendingRetries.set(0);
+    }
+
+    /** Records the whole queue getting thrown out while paused. */
+    void recordAborted(int abandoned) {
+        recordAbandoned(abandoned);
+        mPendingRetries.set(0);
+    }
+
+    /**
+     * Records a snapshot of the backlog.
+     *
+     * @param count how many Intents are in the queue
+     * @param bytes how much space they take up, or -1 if unknown
+     * @param oldest when the oldest one was queued, or -1 if unknown (or
+     *               there's nothing queued)
+     * @param now the current time
+     */
+    synchronized void recordBacklog(int count, long bytes, long oldest, long now) {
+        mBacklogCount = count;
+        mBacklogBytes = bytes;
+        mBacklogOldest = oldest;
+        mBacklogSampled = now;
+    }
+
+    private void recordLatency(long latency) {
+        if(latency < 0) latency = 0;
+
+        int bucket = 0;
+        while(bucket < LATENCY_BUCKETS.length && latency > LATENCY_BUCKETS[bucket])
+            bucket++;
+
+        mLatencies.incrementAndGet(bucket);
+        mLatencyTotal.addAndGet(latency);
+
+        long max = mLatencyMax.get();
+        while(latency > max && !mLatencyMax.compareAndSet(max, latency))
+            max = mLatencyMax.get();
+    }
+
+    /** @return the name of the queue these metrics are for */
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    /** @return when these metrics started counting */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    /** @return how many Intents have gone into the queue */
+    public long getEnqueued() {
+        return mEnqueued.get();
+    }
+
+    /** @return how many Intents have been handled and removed successfully */
+    public long getProcessed() {
+        return mProcessed.get();
+    }
+
+    /** @return how many Intents have been thrown out without being processed */
+    public long getAbandoned() {
+        return mAbandoned.get();
+    }
+
+    /** @return how many times an Intent that paused the queue got tried again */
+    public long getRetries() {
+        return mRetries.get();
+    }
+
+    /** @return how many times the queue has started running */
+    public long getRuns() {
+        return mRuns.get();
+    }
+
+    /** @return how many times the queue has paused, for any reason */
+    public long getPauses() {
+        long toReturn = 0;
+        for(AtomicLong l : mPauses.values()) toReturn += l.get();
+        return toReturn;
+    }
+
+    /**
+     * Gets how many times the queue has paused, broken down by reason.  The
+     * reasons come from {@link QueueService#EXTRA_PAUSE_REASON}.
+     *
+     * @return a sorted map of reasons to counts
+     */
+    @NonNull
+    public Map<String, Long> getPausesByReason() {
+        Map<String, Long> toReturn = new TreeMap<>();
+        for(Map.Entry<String, AtomicLong> e : mPauses.entrySet())
+            toReturn.put(e.getKey(), e.getValue().get());
+        return toReturn;
+    }
+
+    /**
+     * Gets the handling latency histogram.  Entry n is how many Intents took
+     * no more than {@link #LATENCY_BUCKETS}[n] milliseconds (and more than
+     * the bucket before it); the last entry is everything slower than that.
+     *
+     * @return a copy of the histogram
+     */
+    @NonNull
+    public long[] getLatencyHistogram() {
+        long[] toReturn = new long[mLatencies.length()];
+        for(int i = 0; i < toReturn.length; i++) toReturn[i] = mLatencies.get(i);
+        return toReturn;
+    }
+
+    /** @return the mean handling latency in ms, or 0 if nothing's been handled */
+    public long getMeanLatency() {
+        long count = 0;
+        for(int i = 0; i < mLatencies.length(); i++) count += mLatencies.get(i);
+        return count == 0 ? 0 : mLatencyTotal.get() / count;
+    }
+
+    /** @return the slowest handling latency in ms */
+    public long getMaxLatency() {
+        return mLatencyMax.get();
+    }
+
+    /**
+     * @param now the current time
+     * @return Intents enqueued per minute, on average, since these metrics
+     *         started
+     */
+    public double getEnqueueRate(long now) {
+        return perMinute(mEnqueued.get(), now);
+    }
+
+    /**
+     * @param now the current time
+     * @return Intents processed per minute, on average, since these metrics
+     *         started
+     */
+    public double getProcessRate(long now) {
+        return perMinute(mProcessed.get(), now);
+    }
+
+    private double perMinute(long count, long now) {
+        long elapsed = Math.max(now - mStartTime, 1);
+        return count * 60000.0 / elapsed;
+    }
+
+    /** @return how many Intents were in the queue as of the last snapshot */
+    public synchronized int getBacklogCount() {
+        return mBacklogCount;
+    }
+
+    /**
+     * @return how many bytes the queue was taking up as of the last snapshot,
+     *         or -1 if the queue can't say
+     */
+    public synchronized long getBacklogBytes() {
+        return mBacklogBytes;
+    }
+
+    /**
+     * @param now the current time
+     * @return how long the oldest Intent in the queue has been waiting, in
+     *         ms, as of the last snapshot, or -1 if unknown
+     */
+    public synchronized long getBacklogAge(long now) {
+        return mBacklogOldest < 0 ? -1 : Math.max(now - mBacklogOldest, 0);
+    }
+
+    /** @return when the last backlog snapshot was taken, or -1 if never */
+    public synchronized long getBacklogSampleTime() {
+        return mBacklogSampled;
+    }
+
+    /**
+     * Writes everything out in a human-readable (and reasonably
+     * grep-readable) form.
+     *
+     * @param writer where to write it
+     * @param now the current time
+     */
+    public void dump(@NonNull PrintWriter writer, long now) {
+        writer.println("Queue metrics for " + mName);
+        writer.println("  uptime: " + (now - mStartTime) + " ms");
+        writer.println("  runs: " + getRuns());
+        writer.println("  enqueued: " + getEnqueued()
+                + String.format(Locale.US, " (%.2f/min)", getEnqueueRate(now)));
+        writer.println("  processed: " + getProcessed()
+                + String.format(Locale.US, " (%.2f/min)", getProcessRate(now)));
+        writer.println("  abandoned: " + getAbandoned());
+        writer.println("  retries: " + getRetries());
+        writer.println("  pauses: " + getPauses());
+        for(Map.Entry<String, Long> e : getPausesByReason().entrySet())
+            writer.println("    " + e.getKey() + ": " + e.getValue());
+
+        writer.println("  latency: mean " + getMeanLatency() + " ms, max " + getMaxLatency() + " ms");
+        long[] histogram = getLatencyHistogram();
+        for(int i = 0; i < histogram.length; i++) {
+            String label = i < LATENCY_BUCKETS.length
+                    ? "<= " + LATENCY_BUCKETS[i] + " ms"
+                    : "> " + LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1] + " ms";
+            writer.println("    " + label + ": " + histogram[i]);
+        }
+
+        synchronized(this) {
+            if(mBacklogSampled < 0) {
+                writer.println("  backlog: never sampled");
+            } else {
+                writer.println("  backlog: " + mBacklogCount + " Intent(s), "
+                        + (mBacklogBytes < 0 ? "unknown size" : HumanBytes.toIdeal(mBacklogBytes))
+                        + ", oldest "
+                        + (mBacklogOldest < 0 ? "unknown" : getBacklogAge(now) + " ms old")
+                        + " (sampled " + (now - mBacklogSampled) + " ms ago)");
+            }
+        }
+
+        writer.flush();
+    }
+}
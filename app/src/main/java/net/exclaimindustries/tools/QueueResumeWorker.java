@@ -0,0 +1,60 @@
+/*
+ * QueueResumeWorker.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.tools;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+/**
+ * <p>
+ * This Worker does little more than fire off a {@link QueueService#COMMAND_RESUME}
+ * to whatever {@link QueueService} scheduled it.  {@link QueueService} sets
+ * these up on its own when the queue pauses for something it expects to go
+ * away; WorkManager takes care of the waiting, whether that's for a delay, a
+ * network connection, or both.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+public class QueueResumeWorker extends Worker {
+    private static final String DEBUG_TAG = "QueueResumeWorker";
+
+    /** Input data key for the class name of the service to resume. */
+    static final String KEY_SERVICE_CLASS = "net.exclaimindustries.tools.QUEUE_RESUME_SERVICE";
+
+    public QueueResumeWorker(@NonNull Context context,
+                             @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        String className = getInputData().getString(KEY_SERVICE_CLASS);
+
+        if(className == null) {
+            // Nothing we can do about this one.
+            Log.w(DEBUG_TAG, "No service to resume?");
+            return Result.failure();
+        }
+
+        // If it turns out whatever was wrong is still wrong, the queue will
+        // just pause again and schedule another one of these.
+        Intent i = new Intent().setClassName(getApplicationContext(), className);
+        i.putExtra(QueueService.COMMAND_EXTRA, QueueService.COMMAND_RESUME);
+        getApplicationContext().startService(i);
+
+        return Result.success();
+    }
+}
@@ -9,6 +9,7 @@ package net.exclaimindustries.tools;
 
 import android.app.Service;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
@@ -18,6 +19,31 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -32,6 +58,21 @@ import androidx.annotation.Nullable;
  * to <code>IntentService</code>, it is NOT a subclass of it.  They just don't
  * work similarly enough under the hood to justify it.
  * </p>
+ *
+ * <p>
+ * By default, everything in the queue is handled one at a time, in order, on
+ * one thread.  Subclasses that know some of their Intents don't depend on each
+ * other can override {@link #getMaxWorkers()} and
+ * {@link #getOrderingKey(Intent)} to have Intents with different keys handled
+ * in parallel.  Intents with the same key are still handled in order.
+ * </p>
+ *
+ * <p>
+ * When the queue pauses, it can also schedule its own resume, if
+ * {@link #getRetryMode(Intent)} says the problem is the sort that goes away on
+ * its own.  WorkManager does the waiting, so this works even if the process
+ * gets killed in the meantime.
+ * </p>
  * 
  * @author Nicholas Killewald
  */
@@ -74,6 +115,29 @@ public abstract class QueueService extends Service {
         STOP
     }
 
+    /**
+     * How the queue should get going again after a {@link ReturnCode#PAUSE}.
+     * See {@link #getRetryMode(Intent)}.
+     */
+    protected enum RetryMode {
+        /**
+         * Wait for a {@link #COMMAND_RESUME} from somewhere else (the user,
+         * most likely).  This is what the queue always did before.
+         */
+        MANUAL,
+        /**
+         * Resume as soon as there's a network connection.  Good for when the
+         * problem was that there wasn't one.
+         */
+        WHEN_CONNECTED,
+        /**
+         * Resume after a delay that doubles each time it happens in a row,
+         * with some jitter.  Good for throttling and other temporary server
+         * trouble.  See {@link #getRetryBackoff()}.
+         */
+        BACKOFF
+    }
+
     /**
      * Send an Intent with this extra data in it, set to one of the command
      * statics, to send a command.  Any Intent with this will NOT be processed
@@ -104,6 +168,12 @@ public abstract class QueueService extends Service {
      * {@link #queueCountBroadcastsAllowed()}.
      */
     public static final int COMMAND_QUEUE_COUNT = 10;
+    /**
+     * Command code sent to ask for the queue's {@link QueueMetrics} to be
+     * written out to a file (see {@link #getMetricsDumpFile()}).  Unlike the
+     * other commands, this one works even while the queue is active.
+     */
+    public static final int COMMAND_DUMP_METRICS = 11;
 
     /**
      * Intent action broadcast by QueueService whenever the queue count changes
@@ -119,9 +189,90 @@ public abstract class QueueService extends Service {
      * String, and will be whatever {@link #getQueueName()} returns.
      */
     public static final String EXTRA_QUEUE_NAME = "net.exclaimindustries.tools.EXTRA_QUEUETHREAD_NAME";
+    /**
+     * Put this in an Intent (as a short String) during
+     * {@link #handleIntent(Intent)} before returning {@link ReturnCode#PAUSE}
+     * to say why, and the pause will be counted under that reason in the
+     * {@link QueueMetrics}.
+     */
+    public static final String EXTRA_PAUSE_REASON = "net.exclaimindustries.tools.EXTRA_QUEUETHREAD_PAUSE_REASON";
+
+    /**
+     * Put this in an Intent (as a long) during {@link #handleIntent(Intent)}
+     * before returning {@link ReturnCode#PAUSE} if whatever went wrong said
+     * how long to wait, in milliseconds.  A {@link RetryMode#BACKOFF} retry
+     * will wait at least that long.
+     */
+    public static final String EXTRA_RETRY_AFTER = "net.exclaimindustries.tools.EXTRA_QUEUETHREAD_RETRY_AFTER";
+
+    /** Where the retry attempt counts live.  They need to survive the service. */
+    private static final String RETRY_PREFS = "net.exclaimindustries.tools.QueueService.retries";
+
+    /** The default backoff: 30 seconds at first, never more than 30 minutes. */
+    private static final RetryBackoff DEFAULT_BACKOFF = new RetryBackoff(30 * 1000, 30 * 60 * 1000);
+
+    private final Random mRandom = new Random();
+
+    /** The directory (under getFilesDir()) that metrics dumps go in. */
+    private static final String METRICS_DIR = "queuemetrics";
+
+    /**
+     * The most Intents that get pulled out of the queue and into the per-key
+     * lanes at once when running in parallel, counting ones held up behind a
+     * PAUSE.  Anything past this stays in the queue (and, thus, in storage)
+     * until the workers catch up.
+     */
+    private static final int MAX_IN_LANES = 32;
 
     private Thread mThread;
 
+    private QueueMetrics mMetrics;
+
+    /**
+     * Guards the per-key lanes in parallel mode.  The dispatcher waits on this
+     * for workers to finish (or new Intents to arrive).
+     */
+    private final Object mLaneLock = new Object();
+
+    /** How many Intents are sitting in lanes, waiting or being handled. */
+    private volatile int mInLanes;
+
+    /**
+     * Set (under {@link #mLaneLock}) whenever a new Intent gets queued, so
+     * the parallel dispatcher knows it's worth looking again.
+     */
+    private boolean mQueueChanged;
+
+    /**
+     * An Intent that came out of the queue, along with what the queue needs
+     * to know to put it right back where it was in line (see
+     * {@link #requeueIntents(List)}), with the time it was first queued.
+     * One made with a row ID of -1 never had a place in storage, so it just
+     * goes in order with whatever it's put back with.
+     */
+    protected static class QueuedIntent {
+        /** Where this was in storage, or -1 if it never was. */
+        public final long rowId;
+        /** The Intent itself. */
+        @NonNull
+        public final Intent intent;
+        /** When this was first queued. */
+        public final long time;
+        /** How big this was in storage, or 0 if it never was. */
+        public final long size;
+
+        public QueuedIntent(long rowId, @NonNull Intent intent) {
+            this(rowId, intent, System.currentTimeMillis(), 0);
+        }
+
+        public QueuedIntent(long rowId, @NonNull Intent intent, long time, long size) {
+            this.rowId = rowId;
+            this.intent = intent;
+            this.time = time;
+            this.size = size;
+        }
+    }
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -132,6 +283,10 @@ public abstract class QueueService extends Service {
 
         mServiceLooper = thread.getLooper();
         mServiceHandler = new ServiceHandler(mServiceLooper);
+
+        // The metrics outlive us, so if there already are some, pick up where
+        // they left off.
+        mMetrics = QueueMetrics.forQueue(getQueueName());
     }
 
     @Override
@@ -173,6 +328,12 @@ public abstract class QueueService extends Service {
         if(intent.hasExtra(COMMAND_EXTRA)) {
             // If so, take command.  Make sure it's a valid command.
             int command = intent.getIntExtra(COMMAND_EXTRA, -1);
+
+            if(command == COMMAND_DUMP_METRICS) {
+                // This one doesn't care if the queue's going or not.
+                writeMetricsDump();
+                return;
+            }
             
             if(isThreadAlive()) {
                 Log.w(DEBUG_TAG, "The queue is active, ignoring command...");
@@ -200,11 +361,16 @@ public abstract class QueueService extends Service {
                 case COMMAND_RESUME_SKIP_FIRST:
                     Log.d(DEBUG_TAG, "Restarting the thread now, skipping the first Intent...");
                     removeNextIntentFromQueue();
+                    mMetrics.recordSkipped();
                     doNewThread();
                     break;
                 case COMMAND_ABORT:
                     // Empty the queue (but call the callback first).
-                    Log.d(DEBUG_TAG, "Emptying out the queue (removing " + getQueueCount() + " Intents)...");
+                    int count = getQueueCount();
+                    Log.d(DEBUG_TAG, "Emptying out the queue (removing " + count + " Intents)...");
+                    mMetrics.recordAborted(count);
+                    cancelScheduledRetry();
+                    resetRetryAttempts();
                     onQueueEmpty(false);
                     clearQueue();
                     stopSelf();
@@ -217,6 +383,14 @@ public abstract class QueueService extends Service {
             // If this isn't a control message, add the intent to the queue.
             Log.d(DEBUG_TAG, "Enqueueing an Intent!");
             addIntentToQueue(intent);
+            mMetrics.recordEnqueued();
+
+            // If we're running in parallel, the dispatcher might be waiting
+            // around for exactly this.
+            synchronized(mLaneLock) {
+                mQueueChanged = true;
+                mLaneLock.notifyAll();
+            }
             
             // Next, if the thread isn't already running, make it run.  If it IS
             // running, we'll just process the next one in turn normally.
@@ -230,7 +404,11 @@ public abstract class QueueService extends Service {
     
     private void doNewThread() {
         // Only call this if the old thread isn't running.
-        mThread = new Thread(new QueueThread(), "QueueService Runner");
+        // Batching needs the lanes to know what goes with what, so it gets the
+        // parallel thread even with only one worker.
+        boolean useLanes = getMaxWorkers() > 1 || getMaxBatchSize() > 1;
+        mThread = new Thread(useLanes ? new ParallelQueueThread() : new QueueThread(),
+                "QueueService Runner");
         mThread.start();
     }
 
@@ -251,6 +429,136 @@ public abstract class QueueService extends Service {
     public IBinder onBind(Intent arg0) {
         return null;
     }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        // This is what "adb shell dumpsys activity service" ends up calling.
+        if(!isThreadAlive()) sampleBacklog();
+        mMetrics.dump(writer, System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the file {@link #COMMAND_DUMP_METRICS} writes to.  There's one per
+     * queue name, and each dump replaces the last one.
+     *
+     * @return the metrics dump file
+     */
+    @NonNull
+    protected File getMetricsDumpFile() {
+        return new File(new File(getFilesDir(), METRICS_DIR), getQueueName() + ".txt");
+    }
+
+    private void writeMetricsDump() {
+        // If the queue's going, the thread's keeping the backlog numbers up to
+        // date; if not, it's cheap enough to look now.
+        if(!isThreadAlive()) sampleBacklog();
+
+        File file = getMetricsDumpFile();
+        File dir = file.getParentFile();
+        if(dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(DEBUG_TAG, "Couldn't make the metrics directory!");
+            return;
+        }
+
+        try(PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
+            mMetrics.dump(writer, System.currentTimeMillis());
+            Log.d(DEBUG_TAG, "Metrics written to " + file);
+        } catch(IOException ioe) {
+            Log.e(DEBUG_TAG, "Couldn't write the metrics dump!", ioe);
+        }
+    }
+
+    /**
+     * Takes a snapshot of the backlog for the metrics.
+     */
+    private void sampleBacklog() {
+        mMetrics.recordBacklog(getQueueCount() + mInLanes, getQueueBytes(),
+                getOldestQueuedTime(), System.currentTimeMillis());
+    }
+
+    @NonNull
+    private String getRetryKey() {
+        return getQueueName() + ".attempts";
+    }
+
+    @NonNull
+    private String getRetryWorkName() {
+        return "QueueService retry: " + getQueueName();
+    }
+
+    /**
+     * Schedules the queue to resume on its own, if
+     * {@link #getRetryMode(Intent)} says it should.
+     *
+     * @param i the Intent that caused the pause
+     */
+    private void scheduleRetry(@Nullable Intent i) {
+        RetryMode mode = i == null ? RetryMode.MANUAL : getRetryMode(i);
+        long delay = 0;
+
+        if(mode == RetryMode.MANUAL) {
+            Log.d(DEBUG_TAG, "Waiting for someone else to resume the queue.");
+            return;
+        }
+
+        if(mode == RetryMode.BACKOFF) {
+            // How many times in a row has this happened?
+            SharedPreferences prefs = getSharedPreferences(RETRY_PREFS, MODE_PRIVATE);
+            int attempt = prefs.getInt(getRetryKey(), 0);
+
+            if(attempt >= getMaxRetries()) {
+                Log.i(DEBUG_TAG, "Already retried " + attempt + " time(s), leaving it to someone else now.");
+                return;
+            }
+
+            delay = getRetryBackoff().getDelay(attempt, i.getLongExtra(EXTRA_RETRY_AFTER, 0), mRandom);
+            prefs.edit().putInt(getRetryKey(), attempt + 1).apply();
+        }
+
+        Constraints.Builder constraints = new Constraints.Builder();
+        if(mode == RetryMode.WHEN_CONNECTED || retryRequiresNetwork())
+            constraints.setRequiredNetworkType(NetworkType.CONNECTED);
+
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(QueueResumeWorker.class)
+                .setConstraints(constraints.build())
+                .setInitialDelay(delay, TimeUnit.MILLISECONDS)
+                .setInputData(new Data.Builder()
+                        .putString(QueueResumeWorker.KEY_SERVICE_CLASS, getClass().getName())
+                        .build())
+                .build();
+
+        // There's only ever one of these per queue.  A newer one knows more
+        // than an older one.
+        WorkManager.getInstance(this).enqueueUniqueWork(getRetryWorkName(),
+                ExistingWorkPolicy.REPLACE, request);
+
+        Log.d(DEBUG_TAG, "Scheduled a retry (" + mode + ") in " + delay + "ms.");
+    }
+
+    /**
+     * Cancels any retry that's still waiting.  If the queue's already going,
+     * it's not needed.
+     */
+    private void cancelScheduledRetry() {
+        WorkManager.getInstance(this).cancelUniqueWork(getRetryWorkName());
+    }
+
+    /**
+     * Resets the backoff once something's gone through.  The next pause
+     * starts back at the shortest delay.
+     */
+    private void resetRetryAttempts() {
+        SharedPreferences prefs = getSharedPreferences(RETRY_PREFS, MODE_PRIVATE);
+
+        // This gets called a lot, so don't write anything unless there's
+        // something to write.
+        if(prefs.getInt(getRetryKey(), 0) != 0)
+            prefs.edit().remove(getRetryKey()).apply();
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000L;
+    }
     
     private class QueueThread implements Runnable {
 
@@ -259,13 +567,18 @@ public abstract class QueueService extends Service {
             // Load 'er up!
             onQueueLoad();
             onQueueStart();
+            mMetrics.recordRunStarted();
+            cancelScheduledRetry();
+            sampleBacklog();
 
             while(getQueueCount() > 0) {
                 Intent i = peekNextIntentFromQueue();
 
                 Log.d(DEBUG_TAG, "Processing intent...");
                 
+                long start = System.nanoTime();
                 ReturnCode r = handleIntent(i);
+                long latency = millisSince(start);
                 
                 Log.d(DEBUG_TAG, "Intent processed, return code is " + r);
                 
@@ -273,9 +586,12 @@ public abstract class QueueService extends Service {
                 if(r == ReturnCode.STOP) {
                     // If the return code we got instructed us to stop entirely,
                     // wipe the queue and bail out.
-                    Log.d(DEBUG_TAG, "Return said to stop, stopping now and abandoning " + getQueueCount() + " Intent(s).");
+                    int count = getQueueCount();
+                    Log.d(DEBUG_TAG, "Return said to stop, stopping now and abandoning " + count + " Intent(s).");
+                    mMetrics.recordStopped(latency, count);
                     onQueueEmpty(false);
                     clearQueue();
+                    sampleBacklog();
                     stopSelf();
                     return;
                 } else if(r == ReturnCode.CONTINUE) {
@@ -283,13 +599,18 @@ public abstract class QueueService extends Service {
                     // the Intent from the front of the queue and scrap it.
                     Log.d(DEBUG_TAG, "Return said to continue.");
                     removeNextIntentFromQueue();
+                    mMetrics.recordProcessed(latency);
+                    resetRetryAttempts();
                     onQueueItemProcessed();
                 } else if(r == ReturnCode.PAUSE) {
                     // If we were told to pause, well, pause.  We'll be told to
                     // try again later.
                     Log.d(DEBUG_TAG, "Return said to pause.");
+                    mMetrics.recordPaused(latency, getPauseReason(i));
                     onQueuePause(i);
                     onQueueUnload();
+                    sampleBacklog();
+                    scheduleRetry(i);
                     stopSelf();
                     return;
                 }
@@ -297,14 +618,404 @@ public abstract class QueueService extends Service {
             // If we got here, then hey!  The thread's done!
             Log.d(DEBUG_TAG, "Processing complete.");
             onQueueEmpty(true);
+            sampleBacklog();
+            stopSelf();
+        }
+    }
+
+    /**
+     * One key's worth of Intents in parallel mode.  Everything in here is
+     * guarded by {@link #mLaneLock}.
+     */
+    private static class Lane {
+        /** Intents waiting for this key, in order.  The head is the current one. */
+        final ArrayDeque<LaneEntry> entries = new ArrayDeque<>();
+        /** True if a worker is currently draining this lane. */
+        boolean running;
+        /** PAUSE or STOP if this key got halted this run, null if not. */
+        ReturnCode halted;
+    }
+
+    private static class LaneEntry {
+        /** The order this came out of the queue, for putting things back. */
+        final long sequence;
+        /** The Intent, plus where it came from, for putting it back. */
+        final QueuedIntent queued;
+        final Intent intent;
+
+        LaneEntry(long sequence, @NonNull QueuedIntent queued) {
+            this.sequence = sequence;
+            this.queued = queued;
+            this.intent = queued.intent;
+        }
+    }
+
+    /**
+     * <p>
+     * The parallel version of {@link QueueThread}.  This thread acts as a
+     * dispatcher: it pulls Intents off the front of the queue and drops them
+     * into per-key lanes, and a pool of {@link #getMaxWorkers()} workers
+     * drains the lanes.  One lane only ever has one worker on it at a time,
+     * so Intents with the same key go in order.
+     * </p>
+     *
+     * <p>
+     * The ReturnCodes apply per key.  CONTINUE moves that lane along.  PAUSE
+     * halts that lane, and everything else for that key that comes out of the
+     * queue afterward piles up behind it; the other lanes keep going.  Once
+     * everything else is done, whatever piled up goes back into the queue in
+     * its original order, and the queue pauses as normal.  STOP throws out
+     * that key's lane and anything else for that key that shows up during
+     * this run.
+     * </p>
+     *
+     * <p>
+     * Whatever's piled up behind a PAUSE still counts against
+     * {@link #MAX_IN_LANES}, so a paused key can't drag the whole backlog
+     * into memory.  And if a PAUSE says to wait for a network connection
+     * (see {@link #getRetryMode(Intent)}), there's no point in any other key
+     * trying, either, so nothing more comes out of the queue, and every lane
+     * stops where it is without handling anything else.
+     * </p>
+     *
+     * <p>
+     * If {@link #getMaxBatchSize()} is more than 1, a worker that finds more
+     * than one Intent waiting in its lane hands them to
+     * {@link #handleIntents(List)} together first.  Whatever that doesn't
+     * finish goes through {@link #handleIntent(Intent)} one at a time, as
+     * usual.
+     * </p>
+     */
+    private class ParallelQueueThread implements Runnable {
+        private final Map<String, Lane> mLanes = new HashMap<>();
+        private long mSequence;
+        private int mRunningLanes;
+        private boolean mAnyStopped;
+        /** The first Intent that returned PAUSE this run, if any. */
+        private Intent mPausedBy;
+        /** True once something paused to wait for a network connection. */
+        private boolean mConnectionLost;
+
+        @Override
+        public void run() {
+            onQueueLoad();
+            onQueueStart();
+            mMetrics.recordRunStarted();
+            cancelScheduledRetry();
+            sampleBacklog();
+
+            ExecutorService workers = Executors.newFixedThreadPool(getMaxWorkers(), new ThreadFactory() {
+                private int mCount = 0;
+
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    return new Thread(r, "QueueService Worker " + (++mCount));
+                }
+            });
+
+            // The queue itself might be a database, so nothing here talks to
+            // it while holding the lane lock.  The workers need that lock
+            // every time they finish something.
+            boolean wedged = false;
+
+            while(true) {
+                boolean room;
+                synchronized(mLaneLock) {
+                    room = !mConnectionLost && mInLanes < MAX_IN_LANES;
+                    mQueueChanged = false;
+                }
+
+                // Top up the lanes from the queue, one at a time.
+                if(room) {
+                    QueuedIntent qi = takeNextIntentFromQueue();
+
+                    if(qi != null) {
+                        boolean dispatched;
+                        synchronized(mLaneLock) {
+                            dispatched = dispatch(workers, qi);
+                        }
+
+                        // If its key was stopped, it's never coming back.
+                        if(!dispatched)
+                            onQueuedIntentsDone(Collections.singletonList(qi));
+                        continue;
+                    }
+                }
+
+                // Either the lanes are full, or the queue didn't hand anything
+                // over.  If it's the latter, it might still SAY there's
+                // something in there (if it threw something out on its own,
+                // say), so ask.
+                int queued = room ? getQueueCount() : 0;
+
+                synchronized(mLaneLock) {
+                    if(mRunningLanes == 0) {
+                        // Nothing's going.  If there's no room, everything in
+                        // the lanes is held up, and that's the end of this run.
+                        // Same if the queue's empty.
+                        if(queued <= 0) break;
+
+                        // If something just came in, try again.  Otherwise,
+                        // the queue's got something it won't give us, and
+                        // waiting won't change that.  Pause and leave it for
+                        // later rather than spinning forever.
+                        if(mQueueChanged) continue;
+
+                        Log.e(DEBUG_TAG, "The queue says it has " + queued + " Intent(s), but isn't giving any up!  Pausing...");
+                        wedged = true;
+                        break;
+                    }
+
+                    if(mQueueChanged) continue;
+
+                    try {
+                        // Workers and new Intents both notify us, but the
+                        // timeout covers anything else that sneaks into the
+                        // queue.
+                        mLaneLock.wait(1000);
+                    } catch(InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+
+            workers.shutdown();
+
+            // Now, everything still in a lane is behind a PAUSE.
+            List<LaneEntry> leftovers = new ArrayList<>();
+            synchronized(mLaneLock) {
+                for(Lane lane : mLanes.values()) {
+                    leftovers.addAll(lane.entries);
+                }
+                mLanes.clear();
+            }
+
+            if(!leftovers.isEmpty() || wedged) {
+                Collections.sort(leftovers, new Comparator<LaneEntry>() {
+                    @Override
+                    public int compare(LaneEntry a, LaneEntry b) {
+                        return Long.compare(a.sequence, b.sequence);
+                    }
+                });
+
+                // Anything still in the queue came in AFTER the leftovers, so
+                // they go back in front of it, where they came from.
+                if(!leftovers.isEmpty()) {
+                    List<QueuedIntent> requeue = new ArrayList<>(leftovers.size());
+                    for(LaneEntry entry : leftovers) requeue.add(entry.queued);
+                    requeueIntents(requeue);
+                }
+                mInLanes = 0;
+
+                // The first leftover is what'll be at the front of the queue,
+                // which is what COMMAND_RESUME_SKIP_FIRST will skip, so that's
+                // the one to report.  The retry goes by whichever Intent
+                // actually paused things first, since that's the one that
+                // knows why.
+                Intent first = leftovers.isEmpty() ? null : leftovers.get(0).intent;
+                Log.d(DEBUG_TAG, "At least one key paused, pausing with " + leftovers.size() + " Intent(s) held back.");
+                onQueuePause(first);
+                onQueueUnload();
+                sampleBacklog();
+                scheduleRetry(mPausedBy != null ? mPausedBy : first);
+                stopSelf();
+                return;
+            }
+
+            mInLanes = 0;
+            Log.d(DEBUG_TAG, "Parallel processing complete.");
+            onQueueEmpty(!mAnyStopped);
+            sampleBacklog();
             stopSelf();
         }
+
+        /**
+         * Call with mLaneLock held.  Returns false if the Intent got thrown
+         * out instead of going in a lane.
+         */
+        private boolean dispatch(@NonNull ExecutorService workers, @NonNull QueuedIntent qi) {
+            String key = getOrderingKey(qi.intent);
+            if(key == null) key = "";
+
+            Lane lane = mLanes.get(key);
+            if(lane == null) {
+                lane = new Lane();
+                mLanes.put(key, lane);
+            }
+
+            if(lane.halted == ReturnCode.STOP) {
+                Log.d(DEBUG_TAG, "Key " + key + " was stopped, throwing out another Intent for it.");
+                mMetrics.recordAbandoned(1);
+                return false;
+            }
+
+            lane.entries.add(new LaneEntry(mSequence++, qi));
+            mInLanes++;
+
+            if(lane.halted == null && !lane.running) {
+                lane.running = true;
+                mRunningLanes++;
+                workers.execute(new LaneWorker(key, lane));
+            }
+
+            return true;
+        }
+
+        private class LaneWorker implements Runnable {
+            private final String mKey;
+            private final Lane mLane;
+
+            LaneWorker(@NonNull String key, @NonNull Lane lane) {
+                mKey = key;
+                mLane = lane;
+            }
+
+            @Override
+            public void run() {
+                int maxBatch = getMaxBatchSize();
+
+                // How many Intents still have to go one at a time because a
+                // batch didn't get to them.
+                int singles = 0;
+
+                while(true) {
+                    LaneEntry entry;
+                    List<Intent> batch = null;
+                    synchronized(mLaneLock) {
+                        entry = mLane.entries.peek();
+                        if(entry == null) {
+                            finish();
+                            return;
+                        }
+
+                        // If another lane found out there's no connection,
+                        // this one won't do any better.  Hold everything
+                        // here without trying it.
+                        if(mConnectionLost) {
+                            Log.d(DEBUG_TAG, "No connection, holding key " + mKey + " with " + mLane.entries.size() + " Intent(s).");
+                            mLane.halted = ReturnCode.PAUSE;
+                            finish();
+                            return;
+                        }
+
+                        if(singles <= 0 && maxBatch > 1 && mLane.entries.size() > 1) {
+                            batch = new ArrayList<>(Math.min(maxBatch, mLane.entries.size()));
+                            for(LaneEntry e : mLane.entries) {
+                                if(batch.size() >= maxBatch) break;
+                                batch.add(e.intent);
+                            }
+                        }
+                    }
+
+                    if(batch != null) {
+                        Log.d(DEBUG_TAG, "Processing a batch of " + batch.size() + " for key " + mKey + "...");
+                        long start = System.nanoTime();
+                        int handled = Math.max(0, Math.min(handleIntents(batch), batch.size()));
+                        long latency = millisSince(start);
+                        Log.d(DEBUG_TAG, "Batch for key " + mKey + " handled " + handled + " of " + batch.size() + ".");
+
+                        // Anything the batch didn't get to goes one at a time.
+                        // That includes whatever made the batch bail out, so
+                        // it gets to report what happened the normal way.
+                        singles = batch.size() - handled;
+
+                        if(handled > 0) {
+                            List<QueuedIntent> done = new ArrayList<>(handled);
+                            synchronized(mLaneLock) {
+                                for(int n = 0; n < handled; n++) {
+                                    done.add(mLane.entries.poll().queued);
+                                    mMetrics.recordProcessed(latency / handled);
+                                }
+                                mInLanes -= handled;
+                                mLaneLock.notifyAll();
+                            }
+
+                            onQueuedIntentsDone(done);
+                            resetRetryAttempts();
+                            for(int n = 0; n < handled; n++)
+                                onQueueItemProcessed();
+                        }
+
+                        continue;
+                    }
+
+                    if(singles > 0) singles--;
+
+                    Log.d(DEBUG_TAG, "Processing intent for key " + mKey + "...");
+                    long start = System.nanoTime();
+                    ReturnCode r = handleIntent(entry.intent);
+                    long latency = millisSince(start);
+                    Log.d(DEBUG_TAG, "Intent for key " + mKey + " processed, return code is " + r);
+
+                    boolean waitForConnection = r == ReturnCode.PAUSE
+                            && getRetryMode(entry.intent) == RetryMode.WHEN_CONNECTED;
+
+                    List<QueuedIntent> stopped = null;
+
+                    synchronized(mLaneLock) {
+                        if(r == ReturnCode.CONTINUE) {
+                            mLane.entries.poll();
+                            mInLanes--;
+                            mMetrics.recordProcessed(latency);
+                        } else {
+                            // PAUSE or STOP, this lane's done for this run.
+                            // Either way, nothing in it is runnable anymore.
+                            mLane.halted = r;
+
+                            if(r == ReturnCode.STOP) {
+                                Log.d(DEBUG_TAG, "Return said to stop key " + mKey + ", abandoning " + mLane.entries.size() + " Intent(s).");
+                                mMetrics.recordStopped(latency, mLane.entries.size());
+                                mInLanes -= mLane.entries.size();
+                                stopped = new ArrayList<>(mLane.entries.size());
+                                for(LaneEntry e : mLane.entries) stopped.add(e.queued);
+                                mLane.entries.clear();
+                                mAnyStopped = true;
+                            } else {
+                                Log.d(DEBUG_TAG, "Return said to pause key " + mKey + ".");
+                                mMetrics.recordPaused(latency, getPauseReason(entry.intent));
+                                if(mPausedBy == null) mPausedBy = entry.intent;
+                                if(waitForConnection) mConnectionLost = true;
+                                finish();
+                                return;
+                            }
+                        }
+
+                        mLaneLock.notifyAll();
+                    }
+
+                    if(stopped != null) {
+                        // Those are gone for good.  This lane stays "running"
+                        // until the queue's been told, so the run can't wrap
+                        // up underneath it.
+                        onQueuedIntentsDone(stopped);
+                        synchronized(mLaneLock) {
+                            finish();
+                        }
+                        return;
+                    }
+
+                    onQueuedIntentsDone(Collections.singletonList(entry.queued));
+                    resetRetryAttempts();
+                    onQueueItemProcessed();
+                }
+            }
+
+            /** Call with mLaneLock held. */
+            private void finish() {
+                mLane.running = false;
+                mRunningLanes--;
+                mLaneLock.notifyAll();
+            }
+        }
     }
 
     private void dispatchQueueCountIntent() {
         if(queueCountBroadcastsAllowed()) {
             Intent broadcast = new Intent(ACTION_QUEUE_COUNT);
-            broadcast.putExtra(EXTRA_QUEUE_COUNT, getQueueCount());
+            // In parallel mode, some of what's left is in the lanes, not the
+            // queue proper.
+            broadcast.putExtra(EXTRA_QUEUE_COUNT, getQueueCount() + mInLanes);
             broadcast.putExtra(EXTRA_QUEUE_NAME, getQueueName());
             Log.d(DEBUG_TAG, "Dispatching queue count...");
             sendBroadcast(broadcast);
@@ -338,6 +1049,68 @@ public abstract class QueueService extends Service {
     @Nullable
     protected abstract Intent peekNextIntentFromQueue();
 
+    /**
+     * <p>
+     * Takes the next Intent off the front of the queue (that is, a peek and
+     * a remove at once), along with whatever the queue needs to know to put
+     * it back exactly where it was with {@link #requeueIntents(List)}.  This
+     * is how the queue gets worked in parallel mode (see
+     * {@link #getMaxWorkers()}).
+     * </p>
+     *
+     * <p>
+     * The default just peeks and removes, so the QueuedIntent doesn't know
+     * where it came from.  Anything with storage should override this.
+     * </p>
+     *
+     * @return the next Intent, or null if there isn't anything to take
+     */
+    @Nullable
+    protected QueuedIntent takeNextIntentFromQueue() {
+        Intent i = peekNextIntentFromQueue();
+        if(i == null) return null;
+
+        removeNextIntentFromQueue();
+        return new QueuedIntent(-1, i);
+    }
+
+    /**
+     * Puts Intents that came from {@link #takeNextIntentFromQueue()} back
+     * into the queue, AHEAD of everything still in it, in the order given.
+     * They should go back just as they were, original queue time and all, as
+     * if they'd never been taken out.  This gets called in parallel mode when
+     * the queue pauses with Intents held back in their lanes, right before
+     * {@link #onQueueUnload()}.
+     *
+     * @param intents the Intents to put back, in queue order
+     */
+    protected abstract void requeueIntents(@NonNull List<QueuedIntent> intents);
+
+    /**
+     * <p>
+     * Called in parallel mode (see {@link #getMaxWorkers()}) once Intents that
+     * came from {@link #takeNextIntentFromQueue()} are finished for good, be
+     * it by {@link ReturnCode#CONTINUE}, by {@link #handleIntents(List)}, or
+     * by getting thrown out after a {@link ReturnCode#STOP}.  Anything that
+     * doesn't show up here either comes back through
+     * {@link #requeueIntents(List)} or was still being worked on when the
+     * process went away.
+     * </p>
+     *
+     * <p>
+     * The default does nothing, as by default, taking an Intent removes it
+     * right away.  Storage that keeps taken Intents around until they're
+     * done (see {@link AbnormallyDurableSQLiteQueueService}) should get rid of
+     * them here.  This gets called from worker threads, so synchronize as
+     * needed.
+     * </p>
+     *
+     * @param intents the Intents that are done, in the order they finished
+     */
+    protected void onQueuedIntentsDone(@NonNull List<QueuedIntent> intents) {
+        // Nothing to do by default.
+    }
+
     /**
      * Returns the number of Intents left in the queue.  You may want to
      * synchronize this against the instance of the service.  Try not to make
@@ -348,6 +1121,98 @@ public abstract class QueueService extends Service {
      */
     protected abstract int getQueueCount();
 
+    /**
+     * Returns roughly how many bytes the queue is taking up, for the
+     * {@link QueueMetrics}.  The default says it doesn't know.
+     *
+     * @return the size of the queue in bytes, or -1 if unknown
+     */
+    protected long getQueueBytes() {
+        return -1;
+    }
+
+    /**
+     * Returns when the oldest Intent in the queue was queued, for the
+     * {@link QueueMetrics}.  The default says it doesn't know.
+     *
+     * @return the oldest queue time, or -1 if unknown or the queue is empty
+     */
+    protected long getOldestQueuedTime() {
+        return -1;
+    }
+
+    /**
+     * Gets the metrics for this queue.  These are the same ones
+     * {@link QueueMetrics#forQueue(String)} would return.
+     *
+     * @return the metrics
+     */
+    @NonNull
+    protected QueueMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * <p>
+     * Decides how the queue should resume after the given Intent caused a
+     * {@link ReturnCode#PAUSE}.  The default is {@link RetryMode#MANUAL},
+     * which means somebody else has to send a {@link #COMMAND_RESUME}, same as
+     * always.  Override this to have the queue schedule its own resume for
+     * problems that go away on their own.  {@link #EXTRA_PAUSE_REASON} is a
+     * good thing to look at here.
+     * </p>
+     *
+     * <p>
+     * Any retry that's been scheduled gets canceled when the queue starts
+     * again for any reason.
+     * </p>
+     *
+     * @param i the Intent that caused the pause
+     * @return how to resume
+     */
+    @NonNull
+    protected RetryMode getRetryMode(@NonNull Intent i) {
+        return RetryMode.MANUAL;
+    }
+
+    /**
+     * Gets the backoff used for {@link RetryMode#BACKOFF}.  By default, that
+     * starts at 30 seconds and tops out at 30 minutes.
+     *
+     * @return the backoff
+     */
+    @NonNull
+    protected RetryBackoff getRetryBackoff() {
+        return DEFAULT_BACKOFF;
+    }
+
+    /**
+     * Gets how many {@link RetryMode#BACKOFF} retries in a row the queue will
+     * schedule before it gives up and leaves it to someone else.  Anything
+     * getting through resets the count.
+     *
+     * @return the most retries in a row
+     */
+    protected int getMaxRetries() {
+        return 10;
+    }
+
+    /**
+     * Whether {@link RetryMode#BACKOFF} retries should also wait for a network
+     * connection.  If the queue can't do anything without one, there's no
+     * sense waking up without one.  The default is false.
+     *
+     * @return true to wait for a network connection, too
+     */
+    protected boolean retryRequiresNetwork() {
+        return false;
+    }
+
+    @Nullable
+    private static String getPauseReason(@Nullable Intent i) {
+        return i == null ? null : i.getStringExtra(EXTRA_PAUSE_REASON);
+    }
+
     /**
      * Clears everything out of the queue.  The queue must be empty after this,
      * and any storage used must be cleared out, too.
@@ -384,6 +1249,84 @@ public abstract class QueueService extends Service {
         return true;
     }
 
+    /**
+     * <p>
+     * Returns how many Intents may be handled at once.  The default is 1,
+     * meaning everything is handled in order on one thread, exactly as it
+     * always has been.  Return more than that to handle Intents with different
+     * {@link #getOrderingKey(Intent)} keys in parallel, in which case
+     * {@link #handleIntent(Intent)} and {@link #onQueueItemProcessed()} had
+     * better be thread-safe.
+     * </p>
+     *
+     * <p>
+     * In parallel mode, the {@link ReturnCode}s apply per key: a PAUSE holds
+     * up that key (and pauses the queue once everything else is done), and a
+     * STOP abandons that key for the rest of the run.  See
+     * {@link #onQueueEmpty(boolean)} for how a STOP gets reported.
+     * </p>
+     *
+     * @return the most Intents to handle at once
+     */
+    protected int getMaxWorkers() {
+        return 1;
+    }
+
+    /**
+     * Returns the ordering key for an Intent, used if {@link #getMaxWorkers()}
+     * is more than 1.  Intents with the same key are handled in the order they
+     * were queued; Intents with different keys may be handled in any order,
+     * at the same time.  A null key is treated like any other key; that is,
+     * all null-keyed Intents are handled in order.  The default returns null,
+     * which puts everything in order anyway.
+     *
+     * @param i the Intent in question
+     * @return a key, or null
+     */
+    @Nullable
+    protected String getOrderingKey(@NonNull Intent i) {
+        return null;
+    }
+
+    /**
+     * Returns how many Intents with the same {@link #getOrderingKey(Intent)}
+     * key may be handed to {@link #handleIntents(List)} at once.  The default
+     * is 1, meaning no batching at all.  Note that batching only happens when
+     * there's already more than one Intent waiting for a key; nothing gets
+     * held back waiting for a batch to fill up.
+     *
+     * @return the most Intents to batch together
+     */
+    protected int getMaxBatchSize() {
+        return 1;
+    }
+
+    /**
+     * <p>
+     * Handles a batch of Intents that all have the same ordering key, in
+     * queue order, if {@link #getMaxBatchSize()} says batching is allowed.
+     * This is for when doing several Intents at once is a lot cheaper than
+     * doing them one at a time.  Like {@link #handleIntent(Intent)}, this
+     * won't be called on the main thread, and it'll need to be thread-safe
+     * if {@link #getMaxWorkers()} is more than 1.
+     * </p>
+     *
+     * <p>
+     * Return how many Intents from the front of the batch were finished, as
+     * if {@link #handleIntent(Intent)} had returned {@link ReturnCode#CONTINUE}
+     * for each of them.  Whatever's left gets handed to
+     * {@link #handleIntent(Intent)} one at a time, so if anything goes wrong,
+     * the easiest thing to do is return 0 and let that deal with it.  The
+     * default does exactly that.
+     * </p>
+     *
+     * @param batch the Intents to handle, at least two of them
+     * @return how many of them, from the front, were finished
+     */
+    protected int handleIntents(@NonNull List<Intent> batch) {
+        return 0;
+    }
+
     /**
      * Subclasses get this called every time something from the queue comes in
      * to be processed.  This will not be called on the main thread.  There will
@@ -457,6 +1400,12 @@ public abstract class QueueService extends Service {
      * was received or {@link #COMMAND_ABORT} was sent.  The queue will be
      * emptied AFTER this method returns.
      * </p>
+     *
+     * <p>
+     * In parallel mode (see {@link #getMaxWorkers()}), a STOP only abandons
+     * the key that returned it, so this gets false if any key was stopped,
+     * but everything else will have been processed by then.
+     * </p>
      * 
      * <p>
      * This would be another good place to release that {@link #onQueueStart()}
@@ -0,0 +1,87 @@
+/*
+ * RetryBackoff.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.tools;
+
+import androidx.annotation.NonNull;
+
+import java.util.Random;
+
+/**
+ * <p>
+ * <code>RetryBackoff</code> works out how long to wait before trying something
+ * again.  Each attempt waits twice as long as the last, up to a maximum, with
+ * some jitter thrown in so a bunch of things that failed at the same time
+ * don't all come back at the same time, too.
+ * </p>
+ *
+ * <p>
+ * The jitter is the "equal jitter" sort: half the delay is fixed, the other
+ * half is random.  That way, the delay never drops to nearly nothing the way
+ * it can with fully random jitter, but it still spreads things out.
+ * </p>
+ *
+ * @author Nicholas Killewald
+ */
+public final class RetryBackoff {
+    private final long mBase;
+    private final long mMax;
+
+    /**
+     * Makes a new backoff.
+     *
+     * @param base the longest delay for the first attempt, in ms
+     * @param max the longest delay for any attempt, in ms (not counting hints)
+     */
+    public RetryBackoff(long base, long max) {
+        if(base <= 0 || max < base)
+            throw new IllegalArgumentException("The base has to be positive and no more than the max!");
+
+        mBase = base;
+        mMax = max;
+    }
+
+    /**
+     * Gets the ceiling for an attempt; that is, the base doubled once per
+     * attempt, up to the max.  The actual delay will be somewhere between
+     * half this and all of it.
+     *
+     * @param attempt which attempt this is, starting at 0
+     * @return the ceiling, in ms
+     */
+    public long getCeiling(int attempt) {
+        long toReturn = mBase;
+
+        // Doubling until we hit the max also keeps this from overflowing, no
+        // matter how many attempts there have been.
+        for(int i = 0; i < attempt && toReturn < mMax; i++)
+            toReturn *= 2;
+
+        return Math.min(toReturn, mMax);
+    }
+
+    /**
+     * Gets how long to wait before the given attempt.  If whatever failed
+     * said how long to wait (like an HTTP Retry-After header), that's taken as
+     * a minimum, even if it's longer than the max.  They'd know better than
+     * we would.
+     *
+     * @param attempt which attempt this is, starting at 0
+     * @param hint how long we were told to wait, in ms, or 0 or less if we
+     *             weren't told
+     * @param random where the jitter comes from
+     * @return how long to wait, in ms
+     */
+    public long getDelay(int attempt, long hint, @NonNull Random random) {
+        long ceiling = getCeiling(attempt);
+        long half = ceiling / 2;
+        long toReturn = half + (long)(random.nextDouble() * (ceiling - half));
+
+        return Math.max(toReturn, hint);
+    }
+}
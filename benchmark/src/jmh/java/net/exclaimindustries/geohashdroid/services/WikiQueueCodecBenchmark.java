@@ -0,0 +1,91 @@
+/*
+ * WikiQueueCodecBenchmark.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.services;
+
+import android.content.Intent;
+import android.location.Location;
+import android.net.Uri;
+
+import net.exclaimindustries.geohashdroid.util.Graticule;
+import net.exclaimindustries.geohashdroid.util.Info;
+import net.exclaimindustries.geohashdroid.wiki.WikiImageUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * Benchmarks {@link WikiQueueCodec}'s binary format against the old JSON
+ * format, both ways, for a text-only post and a post with a (spooled) image.
+ * The gc profiler covers allocations.
+ */
+@State(Scope.Thread)
+public class WikiQueueCodecBenchmark {
+    private static final String IMAGE_REF = "3a7bd3e2360a3d29eea436fcfb7e44c735d117c42d1c1835420b6b9942dd4f1b";
+
+    @Param({"text", "image"})
+    public String kind;
+
+    private Intent mIntent;
+    private String mImageRef;
+    private byte[] mBinary;
+    private String mJson;
+
+    @Setup
+    public void setup() throws IOException {
+        Calendar cal = new GregorianCalendar(2026, Calendar.MAY, 26, 14, 30);
+        Graticule g = new Graticule(37, false, 122, true);
+
+        Location loc = new Location("");
+        loc.setLatitude(37.421542);
+        loc.setLongitude(-122.085589);
+
+        mIntent = new Intent()
+                .putExtra(WikiService.EXTRA_INFO, new Info(37.4226711, -122.0849872, g, cal))
+                .putExtra(WikiService.EXTRA_LOCATION, loc)
+                .putExtra(WikiService.EXTRA_TIMESTAMP, cal)
+                .putExtra(WikiService.EXTRA_MESSAGE, "Made it to the point!  There was a goose.  It was not pleased to see me.");
+
+        if(kind.equals("image")) {
+            Uri uri = Uri.parse("content://media/external/images/media/12345");
+            mIntent.putExtra(WikiService.EXTRA_IMAGE, uri)
+                    .putExtra(WikiService.EXTRA_IMAGE_INFO, new WikiImageUtils.ImageInfo(uri, loc, cal.getTimeInMillis()));
+            mImageRef = IMAGE_REF;
+        }
+
+        mBinary = WikiQueueCodec.encode(mIntent, mImageRef);
+        mJson = WikiQueueCodec.encodeJson(mIntent, mImageRef);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() throws IOException {
+        return WikiQueueCodec.encode(mIntent, mImageRef);
+    }
+
+    @Benchmark
+    public Intent decodeBinary() throws IOException {
+        return WikiQueueCodec.decode(mBinary);
+    }
+
+    @Benchmark
+    public String encodeJson() {
+        return WikiQueueCodec.encodeJson(mIntent, mImageRef);
+    }
+
+    @Benchmark
+    public Intent decodeJson() {
+        return WikiQueueCodec.decodeJson(mJson);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * GraticuleBenchmark.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks {@link Graticule#createOffsetFrom(Graticule, int, int)}.  The
+ * nearby-point code does this eight times per lookup, so this runs the whole
+ * 3x3 neighborhood each time.  The second case sits right on the equator and
+ * Prime Meridian, which is where all the negative-zero hackery kicks in.
+ */
+@State(Scope.Thread)
+public class GraticuleBenchmark {
+    private Graticule mNormal;
+    private Graticule mNegativeZero;
+
+    @Setup
+    public void setup() {
+        mNormal = new Graticule(37, false, 122, true);
+        mNegativeZero = new Graticule(0, true, 0, true);
+    }
+
+    @Benchmark
+    public void neighborhood(Blackhole bh) {
+        offsetAll(mNormal, bh);
+    }
+
+    @Benchmark
+    public void neighborhoodNegativeZero(Blackhole bh) {
+        offsetAll(mNegativeZero, bh);
+    }
+
+    private static void offsetAll(Graticule g, Blackhole bh) {
+        for(int i = -1; i <= 1; i++) {
+            for(int j = -1; j <= 1; j++) {
+                bh.consume(Graticule.createOffsetFrom(g, i, j));
+            }
+        }
+    }
+}
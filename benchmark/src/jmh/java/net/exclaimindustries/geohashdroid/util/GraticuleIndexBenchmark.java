@@ -0,0 +1,143 @@
+/*
+ * GraticuleIndexBenchmark.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import android.location.Location;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * <p>
+ * Benchmarks the KnownLocation alarm check: going through every location and
+ * measuring it against all nine hashpoints around it (what getClosestInfo
+ * does, minus the cache lookups), versus building a {@link GraticuleIndex}
+ * and asking each hashpoint who's in range (what KnownLocationMatcher does).
+ * The index gets built every time, since that's part of the alarm's cost.
+ * </p>
+ *
+ * <p>
+ * KnownLocation itself needs Google Play services for its LatLng, which isn't
+ * around here, so the locations are just coordinates and ranges.  They're
+ * clustered around a few cities, same as people's real ones tend to be.
+ * </p>
+ */
+@State(Scope.Thread)
+public class GraticuleIndexBenchmark {
+    private static final double LAT_HASH = 0.371;
+    private static final double LON_HASH = 0.854;
+
+    private static final double[][] CITIES = {
+            {37.4, -122.1},
+            {51.5, -0.1},
+            {-33.9, 151.2},
+            {40.7, -74.0},
+            {52.5, 13.4}
+    };
+
+    @Param({"20", "200", "2000"})
+    public int locations;
+
+    private double[] mLats;
+    private double[] mLons;
+    private double[] mRanges;
+    private double mMaxRange;
+    private double[][] mHashpoints;
+
+    @Setup
+    public void setup() {
+        // A fixed seed, so every run's measuring the same thing.
+        Random random = new Random(426);
+        mLats = new double[locations];
+        mLons = new double[locations];
+        mRanges = new double[locations];
+        Set<Graticule> graticules = new LinkedHashSet<>();
+
+        for(int i = 0; i < locations; i++) {
+            double[] city = CITIES[i % CITIES.length];
+            mLats[i] = city[0] + random.nextGaussian() * 0.3;
+            mLons[i] = city[1] + random.nextGaussian() * 0.3;
+            mRanges[i] = 1000 + random.nextDouble() * 20000;
+            mMaxRange = Math.max(mMaxRange, mRanges[i]);
+
+            Graticule base = new Graticule(mLats[i], mLons[i]);
+            for(int j = -1; j <= 1; j++)
+                for(int k = -1; k <= 1; k++)
+                    graticules.add(Graticule.createOffsetFrom(base, j, k));
+        }
+
+        mHashpoints = new double[graticules.size()][];
+        int i = 0;
+        for(Graticule g : graticules)
+            mHashpoints[i++] = makeHashpoint(g);
+    }
+
+    private static double[] makeHashpoint(Graticule g) {
+        return new double[] {
+                (g.isSouth() ? -1 : 1) * (g.getLatitude() + LAT_HASH),
+                (g.isWest() ? -1 : 1) * (g.getLongitude() + LON_HASH)
+        };
+    }
+
+    @Benchmark
+    public int everyLocation() {
+        float[] dist = new float[1];
+        int matched = 0;
+
+        for(int i = 0; i < locations; i++) {
+            Graticule base = new Graticule(mLats[i], mLons[i]);
+            float best = Float.MAX_VALUE;
+
+            for(int j = -1; j <= 1; j++) {
+                for(int k = -1; k <= 1; k++) {
+                    double[] point = makeHashpoint(Graticule.createOffsetFrom(base, j, k));
+                    Location.distanceBetween(mLats[i], mLons[i], point[0], point[1], dist);
+                    best = Math.min(best, dist[0]);
+                }
+            }
+
+            if(best <= mRanges[i]) matched++;
+        }
+
+        return matched;
+    }
+
+    @Benchmark
+    public int index() {
+        GraticuleIndex<Integer> index = new GraticuleIndex<>();
+        for(int i = 0; i < locations; i++)
+            index.add(i, mLats[i], mLons[i]);
+
+        final boolean[] found = new boolean[locations];
+        GraticuleIndex.Visitor<Integer> visitor = new GraticuleIndex.Visitor<Integer>() {
+            @Override
+            public void visit(Integer item, float distance) {
+                if(distance <= mRanges[item]) found[item] = true;
+            }
+        };
+
+        for(double[] point : mHashpoints)
+            index.findWithin(point[0], point[1], mMaxRange, visitor);
+
+        int matched = 0;
+        for(boolean f : found)
+            if(f) matched++;
+
+        return matched;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * HashBuilderBenchmark.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import net.exclaimindustries.tools.HexFraction;
+import net.exclaimindustries.tools.MD5Tools;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+
+/**
+ * Benchmarks the hash-to-coordinate path in {@link HashBuilder}.  That is,
+ * everything that happens once we have a stock value: the hash itself, then
+ * turning that into an Info.  The old String-based path is kept here as a
+ * baseline so there's something to compare {@link HashEngine} against.
+ */
+@State(Scope.Thread)
+public class HashBuilderBenchmark {
+    private static final String STOCK = "10458.68";
+
+    private Calendar mCal;
+    private Graticule mGraticule;
+    private final double[] mOut = new double[2];
+
+    @Setup
+    public void setup() {
+        mCal = new GregorianCalendar(2005, Calendar.MAY, 26);
+        mGraticule = new Graticule(37, false, 122, true);
+    }
+
+    @Benchmark
+    public void legacyStringPath(Blackhole bh) {
+        String hash = MD5Tools.MD5hash(String.format(Locale.US,
+                "%4d-%02d-%02d-%s",
+                mCal.get(Calendar.YEAR),
+                mCal.get(Calendar.MONTH) + 1,
+                mCal.get(Calendar.DAY_OF_MONTH),
+                STOCK));
+        bh.consume(HexFraction.calculate(hash.substring(0, 16)));
+        bh.consume(HexFraction.calculate(hash.substring(16, 32)));
+    }
+
+    @Benchmark
+    public void hashEngine(Blackhole bh) {
+        HashEngine.calculate(mCal, STOCK, mOut);
+        bh.consume(mOut[0]);
+        bh.consume(mOut[1]);
+    }
+
+    @Benchmark
+    public Info createInfo() {
+        return HashBuilder.createInfo(mCal, STOCK, mGraticule);
+    }
+
+    @Benchmark
+    public Info createGlobalhashInfo() {
+        return HashBuilder.createInfo(mCal, STOCK, null);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * InfoBenchmark.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * Benchmarks {@link Info#makeAdjustedCalendar(Calendar, Graticule)}.  A
+ * Sunday with a 30W Graticule covers both the 30W adjustment and the weekend
+ * clamp in one go; the non-30W weekday case is the cheapest path.
+ */
+@State(Scope.Thread)
+public class InfoBenchmark {
+    private Calendar mSunday;
+    private Calendar mWednesday;
+    private Graticule m30W;
+    private Graticule mNon30W;
+
+    @Setup
+    public void setup() {
+        mSunday = new GregorianCalendar(2021, Calendar.JULY, 4);
+        mWednesday = new GregorianCalendar(2021, Calendar.JULY, 7);
+        m30W = new Graticule(51, false, 0, true);
+        mNon30W = new Graticule(37, false, 122, true);
+    }
+
+    @Benchmark
+    public Calendar adjusted30WWeekend() {
+        return Info.makeAdjustedCalendar(mSunday, m30W);
+    }
+
+    @Benchmark
+    public Calendar adjustedNon30WWeekday() {
+        return Info.makeAdjustedCalendar(mWednesday, mNon30W);
+    }
+
+    @Benchmark
+    public Calendar adjustedGlobalhash() {
+        return Info.makeAdjustedCalendar(mWednesday, null);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * UnitConverterBenchmark.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the coordinate formatting in {@link UnitConverter}, in all three
+ * unit styles and all three output lengths.  This uses the overloads that take
+ * the units directly, since there's no SharedPreferences on a desktop JVM.
+ */
+@State(Scope.Thread)
+public class UnitConverterBenchmark {
+    @Param({GHDConstants.PREFVAL_COORD_DEGREES, GHDConstants.PREFVAL_COORD_MINUTES, GHDConstants.PREFVAL_COORD_SECONDS})
+    public String units;
+
+    @Param({"0", "1", "2"})
+    public int format;
+
+    public double latitude = 37.857713;
+    public double longitude = -122.544544;
+
+    @Benchmark
+    public String latitudeString() {
+        return UnitConverter.makeLatitudeCoordinateString(units, latitude, false, format);
+    }
+
+    @Benchmark
+    public String longitudeString() {
+        return UnitConverter.makeLongitudeCoordinateString(units, longitude, false, format);
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * InfoboxRendererBenchmark.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.wiki;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextLayout;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * <p>
+ * Benchmarks {@link InfoboxRenderer} against the old way drawInfobox worked
+ * (decode every icon, measure every string, and draw the whole box straight
+ * onto the image, every single time).
+ * </p>
+ *
+ * <p>
+ * android.graphics in android-all is all native code that won't load on a
+ * desktop JVM, so both sides draw with Java2D instead.  That makes the
+ * absolute numbers meaningless for a phone, but the difference between the
+ * two is what we're after.  "same_spot" is a handful of pictures from one
+ * place, so the infobox doesn't change; "moving" changes the current
+ * location (and so the distance) on every picture.
+ * </p>
+ */
+@State(Scope.Thread)
+public class InfoboxRendererBenchmark {
+    private static final int IMAGE_WIDTH = 800;
+    private static final int IMAGE_HEIGHT = 600;
+    private static final int FONT_SIZE = 16;
+
+    // Same as WikiImageUtils used to have.
+    private static final int BOX_PADDING = 8;
+    private static final int ITEM_PADDING = 8;
+
+    // There's no R here, so the "resource IDs" are just indices into this.
+    private static final String[] ICON_FILES = {
+            "final_destination_wiki_image.png",
+            "current_location_wiki_image.png",
+            "distance_wiki_image.png"
+    };
+    private static final int[] ICONS = {0, 1, 2};
+
+    @Param({"same_spot", "moving"})
+    public String scenario;
+
+    private BufferedImage mImage;
+    private InfoboxRenderer<BufferedImage> mRenderer;
+    private Font mFont;
+    private int mCount;
+
+    @Setup
+    public void setup() {
+        mImage = new BufferedImage(IMAGE_WIDTH, IMAGE_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        mFont = new Font(Font.SANS_SERIF, Font.PLAIN, FONT_SIZE);
+        mRenderer = new InfoboxRenderer<>(new Java2DBackend(mFont));
+        mCount = 0;
+    }
+
+    private String[] nextStrings() {
+        // The final destination never changes.  Where the user is (and how
+        // far that is from the destination) might.
+        int step = scenario.equals("moving") ? mCount++ : 0;
+
+        return new String[] {
+                "37\u00B025.3602'N, 122\u00B005.0719'W",
+                String.format("37\u00B025.%04d'N, 122\u00B005.%04d'W", 3000 + step % 1000, 700 + step % 1000),
+                String.format("%.3fm", 12.5 + (step % 1000) / 100.0)
+        };
+    }
+
+    @Benchmark
+    public BufferedImage cachedRenderer() {
+        mRenderer.render(nextStrings(), ICONS, mImage);
+        return mImage;
+    }
+
+    @Benchmark
+    public BufferedImage legacy() throws IOException {
+        String[] strings = nextStrings();
+
+        // Decode the icons fresh, same as the old drawStrings did.
+        BufferedImage[] icons = new BufferedImage[ICONS.length];
+        for(int i = 0; i < ICONS.length; i++)
+            icons[i] = loadIcon(ICONS[i]);
+
+        Graphics2D g = mImage.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setFont(mFont);
+        FontRenderContext frc = g.getFontRenderContext();
+
+        int[] stringHeights = new int[strings.length];
+        int[] iconHeights = new int[strings.length];
+        int totalHeight = BOX_PADDING * 2;
+        int longestWidth = 0;
+
+        for(int i = 0; i < strings.length; i++) {
+            Rectangle2D bounds = mFont.getStringBounds(strings[i], frc);
+            int iconWidth = 0;
+
+            if(i < icons.length) {
+                iconWidth = icons[i].getWidth() + ITEM_PADDING;
+                iconHeights[i] = icons[i].getHeight();
+            }
+
+            stringHeights[i] = (int)Math.ceil(bounds.getHeight());
+            totalHeight += Math.max(stringHeights[i], iconHeights[i]);
+            longestWidth = Math.max(longestWidth, (int)Math.ceil(bounds.getWidth()) + iconWidth);
+        }
+
+        int left = IMAGE_WIDTH - longestWidth - BOX_PADDING * 2;
+        g.setColor(Java2DBackend.BACKGROUND);
+        g.fillRect(left, 0, IMAGE_WIDTH - left, totalHeight);
+
+        g.setColor(Color.WHITE);
+        int curHeight = BOX_PADDING;
+        for(int i = 0; i < strings.length; i++) {
+            int iconOffset = 0;
+            int textOffsetX = 0;
+            int textOffsetY = 0;
+            int heightOffset;
+
+            if(stringHeights[i] > iconHeights[i]) {
+                iconOffset = (stringHeights[i] - iconHeights[i]) / 2;
+                heightOffset = stringHeights[i];
+            } else {
+                textOffsetY = (iconHeights[i] - stringHeights[i]) / 2;
+                heightOffset = iconHeights[i];
+            }
+
+            textOffsetY += stringHeights[i];
+
+            if(i < icons.length) {
+                g.drawImage(icons[i], left + BOX_PADDING, curHeight + iconOffset, null);
+                textOffsetX = icons[i].getWidth() + ITEM_PADDING;
+            }
+
+            g.drawString(strings[i], left + BOX_PADDING + textOffsetX, curHeight + textOffsetY);
+            curHeight += heightOffset;
+        }
+
+        g.dispose();
+        return mImage;
+    }
+
+    private static BufferedImage loadIcon(int id) {
+        try(InputStream in = InfoboxRendererBenchmark.class.getResourceAsStream(ICON_FILES[id])) {
+            if(in == null) return null;
+            return ImageIO.read(in);
+        } catch(IOException ioe) {
+            return null;
+        }
+    }
+
+    /**
+     * The stubbed-out canvas: an {@link InfoboxRenderer.Backend} that draws
+     * on BufferedImages.
+     */
+    private static class Java2DBackend implements InfoboxRenderer.Backend<BufferedImage> {
+        static final Color BACKGROUND = new Color(0, 0, 0, 0x99);
+
+        private final Font mFont;
+        private final FontRenderContext mFrc;
+
+        Java2DBackend(Font font) {
+            mFont = font;
+
+            // A FontRenderContext needs a Graphics to come from.  Any will do.
+            Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            mFrc = g.getFontRenderContext();
+            g.dispose();
+        }
+
+        @Override
+        public BufferedImage loadIcon(int resId) {
+            return InfoboxRendererBenchmark.loadIcon(resId);
+        }
+
+        @Override
+        public int getWidth(BufferedImage bitmap) {
+            return bitmap.getWidth();
+        }
+
+        @Override
+        public int getHeight(BufferedImage bitmap) {
+            return bitmap.getHeight();
+        }
+
+        @Override
+        public void measureText(String text, float[] out) {
+            // TextLayout won't take an empty string.
+            if(text.isEmpty()) {
+                out[0] = out[1] = out[2] = 0;
+                return;
+            }
+
+            // TextLayout does the full shaping, same as drawString will.
+            TextLayout layout = new TextLayout(text, mFont, mFrc);
+            Rectangle2D bounds = layout.getBounds();
+            out[0] = layout.getAdvance();
+            out[1] = (float)bounds.getMinY();
+            out[2] = (float)bounds.getMaxY();
+        }
+
+        @Override
+        public BufferedImage obtainBuffer(BufferedImage old, int width, int height) {
+            // BufferedImages can't be resized, so only exact matches get
+            // reused.  That's the common case anyway.
+            if(old != null && old.getWidth() == width && old.getHeight() == height) {
+                Graphics2D g = old.createGraphics();
+                g.setComposite(AlphaComposite.Clear);
+                g.fillRect(0, 0, width, height);
+                g.dispose();
+                return old;
+            }
+
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        @Override
+        public void drawBackground(BufferedImage buffer) {
+            Graphics2D g = buffer.createGraphics();
+            g.setColor(BACKGROUND);
+            g.fillRect(0, 0, buffer.getWidth(), buffer.getHeight());
+            g.dispose();
+        }
+
+        @Override
+        public void drawIcon(BufferedImage buffer, BufferedImage icon, int x, int y) {
+            Graphics2D g = buffer.createGraphics();
+            g.drawImage(icon, x, y, null);
+            g.dispose();
+        }
+
+        @Override
+        public void drawText(BufferedImage buffer, String text, int x, int y) {
+            Graphics2D g = buffer.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setFont(mFont);
+            g.setColor(Color.WHITE);
+            g.drawString(text, x, y);
+            g.dispose();
+        }
+
+        @Override
+        public void composite(BufferedImage target, BufferedImage buffer, int x, int y) {
+            Graphics2D g = target.createGraphics();
+            g.drawImage(buffer, x, y, null);
+            g.dispose();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * WikiResponseParserBenchmark.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.wiki;
+
+import net.exclaimindustries.tools.DOMUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Benchmarks {@link WikiResponseParser} against the old DOM path (build the
+ * whole Document, then dig through it with {@link DOMUtil}) on recorded wiki
+ * responses.  "busy_page" is the recorded page with its expedition log
+ * padded out to the sort of size a well-attended meetup gets to.  Both sides
+ * pull the same things out of each response, the same way WikiUtils does.
+ */
+@State(Scope.Thread)
+public class WikiResponseParserBenchmark {
+    /** How many extra log entries go into the busy page. */
+    private static final int BUSY_ENTRIES = 400;
+
+    /** The log entry that gets repeated for the busy page. */
+    private static final String BUSY_ENTRY = "*Still here, still a goose.  -- ~~~ "
+            + "[https://openstreetmap.org/?mlat=37.42267110&amp;mlon=-122.08498720&amp;zoom=16 @37.4227,-122.0850] "
+            + "15:20, 26 May 2026 (PDT)\n";
+
+    @Param({"siteinfo", "page", "busy_page", "missing_page", "edit_error"})
+    public String response;
+
+    private byte[] mData;
+    private WikiResponseParser mParser;
+    private String mElement;
+    private boolean mWantsText;
+
+    @Setup
+    public void setup() throws IOException {
+        switch(response) {
+            case "siteinfo":
+                mData = load("siteinfo.xml");
+                mElement = "general";
+                break;
+            case "page":
+            case "missing_page":
+                mData = load(response + ".xml");
+                mElement = "page";
+                mWantsText = true;
+                break;
+            case "busy_page":
+                String page = new String(load("page.xml"), StandardCharsets.UTF_8);
+                StringBuilder entries = new StringBuilder();
+                for(int i = 0; i < BUSY_ENTRIES; i++)
+                    entries.append(BUSY_ENTRY);
+                int at = page.indexOf("\n== Photos ==");
+                mData = (page.substring(0, at) + entries + page.substring(at)).getBytes(StandardCharsets.UTF_8);
+                mElement = "page";
+                mWantsText = true;
+                break;
+            default:
+                // Just the error, like after an edit.
+                mData = load("edit_error.xml");
+                break;
+        }
+
+        mParser = mElement == null ? new WikiResponseParser() : new WikiResponseParser(mElement);
+        if(mWantsText) mParser = mParser.withText("rev");
+    }
+
+    private static byte[] load(String name) throws IOException {
+        try(InputStream in = WikiResponseParserBenchmark.class.getResourceAsStream(name)) {
+            if(in == null) throw new IOException("Couldn't find " + name + "!");
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+            return out.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public Object pullParser() throws Exception {
+        WikiResponseParser.Result result = mParser.parse(new ByteArrayInputStream(mData));
+
+        if(result.hasError()) return result.getErrorCode();
+        if(mWantsText) return result.getText();
+        return result.getAttribute("general", "generator");
+    }
+
+    @Benchmark
+    public Object dom() throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(mData));
+        Element root = doc.getDocumentElement();
+
+        // The error check comes first, same as it used to.
+        NodeList errors = root.getElementsByTagName("error");
+        if(errors.getLength() > 0)
+            return DOMUtil.getSimpleAttributeText((Element)errors.item(0), "code");
+
+        if(mElement == null) return null;
+
+        Element elem = DOMUtil.getFirstElement(root, mElement);
+        if(!mWantsText) return elem.getAttribute("generator");
+
+        // Same as getWikiPage: the token and timestamp, then the text if the
+        // page isn't missing.
+        DOMUtil.getSimpleAttributeText(elem, "edittoken");
+        DOMUtil.getSimpleAttributeText(elem, "touched");
+        if(elem.hasAttribute("missing")) return null;
+        return DOMUtil.getSimpleElementText(DOMUtil.getFirstElement(elem, "rev"));
+    }
+}
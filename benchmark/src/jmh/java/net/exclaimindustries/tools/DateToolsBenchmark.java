@@ -0,0 +1,46 @@
+/*
+ * DateToolsBenchmark.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.tools;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * Benchmarks the date formatting in {@link DateTools}.  These get called for
+ * every cache lookup and log line, so they add up.
+ */
+@State(Scope.Thread)
+public class DateToolsBenchmark {
+    private Calendar mCal;
+
+    @Setup
+    public void setup() {
+        mCal = new GregorianCalendar(2008, Calendar.MAY, 26, 9, 30);
+    }
+
+    @Benchmark
+    public String dateString() {
+        return DateTools.getDateString(mCal);
+    }
+
+    @Benchmark
+    public String hyphenatedDateString() {
+        return DateTools.getHyphenatedDateString(mCal);
+    }
+
+    @Benchmark
+    public String wikiDateString() {
+        return DateTools.getWikiDateString(mCal);
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * HexFractionBenchmark.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.tools;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks {@link HexFraction#calculate(String)}.  The inputs are the two
+ * halves of the hash from the original comic, plus the two extremes.
+ */
+@State(Scope.Thread)
+public class HexFractionBenchmark {
+    @Param({"db9318c2259923d0", "8b672cb305440f97", "0000000000000000", "FFFFFFFFFFFFFFFF"})
+    public String hex;
+
+    @Benchmark
+    public double calculate() {
+        return HexFraction.calculate(hex);
+    }
+}
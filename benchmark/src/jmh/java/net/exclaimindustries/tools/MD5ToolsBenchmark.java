@@ -0,0 +1,26 @@
+/*
+ * MD5ToolsBenchmark.java
+ * Copyright (C) 2026 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.tools;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks {@link MD5Tools#MD5hash(String)} with a typical hash input.
+ */
+@State(Scope.Thread)
+public class MD5ToolsBenchmark {
+    public String input = "2005-05-26-10458.68";
+
+    @Benchmark
+    public String md5hash() {
+        return MD5Tools.MD5hash(input);
+    }
+}